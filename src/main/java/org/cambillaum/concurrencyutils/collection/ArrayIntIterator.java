@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link IntIterator} over a range of a {@code int} array. The array is
+ * expected to be a private snapshot that is not modified while iterating.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+class ArrayIntIterator implements IntIterator {
+
+    private int[] array;
+    private int index;
+    private int end;
+
+    ArrayIntIterator(int[] array, int from, int to) {
+        this.array = array;
+        this.index = from;
+        this.end = to;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.index < this.end;
+    }
+
+    @Override
+    public int nextInt() {
+        if (this.index >= this.end) {
+            throw new NoSuchElementException();
+        }
+        return this.array[this.index++];
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A Set placing a {@link ConcurrentCountingBloomFilter} in front of a
+ * thread-safe Set such as {@link ConcurrentSet} or {@link ReadWriteSet}.
+ * Lookups of elements that are not present are answered by the compact
+ * filter in most cases, without reaching the backing set. It pays off when
+ * most lookups are misses. <p>An element is added to the filter before it is
+ * added to the backing set and removed from it after it is removed from the
+ * backing set, so the filter never answers a definite miss for an element of
+ * the set. All modifications must go through this set. Null elements bypass
+ * the filter and are handled by the backing set.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class BloomFilteredSet<E extends Object> extends AbstractSet<E> {
+
+    private Set<E> set;
+    private ConcurrentCountingBloomFilter<E> filter;
+
+    /**
+     * Creates a new set in front of the given set. The elements already in
+     * the given set are added to the filter.
+     *
+     * @param set the thread-safe backing set.
+     * @param expectedElements the number of elements expected in the set.
+     * @param falsePositiveProbability the probability that a lookup of an
+     * absent element reaches the backing set, once the expected number of
+     * elements is present.
+     */
+    public BloomFilteredSet(Set<E> set, long expectedElements, double falsePositiveProbability) {
+        if (set == null) {
+            throw new IllegalArgumentException("set cannot be null");
+        }
+        this.set = set;
+        this.filter = new ConcurrentCountingBloomFilter<E>(expectedElements, falsePositiveProbability);
+        for (E e : set) {
+            if (e != null) {
+                this.filter.add(e);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.set.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.set.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o != null && !this.filter.mightContain(o)) {
+            return false;
+        }
+        return this.set.contains(o);
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (e == null) {
+            return this.set.add(e);
+        }
+        this.filter.add(e);
+        boolean added = false;
+        try {
+            added = this.set.add(e);
+        } finally {
+            if (!added) {
+                this.filter.remove(e);
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        boolean removed = this.set.remove(o);
+        if (removed && o != null) {
+            this.filter.remove(o);
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        for (E e : this.set) {
+            remove(e);
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<E> iterator = this.set.iterator();
+        return new Iterator<E>() {
+            private E last;
+            private boolean canRemove;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                this.last = iterator.next();
+                this.canRemove = true;
+                return this.last;
+            }
+
+            @Override
+            public void remove() {
+                if (!this.canRemove) {
+                    throw new IllegalStateException();
+                }
+                BloomFilteredSet.this.remove(this.last);
+                this.canRemove = false;
+            }
+        };
+    }
+}
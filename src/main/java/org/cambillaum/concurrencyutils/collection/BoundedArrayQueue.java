@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue backed by an array and updated without locks, the common
+ * base of {@link SpscArrayQueue}, {@link MpscArrayQueue} and {@link
+ * MpmcArrayQueue}. <p>The capacity is rounded up to a power of two. Producers
+ * and consumers advance sequence counters that are padded from each other, so
+ * that producers and consumers running on different cores do not invalidate
+ * each other's cache lines on every operation, and offering an element
+ * allocates nothing. <p>Besides the {@link java.util.Queue} methods, {@link
+ * #drain(Consumer, int)} and {@link #fill(Supplier, int)} move batches of
+ * elements, and {@link #put(Object)} and {@link #take()} wait for room or for
+ * an element with the {@link WaitStrategy} given at construction. Iterators
+ * are weakly consistent and do not support removal. Null elements are not
+ * permitted.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public abstract class BoundedArrayQueue<E extends Object> extends AbstractQueue<E> {
+
+    static final int PADDING = 8;
+    static final int TAIL = PADDING;
+    static final int TAIL_LIMIT = PADDING + 1;
+    static final int HEAD = 3 * PADDING;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final Object SKIPPED = new Object();
+    final int capacity;
+    final int mask;
+    final AtomicReferenceArray<E> buffer;
+    final AtomicLongArray counters = new AtomicLongArray(4 * PADDING);
+    final WaitStrategy waitStrategy;
+
+    BoundedArrayQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > MAXIMUM_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("waitStrategy cannot be null");
+        }
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.buffer = new AtomicReferenceArray<E>(size);
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Receives the elements removed by {@link #drain(Consumer, int)}.
+     */
+    public interface Consumer<E> {
+
+        /**
+         * Handles an element removed from the queue.
+         *
+         * @param e the element.
+         */
+        void accept(E e);
+    }
+
+    /**
+     * Provides the elements added by {@link #fill(Supplier, int)}.
+     */
+    public interface Supplier<E> {
+
+        /**
+         * Returns the next element to add to the queue. It is called once a
+         * slot was reserved for the element, so it should return quickly.
+         *
+         * @return the element to add, which must not be null.
+         */
+        E get();
+    }
+
+    /**
+     * Returns the number of elements the queue can hold.
+     *
+     * @return the capacity of the queue, a power of two.
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of elements the queue can accept without being full.
+     *
+     * @return the remaining capacity of the queue.
+     */
+    public int remainingCapacity() {
+        return this.capacity - size();
+    }
+
+    /**
+     * Returns the number of elements in the queue. Elements being added or
+     * removed concurrently may or may not be counted.
+     *
+     * @return the number of elements in the queue.
+     */
+    @Override
+    public int size() {
+        while (true) {
+            long head = this.counters.get(HEAD);
+            long tail = this.counters.get(TAIL);
+            if (this.counters.get(HEAD) == head) {
+                return (int) Math.max(0, Math.min(tail - head, this.capacity));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.counters.get(HEAD) >= this.counters.get(TAIL);
+    }
+
+    /**
+     * Adds the given element, waiting with the wait strategy of the queue
+     * until there is room for it.
+     *
+     * @param e the element to add.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            this.waitStrategy.idle();
+        }
+    }
+
+    /**
+     * Removes the head of the queue, waiting with the wait strategy of the
+     * queue until an element is available.
+     *
+     * @return the head of the queue.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public E take() throws InterruptedException {
+        while (true) {
+            E e = poll();
+            if (e != null) {
+                return e;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            this.waitStrategy.idle();
+        }
+    }
+
+    /**
+     * Removes all the available elements and hands them to the given
+     * consumer, in order.
+     *
+     * @param consumer the consumer of the elements.
+     * @return the number of elements removed.
+     */
+    public int drain(Consumer<? super E> consumer) {
+        return drain(consumer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes at most the given number of available elements and hands them to
+     * the given consumer, in order. Single-consumer queues advance their head
+     * once per batch instead of once per element.
+     *
+     * @param consumer the consumer of the elements.
+     * @param limit the maximum number of elements to remove.
+     * @return the number of elements removed.
+     */
+    public int drain(Consumer<? super E> consumer, int limit) {
+        validateBatch(consumer, limit);
+        int count = 0;
+        while (count < limit) {
+            E e = poll();
+            if (e == null) {
+                break;
+            }
+            consumer.accept(e);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Adds at most the given number of elements provided by the given
+     * supplier, stopping when the queue is full. The supplier is only called
+     * once room was reserved for the element, so no element is ever rejected.
+     * If the supplier throws an exception, the elements it already provided
+     * stay in the queue.
+     *
+     * @param supplier the supplier of the elements.
+     * @param limit the maximum number of elements to add.
+     * @return the number of elements added.
+     */
+    public abstract int fill(Supplier<? extends E> supplier, int limit);
+
+    /**
+     * Returns an iterator over the elements in the queue when the iterator is
+     * created. Elements removed concurrently may or may not be returned.
+     *
+     * @return a weakly consistent iterator over the elements of the queue.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        long head = this.counters.get(HEAD);
+        long tail = this.counters.get(TAIL);
+        List<E> elements = new ArrayList<E>((int) Math.max(0, Math.min(tail - head, this.capacity)));
+        for (long sequence = Math.max(head, tail - this.capacity); sequence < tail; sequence++) {
+            E e = this.buffer.get(indexOf(sequence));
+            if (e != null && e != SKIPPED) {
+                elements.add(e);
+            }
+        }
+        return Collections.unmodifiableList(elements).iterator();
+    }
+
+    /**
+     * Returns the marker written in a reserved slot whose element could not be
+     * obtained from a {@link Supplier}, so that consumers skip the slot
+     * instead of waiting for it forever.
+     */
+    @SuppressWarnings("unchecked")
+    E skipped() {
+        return (E) SKIPPED;
+    }
+
+    int indexOf(long sequence) {
+        return (int) sequence & this.mask;
+    }
+
+    static void validateElement(Object e) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+    }
+
+    static void validateBatch(Object handler, int limit) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler cannot be null");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit cannot be negative");
+        }
+    }
+}
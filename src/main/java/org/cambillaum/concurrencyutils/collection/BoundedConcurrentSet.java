@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent set holding at most a maximum number of elements, evicting the
+ * elements that are the least likely to be used again when it is full. <p>The
+ * eviction policy is W-TinyLFU: new elements enter a small LRU window, and
+ * leave it for a segmented LRU main space only if their estimated access
+ * frequency is higher than the one of the element they would evict. Recently
+ * added elements are therefore protected from immediate eviction while
+ * elements that are accessed once, like in a scan, do not push frequently
+ * accessed elements out. <p>Lookups are served by a {@link ConcurrentHashMap}
+ * and only record the accessed element in a lossy striped buffer. Additions
+ * and removals are recorded in a write buffer. Both buffers are replayed
+ * against the policy by whichever thread manages to acquire the eviction lock,
+ * so the maintenance is amortized and never blocks lookups. Because of this,
+ * the size can briefly exceed the maximum while updates are in progress.
+ * {@link #cleanUp()} performs the pending maintenance immediately. <p>This
+ * set does not permit null elements.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class BoundedConcurrentSet<E extends Object> extends AbstractSet<E> {
+
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int PADDING = 8;
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+    private ConcurrentHashMap<E, Node<E>> map;
+    private long maximumSize;
+    private long maximumWindowSize;
+    private long maximumProtectedSize;
+    private FrequencySketch sketch;
+    private ReentrantLock evictionLock = new ReentrantLock();
+    private Queue<WriteTask<E>> writeBuffer = new ConcurrentLinkedQueue<WriteTask<E>>();
+    private int readBufferMask;
+    private AtomicReferenceArray<Node<E>> readBuffers;
+    private AtomicLongArray readCounts;
+    private AccessQueue<E> window = new AccessQueue<E>();
+    private AccessQueue<E> probation = new AccessQueue<E>();
+    private AccessQueue<E> protectedQueue = new AccessQueue<E>();
+
+    /**
+     * Creates a new empty set holding at most the given number of elements.
+     *
+     * @param maximumSize the maximum number of elements.
+     */
+    public BoundedConcurrentSet(long maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.maximumWindowSize = Math.max(1L, maximumSize / 100);
+        this.maximumProtectedSize = (maximumSize - this.maximumWindowSize) * 4 / 5;
+        this.map = new ConcurrentHashMap<E, Node<E>>((int) Math.min(maximumSize, 1 << 16));
+        this.sketch = new FrequencySketch(maximumSize);
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        this.readBufferMask = stripes - 1;
+        this.readBuffers = new AtomicReferenceArray<Node<E>>(stripes * READ_BUFFER_SIZE);
+        this.readCounts = new AtomicLongArray(stripes * PADDING);
+    }
+
+    /**
+     * Returns the maximum number of elements of this set.
+     *
+     * @return the maximum number of elements.
+     */
+    public long getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    @Override
+    public int size() {
+        return this.map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.map.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+        Node<E> node = this.map.get(o);
+        if (node == null) {
+            return false;
+        }
+        recordRead(node);
+        return true;
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+        Node<E> node = new Node<E>(e);
+        Node<E> existing = this.map.putIfAbsent(e, node);
+        if (existing != null) {
+            recordRead(existing);
+            return false;
+        }
+        this.writeBuffer.add(new WriteTask<E>(node, true));
+        drainWriteBuffer();
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        Node<E> node = this.map.remove(o);
+        if (node == null) {
+            return false;
+        }
+        this.writeBuffer.add(new WriteTask<E>(node, false));
+        drainWriteBuffer();
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (E e : this.map.keySet()) {
+            remove(e);
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<E> iterator = this.map.keySet().iterator();
+        return new Iterator<E>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                this.last = iterator.next();
+                return this.last;
+            }
+
+            @Override
+            public void remove() {
+                if (this.last == null) {
+                    throw new IllegalStateException();
+                }
+                BoundedConcurrentSet.this.remove(this.last);
+                this.last = null;
+            }
+        };
+    }
+
+    /**
+     * Replays the pending reads and writes against the eviction policy and
+     * evicts elements until the set is within its maximum size.
+     */
+    public void cleanUp() {
+        this.evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            this.evictionLock.unlock();
+        }
+        drainWriteBuffer();
+    }
+
+    private void recordRead(Node<E> node) {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        int stripe = (h ^ (h >>> 16)) & this.readBufferMask;
+        long count = this.readCounts.incrementAndGet(stripe * PADDING);
+        int index = (int) (count & READ_BUFFER_MASK);
+        this.readBuffers.lazySet(stripe * READ_BUFFER_SIZE + index, node);
+        if (index == 0 && this.evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                this.evictionLock.unlock();
+            }
+            drainWriteBuffer();
+        }
+    }
+
+    /**
+     * Runs the maintenance for as long as writes are pending. A write
+     * recorded while another thread holds the eviction lock is picked up by
+     * that thread once it has released the lock.
+     */
+    private void drainWriteBuffer() {
+        while (!this.writeBuffer.isEmpty()) {
+            if (!this.evictionLock.tryLock()) {
+                return;
+            }
+            try {
+                maintenance();
+            } finally {
+                this.evictionLock.unlock();
+            }
+        }
+    }
+
+    private void maintenance() {
+        for (int i = 0; i < this.readBuffers.length(); i++) {
+            Node<E> node = this.readBuffers.get(i);
+            if (node != null) {
+                this.readBuffers.lazySet(i, null);
+                onAccess(node);
+            }
+        }
+        WriteTask<E> task;
+        while ((task = this.writeBuffer.poll()) != null) {
+            if (task.added) {
+                onAdd(task.node);
+            } else {
+                onRemove(task.node);
+            }
+        }
+        evict();
+    }
+
+    private void onAdd(Node<E> node) {
+        if (node.removed) {
+            return;
+        }
+        this.sketch.increment(node.element);
+        node.queue = WINDOW;
+        this.window.linkLast(node);
+    }
+
+    private void onRemove(Node<E> node) {
+        node.removed = true;
+        AccessQueue<E> queue = queueOf(node);
+        if (queue != null) {
+            queue.unlink(node);
+            node.queue = 0;
+        }
+    }
+
+    private void onAccess(Node<E> node) {
+        AccessQueue<E> queue = queueOf(node);
+        if (queue == null) {
+            return;
+        }
+        this.sketch.increment(node.element);
+        if (node.queue == PROBATION) {
+            this.probation.unlink(node);
+            node.queue = PROTECTED;
+            this.protectedQueue.linkLast(node);
+            while (this.protectedQueue.size > this.maximumProtectedSize) {
+                Node<E> demoted = this.protectedQueue.first;
+                this.protectedQueue.unlink(demoted);
+                demoted.queue = PROBATION;
+                this.probation.linkLast(demoted);
+            }
+        } else {
+            queue.moveToLast(node);
+        }
+    }
+
+    private void evict() {
+        while (this.window.size > this.maximumWindowSize) {
+            Node<E> candidate = this.window.first;
+            this.window.unlink(candidate);
+            candidate.queue = PROBATION;
+            this.probation.linkLast(candidate);
+        }
+        while (this.window.size + this.probation.size + this.protectedQueue.size > this.maximumSize) {
+            Node<E> victim = this.probation.first;
+            Node<E> candidate = this.probation.last;
+            if (victim == null) {
+                victim = this.protectedQueue.first != null ? this.protectedQueue.first : this.window.first;
+                evictNode(victim);
+            } else if (victim == candidate) {
+                evictNode(victim);
+            } else if (this.sketch.frequency(candidate.element) > this.sketch.frequency(victim.element)) {
+                evictNode(victim);
+            } else {
+                evictNode(candidate);
+            }
+        }
+    }
+
+    private void evictNode(Node<E> node) {
+        queueOf(node).unlink(node);
+        node.queue = 0;
+        node.removed = true;
+        this.map.remove(node.element, node);
+    }
+
+    private AccessQueue<E> queueOf(Node<E> node) {
+        switch (node.queue) {
+            case WINDOW:
+                return this.window;
+            case PROBATION:
+                return this.probation;
+            case PROTECTED:
+                return this.protectedQueue;
+            default:
+                return null;
+        }
+    }
+
+    private static class Node<E> {
+
+        private E element;
+        private int queue;
+        private boolean removed;
+        private Node<E> previous;
+        private Node<E> next;
+
+        Node(E element) {
+            this.element = element;
+        }
+    }
+
+    private static class WriteTask<E> {
+
+        private Node<E> node;
+        private boolean added;
+
+        WriteTask(Node<E> node, boolean added) {
+            this.node = node;
+            this.added = added;
+        }
+    }
+
+    private static class AccessQueue<E> {
+
+        private Node<E> first;
+        private Node<E> last;
+        private long size;
+
+        void linkLast(Node<E> node) {
+            node.previous = this.last;
+            node.next = null;
+            if (this.last == null) {
+                this.first = node;
+            } else {
+                this.last.next = node;
+            }
+            this.last = node;
+            this.size++;
+        }
+
+        void unlink(Node<E> node) {
+            if (node.previous == null) {
+                this.first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                this.last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            this.size--;
+        }
+
+        void moveToLast(Node<E> node) {
+            if (node != this.last) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+    }
+}
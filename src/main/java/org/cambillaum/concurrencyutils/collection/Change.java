@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+/**
+ * An addition or removal of an element recorded by a {@link ChangeLog}.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class Change<E extends Object> {
+
+    /**
+     * The kind of a change.
+     */
+    public enum Type {
+
+        /**
+         * The element was added.
+         */
+        ADD,
+        /**
+         * The element was removed.
+         */
+        REMOVE
+    }
+    private long sequence;
+    private Type type;
+    private E element;
+    private int index;
+
+    Change(long sequence, Type type, E element, int index) {
+        this.sequence = sequence;
+        this.type = type;
+        this.element = element;
+        this.index = index;
+    }
+
+    /**
+     * Returns the position of this change in the change log.
+     *
+     * @return the sequence number of this change.
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Returns whether the element was added or removed.
+     *
+     * @return the type of this change.
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Returns the element that was added or removed.
+     *
+     * @return the element.
+     */
+    public E getElement() {
+        return this.element;
+    }
+
+    /**
+     * Returns the index at which the element was added to or removed from a
+     * list, -1 for sets.
+     *
+     * @return the index of the element.
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    @Override
+    public String toString() {
+        return this.sequence + ":" + this.type + "(" + this.element + (this.index < 0 ? "" : "@" + this.index) + ")";
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.List;
+
+/**
+ * A batch of consecutive changes read from a {@link ChangeLog}.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ChangeBatch<E extends Object> {
+
+    private List<Change<E>> changes;
+    private long nextSequence;
+    private boolean overrun;
+
+    ChangeBatch(List<Change<E>> changes, long nextSequence, boolean overrun) {
+        this.changes = changes;
+        this.nextSequence = nextSequence;
+        this.overrun = overrun;
+    }
+
+    /**
+     * Returns the changes of this batch, in the order they were made.
+     *
+     * @return the unmodifiable list of changes.
+     */
+    public List<Change<E>> getChanges() {
+        return this.changes;
+    }
+
+    /**
+     * Returns the sequence number to read the next batch from.
+     *
+     * @return the sequence number following the last change of this batch.
+     */
+    public long getNextSequence() {
+        return this.nextSequence;
+    }
+
+    /**
+     * Returns true if some of the requested changes were overwritten before
+     * they could be read. The reader then has to start again from a snapshot
+     * of the collection.
+     *
+     * @return true if changes were lost.
+     */
+    public boolean isOverrun() {
+        return this.overrun;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded log of the additions and removals made to a collection, enabled
+ * with the enableChangeLog method of {@link ReadWriteSet}, {@link
+ * ReadWriteList} or {@link ConcurrentSet}. <p>Changes are numbered with
+ * consecutive sequence numbers and stored in a lock-free ring buffer. Writers
+ * never wait for readers: once the buffer is full, the oldest changes are
+ * overwritten. Each reader keeps its own position and reads batches of
+ * changes with {@link #read(long, int)}. A reader that fell too far behind
+ * gets an overrun batch and starts again from a {@link ChangeSnapshot} of the
+ * collection, which gives the sequence number to resume from.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ChangeLog<E extends Object> {
+
+    private AtomicReferenceArray<Change<E>> changes;
+    private int mask;
+    private AtomicLong nextSequence = new AtomicLong();
+
+    ChangeLog(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.changes = new AtomicReferenceArray<Change<E>>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the number of changes kept by this log.
+     *
+     * @return the capacity of this log.
+     */
+    public int getCapacity() {
+        return this.changes.length();
+    }
+
+    /**
+     * Returns the sequence number of the next change to be recorded.
+     *
+     * @return the next sequence number.
+     */
+    public long getNextSequence() {
+        return this.nextSequence.get();
+    }
+
+    /**
+     * Reads at most the given number of changes, starting from the given
+     * sequence number. The batch stops before the first change still being
+     * recorded, so it may hold fewer changes than available.
+     *
+     * @param fromSequence the sequence number of the first change to read,
+     * usually the next sequence number of the previous batch or snapshot.
+     * @param maxChanges the maximum number of changes to read.
+     * @return the batch of changes.
+     */
+    public ChangeBatch<E> read(long fromSequence, int maxChanges) {
+        if (fromSequence < 0 || fromSequence > this.nextSequence.get()) {
+            throw new IllegalArgumentException("fromSequence is out of range");
+        }
+        if (maxChanges <= 0) {
+            throw new IllegalArgumentException("maxChanges must be positive");
+        }
+        long next = this.nextSequence.get();
+        if (next - fromSequence > this.changes.length()) {
+            return overrun(fromSequence);
+        }
+        List<Change<E>> batch = new ArrayList<Change<E>>((int) Math.min(maxChanges, next - fromSequence));
+        long sequence = fromSequence;
+        long end = Math.min(next, fromSequence + maxChanges);
+        while (sequence < end) {
+            Change<E> change = this.changes.get((int) (sequence & this.mask));
+            if (change == null || change.getSequence() < sequence) {
+                if (this.nextSequence.get() - sequence > this.changes.length()) {
+                    return overrun(fromSequence);
+                }
+                break;
+            }
+            if (change.getSequence() > sequence) {
+                return overrun(fromSequence);
+            }
+            batch.add(change);
+            sequence++;
+        }
+        return new ChangeBatch<E>(Collections.unmodifiableList(batch), sequence, false);
+    }
+
+    void record(Change.Type type, E element, int index) {
+        long sequence = this.nextSequence.getAndIncrement();
+        Change<E> change = new Change<E>(sequence, type, element, index);
+        int slot = (int) (sequence & this.mask);
+        while (true) {
+            Change<E> current = this.changes.get(slot);
+            if (current != null && current.getSequence() > sequence) {
+                return;
+            }
+            if (this.changes.compareAndSet(slot, current, change)) {
+                return;
+            }
+        }
+    }
+
+    private ChangeBatch<E> overrun(long fromSequence) {
+        return new ChangeBatch<E>(Collections.<Change<E>>emptyList(), fromSequence, true);
+    }
+}
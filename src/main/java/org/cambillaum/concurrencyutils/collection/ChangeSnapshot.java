@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.List;
+
+/**
+ * A copy of the elements of a collection together with the sequence number
+ * of its change log from which the changes following the copy can be read.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ChangeSnapshot<E extends Object> {
+
+    private List<E> elements;
+    private long nextSequence;
+
+    ChangeSnapshot(List<E> elements, long nextSequence) {
+        this.elements = elements;
+        this.nextSequence = nextSequence;
+    }
+
+    /**
+     * Returns the elements of the collection, in iteration order.
+     *
+     * @return the unmodifiable list of elements.
+     */
+    public List<E> getElements() {
+        return this.elements;
+    }
+
+    /**
+     * Returns the sequence number of the first change not reflected in the
+     * elements.
+     *
+     * @return the sequence number to resume reading changes from.
+     */
+    public long getNextSequence() {
+        return this.nextSequence;
+    }
+}
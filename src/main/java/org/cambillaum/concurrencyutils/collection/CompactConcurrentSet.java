@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free implementation of the {@link Set } interface using open
+ * addressing, with a much smaller memory footprint than {@link ConcurrentSet}.
+ * <p>Elements are stored directly in a flat array of references, next to an
+ * array of slot states, instead of in one {@link ConcurrentHashMap} node per
+ * element. Each element costs about one reference and one int divided by the
+ * load factor. <p>A slot is assigned to an element with a compare-and-set and
+ * is never reused for another element. Removing an element only changes the
+ * state of its slot, which acts as a tombstone until the next resize. When
+ * too many slots are used, a new table is allocated and every thread
+ * modifying the set helps to copy the slots over, chunk by chunk. A slot is
+ * frozen before being copied, so that concurrent operations on it move to
+ * the new table. <p>Like {@link ConcurrentSet}, lookups never block, and
+ * iterators are weakly consistent. Null elements are not permitted.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class CompactConcurrentSet<E extends Object> extends AbstractSet<E> {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int MIN_CAPACITY = 8;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final int MIGRATION_CHUNK = 256;
+    private static final Object MOVED = new Object();
+    private static final int NEVER_SET = 0;
+    private static final int PRESENT = 1;
+    private static final int ABSENT = 2;
+    private static final int FROZEN = 4;
+    private static final int DONE = 0;
+    private static final int CHANGED = 1;
+    private static final int FORWARD = 2;
+    private AtomicReference<Table> table;
+    private AtomicLong size = new AtomicLong();
+
+    /**
+     * Creates a new empty set with a default initial capacity.
+     */
+    public CompactConcurrentSet() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates a new empty set able to hold the given number of elements
+     * without resizing.
+     *
+     * @param initialCapacity the number of elements the set can hold without
+     * resizing.
+     */
+    public CompactConcurrentSet(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity cannot be negative");
+        }
+        long slots = (long) initialCapacity * 4 / 3 + 1;
+        this.table = new AtomicReference<Table>(new Table(tableSizeFor(slots)));
+    }
+
+    @Override
+    public int size() {
+        long currentSize = this.size.get();
+        return (int) Math.max(0, Math.min(currentSize, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+        int hash = hash(o);
+        Table t = this.table.get();
+        while (true) {
+            int index = find(t, o, hash);
+            if (index == -1) {
+                return false;
+            } else if (index >= 0) {
+                int state = t.states.get(index);
+                if ((state & FROZEN) == 0) {
+                    return state == PRESENT;
+                }
+                migrateSlot(t, index);
+            }
+            t = t.next.get();
+        }
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+        int hash = hash(e);
+        Table t = this.table.get();
+        helpMigration(t, false);
+        while (true) {
+            int result = insert(t, e, hash, false);
+            if (result != FORWARD) {
+                if (result == CHANGED) {
+                    this.size.incrementAndGet();
+                }
+                if (t.usedSlots.get() > t.threshold) {
+                    startResize(t);
+                    helpMigration(t, true);
+                }
+                return result == CHANGED;
+            }
+            t = t.next.get();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        int hash = hash(o);
+        Table t = this.table.get();
+        helpMigration(t, false);
+        while (true) {
+            int index = find(t, o, hash);
+            if (index == -1) {
+                return false;
+            } else if (index >= 0) {
+                int state = t.states.get(index);
+                if ((state & FROZEN) != 0) {
+                    migrateSlot(t, index);
+                } else if (state != PRESENT) {
+                    return false;
+                } else if (t.states.compareAndSet(index, PRESENT, ABSENT)) {
+                    this.size.decrementAndGet();
+                    return true;
+                } else {
+                    continue;
+                }
+            }
+            t = t.next.get();
+        }
+    }
+
+    /**
+     * Removes all the elements of this set. Like the other bulk operations,
+     * clearing the set is not atomic.
+     */
+    @Override
+    public void clear() {
+        Iterator<E> iterator = iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the elements of this set. It
+     * returns every element present during the whole iteration exactly once,
+     * and may or may not return the elements added or removed after its
+     * creation. If a resize is in progress, it is completed first.
+     *
+     * @return a weakly consistent iterator over the elements of this set.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        Table t = this.table.get();
+        while (t.next.get() != null) {
+            helpMigration(t, true);
+            for (int i = 0; i < t.capacity; i++) {
+                migrateSlot(t, i);
+            }
+            t = t.next.get();
+        }
+        return new TableIterator(t);
+    }
+
+    /**
+     * Returns the slot index of the given element, -1 if the element is not in
+     * the set, or -2 if the search has to continue in the next table.
+     */
+    private int find(Table t, Object o, int hash) {
+        int index = hash & t.mask;
+        for (int probes = 0; probes < t.capacity; probes++) {
+            Object key = t.keys.get(index);
+            if (key == null) {
+                return -1;
+            }
+            if (key == MOVED) {
+                return -2;
+            }
+            if (key == o || key.equals(o)) {
+                return index;
+            }
+            index = (index + 1) & t.mask;
+        }
+        return t.next.get() == null ? -1 : -2;
+    }
+
+    /**
+     * Makes the given element present in the given table. A copy only sets
+     * the element present if nothing was ever recorded for it in the table, so
+     * that a late copy never overrides a more recent modification.
+     */
+    private int insert(Table t, Object e, int hash, boolean copy) {
+        int index = hash & t.mask;
+        for (int probes = 0; probes < t.capacity; probes++) {
+            Object key = t.keys.get(index);
+            if (key == null) {
+                if (t.next.get() != null) {
+                    if (t.keys.compareAndSet(index, null, MOVED)) {
+                        return FORWARD;
+                    }
+                } else if (t.keys.compareAndSet(index, null, e)) {
+                    t.usedSlots.incrementAndGet();
+                    return setPresent(t, index, copy);
+                }
+                key = t.keys.get(index);
+            }
+            if (key == MOVED) {
+                return FORWARD;
+            }
+            if (key == e || key.equals(e)) {
+                return setPresent(t, index, copy);
+            }
+            index = (index + 1) & t.mask;
+        }
+        startResize(t);
+        return FORWARD;
+    }
+
+    private int setPresent(Table t, int index, boolean copy) {
+        while (true) {
+            int state = t.states.get(index);
+            if ((state & FROZEN) != 0) {
+                if (copy && state != (NEVER_SET | FROZEN)) {
+                    return DONE;
+                }
+                migrateSlot(t, index);
+                return FORWARD;
+            }
+            if (state == PRESENT || (copy && state != NEVER_SET)) {
+                return DONE;
+            }
+            if (t.states.compareAndSet(index, state, PRESENT)) {
+                return CHANGED;
+            }
+        }
+    }
+
+    private void migrateSlot(Table t, int index) {
+        Object key = t.keys.get(index);
+        while (key == null) {
+            if (t.keys.compareAndSet(index, null, MOVED)) {
+                return;
+            }
+            key = t.keys.get(index);
+        }
+        if (key == MOVED) {
+            return;
+        }
+        int state = t.states.get(index);
+        while ((state & FROZEN) == 0 && !t.states.compareAndSet(index, state, state | FROZEN)) {
+            state = t.states.get(index);
+        }
+        if ((state & ~FROZEN) == PRESENT) {
+            int hash = hash(key);
+            Table next = t.next.get();
+            while (insert(next, key, hash, true) == FORWARD) {
+                next = next.next.get();
+            }
+        }
+    }
+
+    private void startResize(Table t) {
+        if (t.next.get() == null) {
+            long live = Math.max(this.size.get(), 0);
+            int newCapacity = Math.max(MIN_CAPACITY, tableSizeFor(live * 2 + 1));
+            t.next.compareAndSet(null, new Table(newCapacity));
+        }
+    }
+
+    private void helpMigration(Table t, boolean untilDone) {
+        if (t.next.get() == null) {
+            return;
+        }
+        while (true) {
+            int start = t.migrationCursor.getAndAdd(MIGRATION_CHUNK);
+            if (start >= t.capacity) {
+                return;
+            }
+            int end = Math.min(start + MIGRATION_CHUNK, t.capacity);
+            for (int i = start; i < end; i++) {
+                migrateSlot(t, i);
+            }
+            if (t.migratedSlots.addAndGet(end - start) == t.capacity) {
+                promoteMigratedTables();
+            }
+            if (!untilDone) {
+                return;
+            }
+        }
+    }
+
+    private void promoteMigratedTables() {
+        while (true) {
+            Table top = this.table.get();
+            Table next = top.next.get();
+            if (next == null || top.migratedSlots.get() < top.capacity) {
+                return;
+            }
+            this.table.compareAndSet(top, next);
+        }
+    }
+
+    private static int tableSizeFor(long slots) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < slots && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(Object o) {
+        int h = o.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Table {
+
+        private final int capacity;
+        private final int mask;
+        private final int threshold;
+        private final AtomicReferenceArray<Object> keys;
+        private final AtomicIntegerArray states;
+        private final AtomicInteger usedSlots = new AtomicInteger();
+        private final AtomicReference<Table> next = new AtomicReference<Table>();
+        private final AtomicInteger migrationCursor = new AtomicInteger();
+        private final AtomicInteger migratedSlots = new AtomicInteger();
+
+        Table(int capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.threshold = capacity / 4 * 3;
+            this.keys = new AtomicReferenceArray<Object>(capacity);
+            this.states = new AtomicIntegerArray(capacity);
+        }
+    }
+
+    private final class TableIterator implements Iterator<E> {
+
+        private Table iteratedTable;
+        private int index = 0;
+        private E nextElement;
+        private E lastReturned;
+
+        TableIterator(Table iteratedTable) {
+            this.iteratedTable = iteratedTable;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.nextElement != null;
+        }
+
+        @Override
+        public E next() {
+            if (this.nextElement == null) {
+                throw new NoSuchElementException();
+            }
+            this.lastReturned = this.nextElement;
+            advance();
+            return this.lastReturned;
+        }
+
+        @Override
+        public void remove() {
+            if (this.lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            CompactConcurrentSet.this.remove(this.lastReturned);
+            this.lastReturned = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            this.nextElement = null;
+            while (this.index < this.iteratedTable.capacity) {
+                int i = this.index++;
+                Object key = this.iteratedTable.keys.get(i);
+                if (key != null && key != MOVED && (this.iteratedTable.states.get(i) & ~FROZEN) == PRESENT) {
+                    this.nextElement = (E) key;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free Bloom filter: a compact probabilistic set answering whether an
+ * element might have been added or has definitely not been added. Elements
+ * are hashed from their {@link Object#hashCode()} into a few bits of a bit
+ * array, which are set with compare-and-set operations so that any number of
+ * threads can add and look up elements concurrently. Elements cannot be
+ * removed, see {@link ConcurrentCountingBloomFilter} for a filter supporting
+ * removals.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentBloomFilter<E extends Object> {
+
+    private AtomicLongArray bits;
+    private long bitCount;
+    private int hashCount;
+
+    /**
+     * Creates a new empty filter sized to hold the given number of elements
+     * with the given false positive probability.
+     *
+     * @param expectedElements the number of elements expected to be added.
+     * @param falsePositiveProbability the probability that mightContain
+     * returns true for an element that was never added, once the expected
+     * number of elements was added. It must be between 0 and 1 exclusive.
+     */
+    public ConcurrentBloomFilter(long expectedElements, double falsePositiveProbability) {
+        long requestedBits = optimalSlotCount(expectedElements, falsePositiveProbability);
+        long words = (requestedBits + 63) / 64;
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("expectedElements is too large");
+        }
+        this.bits = new AtomicLongArray((int) words);
+        this.bitCount = words * 64;
+        this.hashCount = optimalHashCount(expectedElements, requestedBits);
+    }
+
+    /**
+     * Adds the given element to this filter.
+     *
+     * @param e the element to add.
+     * @return true if the filter changed, in which case the element had
+     * definitely not been added before.
+     */
+    public boolean add(E e) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+        long hash1 = hash(e.hashCode());
+        long hash2 = rehash(hash1);
+        boolean changed = false;
+        for (int i = 0; i < this.hashCount; i++) {
+            long index = slotIndex(hash1, hash2, i, this.bitCount);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            while (true) {
+                long current = this.bits.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+                if (this.bits.compareAndSet(word, current, current | mask)) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns true if the given element might have been added to this filter,
+     * false if it has definitely not been added.
+     *
+     * @param o the element to look up.
+     * @return false if the element was never added.
+     */
+    public boolean mightContain(Object o) {
+        if (o == null) {
+            return false;
+        }
+        long hash1 = hash(o.hashCode());
+        long hash2 = rehash(hash1);
+        for (int i = 0; i < this.hashCount; i++) {
+            long index = slotIndex(hash1, hash2, i, this.bitCount);
+            if ((this.bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the probability that {@link #mightContain(Object)} returns true
+     * for an element that was never added, estimated from the proportion of
+     * bits currently set.
+     *
+     * @return the current false positive probability.
+     */
+    public double getFalsePositiveProbability() {
+        long setBits = 0;
+        for (int i = 0; i < this.bits.length(); i++) {
+            setBits += Long.bitCount(this.bits.get(i));
+        }
+        return Math.pow((double) setBits / this.bitCount, this.hashCount);
+    }
+
+    /**
+     * Returns the number of bits of this filter.
+     *
+     * @return the number of bits.
+     */
+    public long getBitCount() {
+        return this.bitCount;
+    }
+
+    /**
+     * Returns the number of bits set for each element.
+     *
+     * @return the number of hash functions.
+     */
+    public int getHashCount() {
+        return this.hashCount;
+    }
+
+    /**
+     * Removes all the elements from this filter. Elements added concurrently
+     * may be partially cleared.
+     */
+    public void clear() {
+        for (int i = 0; i < this.bits.length(); i++) {
+            this.bits.set(i, 0L);
+        }
+    }
+
+    static long optimalSlotCount(long expectedElements, double falsePositiveProbability) {
+        if (expectedElements <= 0) {
+            throw new IllegalArgumentException("expectedElements must be positive");
+        }
+        if (!(falsePositiveProbability > 0 && falsePositiveProbability < 1)) {
+            throw new IllegalArgumentException("falsePositiveProbability must be between 0 and 1");
+        }
+        double slots = -expectedElements * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2));
+        return Math.max(64L, (long) Math.ceil(slots));
+    }
+
+    static int optimalHashCount(long expectedElements, long slots) {
+        return Math.max(1, (int) Math.round((double) slots / expectedElements * Math.log(2)));
+    }
+
+    static long hash(int hashCode) {
+        long h = hashCode * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    static long rehash(long hash) {
+        long h = (hash ^ (hash >>> 29)) * 0xbf58476d1ce4e5b9L;
+        return (h ^ (h >>> 32)) | 1L;
+    }
+
+    static long slotIndex(long hash1, long hash2, int i, long slots) {
+        return ((hash1 + i * hash2) & Long.MAX_VALUE) % slots;
+    }
+}
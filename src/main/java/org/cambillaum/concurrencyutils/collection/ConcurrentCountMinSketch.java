@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free Count-Min sketch, estimating how many times each element was
+ * added in a fixed amount of memory. <p>The sketch is a table of depth rows
+ * of width counters. Adding an element increments one counter per row and
+ * the estimate of an element is the smallest of its counters, so estimates
+ * never undercount and overcount by at most epsilon times the total count
+ * with the requested confidence. Counters are atomic, so any number of
+ * threads can add elements concurrently. Sketches of the same dimensions can
+ * be merged, and {@link #snapshot()} returns an independent copy. <p>Elements
+ * are hashed from their {@link Object#hashCode()}.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentCountMinSketch {
+
+    private int width;
+    private int depth;
+    private AtomicLongArray counters;
+    private StripedCounter totalCount = new StripedCounter();
+
+    /**
+     * Creates a new empty sketch whose estimates exceed the true counts by at
+     * most epsilon times the total count with the given confidence.
+     *
+     * @param epsilon the maximum overcount, relative to the total count.
+     * @param confidence the probability that an estimate is within bounds.
+     */
+    public ConcurrentCountMinSketch(double epsilon, double confidence) {
+        this(widthFor(epsilon), depthFor(confidence));
+    }
+
+    /**
+     * Creates a new empty sketch with the given dimensions.
+     *
+     * @param width the number of counters of each row.
+     * @param depth the number of rows.
+     */
+    public ConcurrentCountMinSketch(int width, int depth) {
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("width and depth must be positive");
+        }
+        if ((long) width * depth > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("width * depth is too large");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new AtomicLongArray(width * depth);
+    }
+
+    /**
+     * Returns the number of counters of each row.
+     *
+     * @return the width of this sketch.
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the depth of this sketch.
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * Adds one occurrence of the given element.
+     *
+     * @param o the element to add.
+     */
+    public void add(Object o) {
+        add(o, 1L);
+    }
+
+    /**
+     * Adds the given number of occurrences of the given element.
+     *
+     * @param o the element to add.
+     * @param count the number of occurrences to add.
+     */
+    public void add(Object o, long count) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("count cannot be negative");
+        }
+        long hash1 = ConcurrentBloomFilter.hash(o.hashCode());
+        long hash2 = ConcurrentBloomFilter.rehash(hash1);
+        for (int row = 0; row < this.depth; row++) {
+            this.counters.addAndGet(index(hash1, hash2, row), count);
+        }
+        this.totalCount.add(count);
+    }
+
+    /**
+     * Returns the estimated number of occurrences of the given element, which
+     * is never lower than the true number.
+     *
+     * @param o the element to look up.
+     * @return the estimated count of the element.
+     */
+    public long estimateCount(Object o) {
+        if (o == null) {
+            return 0L;
+        }
+        long hash1 = ConcurrentBloomFilter.hash(o.hashCode());
+        long hash2 = ConcurrentBloomFilter.rehash(hash1);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < this.depth; row++) {
+            estimate = Math.min(estimate, this.counters.get(index(hash1, hash2, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the total number of occurrences added to this sketch.
+     *
+     * @return the total count.
+     */
+    public long totalCount() {
+        return this.totalCount.sum();
+    }
+
+    /**
+     * Merges the given sketch into this one, which then estimates the counts
+     * of the occurrences added to either of them.
+     *
+     * @param other the sketch to merge, with the same dimensions.
+     */
+    public void merge(ConcurrentCountMinSketch other) {
+        if (other.width != this.width || other.depth != this.depth) {
+            throw new IllegalArgumentException("Cannot merge sketches of different dimensions");
+        }
+        for (int i = 0; i < this.counters.length(); i++) {
+            long value = other.counters.get(i);
+            if (value != 0) {
+                this.counters.addAndGet(i, value);
+            }
+        }
+        this.totalCount.add(other.totalCount());
+    }
+
+    /**
+     * Returns a copy of this sketch. Occurrences added concurrently may or may
+     * not be reflected in the copy.
+     *
+     * @return an independent copy of this sketch.
+     */
+    public ConcurrentCountMinSketch snapshot() {
+        ConcurrentCountMinSketch copy = new ConcurrentCountMinSketch(this.width, this.depth);
+        copy.merge(this);
+        return copy;
+    }
+
+    private int index(long hash1, long hash2, int row) {
+        return row * this.width + (int) ConcurrentBloomFilter.slotIndex(hash1, hash2, row, this.width);
+    }
+
+    private static int widthFor(double epsilon) {
+        if (!(epsilon > 0 && epsilon < 1)) {
+            throw new IllegalArgumentException("epsilon must be between 0 and 1");
+        }
+        return (int) Math.ceil(Math.E / epsilon);
+    }
+
+    private static int depthFor(double confidence) {
+        if (!(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("confidence must be between 0 and 1");
+        }
+        return (int) Math.ceil(Math.log(1 / (1 - confidence)));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free counting Bloom filter. Like {@link ConcurrentBloomFilter}, it
+ * answers whether an element might have been added or has definitely not been
+ * added, but each slot is a 4 bits counter instead of a bit so that elements
+ * can also be removed. Counters are updated with compare-and-set operations.
+ * A counter reaching 15 sticks to that value, so that removals can never
+ * create a false negative. It uses four times the memory of a {@link
+ * ConcurrentBloomFilter} with the same false positive probability.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentCountingBloomFilter<E extends Object> {
+
+    private static final long MAX_COUNT = 0xfL;
+    private AtomicLongArray counters;
+    private long counterCount;
+    private int hashCount;
+
+    /**
+     * Creates a new empty filter sized to hold the given number of elements
+     * with the given false positive probability.
+     *
+     * @param expectedElements the number of elements expected to be present
+     * at the same time.
+     * @param falsePositiveProbability the probability that mightContain
+     * returns true for an element that is not present, once the expected
+     * number of elements is present. It must be between 0 and 1 exclusive.
+     */
+    public ConcurrentCountingBloomFilter(long expectedElements, double falsePositiveProbability) {
+        long requestedCounters = ConcurrentBloomFilter.optimalSlotCount(expectedElements, falsePositiveProbability);
+        long words = (requestedCounters + 15) / 16;
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("expectedElements is too large");
+        }
+        this.counters = new AtomicLongArray((int) words);
+        this.counterCount = words * 16;
+        this.hashCount = ConcurrentBloomFilter.optimalHashCount(expectedElements, requestedCounters);
+    }
+
+    /**
+     * Adds the given element to this filter. An element added several times
+     * must be removed as many times.
+     *
+     * @param e the element to add.
+     */
+    public void add(E e) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+        update(e, 1L);
+    }
+
+    /**
+     * Removes the given element from this filter. The element must have been
+     * added before, removing an element that was never added may create false
+     * negatives.
+     *
+     * @param o the element to remove.
+     */
+    public void remove(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot remove a null element");
+        }
+        update(o, -1L);
+    }
+
+    /**
+     * Returns true if the given element might be present in this filter,
+     * false if it is definitely not present.
+     *
+     * @param o the element to look up.
+     * @return false if the element is not present.
+     */
+    public boolean mightContain(Object o) {
+        if (o == null) {
+            return false;
+        }
+        long hash1 = ConcurrentBloomFilter.hash(o.hashCode());
+        long hash2 = ConcurrentBloomFilter.rehash(hash1);
+        for (int i = 0; i < this.hashCount; i++) {
+            long index = ConcurrentBloomFilter.slotIndex(hash1, hash2, i, this.counterCount);
+            int shift = (int) (index & 15) << 2;
+            if (((this.counters.get((int) (index >>> 4)) >>> shift) & MAX_COUNT) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of counters of this filter.
+     *
+     * @return the number of counters.
+     */
+    public long getCounterCount() {
+        return this.counterCount;
+    }
+
+    /**
+     * Returns the number of counters updated for each element.
+     *
+     * @return the number of hash functions.
+     */
+    public int getHashCount() {
+        return this.hashCount;
+    }
+
+    private void update(Object o, long delta) {
+        long hash1 = ConcurrentBloomFilter.hash(o.hashCode());
+        long hash2 = ConcurrentBloomFilter.rehash(hash1);
+        for (int i = 0; i < this.hashCount; i++) {
+            long index = ConcurrentBloomFilter.slotIndex(hash1, hash2, i, this.counterCount);
+            int word = (int) (index >>> 4);
+            int shift = (int) (index & 15) << 2;
+            while (true) {
+                long current = this.counters.get(word);
+                long count = (current >>> shift) & MAX_COUNT;
+                if (count == MAX_COUNT || (count == 0 && delta < 0)) {
+                    break;
+                }
+                if (this.counters.compareAndSet(word, current, current + (delta << shift))) {
+                    break;
+                }
+            }
+        }
+    }
+}
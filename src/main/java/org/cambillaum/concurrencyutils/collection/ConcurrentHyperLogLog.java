@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A lock-free HyperLogLog sketch, estimating the number of distinct elements
+ * added to it in a fixed amount of memory. <p>The sketch holds 2^precision
+ * one byte registers, packed four per int and raised with compare-and-set
+ * operations, so any number of threads can add elements concurrently. The
+ * relative standard error of the estimate is about 1.04 / sqrt(2^precision).
+ * Sketches of the same precision can be merged, and {@link #snapshot()}
+ * returns an independent copy that can be merged or stored. <p>Elements are
+ * hashed from their {@link Object#hashCode()}, so elements with equal hash
+ * codes are counted once. {@link #addHash(long)} accepts 64 bits hashes
+ * computed by the caller instead.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentHyperLogLog {
+
+    /**
+     * The minimum precision.
+     */
+    public static final int MIN_PRECISION = 4;
+    /**
+     * The maximum precision.
+     */
+    public static final int MAX_PRECISION = 18;
+    private int precision;
+    private int registerCount;
+    private AtomicIntegerArray registers;
+
+    /**
+     * Creates a new empty sketch with the given precision.
+     *
+     * @param precision the base 2 logarithm of the number of registers,
+     * between {@link #MIN_PRECISION} and {@link #MAX_PRECISION}.
+     */
+    public ConcurrentHyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION);
+        }
+        this.precision = precision;
+        this.registerCount = 1 << precision;
+        this.registers = new AtomicIntegerArray(this.registerCount / 4);
+    }
+
+    /**
+     * Returns the precision of this sketch.
+     *
+     * @return the base 2 logarithm of the number of registers.
+     */
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * Returns the relative standard error of the estimates of this sketch.
+     *
+     * @return the relative standard error.
+     */
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(this.registerCount);
+    }
+
+    /**
+     * Adds the given element to this sketch.
+     *
+     * @param o the element to add.
+     */
+    public void add(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+        addHash(ConcurrentBloomFilter.hash(o.hashCode()));
+    }
+
+    /**
+     * Adds all the elements of the given collection to this sketch, for
+     * instance to seed it from an existing set.
+     *
+     * @param clctn the elements to add.
+     */
+    public void addAll(Collection<?> clctn) {
+        for (Object o : clctn) {
+            add(o);
+        }
+    }
+
+    /**
+     * Adds an element given by its hash to this sketch. The hash must be
+     * uniformly distributed over the 64 bits.
+     *
+     * @param hash the 64 bits hash of the element.
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - this.precision));
+        int rank = Long.numberOfLeadingZeros((hash << this.precision) | (1L << (this.precision - 1))) + 1;
+        raise(index, rank);
+    }
+
+    /**
+     * Returns the estimated number of distinct elements added to this sketch.
+     *
+     * @return the estimated cardinality.
+     */
+    public long cardinality() {
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < this.registerCount; i++) {
+            int rank = register(i);
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha() * this.registerCount * this.registerCount / sum;
+        if (estimate <= 2.5 * this.registerCount && zeros > 0) {
+            estimate = this.registerCount * Math.log((double) this.registerCount / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Merges the given sketch into this one, which then estimates the number
+     * of distinct elements added to either of them.
+     *
+     * @param other the sketch to merge, with the same precision.
+     */
+    public void merge(ConcurrentHyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException("Cannot merge sketches of different precisions");
+        }
+        for (int i = 0; i < this.registerCount; i++) {
+            raise(i, other.register(i));
+        }
+    }
+
+    /**
+     * Returns a copy of this sketch. Elements added concurrently may or may
+     * not be reflected in the copy.
+     *
+     * @return an independent copy of this sketch.
+     */
+    public ConcurrentHyperLogLog snapshot() {
+        ConcurrentHyperLogLog copy = new ConcurrentHyperLogLog(this.precision);
+        for (int i = 0; i < this.registers.length(); i++) {
+            copy.registers.set(i, this.registers.get(i));
+        }
+        return copy;
+    }
+
+    private int register(int index) {
+        return (this.registers.get(index >>> 2) >>> ((index & 3) << 3)) & 0xff;
+    }
+
+    private void raise(int index, int rank) {
+        int word = index >>> 2;
+        int shift = (index & 3) << 3;
+        while (true) {
+            int current = this.registers.get(word);
+            if (((current >>> shift) & 0xff) >= rank) {
+                return;
+            }
+            int updated = (current & ~(0xff << shift)) | (rank << shift);
+            if (this.registers.compareAndSet(word, current, updated)) {
+                return;
+            }
+        }
+    }
+
+    private double alpha() {
+        switch (this.registerCount) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / this.registerCount);
+        }
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free hash set of primitive {@code int} values. Values are never
+ * boxed: {@link #add(int)}, {@link #contains(int)} and {@link #remove(int)}
+ * allocate nothing, except when a resize is needed. <p>The set uses the same
+ * algorithm as {@link CompactConcurrentSet}: values are stored in a flat
+ * array with open addressing, slots are claimed with a compare-and-set and
+ * resizing is done cooperatively by the threads modifying the set. Two values
+ * are reserved inside the table to mark empty slots and slots moved to a new
+ * table; when they are added to the set they are recorded in separate flags
+ * instead.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentIntSet {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int MIN_CAPACITY = 8;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final int MIGRATION_CHUNK = 256;
+    private static final int EMPTY = 0;
+    private static final int MOVED = Integer.MIN_VALUE;
+    private static final int NEVER_SET = 0;
+    private static final int PRESENT = 1;
+    private static final int ABSENT = 2;
+    private static final int FROZEN = 4;
+    private static final int DONE = 0;
+    private static final int CHANGED = 1;
+    private static final int FORWARD = 2;
+    private AtomicReference<Table> table;
+    private AtomicIntegerArray reservedValueStates = new AtomicIntegerArray(2);
+    private AtomicLong size = new AtomicLong();
+
+    /**
+     * Creates a new empty set with a default initial capacity.
+     */
+    public ConcurrentIntSet() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates a new empty set able to hold the given number of values without
+     * resizing.
+     *
+     * @param initialCapacity the number of values the set can hold without
+     * resizing.
+     */
+    public ConcurrentIntSet(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity cannot be negative");
+        }
+        this.table = new AtomicReference<Table>(new Table(capacityFor(initialCapacity)));
+    }
+
+    /**
+     * Returns the number of values in this set.
+     *
+     * @return the number of values in this set.
+     */
+    public int size() {
+        long currentSize = this.size.get();
+        return (int) Math.max(0, Math.min(currentSize, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Returns true if this set contains no values.
+     *
+     * @return true if this set contains no values.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns true if this set contains the given value.
+     *
+     * @param value the value whose presence is to be tested.
+     * @return true if this set contains the given value.
+     */
+    public boolean contains(int value) {
+        if (isReserved(value)) {
+            return this.reservedValueStates.get(reservedIndex(value)) == PRESENT;
+        }
+        int hash = hash(value);
+        Table t = this.table.get();
+        while (true) {
+            int index = find(t, value, hash);
+            if (index == -1) {
+                return false;
+            } else if (index >= 0) {
+                int state = t.states.get(index);
+                if ((state & FROZEN) == 0) {
+                    return state == PRESENT;
+                }
+                migrateSlot(t, index);
+            }
+            t = t.next.get();
+        }
+    }
+
+    /**
+     * Adds the given value to this set.
+     *
+     * @param value the value to add.
+     * @return true if this set did not already contain the value.
+     */
+    public boolean add(int value) {
+        if (isReserved(value)) {
+            return updateReserved(value, PRESENT);
+        }
+        int hash = hash(value);
+        Table t = this.table.get();
+        helpMigration(t, false);
+        while (true) {
+            int result = insert(t, value, hash, false);
+            if (result != FORWARD) {
+                if (result == CHANGED) {
+                    this.size.incrementAndGet();
+                }
+                if (t.usedSlots.get() > t.threshold) {
+                    startResize(t, 0);
+                    helpMigration(t, true);
+                }
+                return result == CHANGED;
+            }
+            t = t.next.get();
+        }
+    }
+
+    /**
+     * Adds all the given values to this set. If the values may not fit in the
+     * current table, the table is resized once up front instead of several
+     * times while adding.
+     *
+     * @param values the values to add.
+     * @return true if this set changed as a result of the call.
+     */
+    public boolean addAll(int[] values) {
+        if (values == null) {
+            throw new IllegalArgumentException("values cannot be null");
+        }
+        Table t = this.table.get();
+        if (t.next.get() == null && t.usedSlots.get() + values.length > t.threshold) {
+            startResize(t, capacityFor(this.size.get() + values.length));
+            helpMigration(t, true);
+        }
+        boolean changed = false;
+        for (int value : values) {
+            if (add(value)) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Removes the given value from this set.
+     *
+     * @param value the value to remove.
+     * @return true if this set contained the value.
+     */
+    public boolean remove(int value) {
+        if (isReserved(value)) {
+            return updateReserved(value, ABSENT);
+        }
+        int hash = hash(value);
+        Table t = this.table.get();
+        helpMigration(t, false);
+        while (true) {
+            int index = find(t, value, hash);
+            if (index == -1) {
+                return false;
+            } else if (index >= 0) {
+                int state = t.states.get(index);
+                if ((state & FROZEN) != 0) {
+                    migrateSlot(t, index);
+                } else if (state != PRESENT) {
+                    return false;
+                } else if (t.states.compareAndSet(index, PRESENT, ABSENT)) {
+                    this.size.decrementAndGet();
+                    return true;
+                } else {
+                    continue;
+                }
+            }
+            t = t.next.get();
+        }
+    }
+
+    /**
+     * Removes all the values of this set. Clearing the set is not atomic.
+     */
+    public void clear() {
+        IntIterator iterator = iterator();
+        while (iterator.hasNext()) {
+            remove(iterator.nextInt());
+        }
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the values of this set. It
+     * returns every value present during the whole iteration exactly once,
+     * and may or may not return the values added or removed after its
+     * creation. Values are not boxed.
+     *
+     * @return a weakly consistent iterator over the values of this set.
+     */
+    public IntIterator iterator() {
+        Table t = this.table.get();
+        while (t.next.get() != null) {
+            helpMigration(t, true);
+            for (int i = 0; i < t.capacity; i++) {
+                migrateSlot(t, i);
+            }
+            t = t.next.get();
+        }
+        return new TableIterator(t);
+    }
+
+    /**
+     * Returns an array containing the values of this set, gathered through a
+     * weakly consistent iteration.
+     *
+     * @return an array containing the values of this set.
+     */
+    public int[] toIntArray() {
+        int[] values = new int[size() + 2];
+        int count = 0;
+        IntIterator iterator = iterator();
+        while (iterator.hasNext()) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = iterator.nextInt();
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    private boolean updateReserved(int value, int newState) {
+        int index = reservedIndex(value);
+        while (true) {
+            int state = this.reservedValueStates.get(index);
+            if (state == newState || (newState == ABSENT && state == NEVER_SET)) {
+                return false;
+            }
+            if (this.reservedValueStates.compareAndSet(index, state, newState)) {
+                if (newState == PRESENT) {
+                    this.size.incrementAndGet();
+                } else {
+                    this.size.decrementAndGet();
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the slot index of the given value, -1 if the value is not in the
+     * set, or -2 if the search has to continue in the next table.
+     */
+    private int find(Table t, int value, int hash) {
+        int index = hash & t.mask;
+        for (int probes = 0; probes < t.capacity; probes++) {
+            int key = t.keys.get(index);
+            if (key == EMPTY) {
+                return -1;
+            }
+            if (key == MOVED) {
+                return -2;
+            }
+            if (key == value) {
+                return index;
+            }
+            index = (index + 1) & t.mask;
+        }
+        return t.next.get() == null ? -1 : -2;
+    }
+
+    /**
+     * Makes the given value present in the given table. A copy only sets the
+     * value present if nothing was ever recorded for it in the table, so that
+     * a late copy never overrides a more recent modification.
+     */
+    private int insert(Table t, int value, int hash, boolean copy) {
+        int index = hash & t.mask;
+        for (int probes = 0; probes < t.capacity; probes++) {
+            int key = t.keys.get(index);
+            if (key == EMPTY) {
+                if (t.next.get() != null) {
+                    if (t.keys.compareAndSet(index, EMPTY, MOVED)) {
+                        return FORWARD;
+                    }
+                } else if (t.keys.compareAndSet(index, EMPTY, value)) {
+                    t.usedSlots.incrementAndGet();
+                    return setPresent(t, index, copy);
+                }
+                key = t.keys.get(index);
+            }
+            if (key == MOVED) {
+                return FORWARD;
+            }
+            if (key == value) {
+                return setPresent(t, index, copy);
+            }
+            index = (index + 1) & t.mask;
+        }
+        startResize(t, 0);
+        return FORWARD;
+    }
+
+    private int setPresent(Table t, int index, boolean copy) {
+        while (true) {
+            int state = t.states.get(index);
+            if ((state & FROZEN) != 0) {
+                if (copy && state != (NEVER_SET | FROZEN)) {
+                    return DONE;
+                }
+                migrateSlot(t, index);
+                return FORWARD;
+            }
+            if (state == PRESENT || (copy && state != NEVER_SET)) {
+                return DONE;
+            }
+            if (t.states.compareAndSet(index, state, PRESENT)) {
+                return CHANGED;
+            }
+        }
+    }
+
+    private void migrateSlot(Table t, int index) {
+        int key = t.keys.get(index);
+        while (key == EMPTY) {
+            if (t.keys.compareAndSet(index, EMPTY, MOVED)) {
+                return;
+            }
+            key = t.keys.get(index);
+        }
+        if (key == MOVED) {
+            return;
+        }
+        int state = t.states.get(index);
+        while ((state & FROZEN) == 0 && !t.states.compareAndSet(index, state, state | FROZEN)) {
+            state = t.states.get(index);
+        }
+        if ((state & ~FROZEN) == PRESENT) {
+            int hash = hash(key);
+            Table next = t.next.get();
+            while (insert(next, key, hash, true) == FORWARD) {
+                next = next.next.get();
+            }
+        }
+    }
+
+    private void startResize(Table t, int minCapacity) {
+        if (t.next.get() == null) {
+            long live = Math.max(this.size.get(), 0);
+            int newCapacity = Math.max(minCapacity, capacityFor(live * 3 / 2));
+            t.next.compareAndSet(null, new Table(newCapacity));
+        }
+    }
+
+    private void helpMigration(Table t, boolean untilDone) {
+        if (t.next.get() == null) {
+            return;
+        }
+        while (true) {
+            int start = t.migrationCursor.getAndAdd(MIGRATION_CHUNK);
+            if (start >= t.capacity) {
+                return;
+            }
+            int end = Math.min(start + MIGRATION_CHUNK, t.capacity);
+            for (int i = start; i < end; i++) {
+                migrateSlot(t, i);
+            }
+            if (t.migratedSlots.addAndGet(end - start) == t.capacity) {
+                promoteMigratedTables();
+            }
+            if (!untilDone) {
+                return;
+            }
+        }
+    }
+
+    private void promoteMigratedTables() {
+        while (true) {
+            Table top = this.table.get();
+            Table next = top.next.get();
+            if (next == null || top.migratedSlots.get() < top.capacity) {
+                return;
+            }
+            this.table.compareAndSet(top, next);
+        }
+    }
+
+    private static int capacityFor(long values) {
+        long slots = values * 4 / 3 + 1;
+        int capacity = MIN_CAPACITY;
+        while (capacity < slots && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static boolean isReserved(int value) {
+        return value == EMPTY || value == MOVED;
+    }
+
+    private static int reservedIndex(int value) {
+        return value == EMPTY ? 0 : 1;
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Table {
+
+        private final int capacity;
+        private final int mask;
+        private final int threshold;
+        private final AtomicIntegerArray keys;
+        private final AtomicIntegerArray states;
+        private final AtomicInteger usedSlots = new AtomicInteger();
+        private final AtomicReference<Table> next = new AtomicReference<Table>();
+        private final AtomicInteger migrationCursor = new AtomicInteger();
+        private final AtomicInteger migratedSlots = new AtomicInteger();
+
+        Table(int capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.threshold = capacity / 4 * 3;
+            this.keys = new AtomicIntegerArray(capacity);
+            this.states = new AtomicIntegerArray(capacity);
+        }
+    }
+
+    private final class TableIterator implements IntIterator {
+
+        private Table iteratedTable;
+        private int reservedIndex = 0;
+        private int index = 0;
+        private boolean hasNextValue;
+        private int nextValue;
+
+        TableIterator(Table iteratedTable) {
+            this.iteratedTable = iteratedTable;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.hasNextValue;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!this.hasNextValue) {
+                throw new NoSuchElementException();
+            }
+            int value = this.nextValue;
+            advance();
+            return value;
+        }
+
+        private void advance() {
+            this.hasNextValue = false;
+            while (this.reservedIndex < 2) {
+                int i = this.reservedIndex++;
+                if (reservedValueStates.get(i) == PRESENT) {
+                    this.nextValue = i == 0 ? EMPTY : MOVED;
+                    this.hasNextValue = true;
+                    return;
+                }
+            }
+            while (this.index < this.iteratedTable.capacity) {
+                int i = this.index++;
+                int key = this.iteratedTable.keys.get(i);
+                if (key != EMPTY && key != MOVED && (this.iteratedTable.states.get(i) & ~FROZEN) == PRESENT) {
+                    this.nextValue = key;
+                    this.hasNextValue = true;
+                    return;
+                }
+            }
+        }
+    }
+}
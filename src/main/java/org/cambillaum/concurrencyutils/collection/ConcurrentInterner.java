@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pool of canonical instances of immutable objects, used to share a single
+ * instance among equal objects. {@link #intern(Object)} returns the canonical
+ * instance equal to its argument, making the argument canonical if there is
+ * none. <p>Canonical instances are only weakly referenced: once they are not
+ * used anywhere else they are garbage collected, and their entries are
+ * cleared from the pool through a reference queue by the following calls.
+ * Looking up an existing canonical instance does not lock. <p>Elements must
+ * be immutable, at least in the state used by their equals and hashCode
+ * methods, and cannot be null.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentInterner<E extends Object> {
+
+    private ConcurrentHashMap<Key, WeakKey<E>> map;
+    private ReferenceQueue<E> queue = new ReferenceQueue<E>();
+
+    /**
+     * Creates a new empty interner.
+     */
+    public ConcurrentInterner() {
+        this.map = new ConcurrentHashMap<Key, WeakKey<E>>();
+    }
+
+    /**
+     * Creates a new empty interner sized for the given number of canonical
+     * instances and expected number of concurrently interning threads.
+     *
+     * @param initialCapacity the initial capacity.
+     * @param concurrencyLevel the estimated number of concurrently updating
+     * threads.
+     */
+    public ConcurrentInterner(int initialCapacity, int concurrencyLevel) {
+        this.map = new ConcurrentHashMap<Key, WeakKey<E>>(initialCapacity, 0.75f, concurrencyLevel);
+    }
+
+    /**
+     * Returns the canonical instance equal to the given element. If there is
+     * none, the given element becomes the canonical instance.
+     *
+     * @param e the element to intern.
+     * @return the canonical instance equal to e.
+     */
+    public E intern(E e) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot intern a null element");
+        }
+        expungeStaleEntries();
+        WeakKey<E> existing = this.map.get(new LookupKey(e));
+        while (true) {
+            if (existing == null) {
+                WeakKey<E> key = new WeakKey<E>(e, this.queue);
+                existing = this.map.putIfAbsent(key, key);
+                if (existing == null) {
+                    return e;
+                }
+            }
+            E canonical = existing.get();
+            if (canonical != null) {
+                return canonical;
+            }
+            this.map.remove(existing, existing);
+            existing = null;
+        }
+    }
+
+    /**
+     * Returns the canonical instance equal to the given element, without
+     * making it canonical if there is none.
+     *
+     * @param o the element to look up.
+     * @return the canonical instance equal to o, or null if there is none.
+     */
+    public E getCanonical(Object o) {
+        if (o == null) {
+            return null;
+        }
+        WeakKey<E> existing = this.map.get(new LookupKey(o));
+        return existing == null ? null : existing.get();
+    }
+
+    /**
+     * Returns the number of canonical instances, including those that were
+     * garbage collected but not cleared yet.
+     *
+     * @return the number of entries of this interner.
+     */
+    public int size() {
+        return this.map.size();
+    }
+
+    /**
+     * Clears the entries of the canonical instances that were garbage
+     * collected.
+     */
+    public void cleanUp() {
+        expungeStaleEntries();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expungeStaleEntries() {
+        Reference<? extends E> reference;
+        while ((reference = this.queue.poll()) != null) {
+            WeakKey<E> key = (WeakKey<E>) reference;
+            this.map.remove(key, key);
+        }
+    }
+
+    /**
+     * A key of the map, equal to the other keys whose referent is equal.
+     */
+    private interface Key {
+
+        Object referent();
+    }
+
+    private static class WeakKey<E> extends WeakReference<E> implements Key {
+
+        private int hash;
+
+        WeakKey(E referent, ReferenceQueue<E> queue) {
+            super(referent, queue);
+            this.hash = referent.hashCode();
+        }
+
+        @Override
+        public Object referent() {
+            return get();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent.equals(((Key) o).referent());
+        }
+    }
+
+    private static class LookupKey implements Key {
+
+        private Object referent;
+
+        LookupKey(Object referent) {
+            this.referent = referent;
+        }
+
+        @Override
+        public Object referent() {
+            return this.referent;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.referent.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this || (o instanceof Key && this.referent.equals(((Key) o).referent()));
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A concurrent multimap, associating each key with a set of values. <p>Keys
+ * are held in a {@link ConcurrentHashMap} and each key has its own set of
+ * values guarded by its own lock, so updates of different keys never wait for
+ * each other and no operation takes a global lock. Operations on the values
+ * of a key, including {@link #putAll(Object, Collection)}, {@link
+ * #removeAll(Object, Collection)} and {@link #replaceValues(Object,
+ * Collection)}, are atomic. A key whose last value is removed is removed from
+ * the multimap. {@link #get(Object)} returns a copy of the values of a key,
+ * in insertion order, which is not affected by subsequent modifications.
+ * <p>This multimap does not permit null keys or values.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentMultimap<K extends Object, V extends Object> {
+
+    private ConcurrentHashMap<K, Values<V>> map;
+    private StripedCounter count = new StripedCounter();
+
+    /**
+     * Constructs a new empty ConcurrentMultimap.
+     */
+    public ConcurrentMultimap() {
+        this.map = new ConcurrentHashMap<K, Values<V>>();
+    }
+
+    /**
+     * Constructs a new empty ConcurrentMultimap with the given initial
+     * capacity and concurrency level for its keys.
+     *
+     * @param initialCapacity the number of keys the multimap can hold without
+     * resizing.
+     * @param concurrencyLevel the estimated number of concurrently updating
+     * threads.
+     */
+    public ConcurrentMultimap(int initialCapacity, int concurrencyLevel) {
+        this.map = new ConcurrentHashMap<K, Values<V>>(initialCapacity, 0.75f, concurrencyLevel);
+    }
+
+    /**
+     * Associates the given value with the given key.
+     *
+     * @param key the key.
+     * @param value the value to associate with the key.
+     * @return true if the value was not already associated with the key.
+     */
+    public boolean put(K key, V value) {
+        validateValue(value);
+        return putAll(key, Collections.singleton(value));
+    }
+
+    /**
+     * Associates all the given values with the given key, as one atomic
+     * operation.
+     *
+     * @param key the key.
+     * @param values the values to associate with the key.
+     * @return true if the values of the key changed as a result of the call.
+     */
+    public boolean putAll(K key, Collection<? extends V> values) {
+        validateKey(key);
+        for (V value : values) {
+            validateValue(value);
+        }
+        if (values.isEmpty()) {
+            return false;
+        }
+        while (true) {
+            Values<V> current = this.map.get(key);
+            if (current == null) {
+                Values<V> created = new Values<V>();
+                current = this.map.putIfAbsent(key, created);
+                if (current == null) {
+                    current = created;
+                }
+            }
+            synchronized (current) {
+                if (!current.dead) {
+                    int before = current.set.size();
+                    current.set.addAll(values);
+                    int added = current.set.size() - before;
+                    this.count.add(added);
+                    return added > 0;
+                }
+            }
+            this.map.remove(key, current);
+        }
+    }
+
+    /**
+     * Returns a copy of the values associated with the given key, in the order
+     * they were added.
+     *
+     * @param key the key.
+     * @return an unmodifiable copy of the values of the key, empty if the key
+     * is absent.
+     */
+    public Set<V> get(Object key) {
+        Values<V> current = key == null ? null : this.map.get(key);
+        if (current == null) {
+            return Collections.emptySet();
+        }
+        synchronized (current) {
+            return Collections.unmodifiableSet(new LinkedHashSet<V>(current.set));
+        }
+    }
+
+    /**
+     * Returns true if the given key is associated with at least one value.
+     *
+     * @param key the key.
+     * @return true if the key is present.
+     */
+    public boolean containsKey(Object key) {
+        return key != null && this.map.containsKey(key);
+    }
+
+    /**
+     * Returns true if the given value is associated with the given key.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return true if the value is associated with the key.
+     */
+    public boolean containsEntry(Object key, Object value) {
+        Values<V> current = key == null ? null : this.map.get(key);
+        if (current == null) {
+            return false;
+        }
+        synchronized (current) {
+            return current.set.contains(value);
+        }
+    }
+
+    /**
+     * Returns true if the given value is associated with at least one key.
+     * This method scans the values of all the keys.
+     *
+     * @param value the value.
+     * @return true if the value is associated with a key.
+     */
+    public boolean containsValue(Object value) {
+        for (Values<V> current : this.map.values()) {
+            synchronized (current) {
+                if (current.set.contains(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the association between the given key and the given value.
+     *
+     * @param key the key.
+     * @param value the value to remove.
+     * @return true if the value was associated with the key.
+     */
+    public boolean remove(Object key, Object value) {
+        return removeAll(key, Collections.singleton(value));
+    }
+
+    /**
+     * Removes all the given values from the values of the given key, as one
+     * atomic operation.
+     *
+     * @param key the key.
+     * @param values the values to remove.
+     * @return true if the values of the key changed as a result of the call.
+     */
+    public boolean removeAll(Object key, Collection<?> values) {
+        Values<V> current = key == null ? null : this.map.get(key);
+        if (current == null) {
+            return false;
+        }
+        synchronized (current) {
+            if (current.dead) {
+                return false;
+            }
+            int before = current.set.size();
+            current.set.removeAll(values);
+            int removed = before - current.set.size();
+            this.count.add(-removed);
+            removeIfEmpty(key, current);
+            return removed > 0;
+        }
+    }
+
+    /**
+     * Removes the given key and all its values, as one atomic operation.
+     *
+     * @param key the key.
+     * @return the values that were associated with the key, empty if the key
+     * was absent.
+     */
+    public Set<V> removeAll(Object key) {
+        Values<V> current = key == null ? null : this.map.get(key);
+        if (current == null) {
+            return Collections.emptySet();
+        }
+        synchronized (current) {
+            if (current.dead) {
+                return Collections.emptySet();
+            }
+            Set<V> removed = current.set;
+            current.set = new LinkedHashSet<V>();
+            this.count.add(-removed.size());
+            removeIfEmpty(key, current);
+            return Collections.unmodifiableSet(removed);
+        }
+    }
+
+    /**
+     * Replaces the values of the given key with the given values, as one
+     * atomic operation.
+     *
+     * @param key the key.
+     * @param values the new values of the key, removing the key if empty.
+     * @return the values that were associated with the key, empty if the key
+     * was absent.
+     */
+    public Set<V> replaceValues(K key, Collection<? extends V> values) {
+        validateKey(key);
+        for (V value : values) {
+            validateValue(value);
+        }
+        if (values.isEmpty()) {
+            return removeAll(key);
+        }
+        while (true) {
+            Values<V> current = this.map.get(key);
+            if (current == null) {
+                Values<V> created = new Values<V>();
+                current = this.map.putIfAbsent(key, created);
+                if (current == null) {
+                    current = created;
+                }
+            }
+            synchronized (current) {
+                if (!current.dead) {
+                    Set<V> previous = current.set;
+                    current.set = new LinkedHashSet<V>(values);
+                    this.count.add(current.set.size() - previous.size());
+                    return Collections.unmodifiableSet(previous);
+                }
+            }
+            this.map.remove(key, current);
+        }
+    }
+
+    /**
+     * Returns the number of key-value associations in this multimap. While
+     * the multimap is being updated, the size may not reflect all the updates
+     * in progress.
+     *
+     * @return the number of values of all the keys.
+     */
+    public int size() {
+        return (int) Math.max(0L, Math.min(this.count.sum(), Integer.MAX_VALUE));
+    }
+
+    /**
+     * Returns the number of keys in this multimap.
+     *
+     * @return the number of keys.
+     */
+    public int keyCount() {
+        return this.map.size();
+    }
+
+    /**
+     * Returns true if this multimap contains no keys.
+     *
+     * @return true if this multimap is empty.
+     */
+    public boolean isEmpty() {
+        return this.map.isEmpty();
+    }
+
+    /**
+     * Returns an unmodifiable view of the keys of this multimap. Its iterator
+     * is weakly consistent, like the iterators of {@link ConcurrentHashMap}.
+     *
+     * @return the keys of this multimap.
+     */
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(this.map.keySet());
+    }
+
+    /**
+     * Removes all the keys of this multimap. Keys added concurrently may or
+     * may not be removed.
+     */
+    public void clear() {
+        for (K key : this.map.keySet()) {
+            removeAll(key);
+        }
+    }
+
+    private void removeIfEmpty(Object key, Values<V> current) {
+        if (current.set.isEmpty()) {
+            current.dead = true;
+            this.map.remove(key, current);
+        }
+    }
+
+    private static void validateKey(Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key cannot be null");
+        }
+    }
+
+    private static void validateValue(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value cannot be null");
+        }
+    }
+
+    /**
+     * The values of a key. A key is removed from the map only once its values
+     * are dead, so that threads which looked up the values before the removal
+     * retry with a new instance instead of adding to a detached one.
+     */
+    private static class Values<V> {
+
+        private Set<V> set = new LinkedHashSet<V>();
+        private boolean dead = false;
+    }
+}
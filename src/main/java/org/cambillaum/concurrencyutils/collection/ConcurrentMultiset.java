@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A concurrent multiset, counting the occurrences of each of its elements
+ * with a single hash lookup per update. <p>The count of an element starts as
+ * a single atomic value. When threads contend to increment it, the count is
+ * spread over padded striped cells, like {@link
+ * java.util.concurrent.atomic.LongAdder}, so that increments of popular
+ * elements scale with the number of threads. Removing occurrences briefly
+ * seals the cells of the element to read its exact count, and an element
+ * whose count drops to zero is removed from the multiset. <p>This multiset
+ * does not permit null elements.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentMultiset<E extends Object> {
+
+    private static final long SEALED = Long.MIN_VALUE;
+    private static final int PADDING = 8;
+    private static final int STRIPES;
+    private static final AtomicLongArray SEALED_CELLS = new AtomicLongArray(0);
+    private ConcurrentHashMap<E, Counter> map = new ConcurrentHashMap<E, Counter>();
+
+    static {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    /**
+     * Adds one occurrence of the given element.
+     *
+     * @param e the element to add.
+     */
+    public void add(E e) {
+        add(e, 1L);
+    }
+
+    /**
+     * Adds the given number of occurrences of the given element.
+     *
+     * @param e the element to add.
+     * @param occurrences the number of occurrences to add.
+     */
+    public void add(E e, long occurrences) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+        if (occurrences < 0) {
+            throw new IllegalArgumentException("occurrences cannot be negative");
+        }
+        if (occurrences == 0) {
+            return;
+        }
+        while (true) {
+            Counter counter = this.map.get(e);
+            if (counter == null) {
+                counter = this.map.putIfAbsent(e, new Counter(occurrences));
+                if (counter == null) {
+                    return;
+                }
+            }
+            if (counter.add(occurrences)) {
+                return;
+            }
+            this.map.remove(e, counter);
+        }
+    }
+
+    /**
+     * Returns the number of occurrences of the given element. While the
+     * element is being updated, the count may not reflect all the updates in
+     * progress.
+     *
+     * @param o the element to count.
+     * @return the number of occurrences, 0 if the element is absent.
+     */
+    public long count(Object o) {
+        Counter counter = o == null ? null : this.map.get(o);
+        return counter == null ? 0L : counter.sum();
+    }
+
+    /**
+     * Removes one occurrence of the given element.
+     *
+     * @param o the element to remove.
+     * @return true if an occurrence was removed.
+     */
+    public boolean remove(Object o) {
+        return remove(o, 1L) > 0;
+    }
+
+    /**
+     * Removes the given number of occurrences of the given element, or all its
+     * occurrences if it has fewer.
+     *
+     * @param o the element to remove.
+     * @param occurrences the number of occurrences to remove.
+     * @return the number of occurrences of the element before the call.
+     */
+    public long remove(Object o, long occurrences) {
+        if (occurrences < 0) {
+            throw new IllegalArgumentException("occurrences cannot be negative");
+        }
+        Counter counter = o == null ? null : this.map.get(o);
+        if (counter == null) {
+            return 0L;
+        }
+        long previous = counter.remove(occurrences);
+        if (counter.dead) {
+            this.map.remove(o, counter);
+        }
+        return previous;
+    }
+
+    /**
+     * Removes all the occurrences of the given element.
+     *
+     * @param o the element to remove.
+     * @return the number of occurrences of the element before the call.
+     */
+    public long removeAll(Object o) {
+        return remove(o, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of distinct elements.
+     *
+     * @return the number of distinct elements.
+     */
+    public int size() {
+        return this.map.size();
+    }
+
+    /**
+     * Returns true if this multiset holds no element.
+     *
+     * @return true if this multiset is empty.
+     */
+    public boolean isEmpty() {
+        return this.map.isEmpty();
+    }
+
+    /**
+     * Returns the total number of occurrences of all the elements.
+     *
+     * @return the sum of the counts of all the elements.
+     */
+    public long totalCount() {
+        long total = 0L;
+        for (Counter counter : this.map.values()) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Returns an unmodifiable view of the distinct elements of this multiset.
+     *
+     * @return the set of distinct elements.
+     */
+    public Set<E> elementSet() {
+        return Collections.unmodifiableSet(this.map.keySet());
+    }
+
+    /**
+     * Removes all the elements.
+     */
+    public void clear() {
+        for (E e : this.map.keySet()) {
+            removeAll(e);
+        }
+    }
+
+    /**
+     * Returns the elements with the highest counts, in decreasing order of
+     * count. The counts are read one element at a time without stopping
+     * updates, which costs O(n log k).
+     *
+     * @param k the maximum number of elements to return.
+     * @return at most k entries with the highest counts.
+     */
+    public List<Entry<E>> topK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        List<Entry<E>> top = new ArrayList<Entry<E>>();
+        if (k == 0) {
+            return top;
+        }
+        Comparator<Entry<E>> comparator = new Comparator<Entry<E>>() {
+
+            @Override
+            public int compare(Entry<E> entry1, Entry<E> entry2) {
+                return entry1.count < entry2.count ? -1 : (entry1.count == entry2.count ? 0 : 1);
+            }
+        };
+        PriorityQueue<Entry<E>> heap = new PriorityQueue<Entry<E>>(k, comparator);
+        for (Map.Entry<E, Counter> mapEntry : this.map.entrySet()) {
+            long count = mapEntry.getValue().sum();
+            if (count <= 0) {
+                continue;
+            }
+            if (heap.size() < k) {
+                heap.add(new Entry<E>(mapEntry.getKey(), count));
+            } else if (heap.peek().count < count) {
+                heap.poll();
+                heap.add(new Entry<E>(mapEntry.getKey(), count));
+            }
+        }
+        top.addAll(heap);
+        Collections.sort(top, Collections.reverseOrder(comparator));
+        return top;
+    }
+
+    /**
+     * An element of the multiset with its count.
+     */
+    public static class Entry<E> {
+
+        private E element;
+        private long count;
+
+        Entry(E element, long count) {
+            this.element = element;
+            this.count = count;
+        }
+
+        /**
+         * Returns the element.
+         *
+         * @return the element.
+         */
+        public E getElement() {
+            return this.element;
+        }
+
+        /**
+         * Returns the number of occurrences of the element.
+         *
+         * @return the count of the element.
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        @Override
+        public String toString() {
+            return this.element + " x " + this.count;
+        }
+    }
+
+    /**
+     * The count of an element: a base value, inflated to striped cells on
+     * contention. A value with its sign bit set is sealed by a removal and
+     * cannot be updated until it is unsealed. A counter whose count dropped
+     * to zero is dead and stays sealed.
+     */
+    private static class Counter {
+
+        private AtomicLong base;
+        private AtomicReference<AtomicLongArray> cells = new AtomicReference<AtomicLongArray>();
+        private volatile boolean dead;
+
+        Counter(long count) {
+            this.base = new AtomicLong(count);
+        }
+
+        boolean add(long occurrences) {
+            while (true) {
+                AtomicLongArray currentCells = this.cells.get();
+                if (currentCells == null) {
+                    long value = this.base.get();
+                    if (value < 0) {
+                        if (!waitForUnseal()) {
+                            return false;
+                        }
+                        continue;
+                    }
+                    if (this.base.compareAndSet(value, value + occurrences)) {
+                        return true;
+                    }
+                    this.cells.compareAndSet(null, new AtomicLongArray(STRIPES * PADDING));
+                } else if (currentCells == SEALED_CELLS) {
+                    if (!waitForUnseal()) {
+                        return false;
+                    }
+                } else {
+                    int index = cellIndex();
+                    long value = currentCells.get(index);
+                    if (value < 0) {
+                        if (!waitForUnseal()) {
+                            return false;
+                        }
+                    } else if (currentCells.compareAndSet(index, value, value + occurrences)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        long remove(long occurrences) {
+            long baseValue;
+            while (true) {
+                baseValue = this.base.get();
+                if (baseValue < 0) {
+                    if (!waitForUnseal()) {
+                        return 0L;
+                    }
+                } else if (this.base.compareAndSet(baseValue, baseValue | SEALED)) {
+                    break;
+                }
+            }
+            AtomicLongArray currentCells = this.cells.get();
+            if (currentCells == null && !this.cells.compareAndSet(null, SEALED_CELLS)) {
+                currentCells = this.cells.get();
+            }
+            long sum = baseValue;
+            if (currentCells != null) {
+                for (int i = 0; i < currentCells.length(); i += PADDING) {
+                    while (true) {
+                        long value = currentCells.get(i);
+                        if (currentCells.compareAndSet(i, value, value | SEALED)) {
+                            sum += value;
+                            break;
+                        }
+                    }
+                }
+            }
+            long remaining = sum - Math.min(sum, occurrences);
+            if (remaining == 0) {
+                this.dead = true;
+                if (currentCells != null) {
+                    for (int i = 0; i < currentCells.length(); i += PADDING) {
+                        currentCells.set(i, SEALED);
+                    }
+                }
+                this.base.set(SEALED);
+                return sum;
+            }
+            if (currentCells == null) {
+                this.cells.set(null);
+            } else {
+                for (int i = 0; i < currentCells.length(); i += PADDING) {
+                    currentCells.set(i, 0L);
+                }
+            }
+            this.base.set(remaining);
+            return sum;
+        }
+
+        long sum() {
+            if (this.dead) {
+                return 0L;
+            }
+            long sum = this.base.get() & ~SEALED;
+            AtomicLongArray currentCells = this.cells.get();
+            if (currentCells != null) {
+                for (int i = 0; i < currentCells.length(); i += PADDING) {
+                    sum += currentCells.get(i) & ~SEALED;
+                }
+            }
+            return sum;
+        }
+
+        private boolean waitForUnseal() {
+            if (this.dead) {
+                return false;
+            }
+            Thread.yield();
+            return true;
+        }
+
+        private static int cellIndex() {
+            long id = Thread.currentThread().getId();
+            int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+            return ((h ^ (h >>> 16)) & (STRIPES - 1)) * PADDING;
+        }
+    }
+}
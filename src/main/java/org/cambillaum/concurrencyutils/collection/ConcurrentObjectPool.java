@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A pool of reusable objects, such as large buffers, that threads borrow and
+ * release without locking. <p>Each thread keeps the objects it releases in
+ * its own cache, holding up to two magazines of objects, and borrows from it
+ * first, so that borrowing and releasing usually only touch a thread-local
+ * array. When its cache is full, a thread hands a full magazine over to a
+ * global depot, a lock-free stack shared by all threads, and when its cache
+ * is empty it takes a magazine back from the depot before asking the {@link
+ * Factory} for a new object. The depot keeps at most the configured maximum
+ * number of idle objects and drops the magazines it has no room for; each
+ * thread caches up to twice the magazine size on top of that. Objects cached
+ * by a thread that terminates are left to the garbage collector. <p>The
+ * factory resets objects when they are released and validates them when they
+ * are borrowed, discarding the ones that are no longer valid. Null objects
+ * are not permitted.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentObjectPool<T extends Object> {
+
+    private static final int DEFAULT_MAGAZINE_SIZE = 16;
+    private final Factory<T> factory;
+    private final int maxIdle;
+    private final int magazineSize;
+    private final AtomicReference<Magazine> depot = new AtomicReference<Magazine>();
+    private final AtomicInteger depotIdle = new AtomicInteger();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong discardedCount = new AtomicLong();
+    private final ThreadLocal<Cache> caches = new ThreadLocal<Cache>() {
+
+        @Override
+        protected Cache initialValue() {
+            return new Cache(2 * magazineSize);
+        }
+    };
+
+    /**
+     * Creates and checks the objects of a {@link ConcurrentObjectPool}.
+     */
+    public interface Factory<T> {
+
+        /**
+         * Creates a new object when the pool has no idle object to lend.
+         *
+         * @return the new object, which must not be null.
+         */
+        T create();
+
+        /**
+         * Tells whether an idle object can still be lent. Invalid objects are
+         * discarded.
+         *
+         * @param object the idle object about to be borrowed.
+         * @return true if the object can be borrowed, false otherwise.
+         */
+        boolean validate(T object);
+
+        /**
+         * Restores a released object to its initial state before it becomes
+         * idle, for instance by clearing a buffer.
+         *
+         * @param object the released object.
+         */
+        void reset(T object);
+    }
+
+    /**
+     * A {@link Factory} considering every object valid and resetting
+     * nothing, to extend with the hooks a pool needs.
+     */
+    public abstract static class AbstractFactory<T> implements Factory<T> {
+
+        @Override
+        public boolean validate(T object) {
+            return true;
+        }
+
+        @Override
+        public void reset(T object) {
+        }
+    }
+
+    /**
+     * Creates a new empty pool keeping at most the given number of idle
+     * objects in its depot, exchanged in magazines of 16 objects.
+     *
+     * @param factory the factory of the pooled objects.
+     * @param maxIdle the maximum number of idle objects in the depot.
+     */
+    public ConcurrentObjectPool(Factory<T> factory, int maxIdle) {
+        this(factory, maxIdle, DEFAULT_MAGAZINE_SIZE);
+    }
+
+    /**
+     * Creates a new empty pool keeping at most the given number of idle
+     * objects in its depot, exchanged in magazines of the given size.
+     *
+     * @param factory the factory of the pooled objects.
+     * @param maxIdle the maximum number of idle objects in the depot.
+     * @param magazineSize the number of objects moved at once between a
+     * thread cache and the depot.
+     */
+    public ConcurrentObjectPool(Factory<T> factory, int maxIdle, int magazineSize) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory cannot be null");
+        }
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle cannot be negative");
+        }
+        if (magazineSize <= 0) {
+            throw new IllegalArgumentException("magazineSize must be positive");
+        }
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+        this.magazineSize = magazineSize;
+    }
+
+    /**
+     * Returns the maximum number of idle objects kept in the depot.
+     *
+     * @return the maximum number of idle objects in the depot.
+     */
+    public int getMaxIdle() {
+        return this.maxIdle;
+    }
+
+    /**
+     * Returns the number of objects moved at once between a thread cache and
+     * the depot.
+     *
+     * @return the magazine size.
+     */
+    public int getMagazineSize() {
+        return this.magazineSize;
+    }
+
+    /**
+     * Borrows an idle object, validated by the factory, or creates a new one
+     * if there is none.
+     *
+     * @return an object that is not lent to any other borrower.
+     * @throws IllegalStateException if the factory creates a null object.
+     */
+    @SuppressWarnings("unchecked")
+    public T borrow() {
+        Cache cache = this.caches.get();
+        while (cache.size > 0 || refill(cache)) {
+            T object = (T) cache.objects[--cache.size];
+            cache.objects[cache.size] = null;
+            if (this.factory.validate(object)) {
+                return object;
+            }
+            this.discardedCount.incrementAndGet();
+        }
+        T object = this.factory.create();
+        if (object == null) {
+            throw new IllegalStateException("factory created a null object");
+        }
+        this.createdCount.incrementAndGet();
+        return object;
+    }
+
+    /**
+     * Resets the given object with the factory and makes it idle. The object
+     * must not be used by the caller afterwards.
+     *
+     * @param object the object to release.
+     */
+    public void release(T object) {
+        if (object == null) {
+            throw new IllegalArgumentException("Cannot release a null object");
+        }
+        this.factory.reset(object);
+        Cache cache = this.caches.get();
+        if (cache.size == cache.objects.length) {
+            flush(cache);
+        }
+        cache.objects[cache.size++] = object;
+    }
+
+    /**
+     * Returns the number of idle objects in the depot and in the cache of the
+     * calling thread. Objects cached by other threads are not counted.
+     *
+     * @return the number of idle objects visible to the calling thread.
+     */
+    public int getIdleCount() {
+        return this.depotIdle.get() + this.caches.get().size;
+    }
+
+    /**
+     * Returns the number of objects created by the factory since the pool was
+     * created.
+     *
+     * @return the number of created objects.
+     */
+    public long getCreatedCount() {
+        return this.createdCount.get();
+    }
+
+    /**
+     * Returns the number of idle objects discarded because the factory found
+     * them invalid.
+     *
+     * @return the number of discarded objects.
+     */
+    public long getDiscardedCount() {
+        return this.discardedCount.get();
+    }
+
+    /**
+     * Drops the idle objects of the depot and of the cache of the calling
+     * thread. Objects cached by other threads are kept.
+     */
+    public void clear() {
+        Cache cache = this.caches.get();
+        while (cache.size > 0) {
+            cache.objects[--cache.size] = null;
+        }
+        Magazine magazine;
+        while ((magazine = pop()) != null) {
+            this.depotIdle.addAndGet(-magazine.objects.length);
+        }
+    }
+
+    /**
+     * Moves a magazine from the depot to the given empty cache, returning
+     * false if the depot is empty.
+     */
+    private boolean refill(Cache cache) {
+        Magazine magazine = pop();
+        if (magazine == null) {
+            return false;
+        }
+        this.depotIdle.addAndGet(-magazine.objects.length);
+        System.arraycopy(magazine.objects, 0, cache.objects, 0, magazine.objects.length);
+        cache.size = magazine.objects.length;
+        return true;
+    }
+
+    /**
+     * Moves the most recently released magazine of the given full cache to the
+     * depot, or drops it if the depot is full. Keeping the other magazine in
+     * the cache avoids going to the depot again on the next borrow.
+     */
+    private void flush(Cache cache) {
+        int from = cache.size - this.magazineSize;
+        if (reserve(this.magazineSize)) {
+            Object[] objects = new Object[this.magazineSize];
+            System.arraycopy(cache.objects, from, objects, 0, this.magazineSize);
+            push(new Magazine(objects));
+        }
+        while (cache.size > from) {
+            cache.objects[--cache.size] = null;
+        }
+    }
+
+    private boolean reserve(int count) {
+        while (true) {
+            int idle = this.depotIdle.get();
+            if (idle + count > this.maxIdle) {
+                return false;
+            }
+            if (this.depotIdle.compareAndSet(idle, idle + count)) {
+                return true;
+            }
+        }
+    }
+
+    private void push(Magazine magazine) {
+        while (true) {
+            Magazine top = this.depot.get();
+            magazine.next = top;
+            if (this.depot.compareAndSet(top, magazine)) {
+                return;
+            }
+        }
+    }
+
+    private Magazine pop() {
+        while (true) {
+            Magazine top = this.depot.get();
+            if (top == null) {
+                return null;
+            }
+            if (this.depot.compareAndSet(top, top.next)) {
+                return top;
+            }
+        }
+    }
+
+    /**
+     * A full magazine in the depot. Magazines are never pushed twice, so the
+     * stack is not subject to the ABA problem.
+     */
+    private static class Magazine {
+
+        private final Object[] objects;
+        private Magazine next;
+
+        private Magazine(Object[] objects) {
+            this.objects = objects;
+        }
+    }
+
+    /**
+     * The idle objects of a single thread.
+     */
+    private static class Cache {
+
+        private final Object[] objects;
+        private int size;
+
+        private Cache(int capacity) {
+            this.objects = new Object[capacity];
+        }
+    }
+}
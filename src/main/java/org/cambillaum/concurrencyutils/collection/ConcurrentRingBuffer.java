@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-capacity buffer keeping the last elements added to it, where adding
+ * an element to a full buffer overwrites the oldest one. It is typically used
+ * to keep the last N events of an application. <p>Producers claim a sequence
+ * number with a single atomic increment and never wait for consumers, and
+ * adding an element allocates nothing. Each slot of the buffer carries the
+ * sequence number of the element it holds, which lets consumers detect
+ * elements that were overwritten while they were being read. A producer only
+ * waits when it catches up with a producer that is still writing the same
+ * slot one lap earlier. <p>Consumers can either take a {@link #snapshot()} of
+ * the buffer, which leaves it untouched, or {@link #drainTo(Collection, int)
+ * drain} batches of elements, in which case every element is handed to a
+ * single consumer. Elements overwritten before being drained are lost.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentRingBuffer<E extends Object> {
+
+    private int capacity;
+    private AtomicReferenceArray<E> slots;
+    private AtomicLongArray slotSequences;
+    private AtomicLong tail = new AtomicLong();
+    private AtomicLong head = new AtomicLong();
+
+    /**
+     * Constructs a new empty ConcurrentRingBuffer holding at most the given
+     * number of elements.
+     *
+     * @param capacity the maximum number of elements kept by the buffer.
+     */
+    public ConcurrentRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<E>(capacity);
+        this.slotSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.slotSequences.set(i, published(i - capacity));
+        }
+    }
+
+    /**
+     * Adds an element to the buffer, overwriting the oldest element if the
+     * buffer is full.
+     *
+     * @param e the element to add.
+     */
+    public void add(E e) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+        long sequence = this.tail.getAndIncrement();
+        int index = indexOf(sequence);
+        long previousLap = published(sequence - this.capacity);
+        while (this.slotSequences.get(index) != previousLap) {
+            Thread.yield();
+        }
+        this.slotSequences.set(index, writing(sequence));
+        this.slots.set(index, e);
+        this.slotSequences.set(index, published(sequence));
+    }
+
+    /**
+     * Returns the maximum number of elements kept by the buffer.
+     *
+     * @return the capacity of the buffer.
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of elements that are currently available to be
+     * drained.
+     *
+     * @return the number of elements available to be drained.
+     */
+    public int size() {
+        long currentTail = this.tail.get();
+        long available = currentTail - this.head.get();
+        return (int) Math.max(0, Math.min(available, this.capacity));
+    }
+
+    /**
+     * Returns true if no element is available to be drained.
+     *
+     * @return true if no element is available to be drained.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the elements available to be drained, from the oldest to the
+     * newest, without removing them. The snapshot covers a contiguous range of
+     * additions: it stops before the first element that is still being
+     * written and starts after the last element overwritten while the snapshot
+     * was taken.
+     *
+     * @return the elements available to be drained, oldest first.
+     */
+    public List<E> snapshot() {
+        long end = this.tail.get();
+        long start = Math.max(this.head.get(), end - this.capacity);
+        List<E> result = new ArrayList<E>((int) Math.max(0, end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            int index = indexOf(sequence);
+            long slotSequence = this.slotSequences.get(index);
+            if (slotSequence != published(sequence) && slotSequence <= writing(sequence)) {
+                break;
+            }
+            E e = this.slots.get(index);
+            if (slotSequence != published(sequence) || this.slotSequences.get(index) != slotSequence) {
+                result.clear();
+                continue;
+            }
+            result.add(e);
+        }
+        return result;
+    }
+
+    /**
+     * Removes all available elements from the buffer and adds them to the
+     * given collection, oldest first.
+     *
+     * @param clctn the collection to transfer elements into.
+     * @return the number of elements transferred.
+     */
+    public int drainTo(Collection<? super E> clctn) {
+        return drainTo(clctn, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes at most the given number of available elements from the buffer
+     * and adds them to the given collection, oldest first. Concurrent
+     * consumers never receive the same element.
+     *
+     * @param clctn the collection to transfer elements into.
+     * @param maxElements the maximum number of elements to transfer.
+     * @return the number of elements transferred.
+     */
+    public int drainTo(Collection<? super E> clctn, int maxElements) {
+        if (clctn == null) {
+            throw new IllegalArgumentException("collection cannot be null");
+        }
+        while (true) {
+            long currentHead = this.head.get();
+            long currentTail = this.tail.get();
+            long start = Math.max(currentHead, currentTail - this.capacity);
+            long end = start;
+            while (end < currentTail && end - start < maxElements && isReadable(end)) {
+                end++;
+            }
+            if (end == start && start == currentHead) {
+                return 0;
+            }
+            if (this.head.compareAndSet(currentHead, end)) {
+                return transfer(clctn, start, end);
+            }
+        }
+    }
+
+    /**
+     * Discards all the elements available to be drained.
+     */
+    public void clear() {
+        while (true) {
+            long currentHead = this.head.get();
+            long currentTail = this.tail.get();
+            if (currentHead >= currentTail || this.head.compareAndSet(currentHead, currentTail)) {
+                return;
+            }
+        }
+    }
+
+    private int transfer(Collection<? super E> clctn, long start, long end) {
+        int transferred = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int index = indexOf(sequence);
+            long slotSequence = this.slotSequences.get(index);
+            E e = this.slots.get(index);
+            if (slotSequence == published(sequence) && this.slotSequences.get(index) == slotSequence) {
+                clctn.add(e);
+                transferred++;
+            }
+        }
+        return transferred;
+    }
+
+    private boolean isReadable(long sequence) {
+        long slotSequence = this.slotSequences.get(indexOf(sequence));
+        return slotSequence == published(sequence) || slotSequence > writing(sequence);
+    }
+
+    private int indexOf(long sequence) {
+        return (int) (sequence % this.capacity);
+    }
+
+    private static long published(long sequence) {
+        return sequence * 2;
+    }
+
+    private static long writing(long sequence) {
+        return sequence * 2 + 1;
+    }
+}
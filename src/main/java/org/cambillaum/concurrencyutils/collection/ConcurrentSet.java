@@ -16,11 +16,20 @@
  */
 package org.cambillaum.concurrencyutils.collection;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An implementation of the {@link Set} interface backed by a {@link ConcurrentHashMap}.
@@ -31,14 +40,32 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ConcurrentSet<E extends Object> implements Set<E> {
 
+    /**
+     * The number of elements under which bulk operations requested in
+     * parallel are still executed sequentially on the calling thread.
+     */
+    public static final int PARALLEL_THRESHOLD = 8192;
+    private static final int MIN_PARALLEL_BATCH = 1024;
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int CHANGE_LOCK_COUNT = 64;
     private Map<E, Boolean> map;
+    private StripedCounter count = new StripedCounter();
+    private boolean approximateSize;
+    private int initialCapacity;
+    private float loadFactor;
+    private int concurrencyLevel;
+    private volatile ChangeLog<E> changeLog;
+    private Lock[] changeLocks;
 
     /**
      * Creates a new empty set with a default initial capacity, load factor and
      * concurrency level.
      */
     public ConcurrentSet() {
-        this.map = new ConcurrentHashMap<E, Boolean>();
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL);
     }
 
     /**
@@ -49,7 +76,7 @@ public class ConcurrentSet<E extends Object> implements Set<E> {
      * internal sizing to accommodate this many elements
      */
     public ConcurrentSet(int initialCapacity) {
-        this.map = new ConcurrentHashMap<E, Boolean>(initialCapacity);
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL);
     }
 
     /**
@@ -63,7 +90,7 @@ public class ConcurrentSet<E extends Object> implements Set<E> {
      * exceeds this threshold.
      */
     public ConcurrentSet(int initialCapacity, float loadFactor) {
-        this.map = new ConcurrentHashMap<E, Boolean>(initialCapacity, loadFactor);
+        this(initialCapacity, loadFactor, DEFAULT_CONCURRENCY_LEVEL);
     }
 
     /**
@@ -80,19 +107,120 @@ public class ConcurrentSet<E extends Object> implements Set<E> {
      * accommodate this many threads.
      */
     public ConcurrentSet(int initialCapacity, float loadFactor, int concurrencyLevel) {
+        this(initialCapacity, loadFactor, concurrencyLevel, false);
+    }
+
+    /**
+     * Creates a new, empty set with the specified initial capacity, load
+     * factor, concurrency level and size mode.
+     *
+     * @param initialCapacity the initial capacity. The implementation performs
+     * internal sizing to accommodate this many elements.
+     * @param loadFactor the load factor threshold, used to control resizing.
+     * Resizing may be performed when the average number of elements per bin
+     * exceeds this threshold.
+     * @param concurrencyLevel the estimated number of concurrently updating
+     * threads. The implementation performs internal sizing to try to
+     * accommodate this many threads.
+     * @param approximateSize true if {@link #size()} and {@link #isEmpty()}
+     * should be answered from the same counters as {@link #mappingCount()}
+     * instead of the backing map. They then never block, at the price of
+     * being slightly off while updates are in progress.
+     */
+    public ConcurrentSet(int initialCapacity, float loadFactor, int concurrencyLevel, boolean approximateSize) {
         this.map = new ConcurrentHashMap<E, Boolean>(initialCapacity, loadFactor, concurrencyLevel);
+        this.approximateSize = approximateSize;
+        this.initialCapacity = initialCapacity;
+        this.loadFactor = loadFactor;
+        this.concurrencyLevel = concurrencyLevel;
     }
 
     @Override
     public int size() {
+        if (this.approximateSize) {
+            return (int) Math.min(Integer.MAX_VALUE, mappingCount());
+        }
         return this.map.size();
     }
 
     @Override
     public boolean isEmpty() {
+        if (this.approximateSize) {
+            return mappingCount() == 0;
+        }
         return this.map.isEmpty();
     }
 
+    /**
+     * Returns the number of elements as a long, which should be used instead
+     * of {@link #size()} when the set may hold more than
+     * {@link Integer#MAX_VALUE} elements. The count is maintained by the
+     * updates in a counter that only spreads over striped cells once updates
+     * contend, so it is read without locking or traversing the backing map,
+     * summing at most a few cells per processor. It is exact when no update
+     * is in progress and an estimate otherwise.
+     *
+     * @return the number of elements.
+     */
+    public long mappingCount() {
+        return Math.max(0L, this.count.sum());
+    }
+
+    /**
+     * Returns a model of the sizing of this set: the configured initial
+     * capacity, load factor and concurrency level, and the layout the current
+     * elements would have in the single table of a Java 8 ConcurrentHashMap
+     * created with the same parameters, with its capacity and the
+     * distribution of the elements in its buckets. The model does not
+     * describe the segments of the Java 7 map, which size their tables
+     * separately, so the concurrency level is only reported as configured.
+     * The chain lengths mainly reflect the quality of the elements' hash
+     * codes. The elements are traversed to build the model, so this method
+     * should be used for diagnostics and tuning rather than on hot paths.
+     *
+     * @return the statistics of this set.
+     */
+    public ConcurrentSetStatistics getStatistics() {
+        Object[] elements = this.map.keySet().toArray();
+        int tableCapacity = tableCapacityFor(elements.length);
+        int[] bucketSizes = new int[tableCapacity];
+        int maxChainLength = 0;
+        int usedBuckets = 0;
+        for (Object element : elements) {
+            int h = element.hashCode();
+            int bucket = (h ^ (h >>> 16)) & (tableCapacity - 1);
+            int chainLength = ++bucketSizes[bucket];
+            if (chainLength == 1) {
+                usedBuckets++;
+            }
+            maxChainLength = Math.max(maxChainLength, chainLength);
+        }
+        int[] chainLengthCounts = new int[maxChainLength + 1];
+        for (int bucketSize : bucketSizes) {
+            chainLengthCounts[bucketSize]++;
+        }
+        return new ConcurrentSetStatistics(elements.length, this.initialCapacity, this.loadFactor,
+                this.concurrencyLevel, tableCapacity, usedBuckets, chainLengthCounts);
+    }
+
+    /**
+     * Returns the table capacity of a Java 8 ConcurrentHashMap created with the
+     * parameters of this set once it holds the given number of elements: the
+     * initial table holds the initial capacity at the load factor, and the
+     * table then doubles each time it is three quarters full.
+     */
+    private int tableCapacityFor(int elements) {
+        long initialSize = (long) (1.0 + Math.max(this.initialCapacity, this.concurrencyLevel) / this.loadFactor);
+        int capacity = 1;
+        while (capacity < initialSize && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        while (elements >= capacity - (capacity >>> 2) && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
     @Override
     public boolean contains(Object o) {
         return this.map.containsKey(o);
@@ -100,7 +228,30 @@ public class ConcurrentSet<E extends Object> implements Set<E> {
 
     @Override
     public Iterator<E> iterator() {
-        return this.map.keySet().iterator();
+        final Iterator<E> iterator = this.map.keySet().iterator();
+        return new Iterator<E>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                this.last = iterator.next();
+                return this.last;
+            }
+
+            @Override
+            public void remove() {
+                if (this.last == null) {
+                    throw new IllegalStateException();
+                }
+                ConcurrentSet.this.remove(this.last);
+                this.last = null;
+            }
+        };
     }
 
     @Override
@@ -115,8 +266,13 @@ public class ConcurrentSet<E extends Object> implements Set<E> {
 
     @Override
     public boolean add(E e) {
+        ChangeLog<E> log = this.changeLog;
+        if (log != null) {
+            return addAndRecord(e, log);
+        }
         Boolean returnedObject = this.map.put(e, Boolean.TRUE);
         if (returnedObject == null) {
+            this.count.increment();
             return true;
         } else {
             return false;
@@ -125,14 +281,100 @@ public class ConcurrentSet<E extends Object> implements Set<E> {
 
     @Override
     public boolean remove(Object o) {
+        ChangeLog<E> log = this.changeLog;
+        if (log != null) {
+            return removeAndRecord(o, log);
+        }
         Boolean returnedObject = this.map.remove(o);
         if (returnedObject == null) {
             return false;
         } else {
+            this.count.decrement();
+            return true;
+        }
+    }
+
+    /**
+     * Starts recording the additions and removals made to this set in a
+     * {@link ChangeLog} keeping the given number of changes, or returns the
+     * change log already recording them. Once enabled, the update and the
+     * recording of the change of an element are made under one of several
+     * striped locks, so that the changes of each element are recorded in the
+     * order they were applied. Updates made while this method runs may not
+     * be recorded, so it should be called before the set is shared between
+     * threads. Readers of the log should start from {@link #changeSnapshot()}.
+     *
+     * @param capacity the number of changes kept by the log, rounded up to a
+     * power of two.
+     * @return the change log of this set.
+     */
+    public synchronized ChangeLog<E> enableChangeLog(int capacity) {
+        if (this.changeLog == null) {
+            Lock[] locks = new Lock[CHANGE_LOCK_COUNT];
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = new ReentrantLock();
+            }
+            this.changeLocks = locks;
+            this.changeLog = new ChangeLog<E>(capacity);
+        }
+        return this.changeLog;
+    }
+
+    /**
+     * Returns a copy of this set together with the sequence number of the
+     * change log to resume reading changes from. The copy is not atomic: it
+     * may already reflect some of the changes following that sequence number,
+     * and applying them all in order brings it to the state of the set.
+     *
+     * @return the snapshot of this set.
+     * @throws IllegalStateException if the change log is not enabled.
+     */
+    public ChangeSnapshot<E> changeSnapshot() {
+        ChangeLog<E> log = this.changeLog;
+        if (log == null) {
+            throw new IllegalStateException("change log is not enabled");
+        }
+        long nextSequence = log.getNextSequence();
+        List<E> elements = Collections.unmodifiableList(new ArrayList<E>(this.map.keySet()));
+        return new ChangeSnapshot<E>(elements, nextSequence);
+    }
+
+    private boolean addAndRecord(E e, ChangeLog<E> log) {
+        Lock lock = changeLockFor(e);
+        lock.lock();
+        try {
+            if (this.map.put(e, Boolean.TRUE) != null) {
+                return false;
+            }
+            this.count.increment();
+            log.record(Change.Type.ADD, e, -1);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean removeAndRecord(Object o, ChangeLog<E> log) {
+        Lock lock = changeLockFor(o);
+        lock.lock();
+        try {
+            if (this.map.remove(o) == null) {
+                return false;
+            }
+            this.count.decrement();
+            log.record(Change.Type.REMOVE, (E) o, -1);
             return true;
+        } finally {
+            lock.unlock();
         }
     }
 
+    private Lock changeLockFor(Object o) {
+        int h = o.hashCode() * 0x9E3779B9;
+        return this.changeLocks[(h ^ (h >>> 16)) & (CHANGE_LOCK_COUNT - 1)];
+    }
+
     @Override
     public boolean containsAll(Collection<?> clctn) {
         return this.map.keySet().containsAll(clctn);
@@ -150,18 +392,319 @@ public class ConcurrentSet<E extends Object> implements Set<E> {
         return collectionChanged;
     }
 
+    /**
+     * Retains only the elements contained in the given collection. Like the
+     * key set of the backing map, this iterates over this set and removes the
+     * elements the collection does not contain, one at a time so that
+     * {@link #mappingCount()} stays exact.
+     *
+     * @param clctn the elements to retain.
+     * @return true if this set changed.
+     */
     @Override
     public boolean retainAll(Collection<?> clctn) {
-        return this.map.keySet().retainAll(clctn);
+        boolean collectionChanged = false;
+        for (E e : this.map.keySet()) {
+            if (!clctn.contains(e) && this.remove(e)) {
+                collectionChanged = true;
+            }
+        }
+        return collectionChanged;
     }
 
+    /**
+     * Removes all the elements contained in the given collection. Like the key
+     * set of the backing map, this iterates over the smaller of this set and
+     * the given collection, and removes the elements one at a time so that
+     * {@link #mappingCount()} stays exact.
+     *
+     * @param clctn the elements to remove.
+     * @return true if this set changed.
+     */
     @Override
     public boolean removeAll(Collection<?> clctn) {
-        return this.map.keySet().removeAll(clctn);
+        boolean collectionChanged = false;
+        if (this.map.size() > clctn.size()) {
+            for (Object o : clctn) {
+                if (this.remove(o)) {
+                    collectionChanged = true;
+                }
+            }
+        } else {
+            for (E e : this.map.keySet()) {
+                if (clctn.contains(e) && this.remove(e)) {
+                    collectionChanged = true;
+                }
+            }
+        }
+        return collectionChanged;
     }
 
+    /**
+     * Removes all the elements of this set. Unlike the clear method of the
+     * backing map, which empties it segment by segment, elements are removed
+     * one at a time, so that {@link #mappingCount()} stays exact under
+     * concurrent updates and the change log records every removal. The cost
+     * is that of a removal per element.
+     */
     @Override
     public void clear() {
-        this.map.clear();
+        for (E e : this.map.keySet()) {
+            this.remove(e);
+        }
+    }
+
+    /**
+     * Adds all the elements of the given collection, splitting the work across
+     * the threads of a shared {@link ForkJoinPool}. Collections smaller than
+     * {@link #PARALLEL_THRESHOLD} are added sequentially. Like {@link
+     * #addAll(Collection)}, the operation is not atomic.
+     *
+     * @param clctn the elements to add, it must not be modified during the
+     * call.
+     * @return true if this set changed as a result of the call.
+     */
+    public boolean parallelAddAll(Collection<? extends E> clctn) {
+        return parallelAddAll(clctn, SharedPool.POOL);
+    }
+
+    /**
+     * Adds all the elements of the given collection, splitting the work across
+     * the threads of the given {@link ForkJoinPool}. Collections smaller than
+     * {@link #PARALLEL_THRESHOLD} are added sequentially.
+     *
+     * @param clctn the elements to add, it must not be modified during the
+     * call.
+     * @param pool the pool running the work.
+     * @return true if this set changed as a result of the call.
+     */
+    public boolean parallelAddAll(Collection<? extends E> clctn, ForkJoinPool pool) {
+        if (clctn.size() < PARALLEL_THRESHOLD) {
+            return addAll(clctn);
+        }
+        return runInParallel(BulkOperation.ADD, clctn.toArray(), null, pool);
+    }
+
+    /**
+     * Removes all the elements of the given collection, splitting the work
+     * across the threads of a shared {@link ForkJoinPool}. Collections smaller
+     * than {@link #PARALLEL_THRESHOLD} are removed sequentially.
+     *
+     * @param clctn the elements to remove, it must not be modified during the
+     * call.
+     * @return true if this set changed as a result of the call.
+     */
+    public boolean parallelRemoveAll(Collection<?> clctn) {
+        return parallelRemoveAll(clctn, SharedPool.POOL);
+    }
+
+    /**
+     * Removes all the elements of the given collection, splitting the work
+     * across the threads of the given {@link ForkJoinPool}. Collections
+     * smaller than {@link #PARALLEL_THRESHOLD} are removed sequentially.
+     *
+     * @param clctn the elements to remove, it must not be modified during the
+     * call.
+     * @param pool the pool running the work.
+     * @return true if this set changed as a result of the call.
+     */
+    public boolean parallelRemoveAll(Collection<?> clctn, ForkJoinPool pool) {
+        if (clctn.size() < PARALLEL_THRESHOLD) {
+            return removeAll(clctn);
+        }
+        return runInParallel(BulkOperation.REMOVE, clctn.toArray(), null, pool);
+    }
+
+    /**
+     * Removes all the elements that are not contained in the given collection,
+     * splitting the work across the threads of a shared {@link ForkJoinPool}.
+     * Sets smaller than {@link #PARALLEL_THRESHOLD} are processed
+     * sequentially.
+     *
+     * @param clctn the elements to retain, it must not be modified during the
+     * call and should offer fast lookups.
+     * @return true if this set changed as a result of the call.
+     */
+    public boolean parallelRetainAll(Collection<?> clctn) {
+        return parallelRetainAll(clctn, SharedPool.POOL);
+    }
+
+    /**
+     * Removes all the elements that are not contained in the given collection,
+     * splitting the work across the threads of the given {@link ForkJoinPool}.
+     * Sets smaller than {@link #PARALLEL_THRESHOLD} are processed
+     * sequentially.
+     *
+     * @param clctn the elements to retain, it must not be modified during the
+     * call and should offer fast lookups.
+     * @param pool the pool running the work.
+     * @return true if this set changed as a result of the call.
+     */
+    public boolean parallelRetainAll(Collection<?> clctn, ForkJoinPool pool) {
+        Object[] elements = this.map.keySet().toArray();
+        if (elements.length < PARALLEL_THRESHOLD) {
+            return retainAll(clctn);
+        }
+        return runInParallel(BulkOperation.RETAIN, elements, clctn, pool);
+    }
+
+    /**
+     * Returns true if this set contains all the elements of the given
+     * collection, splitting the lookups across the threads of a shared {@link
+     * ForkJoinPool}. Collections smaller than {@link #PARALLEL_THRESHOLD} are
+     * checked sequentially.
+     *
+     * @param clctn the elements to look up, it must not be modified during the
+     * call.
+     * @return true if this set contains all the elements of clctn.
+     */
+    public boolean parallelContainsAll(Collection<?> clctn) {
+        return parallelContainsAll(clctn, SharedPool.POOL);
+    }
+
+    /**
+     * Returns true if this set contains all the elements of the given
+     * collection, splitting the lookups across the threads of the given {@link
+     * ForkJoinPool}. Collections smaller than {@link #PARALLEL_THRESHOLD} are
+     * checked sequentially.
+     *
+     * @param clctn the elements to look up, it must not be modified during the
+     * call.
+     * @param pool the pool running the work.
+     * @return true if this set contains all the elements of clctn.
+     */
+    public boolean parallelContainsAll(Collection<?> clctn, ForkJoinPool pool) {
+        if (clctn.size() < PARALLEL_THRESHOLD) {
+            return containsAll(clctn);
+        }
+        return runInParallel(BulkOperation.CONTAINS, clctn.toArray(), null, pool);
+    }
+
+    private boolean runInParallel(BulkOperation operation, Object[] elements, Collection<?> other, ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool cannot be null");
+        }
+        int batchSize = Math.max(MIN_PARALLEL_BATCH, elements.length / (pool.getParallelism() * 4));
+        return pool.invoke(new BulkTask(operation, elements, 0, elements.length, batchSize, other));
+    }
+
+    /**
+     * Writes the elements of this set to the given snapshot file, encoding
+     * them with the given codec. The file is written to a temporary file first
+     * and then moved over the given file, so a crash never leaves a partially
+     * written snapshot. Like {@link #iterator()}, the snapshot is weakly
+     * consistent: it reflects the state of the set at some point at or since
+     * the start of the call, and may or may not include concurrent changes.
+     *
+     * @param file the snapshot file.
+     * @param codec the codec encoding the elements.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    @SuppressWarnings("unchecked")
+    public void writeSnapshot(File file, ElementCodec<? super E> codec) throws IOException {
+        SetSnapshotFile.write(file, toArray(), (ElementCodec<Object>) codec);
+    }
+
+    /**
+     * Adds the elements of the given snapshot file to this set. The chunks of
+     * the file are memory-mapped and decoded in parallel by the threads of a
+     * shared {@link ForkJoinPool}, each thread adding the elements it decodes
+     * directly to this set.
+     *
+     * @param file the snapshot file, written by {@link #writeSnapshot(File,
+     * ElementCodec)} or by {@link ReadWriteSet#writeSnapshot(File,
+     * ElementCodec)}.
+     * @param codec the codec decoding the elements.
+     * @throws IOException if the snapshot cannot be read.
+     */
+    public void loadSnapshot(File file, ElementCodec<? extends E> codec) throws IOException {
+        loadSnapshot(file, codec, SharedPool.POOL);
+    }
+
+    /**
+     * Adds the elements of the given snapshot file to this set. The chunks of
+     * the file are memory-mapped and decoded in parallel by the threads of the
+     * given {@link ForkJoinPool}, each thread adding the elements it decodes
+     * directly to this set.
+     *
+     * @param file the snapshot file.
+     * @param codec the codec decoding the elements.
+     * @param pool the pool running the work.
+     * @throws IOException if the snapshot cannot be read.
+     */
+    public void loadSnapshot(File file, ElementCodec<? extends E> codec, ForkJoinPool pool) throws IOException {
+        SetSnapshotFile.<E>load(file, codec, pool, this);
+    }
+
+    private enum BulkOperation {
+
+        ADD, REMOVE, RETAIN, CONTAINS
+    }
+
+    static class SharedPool {
+
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    private class BulkTask extends RecursiveTask<Boolean> {
+
+        private BulkOperation operation;
+        private Object[] elements;
+        private int from;
+        private int to;
+        private int batchSize;
+        private Collection<?> other;
+
+        BulkTask(BulkOperation operation, Object[] elements, int from, int to, int batchSize, Collection<?> other) {
+            this.operation = operation;
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+            this.other = other;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (this.to - this.from <= this.batchSize) {
+                return computeSequentially();
+            }
+            int middle = (this.from + this.to) >>> 1;
+            BulkTask left = new BulkTask(this.operation, this.elements, this.from, middle, this.batchSize, this.other);
+            BulkTask right = new BulkTask(this.operation, this.elements, middle, this.to, this.batchSize, this.other);
+            left.fork();
+            boolean rightResult = right.compute();
+            boolean leftResult = left.join();
+            if (this.operation == BulkOperation.CONTAINS) {
+                return leftResult && rightResult;
+            }
+            return leftResult || rightResult;
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean computeSequentially() {
+            boolean result = this.operation == BulkOperation.CONTAINS;
+            for (int i = this.from; i < this.to; i++) {
+                Object element = this.elements[i];
+                switch (this.operation) {
+                    case ADD:
+                        result |= add((E) element);
+                        break;
+                    case REMOVE:
+                        result |= remove(element);
+                        break;
+                    case RETAIN:
+                        if (!this.other.contains(element)) {
+                            result |= remove(element);
+                        }
+                        break;
+                    default:
+                        if (!contains(element)) {
+                            return false;
+                        }
+                }
+            }
+            return result;
+        }
     }
 }
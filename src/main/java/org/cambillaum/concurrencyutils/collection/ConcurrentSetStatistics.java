@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Arrays;
+
+/**
+ * A model of the sizing of a {@link ConcurrentSet}, used to judge its initial
+ * capacity and load factor, and the hash codes of its elements, from real
+ * data. <p>The internal tables of the backing map are not accessible, so the
+ * table capacity is the one a Java 8 ConcurrentHashMap created with the same
+ * parameters reaches for the current number of elements, and the collision
+ * chains are obtained by spreading the hash codes of the elements over a
+ * single table of that capacity, as that map does. The segments of the Java 7
+ * map size their tables separately and are not modelled, so the concurrency
+ * level is only reported as configured. The chain lengths mainly reflect the
+ * quality of the elements' hash codes.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentSetStatistics {
+
+    private long size;
+    private int initialCapacity;
+    private float loadFactor;
+    private int concurrencyLevel;
+    private int tableCapacity;
+    private int usedBuckets;
+    private int[] chainLengthCounts;
+
+    ConcurrentSetStatistics(long size, int initialCapacity, float loadFactor, int concurrencyLevel,
+            int tableCapacity, int usedBuckets, int[] chainLengthCounts) {
+        this.size = size;
+        this.initialCapacity = initialCapacity;
+        this.loadFactor = loadFactor;
+        this.concurrencyLevel = concurrencyLevel;
+        this.tableCapacity = tableCapacity;
+        this.usedBuckets = usedBuckets;
+        this.chainLengthCounts = chainLengthCounts;
+    }
+
+    /**
+     * Returns the number of elements when the snapshot was taken.
+     *
+     * @return the number of elements.
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Returns the initial capacity the set was created with.
+     *
+     * @return the initial capacity.
+     */
+    public int getInitialCapacity() {
+        return this.initialCapacity;
+    }
+
+    /**
+     * Returns the load factor the set was created with.
+     *
+     * @return the load factor.
+     */
+    public float getLoadFactor() {
+        return this.loadFactor;
+    }
+
+    /**
+     * Returns the concurrency level the set was created with.
+     *
+     * @return the concurrency level.
+     */
+    public int getConcurrencyLevel() {
+        return this.concurrencyLevel;
+    }
+
+    /**
+     * Returns the number of buckets of the table holding the elements.
+     *
+     * @return the table capacity.
+     */
+    public int getTableCapacity() {
+        return this.tableCapacity;
+    }
+
+    /**
+     * Returns the ratio between the number of elements and the table
+     * capacity.
+     *
+     * @return the load of the table.
+     */
+    public double getLoad() {
+        return (double) this.size / this.tableCapacity;
+    }
+
+    /**
+     * Returns the number of buckets holding at least one element.
+     *
+     * @return the number of used buckets.
+     */
+    public int getUsedBuckets() {
+        return this.usedBuckets;
+    }
+
+    /**
+     * Returns the length of the longest collision chain.
+     *
+     * @return the length of the longest collision chain.
+     */
+    public int getMaxChainLength() {
+        return this.chainLengthCounts.length - 1;
+    }
+
+    /**
+     * Returns the average length of the chains of the used buckets.
+     *
+     * @return the average chain length, 0 if the set is empty.
+     */
+    public double getAverageChainLength() {
+        return this.usedBuckets == 0 ? 0 : (double) this.size / this.usedBuckets;
+    }
+
+    /**
+     * Returns the number of buckets for each chain length: the value at index
+     * i is the number of buckets holding exactly i elements.
+     *
+     * @return the number of buckets for each chain length.
+     */
+    public int[] getChainLengthCounts() {
+        return this.chainLengthCounts.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentSetStatistics{size=" + this.size
+                + ", initialCapacity=" + this.initialCapacity
+                + ", loadFactor=" + this.loadFactor
+                + ", concurrencyLevel=" + this.concurrencyLevel
+                + ", tableCapacity=" + this.tableCapacity
+                + ", load=" + getLoad()
+                + ", usedBuckets=" + this.usedBuckets
+                + ", maxChainLength=" + getMaxChainLength()
+                + ", chainLengthCounts=" + Arrays.toString(this.chainLengthCounts) + "}";
+    }
+}
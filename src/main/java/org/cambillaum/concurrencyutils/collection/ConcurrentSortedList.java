@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A sorted implementation of the {@link List } interface where readers never
+ * block. <p>Elements are kept in an immutable balanced tree (a treap) whose
+ * nodes know the size of their subtree, so that insertion, removal, access by
+ * index, {@link #indexOf(Object)} and {@link #range(Object, Object)} all run
+ * in O(log n). Writers build a new version of the tree sharing all unchanged
+ * nodes with the previous one and publish it with a compare-and-set, retrying
+ * if another writer published first. Readers simply read the current version,
+ * which also makes {@link #snapshot()}, iterators and sub lists free of any
+ * copy and never affected by subsequent modifications. <p>Duplicates are
+ * allowed: an element is inserted after the elements it compares equal to.
+ * Elements are compared with their natural ordering or with the comparator
+ * provided at construction, which is also used in place of equals() by
+ * {@link #contains(Object)}, {@link #indexOf(Object)} and {@link #remove(Object)}.
+ * Since positions are decided by the ordering, {@link #add(int, Object)} and
+ * {@link #set(int, Object)} are not supported, and null elements are not
+ * permitted.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentSortedList<E extends Object> extends AbstractList<E> implements RandomAccess {
+
+    private Comparator<? super E> comparator;
+    private AtomicReference<Node<E>> root = new AtomicReference<Node<E>>();
+
+    /**
+     * Constructs a new empty ConcurrentSortedList sorting its elements
+     * according to their natural ordering.
+     */
+    public ConcurrentSortedList() {
+        this(null);
+    }
+
+    /**
+     * Constructs a new empty ConcurrentSortedList sorting its elements with
+     * the given comparator.
+     *
+     * @param comparator the comparator used to sort the elements, or null to
+     * use their natural ordering.
+     */
+    public ConcurrentSortedList(Comparator<? super E> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Inserts the given element at its sorted position, after any element
+     * comparing equal to it.
+     *
+     * @param e the element to insert.
+     * @return the index at which the element was inserted.
+     */
+    public int insert(E e) {
+        validateElement(e);
+        int priority = ThreadLocalRandom.current().nextInt();
+        while (true) {
+            Node<E> current = this.root.get();
+            int index = countLowerOrEqual(current, e);
+            if (this.root.compareAndSet(current, insert(current, e, priority))) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Inserts the given element at its sorted position. This method is
+     * equivalent to {@link #insert(Object)}.
+     *
+     * @param e the element to insert.
+     * @return true.
+     */
+    @Override
+    public boolean add(E e) {
+        insert(e);
+        return true;
+    }
+
+    /**
+     * Inserts all the elements of the given collection at their sorted
+     * positions as one atomic operation.
+     *
+     * @param clctn the elements to insert.
+     * @return true if this list changed as a result of the call.
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> clctn) {
+        if (clctn.isEmpty()) {
+            return false;
+        }
+        List<E> elements = new ArrayList<E>(clctn);
+        int[] priorities = new int[elements.size()];
+        for (int i = 0; i < priorities.length; i++) {
+            validateElement(elements.get(i));
+            priorities[i] = ThreadLocalRandom.current().nextInt();
+        }
+        while (true) {
+            Node<E> current = this.root.get();
+            Node<E> updated = current;
+            for (int i = 0; i < priorities.length; i++) {
+                updated = insert(updated, elements.get(i), priorities[i]);
+            }
+            if (this.root.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public E get(int i) {
+        Node<E> current = this.root.get();
+        checkIndex(i, size(current));
+        return select(current, i);
+    }
+
+    @Override
+    public int size() {
+        return size(this.root.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.root.get() == null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(this.root.get(), o) >= 0;
+    }
+
+    /**
+     * Returns the index of the first element comparing equal to the given
+     * object, or -1 if there is none.
+     *
+     * @param o the object to search for.
+     * @return the index of the first element comparing equal to o, or -1.
+     */
+    @Override
+    public int indexOf(Object o) {
+        return indexOf(this.root.get(), o);
+    }
+
+    /**
+     * Returns the index of the last element comparing equal to the given
+     * object, or -1 if there is none.
+     *
+     * @param o the object to search for.
+     * @return the index of the last element comparing equal to o, or -1.
+     */
+    @Override
+    public int lastIndexOf(Object o) {
+        if (o == null) {
+            return -1;
+        }
+        Node<E> current = this.root.get();
+        int index = countLowerOrEqual(current, toElement(o)) - 1;
+        if (index >= 0 && compare(select(current, index), toElement(o)) == 0) {
+            return index;
+        }
+        return -1;
+    }
+
+    @Override
+    public E remove(int i) {
+        while (true) {
+            Node<E> current = this.root.get();
+            checkIndex(i, size(current));
+            E removed = select(current, i);
+            if (this.root.compareAndSet(current, removeAt(current, i))) {
+                return removed;
+            }
+        }
+    }
+
+    /**
+     * Removes the first element comparing equal to the given object.
+     *
+     * @param o the object to remove.
+     * @return true if an element was removed.
+     */
+    @Override
+    public boolean remove(Object o) {
+        while (true) {
+            Node<E> current = this.root.get();
+            int index = indexOf(current, o);
+            if (index < 0) {
+                return false;
+            }
+            if (this.root.compareAndSet(current, removeAt(current, index))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> clctn) {
+        return filter(clctn, false);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> clctn) {
+        return filter(clctn, true);
+    }
+
+    @Override
+    public void clear() {
+        this.root.set(null);
+    }
+
+    /**
+     * Returns an immutable view of the elements that are greater than or
+     * equal to fromElement and strictly lower than toElement.
+     *
+     * @param fromElement the low endpoint, inclusive.
+     * @param toElement the high endpoint, exclusive.
+     * @return an immutable view of the elements in the given range.
+     */
+    public List<E> range(E fromElement, E toElement) {
+        validateElement(fromElement);
+        validateElement(toElement);
+        Node<E> current = this.root.get();
+        int from = countLower(current, fromElement);
+        int to = Math.max(from, countLower(current, toElement));
+        return new SnapshotView<E>(current, from, to);
+    }
+
+    /**
+     * Returns an immutable view of the elements between the given indexes.
+     * The view is taken on the current version of this list and is not
+     * affected by subsequent modifications.
+     *
+     * @param i the low endpoint, inclusive.
+     * @param i1 the high endpoint, exclusive.
+     * @return an immutable view of the elements between the given indexes.
+     */
+    @Override
+    public List<E> subList(int i, int i1) {
+        Node<E> current = this.root.get();
+        if (i < 0 || i1 > size(current) || i > i1) {
+            throw new IndexOutOfBoundsException("From: " + i + ", To: " + i1 + ", Size: " + size(current));
+        }
+        return new SnapshotView<E>(current, i, i1);
+    }
+
+    /**
+     * Returns an immutable view of the current content of this list. Taking a
+     * snapshot does not copy anything and the snapshot is not affected by
+     * subsequent modifications.
+     *
+     * @return an immutable view of the current content of this list.
+     */
+    public List<E> snapshot() {
+        Node<E> current = this.root.get();
+        return new SnapshotView<E>(current, 0, size(current));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new SnapshotIterator<E>(this.root.get());
+    }
+
+    @Override
+    public ListIterator<E> listIterator() {
+        return snapshot().listIterator();
+    }
+
+    @Override
+    public ListIterator<E> listIterator(int i) {
+        return snapshot().listIterator(i);
+    }
+
+    @Override
+    public Object[] toArray() {
+        return snapshot().toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] ts) {
+        return snapshot().toArray(ts);
+    }
+
+    private boolean filter(Collection<?> clctn, boolean retain) {
+        while (true) {
+            Node<E> current = this.root.get();
+            Node<E> updated = current;
+            int index = 0;
+            Iterator<E> iterator = new SnapshotIterator<E>(current);
+            while (iterator.hasNext()) {
+                if (clctn.contains(iterator.next()) == retain) {
+                    index++;
+                } else {
+                    updated = removeAt(updated, index);
+                }
+            }
+            if (updated == current) {
+                return false;
+            }
+            if (this.root.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    private int indexOf(Node<E> current, Object o) {
+        if (o == null) {
+            return -1;
+        }
+        E e = toElement(o);
+        int index = countLower(current, e);
+        if (index < size(current) && compare(select(current, index), e) == 0) {
+            return index;
+        }
+        return -1;
+    }
+
+    private Node<E> insert(Node<E> node, E e, int priority) {
+        if (node == null) {
+            return new Node<E>(e, priority, null, null);
+        }
+        if (compare(e, node.value) < 0) {
+            Node<E> left = insert(node.left, e, priority);
+            if (left.priority > node.priority) {
+                return new Node<E>(left.value, left.priority, left.left, new Node<E>(node.value, node.priority, left.right, node.right));
+            }
+            return new Node<E>(node.value, node.priority, left, node.right);
+        } else {
+            Node<E> right = insert(node.right, e, priority);
+            if (right.priority > node.priority) {
+                return new Node<E>(right.value, right.priority, new Node<E>(node.value, node.priority, node.left, right.left), right.right);
+            }
+            return new Node<E>(node.value, node.priority, node.left, right);
+        }
+    }
+
+    private Node<E> removeAt(Node<E> node, int index) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return new Node<E>(node.value, node.priority, removeAt(node.left, index), node.right);
+        } else if (index == leftSize) {
+            return merge(node.left, node.right);
+        } else {
+            return new Node<E>(node.value, node.priority, node.left, removeAt(node.right, index - leftSize - 1));
+        }
+    }
+
+    private Node<E> merge(Node<E> lower, Node<E> upper) {
+        if (lower == null) {
+            return upper;
+        }
+        if (upper == null) {
+            return lower;
+        }
+        if (lower.priority > upper.priority) {
+            return new Node<E>(lower.value, lower.priority, lower.left, merge(lower.right, upper));
+        }
+        return new Node<E>(upper.value, upper.priority, merge(lower, upper.left), upper.right);
+    }
+
+    private int countLower(Node<E> node, E e) {
+        int count = 0;
+        while (node != null) {
+            if (compare(node.value, e) < 0) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    private int countLowerOrEqual(Node<E> node, E e) {
+        int count = 0;
+        while (node != null) {
+            if (compare(node.value, e) <= 0) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    private static <E> E select(Node<E> node, int index) {
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.value;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void checkIndex(int i, int size) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(E e1, E e2) {
+        if (this.comparator != null) {
+            return this.comparator.compare(e1, e2);
+        }
+        return ((Comparable<? super E>) e1).compareTo(e2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E toElement(Object o) {
+        return (E) o;
+    }
+
+    private void validateElement(E e) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+    }
+
+    private static final class Node<E> {
+
+        private final E value;
+        private final int priority;
+        private final Node<E> left;
+        private final Node<E> right;
+        private final int size;
+
+        Node(E value, int priority, Node<E> left, Node<E> right) {
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    private static class SnapshotView<E> extends AbstractList<E> implements RandomAccess {
+
+        private Node<E> root;
+        private int from;
+        private int to;
+
+        SnapshotView(Node<E> root, int from, int to) {
+            this.root = root;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public E get(int i) {
+            checkIndex(i, this.to - this.from);
+            return select(this.root, this.from + i);
+        }
+
+        @Override
+        public int size() {
+            return this.to - this.from;
+        }
+
+        @Override
+        public List<E> subList(int i, int i1) {
+            if (i < 0 || i1 > size() || i > i1) {
+                throw new IndexOutOfBoundsException("From: " + i + ", To: " + i1 + ", Size: " + size());
+            }
+            return new SnapshotView<E>(this.root, this.from + i, this.from + i1);
+        }
+    }
+
+    private static class SnapshotIterator<E> implements Iterator<E> {
+
+        private Deque<Node<E>> path = new ArrayDeque<Node<E>>();
+
+        SnapshotIterator(Node<E> root) {
+            pushLeftPath(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.path.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (this.path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<E> node = this.path.pop();
+            pushLeftPath(node.right);
+            return node.value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Iterators work on a snapshot and cannot remove elements");
+        }
+
+        private void pushLeftPath(Node<E> node) {
+            while (node != null) {
+                this.path.push(node);
+                node = node.left;
+            }
+        }
+    }
+}
@@ -0,0 +1,722 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A sorted implementation of the {@link Set } interface where readers never
+ * block. <p>Like {@link ConcurrentSortedList}, elements are kept in an
+ * immutable treap whose nodes know the size of their subtree, and writers
+ * publish new versions of the tree with a compare-and-set. Besides the
+ * operations of {@link SortedSet}, this makes {@link #rank(Object)} and
+ * {@link #countInRange(Object, Object)} run in O(log n) on a consistent
+ * version of the set, and range scans never wait for writers. <p>{@link
+ * #addAllSorted(List)} inserts a run of sorted elements by building a treap
+ * from the run in linear time and merging it with the current tree, which
+ * costs O(m log(n/m + 1)) for m elements instead of O(m log n), and publishes
+ * the whole run atomically. {@link #addAll(Collection)} sorts its argument
+ * and uses the same path. <p>The views returned by {@link #subSet(Object,
+ * Object)}, {@link #headSet(Object)} and {@link #tailSet(Object)} are backed
+ * by this set, and iterators work on the version of the tree current when
+ * they were created. Null elements are not permitted.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentSortedSet<E extends Object> extends AbstractSet<E> implements SortedSet<E> {
+
+    private Comparator<? super E> comparator;
+    private AtomicReference<Node<E>> root = new AtomicReference<Node<E>>();
+
+    /**
+     * Constructs a new empty ConcurrentSortedSet sorting its elements
+     * according to their natural ordering.
+     */
+    public ConcurrentSortedSet() {
+        this((Comparator<? super E>) null);
+    }
+
+    /**
+     * Constructs a new empty ConcurrentSortedSet sorting its elements with the
+     * given comparator.
+     *
+     * @param comparator the comparator used to sort the elements, or null to
+     * use their natural ordering.
+     */
+    public ConcurrentSortedSet(Comparator<? super E> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Constructs a new ConcurrentSortedSet containing the elements of the
+     * given collection, sorted according to their natural ordering.
+     *
+     * @param clctn the elements to add.
+     */
+    public ConcurrentSortedSet(Collection<? extends E> clctn) {
+        this((Comparator<? super E>) null);
+        addAll(clctn);
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return this.comparator;
+    }
+
+    @Override
+    public int size() {
+        return size(this.root.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.root.get() == null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+        return find(this.root.get(), toElement(o)) != null;
+    }
+
+    @Override
+    public boolean add(E e) {
+        validateElement(e);
+        int priority = ThreadLocalRandom.current().nextInt();
+        while (true) {
+            Node<E> current = this.root.get();
+            if (find(current, e) != null) {
+                return false;
+            }
+            if (this.root.compareAndSet(current, insert(current, e, priority))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        E e = toElement(o);
+        while (true) {
+            Node<E> current = this.root.get();
+            if (find(current, e) == null) {
+                return false;
+            }
+            if (this.root.compareAndSet(current, remove(current, e))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds all the elements of the given collection as one atomic operation.
+     * The elements are sorted and inserted with {@link #addAllSorted(List)}.
+     *
+     * @param clctn the elements to add.
+     * @return true if this set changed as a result of the call.
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> clctn) {
+        List<E> elements = new ArrayList<E>(clctn);
+        if (!(clctn instanceof SortedSet && ((SortedSet<?>) clctn).comparator() == this.comparator)) {
+            for (E e : elements) {
+                validateElement(e);
+            }
+            Collections.sort(elements, new Comparator<E>() {
+                @Override
+                public int compare(E e1, E e2) {
+                    return ConcurrentSortedSet.this.compare(e1, e2);
+                }
+            });
+        }
+        return addAllSorted(elements);
+    }
+
+    /**
+     * Adds a run of elements sorted in ascending order as one atomic
+     * operation. Consecutive elements comparing equal are added once. The run
+     * is turned into a treap in linear time and merged with the current tree,
+     * which is much cheaper than inserting the elements one at a time,
+     * especially when the run is large compared to this set.
+     *
+     * @param sortedElements the elements to add, in ascending order.
+     * @return true if this set changed as a result of the call.
+     * @throws IllegalArgumentException if the elements are not sorted.
+     */
+    public boolean addAllSorted(List<? extends E> sortedElements) {
+        Node<E> run = build(sortedElements);
+        if (run == null) {
+            return false;
+        }
+        while (true) {
+            Node<E> current = this.root.get();
+            Node<E> updated = union(current, run);
+            if (size(updated) == size(current)) {
+                return false;
+            }
+            if (this.root.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> clctn) {
+        return filter(clctn, false);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> clctn) {
+        return filter(clctn, true);
+    }
+
+    @Override
+    public void clear() {
+        this.root.set(null);
+    }
+
+    /**
+     * Returns the number of elements of this set strictly lower than the given
+     * element, which is the index the element has or would have in this set.
+     *
+     * @param e the element to rank.
+     * @return the number of elements lower than e.
+     */
+    public int rank(E e) {
+        validateElement(e);
+        return countLower(this.root.get(), e);
+    }
+
+    /**
+     * Returns the number of elements that are greater than or equal to
+     * fromElement and strictly lower than toElement. The count is computed in
+     * O(log n) on a single version of this set.
+     *
+     * @param fromElement the low endpoint, inclusive.
+     * @param toElement the high endpoint, exclusive.
+     * @return the number of elements in the given range.
+     */
+    public int countInRange(E fromElement, E toElement) {
+        validateElement(fromElement);
+        validateElement(toElement);
+        Node<E> current = this.root.get();
+        return Math.max(0, countLower(current, toElement) - countLower(current, fromElement));
+    }
+
+    /**
+     * Returns the element at the given rank, the lowest element having rank
+     * 0.
+     *
+     * @param rank the rank of the element.
+     * @return the element at the given rank.
+     */
+    public E select(int rank) {
+        Node<E> current = this.root.get();
+        checkIndex(rank, size(current));
+        return select(current, rank);
+    }
+
+    @Override
+    public E first() {
+        Node<E> node = this.root.get();
+        if (node == null) {
+            throw new NoSuchElementException();
+        }
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.value;
+    }
+
+    @Override
+    public E last() {
+        Node<E> node = this.root.get();
+        if (node == null) {
+            throw new NoSuchElementException();
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.value;
+    }
+
+    @Override
+    public SortedSet<E> subSet(E fromElement, E toElement) {
+        validateElement(fromElement);
+        validateElement(toElement);
+        if (compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException("fromElement cannot be greater than toElement");
+        }
+        return new RangeView(fromElement, toElement);
+    }
+
+    @Override
+    public SortedSet<E> headSet(E toElement) {
+        validateElement(toElement);
+        return new RangeView(null, toElement);
+    }
+
+    @Override
+    public SortedSet<E> tailSet(E fromElement) {
+        validateElement(fromElement);
+        return new RangeView(fromElement, null);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new RangeIterator(this.root.get(), null, null);
+    }
+
+    private boolean filter(Collection<?> clctn, boolean retain) {
+        while (true) {
+            Node<E> current = this.root.get();
+            Node<E> updated = current;
+            Iterator<E> iterator = new RangeIterator(current, null, null);
+            while (iterator.hasNext()) {
+                E e = iterator.next();
+                if (clctn.contains(e) != retain) {
+                    updated = remove(updated, e);
+                }
+            }
+            if (updated == current) {
+                return false;
+            }
+            if (this.root.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    private Node<E> find(Node<E> node, E e) {
+        while (node != null) {
+            int comparison = compare(e, node.value);
+            if (comparison == 0) {
+                return node;
+            }
+            node = comparison < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    private Node<E> insert(Node<E> node, E e, int priority) {
+        if (node == null) {
+            return new Node<E>(e, priority, null, null);
+        }
+        if (compare(e, node.value) < 0) {
+            Node<E> left = insert(node.left, e, priority);
+            if (left.priority > node.priority) {
+                return new Node<E>(left.value, left.priority, left.left, new Node<E>(node.value, node.priority, left.right, node.right));
+            }
+            return new Node<E>(node.value, node.priority, left, node.right);
+        } else {
+            Node<E> right = insert(node.right, e, priority);
+            if (right.priority > node.priority) {
+                return new Node<E>(right.value, right.priority, new Node<E>(node.value, node.priority, node.left, right.left), right.right);
+            }
+            return new Node<E>(node.value, node.priority, node.left, right);
+        }
+    }
+
+    private Node<E> remove(Node<E> node, E e) {
+        int comparison = compare(e, node.value);
+        if (comparison < 0) {
+            return new Node<E>(node.value, node.priority, remove(node.left, e), node.right);
+        } else if (comparison > 0) {
+            return new Node<E>(node.value, node.priority, node.left, remove(node.right, e));
+        }
+        return merge(node.left, node.right);
+    }
+
+    private Node<E> merge(Node<E> lower, Node<E> upper) {
+        if (lower == null) {
+            return upper;
+        }
+        if (upper == null) {
+            return lower;
+        }
+        if (lower.priority > upper.priority) {
+            return new Node<E>(lower.value, lower.priority, lower.left, merge(lower.right, upper));
+        }
+        return new Node<E>(upper.value, upper.priority, merge(lower, upper.left), upper.right);
+    }
+
+    /**
+     * Merges two treaps, keeping a single copy of the elements present in
+     * both. Unchanged subtrees are shared with the arguments.
+     */
+    private Node<E> union(Node<E> first, Node<E> second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        if (first.priority < second.priority) {
+            Node<E> swap = first;
+            first = second;
+            second = swap;
+        }
+        Node<E> lower = lowerPart(second, first.value);
+        Node<E> upper = upperPart(second, first.value);
+        Node<E> left = union(first.left, lower);
+        Node<E> right = union(first.right, upper);
+        if (left == first.left && right == first.right) {
+            return first;
+        }
+        return new Node<E>(first.value, first.priority, left, right);
+    }
+
+    private Node<E> lowerPart(Node<E> node, E e) {
+        if (node == null) {
+            return null;
+        }
+        int comparison = compare(node.value, e);
+        if (comparison < 0) {
+            Node<E> right = lowerPart(node.right, e);
+            return right == node.right ? node : new Node<E>(node.value, node.priority, node.left, right);
+        } else if (comparison > 0) {
+            return lowerPart(node.left, e);
+        }
+        return node.left;
+    }
+
+    private Node<E> upperPart(Node<E> node, E e) {
+        if (node == null) {
+            return null;
+        }
+        int comparison = compare(node.value, e);
+        if (comparison > 0) {
+            Node<E> left = upperPart(node.left, e);
+            return left == node.left ? node : new Node<E>(node.value, node.priority, left, node.right);
+        } else if (comparison < 0) {
+            return upperPart(node.right, e);
+        }
+        return node.right;
+    }
+
+    /**
+     * Builds a treap holding the given sorted elements in linear time, using
+     * the stack-based construction of a Cartesian tree over random
+     * priorities.
+     */
+    private Node<E> build(List<? extends E> sortedElements) {
+        int count = sortedElements.size();
+        List<E> values = new ArrayList<E>(count);
+        for (E e : sortedElements) {
+            validateElement(e);
+            if (!values.isEmpty()) {
+                int comparison = compare(values.get(values.size() - 1), e);
+                if (comparison > 0) {
+                    throw new IllegalArgumentException("elements must be sorted");
+                } else if (comparison == 0) {
+                    continue;
+                }
+            }
+            values.add(e);
+        }
+        count = values.size();
+        if (count == 0) {
+            return null;
+        }
+        int[] priorities = new int[count];
+        int[] left = new int[count];
+        int[] right = new int[count];
+        int[] stack = new int[count];
+        int top = -1;
+        for (int i = 0; i < count; i++) {
+            priorities[i] = ThreadLocalRandom.current().nextInt();
+            left[i] = -1;
+            right[i] = -1;
+            int last = -1;
+            while (top >= 0 && priorities[stack[top]] < priorities[i]) {
+                last = stack[top--];
+            }
+            left[i] = last;
+            if (top >= 0) {
+                right[stack[top]] = i;
+            }
+            stack[++top] = i;
+        }
+        return toNode(stack[0], values, priorities, left, right);
+    }
+
+    private Node<E> toNode(int i, List<E> values, int[] priorities, int[] left, int[] right) {
+        if (i < 0) {
+            return null;
+        }
+        return new Node<E>(values.get(i), priorities[i], toNode(left[i], values, priorities, left, right),
+                toNode(right[i], values, priorities, left, right));
+    }
+
+    private int countLower(Node<E> node, E e) {
+        int count = 0;
+        while (node != null) {
+            if (compare(node.value, e) < 0) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    private static <E> E select(Node<E> node, int index) {
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.value;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void checkIndex(int i, int size) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(E e1, E e2) {
+        if (this.comparator != null) {
+            return this.comparator.compare(e1, e2);
+        }
+        return ((Comparable<? super E>) e1).compareTo(e2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E toElement(Object o) {
+        return (E) o;
+    }
+
+    private void validateElement(E e) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+    }
+
+    private static final class Node<E> {
+
+        private final E value;
+        private final int priority;
+        private final Node<E> left;
+        private final Node<E> right;
+        private final int size;
+
+        Node(E value, int priority, Node<E> left, Node<E> right) {
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    /**
+     * Iterates in order over the elements of a version of the tree that are
+     * between the given bounds, a null bound meaning no bound.
+     */
+    private class RangeIterator implements Iterator<E> {
+
+        private Deque<Node<E>> path = new ArrayDeque<Node<E>>();
+        private E toElement;
+        private E last;
+
+        RangeIterator(Node<E> root, E fromElement, E toElement) {
+            this.toElement = toElement;
+            Node<E> node = root;
+            while (node != null) {
+                if (fromElement != null && compare(node.value, fromElement) < 0) {
+                    node = node.right;
+                } else {
+                    this.path.push(node);
+                    node = node.left;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.path.isEmpty() && (this.toElement == null || compare(this.path.peek().value, this.toElement) < 0);
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node<E> node = this.path.pop();
+            Node<E> child = node.right;
+            while (child != null) {
+                this.path.push(child);
+                child = child.left;
+            }
+            this.last = node.value;
+            return node.value;
+        }
+
+        @Override
+        public void remove() {
+            if (this.last == null) {
+                throw new IllegalStateException();
+            }
+            ConcurrentSortedSet.this.remove(this.last);
+            this.last = null;
+        }
+    }
+
+    /**
+     * A view of the elements of this set between two bounds, a null bound
+     * meaning no bound.
+     */
+    private class RangeView extends AbstractSet<E> implements SortedSet<E> {
+
+        private E fromElement;
+        private E toElement;
+
+        RangeView(E fromElement, E toElement) {
+            this.fromElement = fromElement;
+            this.toElement = toElement;
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return ConcurrentSortedSet.this.comparator;
+        }
+
+        @Override
+        public int size() {
+            Node<E> current = ConcurrentSortedSet.this.root.get();
+            int from = this.fromElement == null ? 0 : countLower(current, this.fromElement);
+            int to = this.toElement == null ? ConcurrentSortedSet.size(current) : countLower(current, this.toElement);
+            return Math.max(0, to - from);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !iterator().hasNext();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o != null && inRange(toElement(o)) && ConcurrentSortedSet.this.contains(o);
+        }
+
+        @Override
+        public boolean add(E e) {
+            validateElement(e);
+            if (!inRange(e)) {
+                throw new IllegalArgumentException("element out of range");
+            }
+            return ConcurrentSortedSet.this.add(e);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return o != null && inRange(toElement(o)) && ConcurrentSortedSet.this.remove(o);
+        }
+
+        @Override
+        public void clear() {
+            Iterator<E> iterator = iterator();
+            while (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new RangeIterator(ConcurrentSortedSet.this.root.get(), this.fromElement, this.toElement);
+        }
+
+        @Override
+        public E first() {
+            Iterator<E> iterator = iterator();
+            if (!iterator.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return iterator.next();
+        }
+
+        @Override
+        public E last() {
+            Node<E> current = ConcurrentSortedSet.this.root.get();
+            int to = this.toElement == null ? ConcurrentSortedSet.size(current) : countLower(current, this.toElement);
+            int from = this.fromElement == null ? 0 : countLower(current, this.fromElement);
+            if (to <= from) {
+                throw new NoSuchElementException();
+            }
+            return select(current, to - 1);
+        }
+
+        @Override
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            validateElement(fromElement);
+            validateElement(toElement);
+            if (compare(fromElement, toElement) > 0) {
+                throw new IllegalArgumentException("fromElement cannot be greater than toElement");
+            }
+            return restrict(fromElement, toElement);
+        }
+
+        @Override
+        public SortedSet<E> headSet(E toElement) {
+            validateElement(toElement);
+            return restrict(null, toElement);
+        }
+
+        @Override
+        public SortedSet<E> tailSet(E fromElement) {
+            validateElement(fromElement);
+            return restrict(fromElement, null);
+        }
+
+        private SortedSet<E> restrict(E from, E to) {
+            if ((from != null && !inBounds(from)) || (to != null && !inBounds(to))) {
+                throw new IllegalArgumentException("element out of range");
+            }
+            return new RangeView(from == null ? this.fromElement : from, to == null ? this.toElement : to);
+        }
+
+        private boolean inRange(E e) {
+            return (this.fromElement == null || compare(e, this.fromElement) >= 0)
+                    && (this.toElement == null || compare(e, this.toElement) < 0);
+        }
+
+        private boolean inBounds(E e) {
+            return (this.fromElement == null || compare(e, this.fromElement) >= 0)
+                    && (this.toElement == null || compare(e, this.toElement) <= 0);
+        }
+    }
+}
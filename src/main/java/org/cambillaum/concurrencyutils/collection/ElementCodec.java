@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes elements as variable-size binary records, for instance
+ * to write snapshots of sets. Implementations must use the absolute get and
+ * put methods of {@link ByteBuffer} so that the buffer's position and limit
+ * are left untouched, and must be thread safe since several threads may
+ * decode elements at the same time. {@link Utf8StringCodec} is an
+ * implementation for {@link String} elements.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public interface ElementCodec<E extends Object> {
+
+    /**
+     * Returns the number of bytes written by {@link #write(Object, ByteBuffer,
+     * int)} for the given element.
+     *
+     * @param element the element to encode.
+     * @return the size of the encoded element, in bytes.
+     */
+    int getEncodedSize(E element);
+
+    /**
+     * Writes the given element at the given offset of the buffer.
+     *
+     * @param element the element to encode.
+     * @param buffer the buffer to write into.
+     * @param offset the offset of the first byte to write.
+     */
+    void write(E element, ByteBuffer buffer, int offset);
+
+    /**
+     * Reads an element written by {@link #write(Object, ByteBuffer, int)}.
+     *
+     * @param buffer the buffer to read from.
+     * @param offset the offset of the first byte of the element.
+     * @param length the size of the encoded element, in bytes.
+     * @return the decoded element.
+     */
+    E read(ByteBuffer buffer, int offset, int length);
+}
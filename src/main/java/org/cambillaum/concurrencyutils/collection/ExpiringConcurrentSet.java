@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent set whose elements are removed once their time to live has
+ * elapsed. Each element is added with its own time to live, or with the
+ * default one of the set. <p>Expired elements are treated as absent by every
+ * read as soon as they expire, and are physically removed by a hierarchical
+ * timing wheel: elements are hashed into buckets of increasingly coarse time
+ * spans and a bucket is only processed when the clock goes past it, so
+ * expiring an element costs constant amortized time instead of a scan of the
+ * set. The timing wheel is maintained from a buffer of pending schedules by
+ * whichever writing thread acquires its lock, so reads never block. {@link
+ * #size()} may count expired elements that have not been removed yet, {@link
+ * #cleanUp()} removes them immediately. <p>This set does not permit null
+ * elements.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ExpiringConcurrentSet<E extends Object> extends AbstractSet<E> {
+
+    private static final int[] SHIFTS = {20, 26, 32, 38, 44, 50};
+    private static final int[] BUCKETS = {64, 64, 64, 64, 64, 1};
+    private ConcurrentHashMap<E, Entry<E>> map = new ConcurrentHashMap<E, Entry<E>>();
+    private long defaultTimeToLive;
+    private Ticker ticker;
+    private long origin;
+    private long wheelTime;
+    private Entry<E>[][] wheel;
+    private ReentrantLock wheelLock = new ReentrantLock();
+    private Queue<Entry<E>> scheduleBuffer = new ConcurrentLinkedQueue<Entry<E>>();
+
+    /**
+     * Creates a new empty set with the given default time to live.
+     *
+     * @param defaultTimeToLive the time to live of the elements added without
+     * an explicit one.
+     * @param unit the unit of defaultTimeToLive.
+     */
+    public ExpiringConcurrentSet(long defaultTimeToLive, TimeUnit unit) {
+        this(defaultTimeToLive, unit, Ticker.SYSTEM);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ExpiringConcurrentSet(long defaultTimeToLive, TimeUnit unit, Ticker ticker) {
+        if (unit == null) {
+            throw new IllegalArgumentException("unit cannot be null");
+        }
+        if (ticker == null) {
+            throw new IllegalArgumentException("ticker cannot be null");
+        }
+        this.defaultTimeToLive = toNanos(defaultTimeToLive, unit);
+        this.ticker = ticker;
+        this.origin = ticker.read();
+        this.wheel = new Entry[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            this.wheel[i] = new Entry[BUCKETS[i]];
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                this.wheel[i][j] = new Entry<E>(null, 0L);
+            }
+        }
+    }
+
+    /**
+     * Returns the default time to live of the elements.
+     *
+     * @param unit the unit of the returned time.
+     * @return the default time to live.
+     */
+    public long getDefaultTimeToLive(TimeUnit unit) {
+        return unit.convert(this.defaultTimeToLive, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int size() {
+        return this.map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.map.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+        Entry<E> entry = this.map.get(o);
+        if (entry == null) {
+            return false;
+        }
+        if (isExpired(entry, now())) {
+            removeEntry(entry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the given element with the default time to live, if it is not
+     * already present.
+     *
+     * @param e the element to add.
+     * @return true if the element was added.
+     */
+    @Override
+    public boolean add(E e) {
+        return add(e, this.defaultTimeToLive, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Adds the given element with the given time to live, if it is not already
+     * present. The time to live of an element that is already present is not
+     * changed.
+     *
+     * @param e the element to add.
+     * @param timeToLive the time after which the element expires.
+     * @param unit the unit of timeToLive.
+     * @return true if the element was added.
+     */
+    public boolean add(E e, long timeToLive, TimeUnit unit) {
+        if (e == null) {
+            throw new IllegalArgumentException("Cannot add a null element");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("unit cannot be null");
+        }
+        long now = now();
+        Entry<E> entry = new Entry<E>(e, now + toNanos(timeToLive, unit));
+        while (true) {
+            Entry<E> existing = this.map.putIfAbsent(e, entry);
+            if (existing == null) {
+                break;
+            }
+            if (!isExpired(existing, now)) {
+                return false;
+            }
+            if (this.map.replace(e, existing, entry)) {
+                existing.removed = true;
+                this.scheduleBuffer.add(existing);
+                break;
+            }
+        }
+        this.scheduleBuffer.add(entry);
+        drainScheduleBuffer();
+        return true;
+    }
+
+    /**
+     * Returns the remaining time to live of the given element.
+     *
+     * @param o the element.
+     * @param unit the unit of the returned time.
+     * @return the remaining time to live, or -1 if the element is absent.
+     */
+    public long getTimeToLive(Object o, TimeUnit unit) {
+        Entry<E> entry = o == null ? null : this.map.get(o);
+        if (entry == null) {
+            return -1L;
+        }
+        long remaining = entry.expirationTime - now();
+        if (remaining <= 0) {
+            removeEntry(entry);
+            return -1L;
+        }
+        return unit.convert(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        Entry<E> entry = this.map.remove(o);
+        if (entry == null) {
+            return false;
+        }
+        entry.removed = true;
+        this.scheduleBuffer.add(entry);
+        drainScheduleBuffer();
+        return !isExpired(entry, now());
+    }
+
+    @Override
+    public void clear() {
+        for (E e : this.map.keySet()) {
+            remove(e);
+        }
+    }
+
+    /**
+     * Returns an iterator over the elements that have not expired. Like the
+     * iterators of {@link ConcurrentHashMap}, it reflects the state of the set
+     * at some point at or since its creation.
+     *
+     * @return an iterator over the elements of this set.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<Entry<E>> iterator = this.map.values().iterator();
+        return new Iterator<E>() {
+            private Entry<E> next = advance();
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public E next() {
+                if (this.next == null) {
+                    throw new NoSuchElementException();
+                }
+                this.last = this.next.element;
+                this.next = advance();
+                return this.last;
+            }
+
+            @Override
+            public void remove() {
+                if (this.last == null) {
+                    throw new IllegalStateException();
+                }
+                ExpiringConcurrentSet.this.remove(this.last);
+                this.last = null;
+            }
+
+            private Entry<E> advance() {
+                long now = now();
+                while (iterator.hasNext()) {
+                    Entry<E> entry = iterator.next();
+                    if (!isExpired(entry, now)) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Removes the expired elements and applies the pending schedules to the
+     * timing wheel.
+     */
+    public void cleanUp() {
+        this.wheelLock.lock();
+        try {
+            maintenance();
+        } finally {
+            this.wheelLock.unlock();
+        }
+        drainScheduleBuffer();
+    }
+
+    private long now() {
+        return this.ticker.read() - this.origin;
+    }
+
+    private static boolean isExpired(Entry<?> entry, long now) {
+        return entry.expirationTime - now <= 0;
+    }
+
+    private static long toNanos(long timeToLive, TimeUnit unit) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("timeToLive must be positive");
+        }
+        return Math.min(unit.toNanos(timeToLive), Long.MAX_VALUE >> 2);
+    }
+
+    private void removeEntry(Entry<E> entry) {
+        if (this.map.remove(entry.element, entry)) {
+            entry.removed = true;
+            this.scheduleBuffer.add(entry);
+            drainScheduleBuffer();
+        }
+    }
+
+    private void drainScheduleBuffer() {
+        while (!this.scheduleBuffer.isEmpty()) {
+            if (!this.wheelLock.tryLock()) {
+                return;
+            }
+            try {
+                maintenance();
+            } finally {
+                this.wheelLock.unlock();
+            }
+        }
+    }
+
+    private void maintenance() {
+        Entry<E> entry;
+        while ((entry = this.scheduleBuffer.poll()) != null) {
+            if (entry.removed) {
+                unlink(entry);
+            } else if (entry.previous == null) {
+                schedule(entry);
+            }
+        }
+        advance(now());
+    }
+
+    private void advance(long now) {
+        long previous = this.wheelTime;
+        this.wheelTime = now;
+        for (int i = 0; i < SHIFTS.length; i++) {
+            long previousTicks = previous >>> SHIFTS[i];
+            long delta = (now >>> SHIFTS[i]) - previousTicks;
+            if (delta <= 0) {
+                break;
+            }
+            expire(i, previousTicks, delta);
+        }
+    }
+
+    private void expire(int level, long previousTicks, long delta) {
+        Entry<E>[] buckets = this.wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(delta + 1, buckets.length);
+        int start = (int) (previousTicks & mask);
+        for (int i = start; i < start + steps; i++) {
+            Entry<E> sentinel = buckets[i & mask];
+            Entry<E> entry = sentinel.next;
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+            while (entry != sentinel) {
+                Entry<E> next = entry.next;
+                entry.previous = null;
+                entry.next = null;
+                if (entry.removed) {
+                    entry = next;
+                    continue;
+                }
+                if (isExpired(entry, this.wheelTime)) {
+                    entry.removed = true;
+                    this.map.remove(entry.element, entry);
+                } else {
+                    schedule(entry);
+                }
+                entry = next;
+            }
+        }
+    }
+
+    private void schedule(Entry<E> entry) {
+        Entry<E> sentinel = bucketFor(entry.expirationTime);
+        entry.previous = sentinel.previous;
+        entry.next = sentinel;
+        sentinel.previous.next = entry;
+        sentinel.previous = entry;
+    }
+
+    private void unlink(Entry<E> entry) {
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+            entry.next.previous = entry.previous;
+            entry.previous = null;
+            entry.next = null;
+        }
+    }
+
+    private Entry<E> bucketFor(long expirationTime) {
+        long time = Math.max(expirationTime, this.wheelTime);
+        long duration = time - this.wheelTime;
+        for (int i = 0; i < SHIFTS.length - 1; i++) {
+            if (duration < (1L << SHIFTS[i + 1])) {
+                long ticks = time >>> SHIFTS[i];
+                return this.wheel[i][(int) (ticks & (BUCKETS[i] - 1))];
+            }
+        }
+        return this.wheel[SHIFTS.length - 1][0];
+    }
+
+    /**
+     * The source of time of the set, in nanoseconds.
+     */
+    interface Ticker {
+
+        Ticker SYSTEM = new Ticker() {
+
+            @Override
+            public long read() {
+                return System.nanoTime();
+            }
+        };
+
+        long read();
+    }
+
+    private static class Entry<E> {
+
+        private E element;
+        private long expirationTime;
+        private volatile boolean removed;
+        private Entry<E> previous;
+        private Entry<E> next;
+
+        Entry(E element, long expirationTime) {
+            this.element = element;
+            this.expirationTime = expirationTime;
+            if (element == null) {
+                this.previous = this;
+                this.next = this;
+            }
+        }
+    }
+}
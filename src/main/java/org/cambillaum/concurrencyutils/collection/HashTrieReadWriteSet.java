@@ -0,0 +1,648 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An implementation of the {@link Set } interface that supports full read
+ * concurrency without any lock and limits write operations to one thread at a
+ * time. <p>Elements are stored in an immutable hash array mapped trie. Writers
+ * build a new version of the trie that shares all unchanged nodes with the
+ * previous one, which costs O(log32 n) new nodes per modification, and
+ * publish it in a volatile field. Readers simply read the current version, so
+ * lookups never wait for writers and {@link #snapshot()} and {@link
+ * #iterator()} run in constant time without copying anything. <p>Compared to
+ * {@link ReadWriteSet}, this implementation is best suited to sets that are
+ * read and iterated much more often than they are modified.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class HashTrieReadWriteSet<E extends Object> extends AbstractSet<E> implements Serializable {
+
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+    private static final int HASH_BITS = 32;
+    private transient volatile Trie<E> trie = new Trie<E>(BitmapNode.EMPTY, 0);
+    private Lock writeLock;
+
+    /**
+     * Constructs a new empty HashTrieReadWriteSet.
+     */
+    public HashTrieReadWriteSet() {
+        this(new ReentrantLock());
+    }
+
+    /**
+     * Constructs a new empty HashTrieReadWriteSet whose writers are ordered
+     * with the given fairness policy.
+     *
+     * @param fair true if the set's write lock should use a fair ordering
+     * policy.
+     */
+    public HashTrieReadWriteSet(boolean fair) {
+        this(new ReentrantLock(fair));
+    }
+
+    /**
+     * Constructs a new HashTrieReadWriteSet containing the elements of the
+     * given collection.
+     *
+     * @param clctn the elements to add to the set.
+     */
+    public HashTrieReadWriteSet(Collection<? extends E> clctn) {
+        this(new ReentrantLock());
+        addAll(clctn);
+    }
+
+    /**
+     * Constructs a new empty HashTrieReadWriteSet using the given {@link Lock
+     * } to order writers.
+     *
+     * @param writeLock the {@link Lock } implementation used to order writers.
+     */
+    HashTrieReadWriteSet(Lock writeLock) {
+        this.writeLock = writeLock;
+    }
+
+    @Override
+    public int size() {
+        return this.trie.size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.trie.size == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return this.trie.root.contains(o, hash(o), 0);
+    }
+
+    /**
+     * Returns an iterator over the current version of the set. The iterator
+     * is obtained in constant time, is not affected by subsequent
+     * modifications and its remove method removes the element from this set.
+     *
+     * @return an iterator over the current version of the set.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<E> iterator = new TrieIterator<E>(this.trie.root);
+        return new Iterator<E>() {
+
+            private E lastReturned;
+            private boolean canRemove = false;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                this.lastReturned = iterator.next();
+                this.canRemove = true;
+                return this.lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (!this.canRemove) {
+                    throw new IllegalStateException();
+                }
+                this.canRemove = false;
+                HashTrieReadWriteSet.this.remove(this.lastReturned);
+            }
+        };
+    }
+
+    /**
+     * Returns an immutable view of the current version of the set. Taking a
+     * snapshot runs in constant time and the snapshot is not affected by
+     * subsequent modifications.
+     *
+     * @return an immutable view of the current version of the set.
+     */
+    public Set<E> snapshot() {
+        return new Snapshot<E>(this.trie);
+    }
+
+    @Override
+    public boolean add(E e) {
+        this.writeLock.lock();
+        try {
+            Trie<E> current = this.trie;
+            Node updated = current.root.insert(e, hash(e), 0);
+            if (updated == current.root) {
+                return false;
+            }
+            this.trie = new Trie<E>(updated, current.size + 1);
+            return true;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        this.writeLock.lock();
+        try {
+            Trie<E> current = this.trie;
+            Node updated = current.root.remove(o, hash(o), 0);
+            if (updated == current.root) {
+                return false;
+            }
+            this.trie = new Trie<E>(updated, current.size - 1);
+            return true;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Adds all the elements of the given collection and publishes them as a
+     * single new version of the set.
+     *
+     * @param clctn the elements to add.
+     * @return true if the set changed as a result of the call.
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> clctn) {
+        this.writeLock.lock();
+        try {
+            Trie<E> current = this.trie;
+            Node root = current.root;
+            int size = current.size;
+            for (E e : clctn) {
+                Node updated = root.insert(e, hash(e), 0);
+                if (updated != root) {
+                    root = updated;
+                    size++;
+                }
+            }
+            return publish(current, root, size);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the elements contained in the given collection and
+     * publishes the result as a single new version of the set.
+     *
+     * @param clctn the elements to remove.
+     * @return true if the set changed as a result of the call.
+     */
+    @Override
+    public boolean removeAll(Collection<?> clctn) {
+        this.writeLock.lock();
+        try {
+            Trie<E> current = this.trie;
+            Node root = current.root;
+            int size = current.size;
+            for (Object o : clctn) {
+                Node updated = root.remove(o, hash(o), 0);
+                if (updated != root) {
+                    root = updated;
+                    size--;
+                }
+            }
+            return publish(current, root, size);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the elements not contained in the given collection and
+     * publishes the result as a single new version of the set.
+     *
+     * @param clctn the elements to retain.
+     * @return true if the set changed as a result of the call.
+     */
+    @Override
+    public boolean retainAll(Collection<?> clctn) {
+        this.writeLock.lock();
+        try {
+            Trie<E> current = this.trie;
+            Node root = current.root;
+            int size = current.size;
+            Iterator<E> iterator = new TrieIterator<E>(current.root);
+            while (iterator.hasNext()) {
+                E e = iterator.next();
+                if (!clctn.contains(e)) {
+                    root = root.remove(e, hash(e), 0);
+                    size--;
+                }
+            }
+            return publish(current, root, size);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.writeLock.lock();
+        try {
+            this.trie = new Trie<E>(BitmapNode.EMPTY, 0);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    private boolean publish(Trie<E> current, Node root, int size) {
+        if (root == current.root) {
+            return false;
+        }
+        this.trie = new Trie<E>(root, size);
+        return true;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        Trie<E> current = this.trie;
+        out.defaultWriteObject();
+        out.writeInt(current.size);
+        Iterator<E> iterator = new TrieIterator<E>(current.root);
+        while (iterator.hasNext()) {
+            out.writeObject(iterator.next());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        Node root = BitmapNode.EMPTY;
+        for (int i = 0; i < size; i++) {
+            E e = (E) in.readObject();
+            root = root.insert(e, hash(e), 0);
+        }
+        this.trie = new Trie<E>(root, size);
+    }
+
+    private static int hash(Object o) {
+        if (o == null) {
+            return 0;
+        }
+        int h = o.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equal(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+    private static int bitPosition(int hash, int shift) {
+        return 1 << ((hash >>> shift) & LEVEL_MASK);
+    }
+
+    private static Node mergeElements(Object e1, int hash1, Object e2, int hash2, int shift) {
+        if (shift >= HASH_BITS) {
+            return new CollisionNode(hash1, new Object[]{e1, e2});
+        }
+        int bit1 = bitPosition(hash1, shift);
+        int bit2 = bitPosition(hash2, shift);
+        if (bit1 != bit2) {
+            boolean inOrder = ((hash1 >>> shift) & LEVEL_MASK) < ((hash2 >>> shift) & LEVEL_MASK);
+            Object[] content = inOrder ? new Object[]{e1, e2} : new Object[]{e2, e1};
+            return new BitmapNode(bit1 | bit2, 0, content);
+        }
+        Node subNode = mergeElements(e1, hash1, e2, hash2, shift + BITS_PER_LEVEL);
+        return new BitmapNode(0, bit1, new Object[]{subNode});
+    }
+
+    private static final class Trie<E> {
+
+        private final Node root;
+        private final int size;
+
+        Trie(Node root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A node of the trie. Nodes are immutable: insert and remove return a new
+     * node, or the same node if nothing changed.
+     */
+    private abstract static class Node {
+
+        abstract boolean contains(Object o, int hash, int shift);
+
+        abstract Node insert(Object e, int hash, int shift);
+
+        abstract Node remove(Object o, int hash, int shift);
+
+        abstract int elementArity();
+
+        abstract Object getElement(int index);
+
+        abstract int nodeArity();
+
+        abstract Node getNode(int index);
+    }
+
+    /**
+     * A node indexing up to 32 entries by 5 bits of the hash. Elements are
+     * stored at the beginning of the content array, in bit order, and sub
+     * nodes at its end, in reverse bit order.
+     */
+    private static final class BitmapNode extends Node {
+
+        private static final BitmapNode EMPTY = new BitmapNode(0, 0, new Object[0]);
+        private final int elementMap;
+        private final int nodeMap;
+        private final Object[] content;
+
+        BitmapNode(int elementMap, int nodeMap, Object[] content) {
+            this.elementMap = elementMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        @Override
+        boolean contains(Object o, int hash, int shift) {
+            int bit = bitPosition(hash, shift);
+            if ((this.elementMap & bit) != 0) {
+                return equal(this.content[elementIndex(bit)], o);
+            }
+            if ((this.nodeMap & bit) != 0) {
+                return nodeAt(bit).contains(o, hash, shift + BITS_PER_LEVEL);
+            }
+            return false;
+        }
+
+        @Override
+        Node insert(Object e, int hash, int shift) {
+            int bit = bitPosition(hash, shift);
+            if ((this.elementMap & bit) != 0) {
+                Object existing = this.content[elementIndex(bit)];
+                if (equal(existing, e)) {
+                    return this;
+                }
+                Node subNode = mergeElements(existing, hash(existing), e, hash, shift + BITS_PER_LEVEL);
+                return copyAndMigrateElementToNode(bit, subNode);
+            }
+            if ((this.nodeMap & bit) != 0) {
+                Node subNode = nodeAt(bit);
+                Node updated = subNode.insert(e, hash, shift + BITS_PER_LEVEL);
+                return updated == subNode ? this : copyAndSetNode(bit, updated);
+            }
+            int index = elementIndex(bit);
+            Object[] newContent = new Object[this.content.length + 1];
+            System.arraycopy(this.content, 0, newContent, 0, index);
+            newContent[index] = e;
+            System.arraycopy(this.content, index, newContent, index + 1, this.content.length - index);
+            return new BitmapNode(this.elementMap | bit, this.nodeMap, newContent);
+        }
+
+        @Override
+        Node remove(Object o, int hash, int shift) {
+            int bit = bitPosition(hash, shift);
+            if ((this.elementMap & bit) != 0) {
+                int index = elementIndex(bit);
+                if (!equal(this.content[index], o)) {
+                    return this;
+                }
+                Object[] newContent = new Object[this.content.length - 1];
+                System.arraycopy(this.content, 0, newContent, 0, index);
+                System.arraycopy(this.content, index + 1, newContent, index, this.content.length - index - 1);
+                return new BitmapNode(this.elementMap ^ bit, this.nodeMap, newContent);
+            }
+            if ((this.nodeMap & bit) != 0) {
+                Node subNode = nodeAt(bit);
+                Node updated = subNode.remove(o, hash, shift + BITS_PER_LEVEL);
+                if (updated == subNode) {
+                    return this;
+                }
+                if (updated.nodeArity() == 0 && updated.elementArity() == 1) {
+                    return copyAndMigrateNodeToElement(bit, updated.getElement(0));
+                }
+                return copyAndSetNode(bit, updated);
+            }
+            return this;
+        }
+
+        @Override
+        int elementArity() {
+            return Integer.bitCount(this.elementMap);
+        }
+
+        @Override
+        Object getElement(int index) {
+            return this.content[index];
+        }
+
+        @Override
+        int nodeArity() {
+            return Integer.bitCount(this.nodeMap);
+        }
+
+        @Override
+        Node getNode(int index) {
+            return (Node) this.content[this.content.length - 1 - index];
+        }
+
+        private int elementIndex(int bit) {
+            return Integer.bitCount(this.elementMap & (bit - 1));
+        }
+
+        private int nodeContentIndex(int bit) {
+            return this.content.length - 1 - Integer.bitCount(this.nodeMap & (bit - 1));
+        }
+
+        private Node nodeAt(int bit) {
+            return (Node) this.content[nodeContentIndex(bit)];
+        }
+
+        private Node copyAndSetNode(int bit, Node node) {
+            Object[] newContent = this.content.clone();
+            newContent[nodeContentIndex(bit)] = node;
+            return new BitmapNode(this.elementMap, this.nodeMap, newContent);
+        }
+
+        private Node copyAndMigrateElementToNode(int bit, Node node) {
+            int oldIndex = elementIndex(bit);
+            int newIndex = this.content.length - 1 - Integer.bitCount(this.nodeMap & (bit - 1));
+            Object[] newContent = new Object[this.content.length];
+            System.arraycopy(this.content, 0, newContent, 0, oldIndex);
+            System.arraycopy(this.content, oldIndex + 1, newContent, oldIndex, newIndex - oldIndex);
+            newContent[newIndex] = node;
+            System.arraycopy(this.content, newIndex + 1, newContent, newIndex + 1, this.content.length - newIndex - 1);
+            return new BitmapNode(this.elementMap ^ bit, this.nodeMap | bit, newContent);
+        }
+
+        private Node copyAndMigrateNodeToElement(int bit, Object e) {
+            int oldIndex = nodeContentIndex(bit);
+            int newIndex = elementIndex(bit);
+            Object[] newContent = new Object[this.content.length];
+            System.arraycopy(this.content, 0, newContent, 0, newIndex);
+            newContent[newIndex] = e;
+            System.arraycopy(this.content, newIndex, newContent, newIndex + 1, oldIndex - newIndex);
+            System.arraycopy(this.content, oldIndex + 1, newContent, oldIndex + 1, this.content.length - oldIndex - 1);
+            return new BitmapNode(this.elementMap | bit, this.nodeMap ^ bit, newContent);
+        }
+    }
+
+    /**
+     * A node holding elements whose hashes are fully equal.
+     */
+    private static final class CollisionNode extends Node {
+
+        private final int hash;
+        private final Object[] elements;
+
+        CollisionNode(int hash, Object[] elements) {
+            this.hash = hash;
+            this.elements = elements;
+        }
+
+        @Override
+        boolean contains(Object o, int hash, int shift) {
+            return this.hash == hash && indexOf(o) >= 0;
+        }
+
+        @Override
+        Node insert(Object e, int hash, int shift) {
+            if (indexOf(e) >= 0) {
+                return this;
+            }
+            Object[] newElements = Arrays.copyOf(this.elements, this.elements.length + 1);
+            newElements[this.elements.length] = e;
+            return new CollisionNode(this.hash, newElements);
+        }
+
+        @Override
+        Node remove(Object o, int hash, int shift) {
+            int index = this.hash == hash ? indexOf(o) : -1;
+            if (index < 0) {
+                return this;
+            }
+            Object[] newElements = new Object[this.elements.length - 1];
+            System.arraycopy(this.elements, 0, newElements, 0, index);
+            System.arraycopy(this.elements, index + 1, newElements, index, this.elements.length - index - 1);
+            return new CollisionNode(this.hash, newElements);
+        }
+
+        @Override
+        int elementArity() {
+            return this.elements.length;
+        }
+
+        @Override
+        Object getElement(int index) {
+            return this.elements[index];
+        }
+
+        @Override
+        int nodeArity() {
+            return 0;
+        }
+
+        @Override
+        Node getNode(int index) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        private int indexOf(Object o) {
+            for (int i = 0; i < this.elements.length; i++) {
+                if (equal(this.elements[i], o)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class TrieIterator<E> implements Iterator<E> {
+
+        private Deque<Node> pendingNodes = new ArrayDeque<Node>();
+        private Node currentNode;
+        private int elementIndex;
+
+        TrieIterator(Node root) {
+            visit(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.elementIndex >= this.currentNode.elementArity()) {
+                if (this.pendingNodes.isEmpty()) {
+                    return false;
+                }
+                visit(this.pendingNodes.pop());
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return (E) this.currentNode.getElement(this.elementIndex++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Snapshot iterators cannot remove elements");
+        }
+
+        private void visit(Node node) {
+            this.currentNode = node;
+            this.elementIndex = 0;
+            for (int i = 0; i < node.nodeArity(); i++) {
+                this.pendingNodes.push(node.getNode(i));
+            }
+        }
+    }
+
+    private static final class Snapshot<E> extends AbstractSet<E> {
+
+        private Trie<E> trie;
+
+        Snapshot(Trie<E> trie) {
+            this.trie = trie;
+        }
+
+        @Override
+        public int size() {
+            return this.trie.size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return this.trie.root.contains(o, hash(o), 0);
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new TrieIterator<E>(this.trie.root);
+        }
+    }
+}
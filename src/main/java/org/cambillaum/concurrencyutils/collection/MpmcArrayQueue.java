@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free queue for any number of producer and consumer threads.
+ * <p>Every slot carries a sequence number telling whether it is ready to be
+ * written for a given lap of the tail or ready to be read for a given lap of
+ * the head, so producers and consumers each claim a slot with a single
+ * compare-and-set on their own counter and never wait for one another unless
+ * the queue is full or empty. {@link #drain(BoundedArrayQueue.Consumer, int)}
+ * and {@link #fill(BoundedArrayQueue.Supplier, int)} claim one slot per
+ * element, since other consumers or producers may claim the slots in between.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class MpmcArrayQueue<E extends Object> extends BoundedArrayQueue<E> {
+
+    private final AtomicLongArray sequences;
+
+    /**
+     * Constructs a new empty MpmcArrayQueue holding at most the given number
+     * of elements, rounded up to a power of two, and yielding while waiting.
+     *
+     * @param capacity the minimum capacity of the queue.
+     */
+    public MpmcArrayQueue(int capacity) {
+        this(capacity, WaitStrategy.YIELD);
+    }
+
+    /**
+     * Constructs a new empty MpmcArrayQueue holding at most the given number
+     * of elements, rounded up to a power of two, and waiting with the given
+     * strategy.
+     *
+     * @param capacity the minimum capacity of the queue.
+     * @param waitStrategy how to wait in {@link #put(Object)} and {@link
+     * #take()}.
+     */
+    public MpmcArrayQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public boolean offer(E e) {
+        validateElement(e);
+        long tail = claim();
+        if (tail < 0) {
+            return false;
+        }
+        publish(tail, e);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        while (true) {
+            long head = this.counters.get(HEAD);
+            int index = indexOf(head);
+            long difference = this.sequences.get(index) - (head + 1);
+            if (difference < 0) {
+                return null;
+            }
+            if (difference == 0 && this.counters.compareAndSet(HEAD, head, head + 1)) {
+                E e = release(head);
+                if (e != skipped()) {
+                    return e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        while (true) {
+            long head = this.counters.get(HEAD);
+            int index = indexOf(head);
+            long difference = this.sequences.get(index) - (head + 1);
+            if (difference < 0) {
+                return null;
+            }
+            if (difference == 0) {
+                E e = this.buffer.get(index);
+                if (e != null && this.counters.get(HEAD) == head) {
+                    if (e != skipped()) {
+                        return e;
+                    }
+                    if (this.counters.compareAndSet(HEAD, head, head + 1)) {
+                        release(head);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int fill(Supplier<? extends E> supplier, int limit) {
+        validateBatch(supplier, limit);
+        int count = 0;
+        while (count < limit) {
+            long tail = claim();
+            if (tail < 0) {
+                break;
+            }
+            E e = null;
+            try {
+                e = supplier.get();
+                validateElement(e);
+            } finally {
+                publish(tail, e != null ? e : skipped());
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Claims the slot of the next tail sequence and returns that sequence, or
+     * -1 if the queue is full.
+     */
+    private long claim() {
+        while (true) {
+            long tail = this.counters.get(TAIL);
+            long difference = this.sequences.get(indexOf(tail)) - tail;
+            if (difference < 0) {
+                return -1;
+            }
+            if (difference == 0 && this.counters.compareAndSet(TAIL, tail, tail + 1)) {
+                return tail;
+            }
+        }
+    }
+
+    /**
+     * Writes the element in the claimed slot of the given tail sequence and
+     * makes it readable by consumers.
+     */
+    private void publish(long tail, E e) {
+        int index = indexOf(tail);
+        this.buffer.lazySet(index, e);
+        this.sequences.lazySet(index, tail + 1);
+    }
+
+    /**
+     * Takes the element out of the claimed slot of the given head sequence and
+     * makes the slot writable for the next lap of producers.
+     */
+    private E release(long head) {
+        int index = indexOf(head);
+        E e = this.buffer.get(index);
+        this.buffer.lazySet(index, null);
+        this.sequences.lazySet(index, head + this.capacity);
+        return e;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+/**
+ * A bounded lock-free queue for any number of producer threads and exactly
+ * one consumer thread, typically used to funnel work from many threads to a
+ * single one. <p>Producers reserve slots by advancing the tail counter with a
+ * compare-and-set, checked against a cached limit so that they only read the
+ * consumer's counter when the queue looks full. The consumer reads slots
+ * without any compare-and-set and waits, with the wait strategy of the
+ * queue, for a producer that reserved a slot but has not written it yet.
+ * {@link #drain(BoundedArrayQueue.Consumer, int)} advances the head once per
+ * batch and {@link #fill(BoundedArrayQueue.Supplier, int)} reserves a whole
+ * batch with a single compare-and-set. Using the queue from several
+ * consumers at the same time corrupts it.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class MpscArrayQueue<E extends Object> extends BoundedArrayQueue<E> {
+
+    /**
+     * Constructs a new empty MpscArrayQueue holding at most the given number
+     * of elements, rounded up to a power of two, and yielding while waiting.
+     *
+     * @param capacity the minimum capacity of the queue.
+     */
+    public MpscArrayQueue(int capacity) {
+        this(capacity, WaitStrategy.YIELD);
+    }
+
+    /**
+     * Constructs a new empty MpscArrayQueue holding at most the given number
+     * of elements, rounded up to a power of two, and waiting with the given
+     * strategy.
+     *
+     * @param capacity the minimum capacity of the queue.
+     * @param waitStrategy how to wait in {@link #put(Object)} and {@link
+     * #take()}, and for elements being written.
+     */
+    public MpscArrayQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.counters.set(TAIL_LIMIT, this.capacity);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        validateElement(e);
+        long tail = reserve(1);
+        if (tail < 0) {
+            return false;
+        }
+        this.buffer.lazySet(indexOf(tail), e);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        while (true) {
+            long head = this.counters.get(HEAD);
+            E e = read(head);
+            if (e == null) {
+                return null;
+            }
+            this.buffer.lazySet(indexOf(head), null);
+            this.counters.lazySet(HEAD, head + 1);
+            if (e != skipped()) {
+                return e;
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        while (true) {
+            long head = this.counters.get(HEAD);
+            E e = read(head);
+            if (e != skipped()) {
+                return e;
+            }
+            this.buffer.lazySet(indexOf(head), null);
+            this.counters.lazySet(HEAD, head + 1);
+        }
+    }
+
+    @Override
+    public int drain(Consumer<? super E> consumer, int limit) {
+        validateBatch(consumer, limit);
+        long head = this.counters.get(HEAD);
+        long sequence = head;
+        int count = 0;
+        try {
+            while (count < limit) {
+                E e = read(sequence);
+                if (e == null) {
+                    break;
+                }
+                this.buffer.lazySet(indexOf(sequence), null);
+                sequence++;
+                if (e != skipped()) {
+                    count++;
+                    consumer.accept(e);
+                }
+            }
+        } finally {
+            if (sequence > head) {
+                this.counters.lazySet(HEAD, sequence);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int fill(Supplier<? extends E> supplier, int limit) {
+        validateBatch(supplier, limit);
+        long tail = -1;
+        int count = Math.min(limit, this.capacity);
+        while (count > 0) {
+            tail = reserve(count);
+            if (tail >= 0) {
+                break;
+            }
+            count = (int) Math.min(count - 1, this.counters.get(HEAD) + this.capacity - this.counters.get(TAIL));
+        }
+        if (count <= 0) {
+            return 0;
+        }
+        int written = 0;
+        try {
+            for (; written < count; written++) {
+                E e = supplier.get();
+                validateElement(e);
+                this.buffer.lazySet(indexOf(tail + written), e);
+            }
+        } finally {
+            for (int i = written; i < count; i++) {
+                this.buffer.lazySet(indexOf(tail + i), skipped());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reserves the given number of slots and returns the sequence of the
+     * first one, or -1 if the queue does not have enough room.
+     */
+    private long reserve(int count) {
+        while (true) {
+            long tail = this.counters.get(TAIL);
+            if (tail + count > this.counters.get(TAIL_LIMIT)) {
+                long limit = this.counters.get(HEAD) + this.capacity;
+                this.counters.lazySet(TAIL_LIMIT, limit);
+                if (tail + count > limit) {
+                    return -1;
+                }
+            }
+            if (this.counters.compareAndSet(TAIL, tail, tail + count)) {
+                return tail;
+            }
+        }
+    }
+
+    /**
+     * Reads the element of the given sequence, waiting for it if a producer
+     * reserved its slot but has not written it yet, or returns null if the
+     * sequence was not reserved.
+     */
+    private E read(long sequence) {
+        int index = indexOf(sequence);
+        E e = this.buffer.get(index);
+        while (e == null && sequence < this.counters.get(TAIL)) {
+            this.waitStrategy.idle();
+            e = this.buffer.get(index);
+        }
+        return e;
+    }
+}
@@ -0,0 +1,707 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A concurrent set of binary keys stored outside of the Java heap. <p>Key
+ * bytes are copied into slabs of direct memory and indexed by an open
+ * addressing hash table, itself held in a direct buffer, so the set adds no
+ * object to the heap per key: a set of a hundred million URLs costs the
+ * garbage collector a few thousand buffers instead of hundreds of millions of
+ * strings and arrays. {@link #contains(byte[], int, int)} and {@link
+ * #contains(ByteBuffer)} look up a slice of an array or the remaining bytes of
+ * a buffer without allocating anything. <p>The set is divided into segments,
+ * chosen by the hash of the key, each segment offering the locking guarantees
+ * of {@link ReadWriteSet}: full read concurrency and one write operation at a
+ * time. The space of removed keys is reclaimed when a segment is rebuilt,
+ * which happens when its index grows, when removed keys clutter its index or
+ * when more than half of its slabs hold removed keys. A segment whose index
+ * cannot grow any further rejects new keys with an {@link
+ * IllegalStateException}. <p>The direct memory is released when the set is
+ * {@link #close() closed}, after which any further operation, other than
+ * {@link #getOffHeapBytes()} and closing the set again, throws an {@link
+ * IllegalStateException}. String keys are stored as their UTF-8 bytes.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class OffHeapBinarySet implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MAX_SEGMENTS = 1 << 16;
+    private static final int MIN_INDEX_CAPACITY = 8;
+    private static final int MAX_INDEX_CAPACITY = 1 << 27;
+    private static final int SLAB_SHIFT = 20;
+    private static final int SLAB_SIZE = 1 << SLAB_SHIFT;
+    private static final int MAX_SLABS = (1 << 14) - 1;
+    private static final int EMPTY = 0;
+    private static final int REMOVED = -1;
+    private Segment[] segments;
+    private int segmentShift;
+    private int segmentMask;
+
+    /**
+     * Constructs a new empty set with a default initial capacity and
+     * concurrency level.
+     */
+    public OffHeapBinarySet() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Constructs a new empty set able to hold the given number of keys without
+     * growing its index, with a default concurrency level.
+     *
+     * @param initialCapacity the number of keys the set can hold without
+     * growing its index.
+     */
+    public OffHeapBinarySet(int initialCapacity) {
+        this(initialCapacity, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Constructs a new empty set able to hold the given number of keys without
+     * growing its index, divided in enough segments to be modified by the
+     * given number of threads at the same time.
+     *
+     * @param initialCapacity the number of keys the set can hold without
+     * growing its index.
+     * @param concurrencyLevel the estimated number of concurrently updating
+     * threads.
+     */
+    public OffHeapBinarySet(int initialCapacity, int concurrencyLevel) {
+        this(initialCapacity, concurrencyLevel, MAX_INDEX_CAPACITY);
+    }
+
+    /**
+     * Constructs a new empty set whose segments index at most the given
+     * number of slots, which lets tests fill a segment.
+     *
+     * @param initialCapacity the number of keys the set can hold without
+     * growing its index.
+     * @param concurrencyLevel the estimated number of concurrently updating
+     * threads.
+     * @param maxIndexCapacity the maximum number of index slots of a segment,
+     * a power of two.
+     */
+    OffHeapBinarySet(int initialCapacity, int concurrencyLevel, int maxIndexCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity cannot be negative");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel must be positive");
+        }
+        int segmentCount = 1;
+        int shift = 0;
+        while (segmentCount < Math.min(concurrencyLevel, MAX_SEGMENTS)) {
+            segmentCount <<= 1;
+            shift++;
+        }
+        this.segmentShift = 32 - shift;
+        this.segmentMask = segmentCount - 1;
+        this.segments = new Segment[segmentCount];
+        long keysPerSegment = ((long) initialCapacity + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment(indexCapacityFor(keysPerSegment, maxIndexCapacity), maxIndexCapacity);
+        }
+    }
+
+    /**
+     * Returns the number of keys in this set.
+     *
+     * @return the number of keys in this set.
+     */
+    public int size() {
+        long size = 0;
+        for (Segment segment : this.segments) {
+            size += segment.size();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns true if this set contains no keys.
+     *
+     * @return true if this set contains no keys.
+     */
+    public boolean isEmpty() {
+        for (Segment segment : this.segments) {
+            if (segment.size() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if this set contains the given key.
+     *
+     * @param key the key whose presence is to be tested.
+     * @return true if this set contains the key.
+     */
+    public boolean contains(byte[] key) {
+        checkKey(key);
+        return contains(key, 0, key.length);
+    }
+
+    /**
+     * Returns true if this set contains the key made of the given slice of an
+     * array. The lookup does not allocate.
+     *
+     * @param key the array holding the key.
+     * @param offset the offset of the first byte of the key.
+     * @param length the length of the key.
+     * @return true if this set contains the key.
+     */
+    public boolean contains(byte[] key, int offset, int length) {
+        checkKey(key, offset, length);
+        int hash = hash(key, null, offset, length);
+        return segmentFor(hash).contains(key, null, offset, length, hash);
+    }
+
+    /**
+     * Returns true if this set contains the key made of the remaining bytes of
+     * the given buffer. The lookup does not allocate and leaves the position of
+     * the buffer untouched.
+     *
+     * @param key the buffer holding the key.
+     * @return true if this set contains the key.
+     */
+    public boolean contains(ByteBuffer key) {
+        checkKey(key);
+        int hash = hash(null, key, key.position(), key.remaining());
+        return segmentFor(hash).contains(null, key, key.position(), key.remaining(), hash);
+    }
+
+    /**
+     * Returns true if this set contains the UTF-8 bytes of the given string.
+     *
+     * @param key the key whose presence is to be tested.
+     * @return true if this set contains the key.
+     */
+    public boolean contains(String key) {
+        checkKey(key);
+        return contains(key.getBytes(UTF_8));
+    }
+
+    /**
+     * Adds the given key to this set if it is not already present.
+     *
+     * @param key the key to add.
+     * @return true if this set did not already contain the key.
+     */
+    public boolean add(byte[] key) {
+        checkKey(key);
+        return add(key, 0, key.length);
+    }
+
+    /**
+     * Adds the key made of the given slice of an array to this set if it is
+     * not already present.
+     *
+     * @param key the array holding the key.
+     * @param offset the offset of the first byte of the key.
+     * @param length the length of the key.
+     * @return true if this set did not already contain the key.
+     */
+    public boolean add(byte[] key, int offset, int length) {
+        checkKey(key, offset, length);
+        int hash = hash(key, null, offset, length);
+        return segmentFor(hash).add(key, null, offset, length, hash);
+    }
+
+    /**
+     * Adds the key made of the remaining bytes of the given buffer to this set
+     * if it is not already present. The position of the buffer is left
+     * untouched.
+     *
+     * @param key the buffer holding the key.
+     * @return true if this set did not already contain the key.
+     */
+    public boolean add(ByteBuffer key) {
+        checkKey(key);
+        int hash = hash(null, key, key.position(), key.remaining());
+        return segmentFor(hash).add(null, key, key.position(), key.remaining(), hash);
+    }
+
+    /**
+     * Adds the UTF-8 bytes of the given string to this set if they are not
+     * already present.
+     *
+     * @param key the key to add.
+     * @return true if this set did not already contain the key.
+     */
+    public boolean add(String key) {
+        checkKey(key);
+        return add(key.getBytes(UTF_8));
+    }
+
+    /**
+     * Removes the given key from this set if it is present.
+     *
+     * @param key the key to remove.
+     * @return true if this set contained the key.
+     */
+    public boolean remove(byte[] key) {
+        checkKey(key);
+        return remove(key, 0, key.length);
+    }
+
+    /**
+     * Removes the key made of the given slice of an array from this set if it
+     * is present.
+     *
+     * @param key the array holding the key.
+     * @param offset the offset of the first byte of the key.
+     * @param length the length of the key.
+     * @return true if this set contained the key.
+     */
+    public boolean remove(byte[] key, int offset, int length) {
+        checkKey(key, offset, length);
+        int hash = hash(key, null, offset, length);
+        return segmentFor(hash).remove(key, null, offset, length, hash);
+    }
+
+    /**
+     * Removes the key made of the remaining bytes of the given buffer from
+     * this set if it is present. The position of the buffer is left untouched.
+     *
+     * @param key the buffer holding the key.
+     * @return true if this set contained the key.
+     */
+    public boolean remove(ByteBuffer key) {
+        checkKey(key);
+        int hash = hash(null, key, key.position(), key.remaining());
+        return segmentFor(hash).remove(null, key, key.position(), key.remaining(), hash);
+    }
+
+    /**
+     * Removes the UTF-8 bytes of the given string from this set if they are
+     * present.
+     *
+     * @param key the key to remove.
+     * @return true if this set contained the key.
+     */
+    public boolean remove(String key) {
+        checkKey(key);
+        return remove(key.getBytes(UTF_8));
+    }
+
+    /**
+     * Removes all the keys from this set and releases the slabs holding them.
+     */
+    public void clear() {
+        for (Segment segment : this.segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns an iterator over a copy of the keys of this set. Each segment is
+     * copied on the heap under its read lock, so the copy is consistent per
+     * segment but not across segments. The iterator does not support removal.
+     *
+     * @return an iterator over copies of the keys.
+     */
+    public Iterator<byte[]> iterator() {
+        List<byte[]> keys = new ArrayList<byte[]>();
+        for (Segment segment : this.segments) {
+            segment.copyKeys(keys);
+        }
+        return Collections.unmodifiableList(keys).iterator();
+    }
+
+    /**
+     * Returns the number of bytes of direct memory held by this set, for its
+     * slabs and its index.
+     *
+     * @return the number of bytes of direct memory held by this set.
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (Segment segment : this.segments) {
+            bytes += segment.getOffHeapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Releases the direct memory held by this set. Direct buffers are freed
+     * by the garbage collector once they are not referenced anymore, which
+     * this method ensures. Any further operation on this set throws an {@link
+     * IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        for (Segment segment : this.segments) {
+            segment.close();
+        }
+    }
+
+    private Segment segmentFor(int hash) {
+        return this.segments[(hash >>> this.segmentShift) & this.segmentMask];
+    }
+
+    private static void checkKey(Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key cannot be null");
+        }
+    }
+
+    private static void checkKey(byte[] key, int offset, int length) {
+        checkKey(key);
+        if (offset < 0 || length < 0 || offset > key.length - length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length + ", array length: " + key.length);
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("key is too large");
+        }
+    }
+
+    private static int indexCapacityFor(long keys, int maxIndexCapacity) {
+        long capacity = MIN_INDEX_CAPACITY;
+        while (capacity * 3 / 4 < keys && capacity < maxIndexCapacity) {
+            capacity <<= 1;
+        }
+        return (int) capacity;
+    }
+
+    private static int hash(byte[] array, ByteBuffer buffer, int offset, int length) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ byteAt(array, buffer, offset + i)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static byte byteAt(byte[] array, ByteBuffer buffer, int index) {
+        return array != null ? array[index] : buffer.get(index);
+    }
+
+    private static class Segment {
+
+        private ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+        private Lock readLock = this.readWriteLock.readLock();
+        private Lock writeLock = this.readWriteLock.writeLock();
+        private ByteBuffer index;
+        private int indexMask;
+        private List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+        private ByteBuffer currentSlab;
+        private int size;
+        private int removedSlots;
+        private long usedBytes;
+        private long removedBytes;
+        private boolean closed = false;
+        private int maxIndexCapacity;
+
+        Segment(int indexCapacity, int maxIndexCapacity) {
+            this.maxIndexCapacity = maxIndexCapacity;
+            allocateIndex(indexCapacity);
+        }
+
+        int size() {
+            this.readLock.lock();
+            try {
+                checkNotClosed();
+                return this.size;
+            } finally {
+                this.readLock.unlock();
+            }
+        }
+
+        boolean contains(byte[] array, ByteBuffer buffer, int offset, int length, int hash) {
+            this.readLock.lock();
+            try {
+                checkNotClosed();
+                return find(array, buffer, offset, length, hash) >= 0;
+            } finally {
+                this.readLock.unlock();
+            }
+        }
+
+        boolean add(byte[] array, ByteBuffer buffer, int offset, int length, int hash) {
+            this.writeLock.lock();
+            try {
+                checkNotClosed();
+                if (find(array, buffer, offset, length, hash) >= 0) {
+                    return false;
+                }
+                int capacity = this.indexMask + 1;
+                if ((long) (this.size + this.removedSlots + 1) * 4 > (long) capacity * 3) {
+                    if ((long) (this.size + 1) * 4 > (long) capacity * 3) {
+                        if (capacity >= this.maxIndexCapacity) {
+                            throw new IllegalStateException("segment is full");
+                        }
+                        rebuild(indexCapacityFor(this.size + 1, this.maxIndexCapacity));
+                    } else if ((long) this.removedSlots * 8 >= capacity) {
+                        rebuild(capacity);
+                    }
+                }
+                int location = allocate(array, buffer, offset, length);
+                int slot = hash & this.indexMask;
+                while (true) {
+                    int current = this.index.getInt(slot * 8 + 4);
+                    if (current == EMPTY || current == REMOVED) {
+                        if (current == REMOVED) {
+                            this.removedSlots--;
+                        }
+                        this.index.putInt(slot * 8, hash);
+                        this.index.putInt(slot * 8 + 4, location);
+                        break;
+                    }
+                    slot = (slot + 1) & this.indexMask;
+                }
+                this.size++;
+                return true;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        boolean remove(byte[] array, ByteBuffer buffer, int offset, int length, int hash) {
+            this.writeLock.lock();
+            try {
+                checkNotClosed();
+                int slot = find(array, buffer, offset, length, hash);
+                if (slot < 0) {
+                    return false;
+                }
+                this.index.putInt(slot * 8 + 4, REMOVED);
+                this.size--;
+                this.removedSlots++;
+                this.removedBytes += recordSize(length);
+                if (this.removedBytes > SLAB_SIZE && this.removedBytes * 2 > this.usedBytes) {
+                    rebuild(indexCapacityFor(this.size, this.maxIndexCapacity));
+                }
+                return true;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        void clear() {
+            this.writeLock.lock();
+            try {
+                checkNotClosed();
+                allocateIndex(MIN_INDEX_CAPACITY);
+                this.slabs = new ArrayList<ByteBuffer>();
+                this.currentSlab = null;
+                this.size = 0;
+                this.removedSlots = 0;
+                this.usedBytes = 0;
+                this.removedBytes = 0;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        void copyKeys(List<byte[]> keys) {
+            this.readLock.lock();
+            try {
+                checkNotClosed();
+                for (int slot = 0; slot <= this.indexMask; slot++) {
+                    int location = this.index.getInt(slot * 8 + 4);
+                    if (location != EMPTY && location != REMOVED) {
+                        ByteBuffer slab = slabOf(location);
+                        int position = positionOf(location);
+                        byte[] key = new byte[slab.getInt(position)];
+                        for (int i = 0; i < key.length; i++) {
+                            key[i] = slab.get(position + 4 + i);
+                        }
+                        keys.add(key);
+                    }
+                }
+            } finally {
+                this.readLock.unlock();
+            }
+        }
+
+        long getOffHeapBytes() {
+            this.readLock.lock();
+            try {
+                if (this.closed) {
+                    return 0;
+                }
+                long bytes = this.index.capacity();
+                for (ByteBuffer slab : this.slabs) {
+                    bytes += slab.capacity();
+                }
+                return bytes;
+            } finally {
+                this.readLock.unlock();
+            }
+        }
+
+        void close() {
+            this.writeLock.lock();
+            try {
+                this.closed = true;
+                this.index = null;
+                this.slabs = null;
+                this.currentSlab = null;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        private int find(byte[] array, ByteBuffer buffer, int offset, int length, int hash) {
+            int slot = hash & this.indexMask;
+            while (true) {
+                int location = this.index.getInt(slot * 8 + 4);
+                if (location == EMPTY) {
+                    return -1;
+                }
+                if (location != REMOVED && this.index.getInt(slot * 8) == hash
+                        && keyEquals(location, array, buffer, offset, length)) {
+                    return slot;
+                }
+                slot = (slot + 1) & this.indexMask;
+            }
+        }
+
+        private boolean keyEquals(int location, byte[] array, ByteBuffer buffer, int offset, int length) {
+            ByteBuffer slab = slabOf(location);
+            int position = positionOf(location);
+            if (slab.getInt(position) != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (slab.get(position + 4 + i) != byteAt(array, buffer, offset + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int allocate(byte[] array, ByteBuffer buffer, int offset, int length) {
+            int recordSize = recordSize(length);
+            if (recordSize > SLAB_SIZE) {
+                addSlab(recordSize);
+            } else if (this.currentSlab == null || this.currentSlab.remaining() < recordSize) {
+                addSlab(SLAB_SIZE);
+            }
+            ByteBuffer slab = this.currentSlab;
+            int position = slab.position();
+            slab.putInt(length);
+            if (array != null) {
+                slab.put(array, offset, length);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    slab.put(buffer.get(offset + i));
+                }
+            }
+            slab.position(position + recordSize);
+            this.usedBytes += recordSize;
+            return locationOf(this.slabs.size() - 1, position);
+        }
+
+        private void addSlab(int capacity) {
+            if (this.slabs.size() == MAX_SLABS) {
+                throw new IllegalStateException("segment is full");
+            }
+            this.currentSlab = ByteBuffer.allocateDirect(capacity);
+            this.slabs.add(this.currentSlab);
+        }
+
+        private void rebuild(int indexCapacity) {
+            ByteBuffer oldIndex = this.index;
+            int oldMask = this.indexMask;
+            List<ByteBuffer> oldSlabs = this.slabs;
+            allocateIndex(indexCapacity);
+            this.slabs = new ArrayList<ByteBuffer>();
+            this.currentSlab = null;
+            this.removedSlots = 0;
+            this.usedBytes = 0;
+            this.removedBytes = 0;
+            ByteBuffer[] sources = new ByteBuffer[oldSlabs.size()];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = oldSlabs.get(i).duplicate();
+            }
+            for (int oldSlot = 0; oldSlot <= oldMask; oldSlot++) {
+                int oldLocation = oldIndex.getInt(oldSlot * 8 + 4);
+                if (oldLocation == EMPTY || oldLocation == REMOVED) {
+                    continue;
+                }
+                int hash = oldIndex.getInt(oldSlot * 8);
+                ByteBuffer source = sources[(oldLocation - 1) >>> (SLAB_SHIFT - 3)];
+                int position = positionOf(oldLocation);
+                source.clear();
+                int recordSize = recordSize(source.getInt(position));
+                if (recordSize > SLAB_SIZE) {
+                    addSlab(recordSize);
+                } else if (this.currentSlab == null || this.currentSlab.remaining() < recordSize) {
+                    addSlab(SLAB_SIZE);
+                }
+                int newPosition = this.currentSlab.position();
+                source.position(position);
+                source.limit(position + recordSize);
+                this.currentSlab.put(source);
+                this.usedBytes += recordSize;
+                int slot = hash & this.indexMask;
+                while (this.index.getInt(slot * 8 + 4) != EMPTY) {
+                    slot = (slot + 1) & this.indexMask;
+                }
+                this.index.putInt(slot * 8, hash);
+                this.index.putInt(slot * 8 + 4, locationOf(this.slabs.size() - 1, newPosition));
+            }
+        }
+
+        private void allocateIndex(int capacity) {
+            this.index = ByteBuffer.allocateDirect(capacity * 8);
+            this.indexMask = capacity - 1;
+        }
+
+        private ByteBuffer slabOf(int location) {
+            return this.slabs.get((location - 1) >>> (SLAB_SHIFT - 3));
+        }
+
+        private static int positionOf(int location) {
+            return ((location - 1) & ((SLAB_SIZE >>> 3) - 1)) << 3;
+        }
+
+        private static int locationOf(int slab, int position) {
+            return ((slab << (SLAB_SHIFT - 3)) | (position >>> 3)) + 1;
+        }
+
+        private static int recordSize(int length) {
+            return (4 + length + 7) & ~7;
+        }
+
+        private void checkNotClosed() {
+            if (this.closed) {
+                throw new IllegalStateException("set is closed");
+            }
+        }
+    }
+}
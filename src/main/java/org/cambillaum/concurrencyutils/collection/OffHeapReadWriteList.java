@@ -0,0 +1,627 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An implementation of the {@link List } interface that stores its elements
+ * outside of the Java heap as fixed-size records and offers the same locking
+ * guarantees as {@link ReadWriteList}: full read concurrency and one write
+ * operation at a time. <p>Elements are converted to and from records by a
+ * {@link RecordCodec} and stored in chunks of direct {@link ByteBuffer}s, so
+ * the list itself does not add objects to the heap as it grows. Elements are
+ * decoded on every access, which makes this implementation well suited to
+ * large lists of small immutable values. <p>The list can optionally be backed
+ * by a memory-mapped file. The content then survives restarts and is
+ * available as soon as the file is opened, without being read in advance.
+ * Mapped lists should be {@link #close() closed} when they are not used
+ * anymore. <p>Like {@link ReadWriteList}, iterators work on a snapshot copy of
+ * the list taken under the read lock, which in this case is decoded on the
+ * heap.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class OffHeapReadWriteList<E extends Object> extends AbstractList<E> implements RandomAccess, Closeable {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int FILE_MAGIC = 0x4f48524c;
+    private static final int HEADER_SIZE = 16;
+    private static final int SIZE_OFFSET = 8;
+    private RecordCodec<E> codec;
+    private int recordSize;
+    private int recordsPerChunk;
+    private List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private int size;
+    private FileChannel fileChannel;
+    private MappedByteBuffer header;
+    private boolean closed = false;
+    private ReadWriteLock readWriteLock;
+    private Lock readLock;
+    private Lock writeLock;
+
+    /**
+     * Constructs a new empty OffHeapReadWriteList storing its records in
+     * direct buffers of a default chunk size.
+     *
+     * @param codec the {@link RecordCodec} converting elements to records.
+     */
+    public OffHeapReadWriteList(RecordCodec<E> codec) {
+        this(codec, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a new empty OffHeapReadWriteList storing its records in
+     * direct buffers of the given chunk size.
+     *
+     * @param codec the {@link RecordCodec} converting elements to records.
+     * @param chunkSize the size in bytes of each direct buffer, it is rounded
+     * down to a multiple of the record size.
+     */
+    public OffHeapReadWriteList(RecordCodec<E> codec, int chunkSize) {
+        this(codec, chunkSize, new ReentrantReadWriteLock());
+    }
+
+    /**
+     * Constructs a new OffHeapReadWriteList backed by the given memory-mapped
+     * file. If the file already contains a list written with a codec of the
+     * same record size, its elements are immediately available.
+     *
+     * @param codec the {@link RecordCodec} converting elements to records.
+     * @param file the file backing this list.
+     * @throws IOException if the file cannot be opened or is not a list file.
+     */
+    public OffHeapReadWriteList(RecordCodec<E> codec, File file) throws IOException {
+        this(codec, file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a new OffHeapReadWriteList backed by the given memory-mapped
+     * file and mapping it in regions of the given chunk size.
+     *
+     * @param codec the {@link RecordCodec} converting elements to records.
+     * @param file the file backing this list.
+     * @param chunkSize the size in bytes of each mapped region, it is rounded
+     * down to a multiple of the record size.
+     * @throws IOException if the file cannot be opened or is not a list file.
+     */
+    public OffHeapReadWriteList(RecordCodec<E> codec, File file, int chunkSize) throws IOException {
+        this(codec, chunkSize, new ReentrantReadWriteLock());
+        if (file == null) {
+            throw new IllegalArgumentException("file cannot be null");
+        }
+        openFile(file);
+    }
+
+    /**
+     * Constructs a new empty OffHeapReadWriteList using the given {@link ReadWriteLock
+     * } implementation.
+     *
+     * @param codec the {@link RecordCodec} converting elements to records.
+     * @param chunkSize the size in bytes of each direct buffer.
+     * @param readWriteLock the {@link ReadWriteLock } implementation used to
+     * enforce the locking policy.
+     */
+    OffHeapReadWriteList(RecordCodec<E> codec, int chunkSize, ReadWriteLock readWriteLock) {
+        if (codec == null) {
+            throw new IllegalArgumentException("codec cannot be null");
+        }
+        if (codec.getRecordSize() <= 0) {
+            throw new IllegalArgumentException("record size must be positive");
+        }
+        if (chunkSize < codec.getRecordSize()) {
+            throw new IllegalArgumentException("chunkSize cannot be smaller than the record size");
+        }
+        this.codec = codec;
+        this.recordSize = codec.getRecordSize();
+        this.recordsPerChunk = chunkSize / this.recordSize;
+        this.readWriteLock = readWriteLock;
+        this.readLock = readWriteLock.readLock();
+        this.writeLock = readWriteLock.writeLock();
+    }
+
+    @Override
+    public int size() {
+        this.readLock.lock();
+        try {
+            checkNotClosed();
+            return this.size;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        this.readLock.lock();
+        try {
+            checkNotClosed();
+            return this.size == 0;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        this.readLock.lock();
+        try {
+            return indexOfUnderLock(o) >= 0;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        this.readLock.lock();
+        try {
+            return indexOfUnderLock(o);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        this.readLock.lock();
+        try {
+            for (int i = this.size - 1; i >= 0; i--) {
+                if (equal(o, readRecord(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public E get(int i) {
+        this.readLock.lock();
+        try {
+            checkIndex(i);
+            return readRecord(i);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public E set(int i, E e) {
+        this.writeLock.lock();
+        try {
+            checkIndex(i);
+            E oldValue = readRecord(i);
+            try {
+                writeRecord(i, e);
+            } catch (RuntimeException ex) {
+                writeRecord(i, oldValue);
+                throw ex;
+            }
+            return oldValue;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean add(E e) {
+        this.writeLock.lock();
+        try {
+            ensureCapacity(this.size + 1);
+            writeRecord(this.size, e);
+            setSize(this.size + 1);
+            return true;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void add(int i, E e) {
+        this.writeLock.lock();
+        try {
+            checkPositionIndex(i);
+            ensureCapacity(this.size + 1);
+            shiftRight(i, 1);
+            try {
+                writeRecord(i, e);
+            } catch (RuntimeException ex) {
+                unshiftRight(i, 1);
+                throw ex;
+            }
+            setSize(this.size + 1);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> clctn) {
+        this.writeLock.lock();
+        try {
+            return addAllUnderLock(this.size, clctn);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean addAll(int i, Collection<? extends E> clctn) {
+        this.writeLock.lock();
+        try {
+            checkPositionIndex(i);
+            return addAllUnderLock(i, clctn);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public E remove(int i) {
+        this.writeLock.lock();
+        try {
+            checkIndex(i);
+            E oldValue = readRecord(i);
+            shiftLeft(i + 1, 1);
+            setSize(this.size - 1);
+            return oldValue;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        this.writeLock.lock();
+        try {
+            int index = indexOfUnderLock(o);
+            if (index < 0) {
+                return false;
+            }
+            shiftLeft(index + 1, 1);
+            setSize(this.size - 1);
+            return true;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> clctn) {
+        this.writeLock.lock();
+        try {
+            return retainUnderLock(clctn, false);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> clctn) {
+        this.writeLock.lock();
+        try {
+            return retainUnderLock(clctn, true);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.writeLock.lock();
+        try {
+            checkNotClosed();
+            setSize(0);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return listIterator();
+    }
+
+    @Override
+    public ListIterator<E> listIterator() {
+        this.readLock.lock();
+        try {
+            return decodeCopy().listIterator();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public ListIterator<E> listIterator(int i) {
+        this.readLock.lock();
+        try {
+            checkPositionIndex(i);
+            return decodeCopy().listIterator(i);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        this.readLock.lock();
+        try {
+            return decodeCopy().toArray();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public <T> T[] toArray(T[] ts) {
+        this.readLock.lock();
+        try {
+            return decodeCopy().toArray(ts);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Forces any change made to a file-backed list to be written to the
+     * storage device. Does nothing for a list that is not backed by a file.
+     */
+    public void flush() {
+        this.readLock.lock();
+        try {
+            checkNotClosed();
+            if (this.header != null) {
+                for (ByteBuffer chunk : this.chunks) {
+                    ((MappedByteBuffer) chunk).force();
+                }
+                this.header.force();
+            }
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Releases the buffers of this list. A file-backed list is flushed and its
+     * file is closed. Any further operation on this list throws an {@link
+     * IllegalStateException}.
+     *
+     * @throws IOException if the backing file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        this.writeLock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            if (this.header != null) {
+                for (ByteBuffer chunk : this.chunks) {
+                    ((MappedByteBuffer) chunk).force();
+                }
+                this.header.force();
+                this.fileChannel.close();
+            }
+            this.closed = true;
+            this.chunks.clear();
+            this.header = null;
+            this.fileChannel = null;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    private void openFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        boolean opened = false;
+        try {
+            this.fileChannel = randomAccessFile.getChannel();
+            boolean newFile = this.fileChannel.size() == 0;
+            if (!newFile && this.fileChannel.size() < HEADER_SIZE) {
+                throw new IOException(file + " is not an off-heap list file");
+            }
+            this.header = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (newFile) {
+                this.header.putInt(0, FILE_MAGIC);
+                this.header.putInt(4, this.recordSize);
+                this.header.putLong(SIZE_OFFSET, 0L);
+            } else {
+                if (this.header.getInt(0) != FILE_MAGIC) {
+                    throw new IOException(file + " is not an off-heap list file");
+                }
+                if (this.header.getInt(4) != this.recordSize) {
+                    throw new IOException(file + " contains records of " + this.header.getInt(4) + " bytes, codec expects " + this.recordSize);
+                }
+                int storedSize = (int) this.header.getLong(SIZE_OFFSET);
+                ensureCapacity(storedSize);
+                this.size = storedSize;
+            }
+            opened = true;
+        } finally {
+            if (!opened) {
+                randomAccessFile.close();
+            }
+        }
+    }
+
+    private boolean addAllUnderLock(int index, Collection<? extends E> clctn) {
+        checkNotClosed();
+        Object[] elements = clctn.toArray();
+        if (elements.length == 0) {
+            return false;
+        }
+        ensureCapacity(this.size + elements.length);
+        shiftRight(index, elements.length);
+        try {
+            for (int j = 0; j < elements.length; j++) {
+                @SuppressWarnings("unchecked")
+                E e = (E) elements[j];
+                writeRecord(index + j, e);
+            }
+        } catch (RuntimeException ex) {
+            unshiftRight(index, elements.length);
+            throw ex;
+        }
+        setSize(this.size + elements.length);
+        return true;
+    }
+
+    private boolean retainUnderLock(Collection<?> clctn, boolean retain) {
+        checkNotClosed();
+        int newSize = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (clctn.contains(readRecord(i)) == retain) {
+                if (newSize != i) {
+                    copyRecord(i, newSize);
+                }
+                newSize++;
+            }
+        }
+        boolean changed = newSize != this.size;
+        setSize(newSize);
+        return changed;
+    }
+
+    private int indexOfUnderLock(Object o) {
+        checkNotClosed();
+        for (int i = 0; i < this.size; i++) {
+            if (equal(o, readRecord(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private List<E> decodeCopy() {
+        checkNotClosed();
+        List<E> copy = new ArrayList<E>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            copy.add(readRecord(i));
+        }
+        return copy;
+    }
+
+    private E readRecord(int index) {
+        ByteBuffer chunk = this.chunks.get(index / this.recordsPerChunk);
+        return this.codec.read(chunk, (index % this.recordsPerChunk) * this.recordSize);
+    }
+
+    private void writeRecord(int index, E e) {
+        ByteBuffer chunk = this.chunks.get(index / this.recordsPerChunk);
+        this.codec.write(e, chunk, (index % this.recordsPerChunk) * this.recordSize);
+    }
+
+    private void copyRecord(int fromIndex, int toIndex) {
+        ByteBuffer source = this.chunks.get(fromIndex / this.recordsPerChunk);
+        int sourceOffset = (fromIndex % this.recordsPerChunk) * this.recordSize;
+        ByteBuffer target = this.chunks.get(toIndex / this.recordsPerChunk);
+        int targetOffset = (toIndex % this.recordsPerChunk) * this.recordSize;
+        for (int j = 0; j < this.recordSize; j++) {
+            target.put(targetOffset + j, source.get(sourceOffset + j));
+        }
+    }
+
+    private void shiftRight(int fromIndex, int distance) {
+        for (int i = this.size - 1; i >= fromIndex; i--) {
+            copyRecord(i, i + distance);
+        }
+    }
+
+    /**
+     * Moves back the records moved by {@link #shiftRight(int, int)}, when the
+     * elements to insert in the gap cannot be encoded.
+     */
+    private void unshiftRight(int fromIndex, int distance) {
+        for (int i = fromIndex; i < this.size; i++) {
+            copyRecord(i + distance, i);
+        }
+    }
+
+    private void shiftLeft(int fromIndex, int distance) {
+        for (int i = fromIndex; i < this.size; i++) {
+            copyRecord(i, i - distance);
+        }
+    }
+
+    private void setSize(int newSize) {
+        this.size = newSize;
+        if (this.header != null) {
+            this.header.putLong(SIZE_OFFSET, newSize);
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        checkNotClosed();
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError("Required capacity exceeds the maximum list size");
+        }
+        while ((long) this.chunks.size() * this.recordsPerChunk < minCapacity) {
+            this.chunks.add(allocateChunk(this.chunks.size()));
+        }
+    }
+
+    private ByteBuffer allocateChunk(int chunkIndex) {
+        int chunkSize = this.recordsPerChunk * this.recordSize;
+        if (this.fileChannel == null) {
+            return ByteBuffer.allocateDirect(chunkSize);
+        }
+        long position = HEADER_SIZE + (long) chunkIndex * chunkSize;
+        try {
+            return this.fileChannel.map(FileChannel.MapMode.READ_WRITE, position, chunkSize);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot map the backing file at position " + position, ex);
+        }
+    }
+
+    private void checkIndex(int i) {
+        checkNotClosed();
+        if (i < 0 || i >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + this.size);
+        }
+    }
+
+    private void checkPositionIndex(int i) {
+        checkNotClosed();
+        if (i < 0 || i > this.size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + this.size);
+        }
+    }
+
+    private void checkNotClosed() {
+        if (this.closed) {
+            throw new IllegalStateException("list is closed");
+        }
+    }
+
+    private static boolean equal(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+}
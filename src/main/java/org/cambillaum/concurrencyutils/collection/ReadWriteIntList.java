@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A list of primitive {@code int} values that supports full read concurrency
+ * and limits write operations to one thread at a time, following the same
+ * locking model as {@link ReadWriteList}. <p>Values are stored in a single
+ * {@code int} array, so no element is ever boxed. Iteration is performed on a
+ * snapshot taken under the read lock, the same way {@link ReadWriteList}
+ * iterates over a copy of its backing list.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ReadWriteIntList implements Serializable {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 10;
+    private int[] elements;
+    private int size;
+    private ReadWriteLock readWriteLock;
+    private Lock readLock;
+    private Lock writeLock;
+
+    /**
+     * Constructs a new empty ReadWriteIntList with a default initial
+     * capacity.
+     */
+    public ReadWriteIntList() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs a new empty ReadWriteIntList with the specified initial
+     * capacity.
+     *
+     * @param initialCapacity the number of values the list can hold before
+     * growing.
+     */
+    public ReadWriteIntList(int initialCapacity) {
+        this(initialCapacity, new ReentrantReadWriteLock());
+    }
+
+    /**
+     * Constructs a new empty ReadWriteIntList with the specified initial
+     * capacity and the given fairness policy.
+     *
+     * @param initialCapacity the number of values the list can hold before
+     * growing.
+     * @param fair true if the list's lock should use a fair ordering policy.
+     */
+    public ReadWriteIntList(int initialCapacity, boolean fair) {
+        this(initialCapacity, new ReentrantReadWriteLock(fair));
+    }
+
+    /**
+     * Constructs a new empty ReadWriteIntList with the specified initial
+     * capacity and using the given {@link ReadWriteLock } implementation.
+     *
+     * @param initialCapacity the number of values the list can hold before
+     * growing.
+     * @param readWriteLock the {@link ReadWriteLock } implementation used to
+     * enforce the locking policy.
+     */
+    ReadWriteIntList(int initialCapacity, ReadWriteLock readWriteLock) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity cannot be negative");
+        }
+        this.elements = new int[initialCapacity];
+        this.readWriteLock = readWriteLock;
+        this.readLock = readWriteLock.readLock();
+        this.writeLock = readWriteLock.writeLock();
+    }
+
+    /**
+     * Returns the number of values in this list.
+     *
+     * @return the number of values in this list.
+     */
+    public int size() {
+        this.readLock.lock();
+        try {
+            return this.size;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if this list contains no values.
+     *
+     * @return true if this list contains no values.
+     */
+    public boolean isEmpty() {
+        this.readLock.lock();
+        try {
+            return this.size == 0;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if this list contains the specified value.
+     *
+     * @param value the value whose presence is to be tested.
+     * @return true if this list contains the specified value.
+     */
+    public boolean containsInt(int value) {
+        this.readLock.lock();
+        try {
+            return indexOfUnderLock(value) >= 0;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the index of the first occurrence of the specified value, or -1
+     * if this list does not contain it.
+     *
+     * @param value the value to search for.
+     * @return the index of the first occurrence of the value, or -1.
+     */
+    public int indexOfInt(int value) {
+        this.readLock.lock();
+        try {
+            return indexOfUnderLock(value);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the index of the last occurrence of the specified value, or -1
+     * if this list does not contain it.
+     *
+     * @param value the value to search for.
+     * @return the index of the last occurrence of the value, or -1.
+     */
+    public int lastIndexOfInt(int value) {
+        this.readLock.lock();
+        try {
+            for (int i = this.size - 1; i >= 0; i--) {
+                if (this.elements[i] == value) {
+                    return i;
+                }
+            }
+            return -1;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the value at the specified position in this list.
+     *
+     * @param index the index of the value to return.
+     * @return the value at the specified position.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public int getInt(int index) {
+        this.readLock.lock();
+        try {
+            checkIndex(index);
+            return this.elements[index];
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the value at the specified position in this list.
+     *
+     * @param index the index of the value to replace.
+     * @param value the value to be stored at the specified position.
+     * @return the value previously at the specified position.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public int setInt(int index, int value) {
+        this.writeLock.lock();
+        try {
+            checkIndex(index);
+            int oldValue = this.elements[index];
+            this.elements[index] = value;
+            return oldValue;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Appends the specified value to the end of this list.
+     *
+     * @param value the value to be appended.
+     * @return true.
+     */
+    public boolean addInt(int value) {
+        this.writeLock.lock();
+        try {
+            ensureCapacity(this.size + 1);
+            this.elements[this.size++] = value;
+            return true;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Inserts the specified value at the specified position in this list,
+     * shifting the subsequent values to the right.
+     *
+     * @param index the index at which the value is to be inserted.
+     * @param value the value to be inserted.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public void addInt(int index, int value) {
+        this.writeLock.lock();
+        try {
+            if (index < 0 || index > this.size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+            }
+            ensureCapacity(this.size + 1);
+            System.arraycopy(this.elements, index, this.elements, index + 1, this.size - index);
+            this.elements[index] = value;
+            this.size++;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Appends all the values of the specified array to the end of this list
+     * in a single write operation.
+     *
+     * @param values the values to be appended.
+     * @return true if this list changed as a result of the call.
+     */
+    public boolean addAll(int[] values) {
+        if (values == null) {
+            throw new IllegalArgumentException("values cannot be null");
+        }
+        return addAll(values, 0, values.length);
+    }
+
+    /**
+     * Appends a range of the specified array to the end of this list in a
+     * single write operation.
+     *
+     * @param values the array containing the values to be appended.
+     * @param offset the index of the first value to append.
+     * @param length the number of values to append.
+     * @return true if this list changed as a result of the call.
+     */
+    public boolean addAll(int[] values, int offset, int length) {
+        if (values == null) {
+            throw new IllegalArgumentException("values cannot be null");
+        }
+        if (offset < 0 || length < 0 || offset + length > values.length) {
+            throw new IndexOutOfBoundsException("Offset: " + offset + ", Length: " + length + ", Array length: " + values.length);
+        }
+        this.writeLock.lock();
+        try {
+            ensureCapacity(this.size + length);
+            System.arraycopy(values, offset, this.elements, this.size, length);
+            this.size += length;
+            return length > 0;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the value at the specified position in this list, shifting the
+     * subsequent values to the left.
+     *
+     * @param index the index of the value to be removed.
+     * @return the removed value.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public int removeAt(int index) {
+        this.writeLock.lock();
+        try {
+            checkIndex(index);
+            int oldValue = this.elements[index];
+            removeUnderLock(index);
+            return oldValue;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the first occurrence of the specified value from this list.
+     *
+     * @param value the value to be removed.
+     * @return true if this list contained the specified value.
+     */
+    public boolean removeInt(int value) {
+        this.writeLock.lock();
+        try {
+            int index = indexOfUnderLock(value);
+            if (index < 0) {
+                return false;
+            }
+            removeUnderLock(index);
+            return true;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the values from this list. The capacity is kept.
+     */
+    public void clear() {
+        this.writeLock.lock();
+        try {
+            this.size = 0;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Trims the capacity of this list to its current size.
+     */
+    public void trimToSize() {
+        this.writeLock.lock();
+        try {
+            if (this.elements.length > this.size) {
+                this.elements = Arrays.copyOf(this.elements, this.size);
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns an array containing all the values of this list in proper
+     * sequence.
+     *
+     * @return a new array containing the values of this list.
+     */
+    public int[] toIntArray() {
+        this.readLock.lock();
+        try {
+            return Arrays.copyOf(this.elements, this.size);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the values of this list. The
+     * iterator is not affected by subsequent modifications of this list and
+     * does not box the values.
+     *
+     * @return an iterator over a snapshot of the values of this list.
+     */
+    public IntIterator iterator() {
+        this.readLock.lock();
+        try {
+            int[] copy = Arrays.copyOf(this.elements, this.size);
+            return new ArrayIntIterator(copy, 0, copy.length);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    private int indexOfUnderLock(int value) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.elements[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeUnderLock(int index) {
+        int numberToMove = this.size - index - 1;
+        if (numberToMove > 0) {
+            System.arraycopy(this.elements, index + 1, this.elements, index, numberToMove);
+        }
+        this.size--;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError("Required capacity exceeds the maximum array size");
+        }
+        if (minCapacity > this.elements.length) {
+            int newCapacity = this.elements.length + (this.elements.length >> 1) + 1;
+            if (newCapacity < minCapacity || newCapacity < 0) {
+                newCapacity = minCapacity;
+            }
+            this.elements = Arrays.copyOf(this.elements, newCapacity);
+        }
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.cambillaum.concurrencyutils.collection;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.locks.Lock;
@@ -38,6 +40,10 @@ public class ReadWriteList<E extends Object> implements List<E>, Serializable {
     private ReadWriteLock readWriteLock;
     private Lock readLock;
     private Lock writeLock;
+    private transient ChangeLog<E> changeLog;
+    private transient volatile WriteAheadLog<E> writeAheadLog;
+    private ReadWriteList<E> root;
+    private int offset;
 
     /**
      * Constructs a new empty ReadWriteList backed by the specified {@link List
@@ -144,22 +150,49 @@ public class ReadWriteList<E extends Object> implements List<E>, Serializable {
 
     @Override
     public boolean add(E e) {
+        boolean added;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.list.add(e);
+            int index = this.list.size();
+            added = this.list.add(e);
+            if (added && isRecording()) {
+                try {
+                    record(Change.Type.ADD, e, index);
+                } catch (RuntimeException ex) {
+                    this.list.remove(index);
+                    throw ex;
+                }
+            }
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return added;
     }
 
     @Override
     public boolean remove(Object o) {
+        boolean removed;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.list.remove(o);
+            if (!isRecording()) {
+                removed = this.list.remove(o);
+            } else {
+                int index = this.list.indexOf(o);
+                removed = index >= 0;
+                if (removed) {
+                    removeAndRecord(index);
+                }
+            }
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return removed;
     }
 
     @Override
@@ -174,51 +207,92 @@ public class ReadWriteList<E extends Object> implements List<E>, Serializable {
 
     @Override
     public boolean addAll(Collection<? extends E> clctn) {
+        boolean collectionChanged;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.list.addAll(clctn);
+            if (!isRecording()) {
+                collectionChanged = this.list.addAll(clctn);
+            } else {
+                collectionChanged = addAllAndRecord(this.list.size(), clctn);
+            }
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return collectionChanged;
     }
 
     @Override
     public boolean addAll(int i, Collection<? extends E> clctn) {
+        boolean collectionChanged;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.list.addAll(i, clctn);
+            collectionChanged = addAllAndRecord(i, clctn);
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return collectionChanged;
     }
 
     @Override
     public boolean removeAll(Collection<?> clctn) {
+        boolean collectionChanged;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.list.removeAll(clctn);
+            if (!isRecording()) {
+                collectionChanged = this.list.removeAll(clctn);
+            } else {
+                collectionChanged = removeAndRecordIf(clctn, true);
+            }
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return collectionChanged;
     }
 
     @Override
     public boolean retainAll(Collection<?> clctn) {
+        boolean collectionChanged;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.list.retainAll(clctn);
+            if (!isRecording()) {
+                collectionChanged = this.list.retainAll(clctn);
+            } else {
+                collectionChanged = removeAndRecordIf(clctn, false);
+            }
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return collectionChanged;
     }
 
     @Override
     public void clear() {
+        boolean completed = false;
         this.writeLock.lock();
         try {
+            if (isRecording()) {
+                for (int index = this.list.size() - 1; index >= 0; index--) {
+                    record(Change.Type.REMOVE, this.list.get(index), index);
+                    this.list.remove(index);
+                }
+            }
             this.list.clear();
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
     }
 
@@ -234,32 +308,61 @@ public class ReadWriteList<E extends Object> implements List<E>, Serializable {
 
     @Override
     public E set(int i, E e) {
+        E previous;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.list.set(i, e);
+            previous = this.list.set(i, e);
+            if (isRecording()) {
+                try {
+                    recordReplacement(previous, e, i);
+                } catch (RuntimeException ex) {
+                    this.list.set(i, previous);
+                    throw ex;
+                }
+            }
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return previous;
     }
 
     @Override
     public void add(int i, E e) {
+        boolean completed = false;
         this.writeLock.lock();
         try {
             this.list.add(i, e);
+            if (isRecording()) {
+                try {
+                    record(Change.Type.ADD, e, i);
+                } catch (RuntimeException ex) {
+                    this.list.remove(i);
+                    throw ex;
+                }
+            }
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
     }
 
     @Override
     public E remove(int i) {
+        E removed;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.list.remove(i);
+            removed = removeAndRecord(i);
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return removed;
     }
 
     @Override
@@ -309,12 +412,322 @@ public class ReadWriteList<E extends Object> implements List<E>, Serializable {
         this.readLock.lock();
         try {
             List<E> subList = this.list.subList(i, i1);
-            return new ReadWriteList<E>(subList, this.readWriteLock);
+            ReadWriteList<E> readWriteSubList = new ReadWriteList<E>(subList, this.readWriteLock);
+            readWriteSubList.root = this.root == null ? this : this.root;
+            readWriteSubList.offset = this.offset + i;
+            return readWriteSubList;
         } finally {
             this.readLock.unlock();
         }
     }
 
+    /**
+     * Splits a consistent snapshot of this list into at most the given number
+     * of parts of even size, typically one per worker thread. The snapshot is
+     * taken under the read lock as a single array, which is cheaper than the
+     * copy made by {@link #iterator()}, and the parts are unmodifiable views of
+     * that array. Each part can then be processed concurrently, for instance by
+     * a {@link java.util.concurrent.ForkJoinPool}, without holding any lock.
+     *
+     * @param parts the maximum number of parts, no part is ever empty.
+     * @return the parts of the snapshot, in iteration order.
+     */
+    public List<List<E>> split(int parts) {
+        this.readLock.lock();
+        try {
+            return SnapshotSplitter.split(this.list.toArray(), parts);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Starts recording the additions and removals made to this list in a
+     * {@link ChangeLog} keeping the given number of changes, or returns the
+     * change log already recording them. Each change carries the index of the
+     * element, a replaced element is recorded as a removal followed by an
+     * addition at the same index. Changes made through sub lists are recorded
+     * with their index in this list. Readers of the log should start from
+     * {@link #changeSnapshot()}.
+     *
+     * @param capacity the number of changes kept by the log, rounded up to a
+     * power of two.
+     * @return the change log of this list.
+     */
+    public ChangeLog<E> enableChangeLog(int capacity) {
+        if (this.root != null) {
+            return this.root.enableChangeLog(capacity);
+        }
+        this.writeLock.lock();
+        try {
+            if (this.changeLog == null) {
+                this.changeLog = new ChangeLog<E>(capacity);
+            }
+            return this.changeLog;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of this list taken under the read lock, together with the
+     * sequence number of the first change of the change log made after the
+     * copy.
+     *
+     * @return the snapshot of this list.
+     * @throws IllegalStateException if the change log is not enabled.
+     */
+    public ChangeSnapshot<E> changeSnapshot() {
+        this.readLock.lock();
+        try {
+            ChangeLog<E> log = getChangeLog();
+            if (log == null) {
+                throw new IllegalStateException("change log is not enabled");
+            }
+            List<E> elements = Collections.unmodifiableList(new ArrayList<E>(this.list));
+            return new ChangeSnapshot<E>(elements, log.getNextSequence());
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Makes this list durable by recording its additions and removals in a
+     * {@link WriteAheadLog} kept in the given directory, or returns the log
+     * already recording them. The latest snapshot and the log segments found
+     * in the directory are first replayed into this list, then the whole list
+     * is written to a new snapshot. Afterwards, each method changing this list
+     * or one of its sub lists returns once its changes are durable: changes
+     * are appended to the log under the write lock and forced to disk once the
+     * lock is released, concurrent writers sharing a single sync. A change the
+     * log cannot record is undone before its exception is thrown. The log is
+     * compacted against a new snapshot, in the background, each time its
+     * current segment grows past 64MB.
+     * Enabling the log again in the same directory returns it unchanged, with
+     * its original codec and compaction threshold.
+     *
+     * @param directory the directory holding the log, created if needed.
+     * @param codec the codec encoding the elements.
+     * @return the write-ahead log of this list.
+     * @throws IOException if the log cannot be replayed.
+     * @throws IllegalStateException if the write-ahead log is already enabled
+     * in another directory.
+     */
+    public WriteAheadLog<E> enableWriteAheadLog(File directory, ElementCodec<E> codec) throws IOException {
+        return enableWriteAheadLog(directory, codec, WriteAheadLog.DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Makes this list durable by recording its additions and removals in a
+     * {@link WriteAheadLog} kept in the given directory, or returns the log
+     * already recording them. The log is compacted against a new snapshot each
+     * time its current segment grows past the given number of bytes.
+     *
+     * @param directory the directory holding the log, created if needed.
+     * @param codec the codec encoding the elements.
+     * @param compactionThreshold the size of a log segment triggering a
+     * compaction, in bytes.
+     * @return the write-ahead log of this list.
+     * @throws IOException if the log cannot be replayed.
+     * @throws IllegalStateException if the write-ahead log is already enabled
+     * in another directory.
+     * @see #enableWriteAheadLog(File, ElementCodec)
+     */
+    public WriteAheadLog<E> enableWriteAheadLog(File directory, ElementCodec<E> codec, long compactionThreshold)
+            throws IOException {
+        if (this.root != null) {
+            return this.root.enableWriteAheadLog(directory, codec, compactionThreshold);
+        }
+        this.readLock.lock();
+        try {
+            if (this.writeAheadLog != null) {
+                return this.writeAheadLog.checkDirectory(directory);
+            }
+        } finally {
+            this.readLock.unlock();
+        }
+        WriteAheadLog<E> log = new WriteAheadLog<E>(directory, codec, compactionThreshold);
+        log.lockCompaction();
+        try {
+            this.writeLock.lock();
+            try {
+                if (this.writeAheadLog != null) {
+                    return this.writeAheadLog.checkDirectory(directory);
+                }
+                for (List<E> chunk : log.recoverSnapshot()) {
+                    addAllAndRecord(this.list.size(), chunk);
+                }
+                for (Change<E> change : log.recoverLog()) {
+                    if (change.getType() == Change.Type.ADD) {
+                        addAllAndRecord(change.getIndex(), Collections.singletonList(change.getElement()));
+                    } else {
+                        removeAndRecord(change.getIndex());
+                    }
+                }
+                this.writeAheadLog = log;
+            } finally {
+                this.writeLock.unlock();
+            }
+            compactWriteAheadLog(log);
+            return log;
+        } finally {
+            log.unlockCompaction();
+        }
+    }
+
+    /**
+     * Writes a consistent snapshot of this list next to its write-ahead log
+     * and deletes the log segments it replaces. Compactions also happen
+     * automatically as the log grows.
+     *
+     * @throws IOException if the snapshot cannot be written.
+     * @throws IllegalStateException if the write-ahead log is not enabled.
+     */
+    public void compactWriteAheadLog() throws IOException {
+        if (this.root != null) {
+            this.root.compactWriteAheadLog();
+            return;
+        }
+        WriteAheadLog<E> log = this.writeAheadLog;
+        if (log == null) {
+            throw new IllegalStateException("write-ahead log is not enabled");
+        }
+        log.lockCompaction();
+        try {
+            compactWriteAheadLog(log);
+        } finally {
+            log.unlockCompaction();
+        }
+    }
+
+    private ChangeLog<E> getChangeLog() {
+        return this.root == null ? this.changeLog : this.root.changeLog;
+    }
+
+    private WriteAheadLog<E> getWriteAheadLog() {
+        return this.root == null ? this.writeAheadLog : this.root.writeAheadLog;
+    }
+
+    private boolean isRecording() {
+        return getChangeLog() != null || getWriteAheadLog() != null;
+    }
+
+    /**
+     * Records a change, appending it to the write-ahead log first so that
+     * the change log never holds a change the write-ahead log rejected.
+     */
+    private void record(Change.Type type, E e, int index) {
+        WriteAheadLog<E> durableLog = getWriteAheadLog();
+        if (durableLog != null) {
+            durableLog.append(type, e, this.offset + index);
+        }
+        ChangeLog<E> log = getChangeLog();
+        if (log != null) {
+            log.record(type, e, this.offset + index);
+        }
+    }
+
+    private void recordReplacement(E previous, E e, int index) {
+        WriteAheadLog<E> durableLog = getWriteAheadLog();
+        if (durableLog != null) {
+            durableLog.appendReplacement(previous, e, this.offset + index);
+        }
+        ChangeLog<E> log = getChangeLog();
+        if (log != null) {
+            log.record(Change.Type.REMOVE, previous, this.offset + index);
+            log.record(Change.Type.ADD, e, this.offset + index);
+        }
+    }
+
+    private void compactWriteAheadLog(WriteAheadLog<E> log) throws IOException {
+        Object[] elements;
+        long segment;
+        this.readLock.lock();
+        try {
+            elements = this.list.toArray();
+            segment = log.roll();
+        } finally {
+            this.readLock.unlock();
+        }
+        log.writeSnapshot(elements, segment);
+    }
+
+    /**
+     * Waits until the changes made under the write lock are durable, and
+     * schedules a compaction once the log is large enough. When the change
+     * itself failed, a sync failure is ignored so that it does not hide the
+     * exception of the change.
+     */
+    private void syncWriteAheadLog(boolean completed) {
+        final ReadWriteList<E> owner = this.root == null ? this : this.root;
+        final WriteAheadLog<E> log = owner.writeAheadLog;
+        if (log == null) {
+            return;
+        }
+        boolean compact;
+        try {
+            compact = log.sync();
+        } catch (IllegalStateException ex) {
+            if (completed) {
+                throw ex;
+            }
+            return;
+        }
+        if (compact) {
+            log.scheduleCompaction(new WriteAheadLog.Compaction() {
+                @Override
+                public void run() throws IOException {
+                    owner.compactWriteAheadLog(log);
+                }
+            });
+        }
+    }
+
+    private E removeAndRecord(int index) {
+        E removed = this.list.remove(index);
+        if (isRecording()) {
+            try {
+                record(Change.Type.REMOVE, removed, index);
+            } catch (RuntimeException ex) {
+                this.list.add(index, removed);
+                throw ex;
+            }
+        }
+        return removed;
+    }
+
+    private boolean addAllAndRecord(int index, Collection<? extends E> clctn) {
+        if (!isRecording()) {
+            return this.list.addAll(index, clctn);
+        }
+        List<E> added = new ArrayList<E>(clctn);
+        boolean collectionChanged = this.list.addAll(index, added);
+        for (int i = 0; i < added.size(); i++) {
+            try {
+                record(Change.Type.ADD, added.get(i), index + i);
+            } catch (RuntimeException ex) {
+                this.list.subList(index + i, index + added.size()).clear();
+                throw ex;
+            }
+        }
+        return collectionChanged;
+    }
+
+    private boolean removeAndRecordIf(Collection<?> clctn, boolean contained) {
+        boolean collectionChanged = false;
+        ListIterator<E> iterator = this.list.listIterator();
+        while (iterator.hasNext()) {
+            int index = iterator.nextIndex();
+            E e = iterator.next();
+            if (clctn.contains(e) == contained) {
+                record(Change.Type.REMOVE, e, index);
+                iterator.remove();
+                collectionChanged = true;
+            }
+        }
+        return collectionChanged;
+    }
+
     private List<E> getCopyDependingOnType() {
         List<E> copyList;
         if (this.list instanceof LinkedList) {
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An implementation of the {@link Map } interface that supports full read
+ * concurrency and limits write operations to one thread at a time. <p>Whether
+ * this implementation will improve performance over the use of a non
+ * synchronized {@link Map} implementation depends on the frequency that the
+ * data is read compared to being modified, the duration of the read and write
+ * operations, and the contention for the data. <p>Like the iterators of
+ * {@link ReadWriteSet} and {@link ReadWriteList}, the {@link #keySet()},
+ * {@link #values()} and {@link #entrySet()} views are taken on a copy of the
+ * map made under the read lock, of the same kind as the backing map so that
+ * the iteration order is kept. They are not affected by subsequent
+ * modifications and cannot be modified. The backing map must not change on
+ * reads, which excludes a {@link LinkedHashMap} in access order.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ReadWriteMap<K extends Object, V extends Object> implements Map<K, V>, Serializable {
+
+    private Map<K, V> map;
+    private ReadWriteLock readWriteLock;
+    private Lock readLock;
+    private Lock writeLock;
+
+    /**
+     * Constructs a new empty ReadWriteMap backed by the specified {@link Map}.
+     *
+     * @param map the {@link Map } that backs this ReadWriteMap.
+     */
+    public ReadWriteMap(Map<K, V> map) {
+        this(map, new ReentrantReadWriteLock());
+    }
+
+    /**
+     * Constructs a new empty ReadWriteMap backed by the specified {@link Map
+     * }
+     * with the given fairness policy.
+     *
+     * @param map the {@link Map} that backs this ReadWriteMap.
+     * @param fair true if the map's lock should use a fair ordering policy.
+     */
+    public ReadWriteMap(Map<K, V> map, boolean fair) {
+        this(map, new ReentrantReadWriteLock(fair));
+    }
+
+    /**
+     * Constructs a new empty ReadWriteMap backed by the specified {@link Map
+     * }
+     * and using the given {@link ReadWriteLock } implementation.
+     *
+     * @param map the {@link Map } that backs this ReadWriteMap.
+     * @param readWriteLock the {@link ReadWriteLock } implementation used to
+     * enforce the locking policy.
+     */
+    ReadWriteMap(Map<K, V> map, ReadWriteLock readWriteLock) {
+        this.map = map;
+        this.readWriteLock = readWriteLock;
+        this.readLock = this.readWriteLock.readLock();
+        this.writeLock = this.readWriteLock.writeLock();
+
+        if (this.map == null) {
+            throw new IllegalArgumentException("map cannot be null");
+        }
+    }
+
+    @Override
+    public int size() {
+        this.readLock.lock();
+        try {
+            return this.map.size();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        this.readLock.lock();
+        try {
+            return this.map.isEmpty();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        this.readLock.lock();
+        try {
+            return this.map.containsKey(key);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        this.readLock.lock();
+        try {
+            return this.map.containsValue(value);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        this.readLock.lock();
+        try {
+            return this.map.get(key);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        this.writeLock.lock();
+        try {
+            return this.map.put(key, value);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        this.writeLock.lock();
+        try {
+            return this.map.remove(key);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        this.writeLock.lock();
+        try {
+            this.map.putAll(m);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.writeLock.lock();
+        try {
+            this.map.clear();
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Associates the given value with the given key if the key is not already
+     * associated with a value, as one atomic operation.
+     *
+     * @param key the key.
+     * @param value the value to associate with the key.
+     * @return the value previously associated with the key, or null if the
+     * value was put.
+     */
+    public V putIfAbsent(K key, V value) {
+        this.writeLock.lock();
+        try {
+            if (this.map.containsKey(key)) {
+                return this.map.get(key);
+            }
+            return this.map.put(key, value);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the given key only if it is associated with the given value, as
+     * one atomic operation.
+     *
+     * @param key the key.
+     * @param value the value expected to be associated with the key.
+     * @return true if the key was removed.
+     */
+    public boolean remove(Object key, Object value) {
+        this.writeLock.lock();
+        try {
+            if (this.map.containsKey(key) && equal(this.map.get(key), value)) {
+                this.map.remove(key);
+                return true;
+            }
+            return false;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the value associated with the given key only if it is the given
+     * old value, as one atomic operation.
+     *
+     * @param key the key.
+     * @param oldValue the value expected to be associated with the key.
+     * @param newValue the value to associate with the key.
+     * @return true if the value was replaced.
+     */
+    public boolean replace(K key, V oldValue, V newValue) {
+        this.writeLock.lock();
+        try {
+            if (this.map.containsKey(key) && equal(this.map.get(key), oldValue)) {
+                this.map.put(key, newValue);
+                return true;
+            }
+            return false;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the value associated with the given key only if the key is
+     * associated with a value, as one atomic operation.
+     *
+     * @param key the key.
+     * @param value the value to associate with the key.
+     * @return the value previously associated with the key, or null if the
+     * key was not present.
+     */
+    public V replace(K key, V value) {
+        this.writeLock.lock();
+        try {
+            if (this.map.containsKey(key)) {
+                return this.map.put(key, value);
+            }
+            return null;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        this.readLock.lock();
+        try {
+            return Collections.unmodifiableMap(getCopyDependingOnType()).keySet();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<V> values() {
+        this.readLock.lock();
+        try {
+            return Collections.unmodifiableMap(getCopyDependingOnType()).values();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        this.readLock.lock();
+        try {
+            return Collections.unmodifiableMap(getCopyDependingOnType()).entrySet();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of this map taken under the read lock, of the same kind
+     * as the backing map. The copy can be modified freely and is not affected
+     * by subsequent modifications of this map.
+     *
+     * @return a copy of this map.
+     */
+    public Map<K, V> snapshot() {
+        this.readLock.lock();
+        try {
+            return getCopyDependingOnType();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    private static boolean equal(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+    private Map<K, V> getCopyDependingOnType() {
+        if (this.map instanceof LinkedHashMap) {
+            return new LinkedHashMap<K, V>(this.map);
+        } else if (this.map instanceof HashMap) {
+            return new HashMap<K, V>(this.map);
+        } else if (this.map instanceof TreeMap) {
+            return new TreeMap<K, V>((SortedMap<K, V>) this.map);
+        } else if (this.map instanceof ConcurrentSkipListMap) {
+            return new ConcurrentSkipListMap<K, V>((SortedMap<K, V>) this.map);
+        } else if (this.map instanceof ConcurrentHashMap) {
+            return new ConcurrentHashMap<K, V>(this.map);
+        } else if (this.map instanceof SortedMap) {
+            return new TreeMap<K, V>((SortedMap<K, V>) this.map);
+        } else {
+            return new HashMap<K, V>(this.map);
+        }
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.cambillaum.concurrencyutils.collection;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -40,6 +42,8 @@ public class ReadWriteSet<E extends Object> implements Set<E>, Serializable {
     private ReadWriteLock readWriteLock;
     private Lock readLock;
     private Lock writeLock;
+    private transient ChangeLog<E> changeLog;
+    private transient volatile WriteAheadLog<E> writeAheadLog;
 
     /**
      * Constructs a new empty ReadWriteSet backed by the specified {@link Set}.
@@ -145,22 +149,32 @@ public class ReadWriteSet<E extends Object> implements Set<E>, Serializable {
 
     @Override
     public boolean add(E e) {
+        boolean added;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.set.add(e);
+            added = addAndRecord(e);
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return added;
     }
 
     @Override
     public boolean remove(Object o) {
+        boolean removed;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.set.remove(o);
+            removed = removeAndRecord(o);
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return removed;
     }
 
     @Override
@@ -175,55 +189,409 @@ public class ReadWriteSet<E extends Object> implements Set<E>, Serializable {
 
     @Override
     public boolean addAll(Collection<? extends E> clctn) {
+        boolean collectionChanged;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.set.addAll(clctn);
+            collectionChanged = addAllAndRecord(clctn);
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return collectionChanged;
     }
 
     @Override
     public boolean retainAll(Collection<?> clctn) {
+        boolean collectionChanged = false;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.set.retainAll(clctn);
+            if (!isRecording()) {
+                collectionChanged = this.set.retainAll(clctn);
+            } else {
+                Iterator<E> iterator = this.set.iterator();
+                while (iterator.hasNext()) {
+                    E e = iterator.next();
+                    if (!clctn.contains(e)) {
+                        record(Change.Type.REMOVE, e);
+                        iterator.remove();
+                        collectionChanged = true;
+                    }
+                }
+            }
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return collectionChanged;
     }
 
     @Override
     public boolean removeAll(Collection<?> clctn) {
+        boolean collectionChanged = false;
+        boolean completed = false;
         this.writeLock.lock();
         try {
-            return this.set.removeAll(clctn);
+            if (!isRecording()) {
+                collectionChanged = this.set.removeAll(clctn);
+            } else {
+                for (Object o : clctn) {
+                    if (removeAndRecord(o)) {
+                        collectionChanged = true;
+                    }
+                }
+            }
+            completed = true;
         } finally {
             this.writeLock.unlock();
+            syncWriteAheadLog(completed);
         }
+        return collectionChanged;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void clear() {
+        boolean completed = false;
         this.writeLock.lock();
         try {
+            if (isRecording()) {
+                for (Object o : this.set.toArray()) {
+                    record(Change.Type.REMOVE, (E) o);
+                    this.set.remove(o);
+                }
+            }
             this.set.clear();
+            completed = true;
+        } finally {
+            this.writeLock.unlock();
+            syncWriteAheadLog(completed);
+        }
+    }
+
+    /**
+     * Starts recording the additions and removals made to this set in a
+     * {@link ChangeLog} keeping the given number of changes, or returns the
+     * change log already recording them. Readers of the log should start from
+     * {@link #changeSnapshot()}.
+     *
+     * @param capacity the number of changes kept by the log, rounded up to a
+     * power of two.
+     * @return the change log of this set.
+     */
+    public ChangeLog<E> enableChangeLog(int capacity) {
+        this.writeLock.lock();
+        try {
+            if (this.changeLog == null) {
+                this.changeLog = new ChangeLog<E>(capacity);
+            }
+            return this.changeLog;
         } finally {
             this.writeLock.unlock();
         }
     }
 
+    /**
+     * Returns a copy of this set taken under the read lock, together with the
+     * sequence number of the first change of the change log made after the
+     * copy.
+     *
+     * @return the snapshot of this set.
+     * @throws IllegalStateException if the change log is not enabled.
+     */
+    public ChangeSnapshot<E> changeSnapshot() {
+        this.readLock.lock();
+        try {
+            if (this.changeLog == null) {
+                throw new IllegalStateException("change log is not enabled");
+            }
+            List<E> elements = Collections.unmodifiableList(new ArrayList<E>(this.set));
+            return new ChangeSnapshot<E>(elements, this.changeLog.getNextSequence());
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Makes this set durable by recording its additions and removals in a
+     * {@link WriteAheadLog} kept in the given directory, or returns the log
+     * already recording them. The latest snapshot and the log segments found
+     * in the directory are first replayed into this set, then the whole set is
+     * written to a new snapshot. Afterwards, each method changing this set
+     * returns once its changes are durable: changes are appended to the log
+     * under the write lock and forced to disk once the lock is released,
+     * concurrent writers sharing a single sync. A change the log cannot
+     * record is undone before its exception is thrown. The log is compacted
+     * against a new snapshot, in the background, each time its current
+     * segment grows past 64MB.
+     * Enabling the log again in the same directory returns it unchanged, with
+     * its original codec and compaction threshold.
+     *
+     * @param directory the directory holding the log, created if needed.
+     * @param codec the codec encoding the elements.
+     * @return the write-ahead log of this set.
+     * @throws IOException if the log cannot be replayed.
+     * @throws IllegalStateException if the write-ahead log is already enabled
+     * in another directory.
+     */
+    public WriteAheadLog<E> enableWriteAheadLog(File directory, ElementCodec<E> codec) throws IOException {
+        return enableWriteAheadLog(directory, codec, WriteAheadLog.DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Makes this set durable by recording its additions and removals in a
+     * {@link WriteAheadLog} kept in the given directory, or returns the log
+     * already recording them. The log is compacted against a new snapshot each
+     * time its current segment grows past the given number of bytes.
+     *
+     * @param directory the directory holding the log, created if needed.
+     * @param codec the codec encoding the elements.
+     * @param compactionThreshold the size of a log segment triggering a
+     * compaction, in bytes.
+     * @return the write-ahead log of this set.
+     * @throws IOException if the log cannot be replayed.
+     * @throws IllegalStateException if the write-ahead log is already enabled
+     * in another directory.
+     * @see #enableWriteAheadLog(File, ElementCodec)
+     */
+    public WriteAheadLog<E> enableWriteAheadLog(File directory, ElementCodec<E> codec, long compactionThreshold)
+            throws IOException {
+        this.readLock.lock();
+        try {
+            if (this.writeAheadLog != null) {
+                return this.writeAheadLog.checkDirectory(directory);
+            }
+        } finally {
+            this.readLock.unlock();
+        }
+        WriteAheadLog<E> log = new WriteAheadLog<E>(directory, codec, compactionThreshold);
+        log.lockCompaction();
+        try {
+            this.writeLock.lock();
+            try {
+                if (this.writeAheadLog != null) {
+                    return this.writeAheadLog.checkDirectory(directory);
+                }
+                for (List<E> chunk : log.recoverSnapshot()) {
+                    addAllAndRecord(chunk);
+                }
+                for (Change<E> change : log.recoverLog()) {
+                    if (change.getType() == Change.Type.ADD) {
+                        addAllAndRecord(Collections.singleton(change.getElement()));
+                    } else {
+                        removeAndRecord(change.getElement());
+                    }
+                }
+                this.writeAheadLog = log;
+            } finally {
+                this.writeLock.unlock();
+            }
+            compactWriteAheadLog(log);
+            return log;
+        } finally {
+            log.unlockCompaction();
+        }
+    }
+
+    /**
+     * Writes a consistent snapshot of this set next to its write-ahead log and
+     * deletes the log segments it replaces. Compactions also happen
+     * automatically as the log grows.
+     *
+     * @throws IOException if the snapshot cannot be written.
+     * @throws IllegalStateException if the write-ahead log is not enabled.
+     */
+    public void compactWriteAheadLog() throws IOException {
+        WriteAheadLog<E> log = this.writeAheadLog;
+        if (log == null) {
+            throw new IllegalStateException("write-ahead log is not enabled");
+        }
+        log.lockCompaction();
+        try {
+            compactWriteAheadLog(log);
+        } finally {
+            log.unlockCompaction();
+        }
+    }
+
+    /**
+     * Splits a consistent snapshot of this set into at most the given number
+     * of parts of even size, typically one per worker thread. The snapshot is
+     * taken under the read lock as a single array, which is cheaper than the
+     * copy made by {@link #iterator()}, and the parts are unmodifiable views of
+     * that array. Each part can then be processed concurrently, for instance by
+     * a {@link java.util.concurrent.ForkJoinPool}, without holding any lock.
+     *
+     * @param parts the maximum number of parts, no part is ever empty.
+     * @return the parts of the snapshot, in iteration order.
+     */
+    public List<List<E>> split(int parts) {
+        this.readLock.lock();
+        try {
+            return SnapshotSplitter.split(this.set.toArray(), parts);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a consistent snapshot of this set to the given snapshot file,
+     * encoding the elements with the given codec. The elements are copied
+     * under the read lock as a single array, and the file is then written
+     * without holding any lock. The file is written to a temporary file first
+     * and then moved over the given file, so a crash never leaves a partially
+     * written snapshot.
+     *
+     * @param file the snapshot file.
+     * @param codec the codec encoding the elements.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    @SuppressWarnings("unchecked")
+    public void writeSnapshot(File file, ElementCodec<? super E> codec) throws IOException {
+        SetSnapshotFile.write(file, toArray(), (ElementCodec<Object>) codec);
+    }
+
+    /**
+     * Adds the elements of the given snapshot file to this set. The chunks of
+     * the file are memory-mapped and decoded in parallel without holding any
+     * lock, then all the decoded elements are added under a single
+     * acquisition of the write lock.
+     *
+     * @param file the snapshot file, written by {@link #writeSnapshot(File,
+     * ElementCodec)} or by {@link ConcurrentSet#writeSnapshot(File,
+     * ElementCodec)}.
+     * @param codec the codec decoding the elements.
+     * @throws IOException if the snapshot cannot be read.
+     */
+    public void loadSnapshot(File file, ElementCodec<? extends E> codec) throws IOException {
+        List<List<E>> chunks = SetSnapshotFile.<E>read(file, codec, ConcurrentSet.SharedPool.POOL);
+        boolean completed = false;
+        this.writeLock.lock();
+        try {
+            for (List<E> chunk : chunks) {
+                addAllAndRecord(chunk);
+            }
+            completed = true;
+        } finally {
+            this.writeLock.unlock();
+            syncWriteAheadLog(completed);
+        }
+    }
+
+    private boolean addAllAndRecord(Collection<? extends E> clctn) {
+        if (!isRecording()) {
+            return this.set.addAll(clctn);
+        }
+        boolean collectionChanged = false;
+        for (E e : clctn) {
+            if (addAndRecord(e)) {
+                collectionChanged = true;
+            }
+        }
+        return collectionChanged;
+    }
+
+    private void compactWriteAheadLog(WriteAheadLog<E> log) throws IOException {
+        Object[] elements;
+        long segment;
+        this.readLock.lock();
+        try {
+            elements = this.set.toArray();
+            segment = log.roll();
+        } finally {
+            this.readLock.unlock();
+        }
+        log.writeSnapshot(elements, segment);
+    }
+
+    /**
+     * Waits until the changes made under the write lock are durable, and
+     * schedules a compaction once the log is large enough. When the change
+     * itself failed, a sync failure is ignored so that it does not hide the
+     * exception of the change.
+     */
+    private void syncWriteAheadLog(boolean completed) {
+        final WriteAheadLog<E> log = this.writeAheadLog;
+        if (log == null) {
+            return;
+        }
+        boolean compact;
+        try {
+            compact = log.sync();
+        } catch (IllegalStateException ex) {
+            if (completed) {
+                throw ex;
+            }
+            return;
+        }
+        if (compact) {
+            log.scheduleCompaction(new WriteAheadLog.Compaction() {
+                @Override
+                public void run() throws IOException {
+                    compactWriteAheadLog(log);
+                }
+            });
+        }
+    }
+
+    private boolean isRecording() {
+        return this.changeLog != null || this.writeAheadLog != null;
+    }
+
+    /**
+     * Records a change, appending it to the write-ahead log first so that
+     * the change log never holds a change the write-ahead log rejected.
+     */
+    private void record(Change.Type type, E e) {
+        if (this.writeAheadLog != null) {
+            this.writeAheadLog.append(type, e, -1);
+        }
+        if (this.changeLog != null) {
+            this.changeLog.record(type, e, -1);
+        }
+    }
+
+    private boolean addAndRecord(E e) {
+        boolean added = this.set.add(e);
+        if (added && isRecording()) {
+            try {
+                record(Change.Type.ADD, e);
+            } catch (RuntimeException ex) {
+                this.set.remove(e);
+                throw ex;
+            }
+        }
+        return added;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean removeAndRecord(Object o) {
+        boolean removed = this.set.remove(o);
+        if (removed && isRecording()) {
+            try {
+                record(Change.Type.REMOVE, (E) o);
+            } catch (RuntimeException ex) {
+                this.set.add((E) o);
+                throw ex;
+            }
+        }
+        return removed;
+    }
+
     private Set<E> getCopyDependingOnType() {
-        if (this.set instanceof HashSet) {
-            return new HashSet<E>(this.set);
-        } else if (this.set instanceof LinkedHashSet) {
+        if (this.set instanceof LinkedHashSet) {
             return new LinkedHashSet<E>(this.set);
+        } else if (this.set instanceof HashSet) {
+            return new HashSet<E>(this.set);
         } else if (this.set instanceof TreeSet) {
-            return new TreeSet<E>(this.set);
+            return new TreeSet<E>((SortedSet<E>) this.set);
         } else if (this.set instanceof CopyOnWriteArraySet) {
             return new CopyOnWriteArraySet<E>(set);
         } else if (this.set instanceof ConcurrentSkipListSet) {
-            return new ConcurrentSkipListSet<E>(this.set);
+            return new ConcurrentSkipListSet<E>((SortedSet<E>) this.set);
         } else {
             return new HashSet<E>(this.set);
         }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes elements as fixed-size binary records. Implementations
+ * must always read and write exactly {@link #getRecordSize()} bytes, using the
+ * absolute get and put methods of {@link ByteBuffer} so that the buffer's
+ * position and limit are left untouched. Here is an example of a codec for
+ * {@link Long} values:
+ * <pre>
+ * public class LongCodec implements RecordCodec&lt;Long&gt; {
+ *
+ *     public int getRecordSize() {
+ *         return 8;
+ *     }
+ *
+ *     public void write(Long value, ByteBuffer buffer, int offset) {
+ *         buffer.putLong(offset, value);
+ *     }
+ *
+ *     public Long read(ByteBuffer buffer, int offset) {
+ *         return buffer.getLong(offset);
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public interface RecordCodec<E extends Object> {
+
+    /**
+     * Returns the size in bytes of every record.
+     *
+     * @return the size in bytes of every record.
+     */
+    public int getRecordSize();
+
+    /**
+     * Writes the given element as a record starting at the given offset.
+     *
+     * @param e the element to write.
+     * @param buffer the buffer in which the record is written.
+     * @param offset the offset of the first byte of the record.
+     */
+    public void write(E e, ByteBuffer buffer, int offset);
+
+    /**
+     * Reads the record starting at the given offset.
+     *
+     * @param buffer the buffer from which the record is read.
+     * @param offset the offset of the first byte of the record.
+     * @return the decoded element.
+     */
+    public E read(ByteBuffer buffer, int offset);
+}
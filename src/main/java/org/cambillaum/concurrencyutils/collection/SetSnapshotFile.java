@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Writes and reads snapshot files of sets. <p>A snapshot file starts with a
+ * header holding a magic number, a version, the number of elements, the
+ * number of chunks and the offset of the chunk table. The elements follow, in
+ * chunks of at most {@link #CHUNK_ELEMENTS} elements, each element being
+ * written as its encoded size followed by its encoded bytes, or as a size of
+ * -1 for null. The chunk table
+ * at the end of the file gives the offset and number of elements of each
+ * chunk, so that chunks can be memory-mapped and decoded in parallel. A
+ * snapshot is written to a temporary file which then replaces the target
+ * file, so a crash never leaves a partially written snapshot behind.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+final class SetSnapshotFile {
+
+    static final int CHUNK_ELEMENTS = 1 << 16;
+    private static final int CHUNK_BYTES = 1 << 26;
+    private static final int MAGIC = 0x53534e50;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int CHUNK_ENTRY_SIZE = 12;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private SetSnapshotFile() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> void write(File file, Object[] elements, ElementCodec<E> codec) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file cannot be null");
+        }
+        if (codec == null) {
+            throw new IllegalArgumentException("codec cannot be null");
+        }
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        List<long[]> chunks = new ArrayList<long[]>();
+        try (FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long offset = HEADER_SIZE;
+            long chunkOffset = offset;
+            int chunkElements = 0;
+            channel.position(HEADER_SIZE);
+            for (Object element : elements) {
+                E e = (E) element;
+                int size = e == null ? -1 : codec.getEncodedSize(e);
+                int recordSize = 4 + Math.max(size, 0);
+                if (buffer.remaining() < recordSize) {
+                    flush(channel, buffer);
+                    if (buffer.capacity() < recordSize) {
+                        buffer = ByteBuffer.allocateDirect(recordSize);
+                    }
+                }
+                int position = buffer.position();
+                buffer.putInt(position, size);
+                if (e != null) {
+                    codec.write(e, buffer, position + 4);
+                }
+                buffer.position(position + recordSize);
+                offset += recordSize;
+                chunkElements++;
+                if (chunkElements == CHUNK_ELEMENTS || offset - chunkOffset >= CHUNK_BYTES) {
+                    chunks.add(new long[]{chunkOffset, chunkElements});
+                    chunkOffset = offset;
+                    chunkElements = 0;
+                }
+            }
+            if (chunkElements > 0) {
+                chunks.add(new long[]{chunkOffset, chunkElements});
+            }
+            for (long[] chunk : chunks) {
+                if (buffer.remaining() < CHUNK_ENTRY_SIZE) {
+                    flush(channel, buffer);
+                }
+                buffer.putLong(chunk[0]);
+                buffer.putInt((int) chunk[1]);
+            }
+            flush(channel, buffer);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(elements.length);
+            header.putInt(chunks.size());
+            header.putInt(0);
+            header.putLong(offset);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static <E> List<List<E>> read(File file, ElementCodec<? extends E> codec, ForkJoinPool pool) throws IOException {
+        List<ChunkTask<E>> tasks = createTasks(file, codec, null);
+        pool.invoke(new InvokeAllTask<E>(tasks));
+        List<List<E>> chunks = new ArrayList<List<E>>(tasks.size());
+        for (ChunkTask<E> task : tasks) {
+            chunks.add(task.elements);
+        }
+        return chunks;
+    }
+
+    static <E> void load(File file, ElementCodec<? extends E> codec, ForkJoinPool pool, Collection<E> target) throws IOException {
+        pool.invoke(new InvokeAllTask<E>(createTasks(file, codec, target)));
+    }
+
+    private static <E> List<ChunkTask<E>> createTasks(File file, ElementCodec<? extends E> codec,
+            Collection<E> target) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file cannot be null");
+        }
+        if (codec == null) {
+            throw new IllegalArgumentException("codec cannot be null");
+        }
+        List<ChunkTask<E>> tasks = new ArrayList<ChunkTask<E>>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a set snapshot file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(file + " has unsupported snapshot version " + header.getInt(4));
+            }
+            int chunkCount = header.getInt(16);
+            long chunkTableOffset = header.getLong(24);
+            ByteBuffer chunkTable = ByteBuffer.allocate(chunkCount * CHUNK_ENTRY_SIZE);
+            readFully(channel, chunkTable, chunkTableOffset);
+            for (int i = 0; i < chunkCount; i++) {
+                long offset = chunkTable.getLong(i * CHUNK_ENTRY_SIZE);
+                int elementCount = chunkTable.getInt(i * CHUNK_ENTRY_SIZE + 8);
+                long end = i + 1 < chunkCount ? chunkTable.getLong((i + 1) * CHUNK_ENTRY_SIZE) : chunkTableOffset;
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, end - offset);
+                tasks.add(new ChunkTask<E>(chunk, elementCount, codec, target));
+            }
+        }
+        return tasks;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of snapshot file");
+            }
+        }
+    }
+
+    private static class InvokeAllTask<E> extends RecursiveAction {
+
+        private List<ChunkTask<E>> tasks;
+
+        InvokeAllTask(List<ChunkTask<E>> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            ForkJoinTask.invokeAll(this.tasks);
+        }
+    }
+
+    private static class ChunkTask<E> extends RecursiveAction {
+
+        private ByteBuffer chunk;
+        private int elementCount;
+        private ElementCodec<? extends E> codec;
+        private Collection<E> target;
+        private List<E> elements;
+
+        ChunkTask(ByteBuffer chunk, int elementCount, ElementCodec<? extends E> codec, Collection<E> target) {
+            this.chunk = chunk;
+            this.elementCount = elementCount;
+            this.codec = codec;
+            this.target = target;
+        }
+
+        @Override
+        protected void compute() {
+            Collection<E> destination = this.target;
+            if (destination == null) {
+                this.elements = new ArrayList<E>(this.elementCount);
+                destination = this.elements;
+            }
+            int position = 0;
+            for (int i = 0; i < this.elementCount; i++) {
+                int size = this.chunk.getInt(position);
+                if (size < 0) {
+                    destination.add(null);
+                    position += 4;
+                } else {
+                    destination.add(this.codec.read(this.chunk, position + 4, size));
+                    position += 4 + size;
+                }
+            }
+        }
+    }
+}
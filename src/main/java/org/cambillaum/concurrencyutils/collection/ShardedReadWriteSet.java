@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An implementation of the {@link Set} interface partitioning its elements by
+ * hash code across several {@link ReadWriteSet} shards, each with its own
+ * read/write lock. A write only blocks the readers and writers of one shard
+ * instead of the whole set. <p>Each shard is backed by a new empty set of the
+ * same type as the set given at construction, whose elements are then
+ * distributed across the shards. Bulk operations group their elements by
+ * shard so that each shard lock is taken at most once. {@link #size()},
+ * {@link #iterator()} and {@link #split(int)} are consistent within each
+ * shard but not across shards, and the iteration order of a sorted or
+ * linked backing set is only preserved within a shard. Since elements are
+ * partitioned by hash code, the ordering of a sorted backing set must be
+ * consistent with equals.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ShardedReadWriteSet<E extends Object> extends AbstractSet<E> implements Serializable {
+
+    /**
+     * The number of shards used when none is given.
+     */
+    public static final int DEFAULT_SHARD_COUNT = 16;
+    private List<ReadWriteSet<E>> shards;
+
+    /**
+     * Constructs a new ShardedReadWriteSet with {@link #DEFAULT_SHARD_COUNT}
+     * shards of the same type as the specified {@link Set}, containing its
+     * elements.
+     *
+     * @param set the {@link Set} giving the type and initial elements of the
+     * shards.
+     */
+    public ShardedReadWriteSet(Set<E> set) {
+        this(set, DEFAULT_SHARD_COUNT);
+    }
+
+    /**
+     * Constructs a new ShardedReadWriteSet with the given number of shards of
+     * the same type as the specified {@link Set}, containing its elements.
+     *
+     * @param set the {@link Set} giving the type and initial elements of the
+     * shards.
+     * @param shardCount the number of shards.
+     */
+    public ShardedReadWriteSet(Set<E> set, int shardCount) {
+        this(set, shardCount, false);
+    }
+
+    /**
+     * Constructs a new ShardedReadWriteSet with the given number of shards of
+     * the same type as the specified {@link Set}, containing its elements,
+     * with the given fairness policy.
+     *
+     * @param set the {@link Set} giving the type and initial elements of the
+     * shards.
+     * @param shardCount the number of shards.
+     * @param fair true if the shard locks should use a fair ordering policy.
+     */
+    public ShardedReadWriteSet(Set<E> set, int shardCount, boolean fair) {
+        this(set, createLocks(shardCount, fair));
+    }
+
+    /**
+     * Constructs a new ShardedReadWriteSet with one shard per given {@link
+     * ReadWriteLock}.
+     *
+     * @param set the {@link Set} giving the type and initial elements of the
+     * shards.
+     * @param readWriteLocks the {@link ReadWriteLock} implementations used to
+     * enforce the locking policy of each shard.
+     */
+    ShardedReadWriteSet(Set<E> set, ReadWriteLock[] readWriteLocks) {
+        if (set == null) {
+            throw new IllegalArgumentException("set cannot be null");
+        }
+        this.shards = new ArrayList<ReadWriteSet<E>>(readWriteLocks.length);
+        for (ReadWriteLock readWriteLock : readWriteLocks) {
+            this.shards.add(new ReadWriteSet<E>(createEmptyCopy(set), readWriteLock));
+        }
+        addAll(set);
+    }
+
+    /**
+     * Returns the number of shards of this set.
+     *
+     * @return the number of shards.
+     */
+    public int getShardCount() {
+        return this.shards.size();
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (ReadWriteSet<E> shard : this.shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (ReadWriteSet<E> shard : this.shards) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return shardFor(o).contains(o);
+    }
+
+    @Override
+    public boolean add(E e) {
+        return shardFor(e).add(e);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return shardFor(o).remove(o);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> clctn) {
+        List<List<Object>> groups = groupByShard(clctn);
+        for (int i = 0; i < groups.size(); i++) {
+            List<Object> group = groups.get(i);
+            if (group != null && !this.shards.get(i).containsAll(group)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean addAll(Collection<? extends E> clctn) {
+        List<List<Object>> groups = groupByShard(clctn);
+        boolean collectionChanged = false;
+        for (int i = 0; i < groups.size(); i++) {
+            List<Object> group = groups.get(i);
+            if (group != null && this.shards.get(i).addAll((List<E>) (List<?>) group)) {
+                collectionChanged = true;
+            }
+        }
+        return collectionChanged;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> clctn) {
+        List<List<Object>> groups = groupByShard(clctn);
+        boolean collectionChanged = false;
+        for (int i = 0; i < groups.size(); i++) {
+            List<Object> group = groups.get(i);
+            if (group != null && this.shards.get(i).removeAll(group)) {
+                collectionChanged = true;
+            }
+        }
+        return collectionChanged;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> clctn) {
+        boolean collectionChanged = false;
+        for (ReadWriteSet<E> shard : this.shards) {
+            if (shard.retainAll(clctn)) {
+                collectionChanged = true;
+            }
+        }
+        return collectionChanged;
+    }
+
+    @Override
+    public void clear() {
+        for (ReadWriteSet<E> shard : this.shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Returns an iterator over the elements of this set. The elements of each
+     * shard are copied under its read lock when the iteration reaches it.
+     * Removing an element through the iterator removes it from this set.
+     *
+     * @return an iterator over the elements of this set.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int shardIndex;
+            private Iterator<E> current = shards.get(0).iterator();
+            private E last;
+            private boolean canRemove;
+
+            @Override
+            public boolean hasNext() {
+                while (!this.current.hasNext() && this.shardIndex < shards.size() - 1) {
+                    this.shardIndex++;
+                    this.current = shards.get(this.shardIndex).iterator();
+                }
+                return this.current.hasNext();
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                this.last = this.current.next();
+                this.canRemove = true;
+                return this.last;
+            }
+
+            @Override
+            public void remove() {
+                if (!this.canRemove) {
+                    throw new IllegalStateException();
+                }
+                ShardedReadWriteSet.this.remove(this.last);
+                this.canRemove = false;
+            }
+        };
+    }
+
+    /**
+     * Splits a snapshot of this set into at most the given number of parts of
+     * even size, like {@link ReadWriteSet#split(int)}. The snapshot of each
+     * shard is taken under its read lock.
+     *
+     * @param parts the maximum number of parts, no part is ever empty.
+     * @return the parts of the snapshot.
+     */
+    public List<List<E>> split(int parts) {
+        List<Object> snapshot = new ArrayList<Object>();
+        for (ReadWriteSet<E> shard : this.shards) {
+            snapshot.addAll(Arrays.asList(shard.toArray()));
+        }
+        return SnapshotSplitter.split(snapshot.toArray(), parts);
+    }
+
+    private ReadWriteSet<E> shardFor(Object o) {
+        return this.shards.get(shardIndex(o));
+    }
+
+    private int shardIndex(Object o) {
+        int h = o == null ? 0 : o.hashCode() * 0x9E3779B9;
+        return (int) (((h ^ (h >>> 16)) & 0xffffffffL) * this.shards.size() >>> 32);
+    }
+
+    private List<List<Object>> groupByShard(Collection<?> clctn) {
+        List<List<Object>> groups = new ArrayList<List<Object>>(this.shards.size());
+        for (int i = 0; i < this.shards.size(); i++) {
+            groups.add(null);
+        }
+        for (Object o : clctn) {
+            int index = shardIndex(o);
+            List<Object> group = groups.get(index);
+            if (group == null) {
+                group = new ArrayList<Object>();
+                groups.set(index, group);
+            }
+            group.add(o);
+        }
+        return groups;
+    }
+
+    private static ReadWriteLock[] createLocks(int shardCount, boolean fair) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+        ReadWriteLock[] readWriteLocks = new ReadWriteLock[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            readWriteLocks[i] = new ReentrantReadWriteLock(fair);
+        }
+        return readWriteLocks;
+    }
+
+    private static <E> Set<E> createEmptyCopy(Set<E> set) {
+        if (set instanceof ConcurrentSkipListSet) {
+            return new ConcurrentSkipListSet<E>(((ConcurrentSkipListSet<E>) set).comparator());
+        } else if (set instanceof SortedSet) {
+            return new TreeSet<E>(((SortedSet<E>) set).comparator());
+        } else if (set instanceof LinkedHashSet) {
+            return new LinkedHashSet<E>();
+        } else if (set instanceof CopyOnWriteArraySet) {
+            return new CopyOnWriteArraySet<E>();
+        } else {
+            return new HashSet<E>();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A Set recording the elements added to a thread-safe Set such as {@link
+ * ConcurrentSet} in a {@link ConcurrentHyperLogLog} and a {@link
+ * ConcurrentCountMinSketch}. It shadows an existing set with sketches in
+ * order to compare their estimates with the exact answers of the set, for
+ * instance before replacing the set by the sketches. Every call to {@link
+ * #add(Object)} counts as an occurrence in the Count-Min sketch, whether the
+ * element was already present or not. Removals are not reflected in the
+ * sketches.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class SketchedSet<E extends Object> extends AbstractSet<E> {
+
+    private Set<E> set;
+    private ConcurrentHyperLogLog hyperLogLog;
+    private ConcurrentCountMinSketch countMinSketch;
+
+    /**
+     * Creates a new set shadowing the given set with the given sketches. The
+     * elements already in the given set are added to the sketches.
+     *
+     * @param set the thread-safe backing set.
+     * @param hyperLogLog the sketch estimating the number of distinct
+     * elements.
+     * @param countMinSketch the sketch estimating the number of additions of
+     * each element.
+     */
+    public SketchedSet(Set<E> set, ConcurrentHyperLogLog hyperLogLog, ConcurrentCountMinSketch countMinSketch) {
+        if (set == null) {
+            throw new IllegalArgumentException("set cannot be null");
+        }
+        if (hyperLogLog == null) {
+            throw new IllegalArgumentException("hyperLogLog cannot be null");
+        }
+        if (countMinSketch == null) {
+            throw new IllegalArgumentException("countMinSketch cannot be null");
+        }
+        this.set = set;
+        this.hyperLogLog = hyperLogLog;
+        this.countMinSketch = countMinSketch;
+        for (E e : set) {
+            record(e);
+        }
+    }
+
+    /**
+     * Returns the sketch estimating the number of distinct elements.
+     *
+     * @return the HyperLogLog sketch.
+     */
+    public ConcurrentHyperLogLog getHyperLogLog() {
+        return this.hyperLogLog;
+    }
+
+    /**
+     * Returns the sketch estimating the number of additions of each element.
+     *
+     * @return the Count-Min sketch.
+     */
+    public ConcurrentCountMinSketch getCountMinSketch() {
+        return this.countMinSketch;
+    }
+
+    /**
+     * Returns the relative difference between the number of distinct elements
+     * estimated by the HyperLogLog sketch and the size of the backing set. It
+     * is only meaningful when no element was removed.
+     *
+     * @return the relative error of the cardinality estimate.
+     */
+    public double getCardinalityError() {
+        int size = this.set.size();
+        if (size == 0) {
+            return this.hyperLogLog.cardinality() == 0 ? 0 : Double.POSITIVE_INFINITY;
+        }
+        return Math.abs(this.hyperLogLog.cardinality() - size) / (double) size;
+    }
+
+    @Override
+    public int size() {
+        return this.set.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.set.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return this.set.contains(o);
+    }
+
+    @Override
+    public boolean add(E e) {
+        boolean added = this.set.add(e);
+        record(e);
+        return added;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return this.set.remove(o);
+    }
+
+    @Override
+    public void clear() {
+        this.set.clear();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return this.set.iterator();
+    }
+
+    private void record(E e) {
+        if (e != null) {
+            this.hyperLogLog.add(e);
+            this.countMinSketch.add(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Helper splitting an array snapshot of a collection into parts of even size
+ * that can be processed concurrently.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+final class SnapshotSplitter {
+
+    private SnapshotSplitter() {
+    }
+
+    /**
+     * Splits the given snapshot into at most the given number of parts. The
+     * sizes of the parts differ by at most one element and no part is empty.
+     * The parts are unmodifiable views of the snapshot, no element is copied.
+     *
+     * @param <E> the type of the elements.
+     * @param snapshot the snapshot to split, it must not be modified afterwards.
+     * @param parts the maximum number of parts.
+     * @return the parts, in the order of the snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    static <E> List<List<E>> split(Object[] snapshot, int parts) {
+        if (parts <= 0) {
+            throw new IllegalArgumentException("parts must be positive");
+        }
+        List<E> snapshotList = Collections.unmodifiableList((List<E>) Arrays.asList(snapshot));
+        int numberOfParts = Math.min(parts, snapshot.length);
+        List<List<E>> result = new ArrayList<List<E>>(numberOfParts);
+        int from = 0;
+        for (int i = 0; i < numberOfParts; i++) {
+            int to = (int) ((long) snapshot.length * (i + 1) / numberOfParts);
+            result.add(snapshotList.subList(from, to));
+            from = to;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+/**
+ * A bounded lock-free queue for exactly one producer thread and one consumer
+ * thread. <p>The producer only reads the consumer's counter when the last
+ * value it read shows the queue as full, and the consumer only checks whether
+ * the next slot holds an element, so in the common case each side only
+ * touches its own counter and the slots. Offering and polling are a plain
+ * read and an ordered write, without any compare-and-set. {@link
+ * #drain(BoundedArrayQueue.Consumer, int)} and {@link
+ * #fill(BoundedArrayQueue.Supplier, int)} publish a whole batch with a single
+ * counter update. Using the queue from several producers or several
+ * consumers at the same time corrupts it.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class SpscArrayQueue<E extends Object> extends BoundedArrayQueue<E> {
+
+    /**
+     * Constructs a new empty SpscArrayQueue holding at most the given number
+     * of elements, rounded up to a power of two, and yielding while waiting.
+     *
+     * @param capacity the minimum capacity of the queue.
+     */
+    public SpscArrayQueue(int capacity) {
+        this(capacity, WaitStrategy.YIELD);
+    }
+
+    /**
+     * Constructs a new empty SpscArrayQueue holding at most the given number
+     * of elements, rounded up to a power of two, and waiting with the given
+     * strategy.
+     *
+     * @param capacity the minimum capacity of the queue.
+     * @param waitStrategy how to wait in {@link #put(Object)} and {@link
+     * #take()}.
+     */
+    public SpscArrayQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.counters.set(TAIL_LIMIT, this.capacity);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        validateElement(e);
+        long tail = this.counters.get(TAIL);
+        if (tail >= this.counters.get(TAIL_LIMIT) && !refreshLimit(tail + 1)) {
+            return false;
+        }
+        this.buffer.lazySet(indexOf(tail), e);
+        this.counters.lazySet(TAIL, tail + 1);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        long head = this.counters.get(HEAD);
+        int index = indexOf(head);
+        E e = this.buffer.get(index);
+        if (e == null) {
+            return null;
+        }
+        this.buffer.lazySet(index, null);
+        this.counters.lazySet(HEAD, head + 1);
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        return this.buffer.get(indexOf(this.counters.get(HEAD)));
+    }
+
+    @Override
+    public int drain(Consumer<? super E> consumer, int limit) {
+        validateBatch(consumer, limit);
+        long head = this.counters.get(HEAD);
+        int count = 0;
+        try {
+            while (count < limit) {
+                int index = indexOf(head + count);
+                E e = this.buffer.get(index);
+                if (e == null) {
+                    break;
+                }
+                this.buffer.lazySet(index, null);
+                count++;
+                consumer.accept(e);
+            }
+        } finally {
+            if (count > 0) {
+                this.counters.lazySet(HEAD, head + count);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int fill(Supplier<? extends E> supplier, int limit) {
+        validateBatch(supplier, limit);
+        long tail = this.counters.get(TAIL);
+        long end = tail + Math.min(limit, this.capacity);
+        if (end > this.counters.get(TAIL_LIMIT)) {
+            refreshLimit(end);
+            end = Math.min(end, this.counters.get(TAIL_LIMIT));
+        }
+        long sequence = tail;
+        try {
+            for (; sequence < end; sequence++) {
+                E e = supplier.get();
+                validateElement(e);
+                this.buffer.lazySet(indexOf(sequence), e);
+            }
+        } finally {
+            if (sequence > tail) {
+                this.counters.lazySet(TAIL, sequence);
+            }
+        }
+        return (int) (sequence - tail);
+    }
+
+    private boolean refreshLimit(long required) {
+        long limit = this.counters.get(HEAD) + this.capacity;
+        this.counters.lazySet(TAIL_LIMIT, limit);
+        return required <= limit;
+    }
+}
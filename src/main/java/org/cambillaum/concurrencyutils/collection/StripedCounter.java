@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A counter spreading its updates over several cells to avoid contention
+ * between threads. Updates first go to a single base value; the cells are
+ * only allocated once an update of the base value fails because of another
+ * thread, after which each thread updates the cell chosen by its id. Reading
+ * the value sums the base value and the cells, if any, so it is only exact
+ * when no update is in progress. Cells are padded so that two of them never
+ * share a cache line.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+final class StripedCounter {
+
+    private static final int PADDING = 8;
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+    private AtomicLong base = new AtomicLong();
+    private AtomicReference<AtomicLongArray> cells = new AtomicReference<AtomicLongArray>();
+
+    void add(long delta) {
+        AtomicLongArray currentCells = this.cells.get();
+        if (currentCells == null) {
+            long value = this.base.get();
+            if (this.base.compareAndSet(value, value + delta)) {
+                return;
+            }
+            this.cells.compareAndSet(null, new AtomicLongArray(STRIPES * PADDING));
+            currentCells = this.cells.get();
+        }
+        currentCells.addAndGet(cellIndex(), delta);
+    }
+
+    void increment() {
+        add(1L);
+    }
+
+    void decrement() {
+        add(-1L);
+    }
+
+    long sum() {
+        long sum = this.base.get();
+        AtomicLongArray currentCells = this.cells.get();
+        if (currentCells != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                sum += currentCells.get(i * PADDING);
+            }
+        }
+        return sum;
+    }
+
+    private int cellIndex() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & (STRIPES - 1)) * PADDING;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits for a {@link BoundedArrayQueue} to have room or
+ * elements. Spinning gives the lowest latency but keeps a core busy, yielding
+ * lets other threads run on the core, and parking sleeps for a short time and
+ * costs the least CPU at the price of latency.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public enum WaitStrategy {
+
+    /**
+     * Busy-spins without giving up the processor.
+     */
+    SPIN {
+        @Override
+        void idle() {
+        }
+    },
+    /**
+     * Yields the processor to other threads between checks.
+     */
+    YIELD {
+        @Override
+        void idle() {
+            Thread.yield();
+        }
+    },
+    /**
+     * Parks the thread for a few microseconds between checks.
+     */
+    PARK {
+        @Override
+        void idle() {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    };
+    private static final long PARK_NANOS = 10000L;
+
+    abstract void idle();
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log making the additions and removals made to a collection
+ * durable, enabled with the enableWriteAheadLog method of {@link ReadWriteSet}
+ * or {@link ReadWriteList}. <p>Changes are appended to an in-memory buffer
+ * while the collection's write lock is held, and made durable once the lock
+ * is released: the first waiting writer writes the buffer to the current log
+ * segment and forces it to disk, and every writer whose change was part of
+ * the buffer returns without syncing again. Under many writers, the number of
+ * syncs is thus bounded by the number of batches rather than by the number of
+ * changes. A change that cannot be appended, because the log is closed, a
+ * previous sync failed or the codec failed, is undone in the collection
+ * before the exception is thrown. <p>Once a log segment grows past the
+ * compaction threshold, the collection is written to a snapshot file in the
+ * background by the shared fork/join pool and the log starts a new segment,
+ * so that older segments can be deleted. A failed compaction does not affect
+ * the changes, which are already durable in the log, and is retried as the
+ * log keeps growing. Opening the log loads the latest
+ * snapshot and replays the segments written after it, a torn record at the
+ * end of a segment, left by a crash in the middle of a write, being
+ * discarded.
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class WriteAheadLog<E extends Object> {
+
+    static final long DEFAULT_COMPACTION_THRESHOLD = 64L << 20;
+    private static final String LOG_PREFIX = "log.";
+    private static final String SNAPSHOT_PREFIX = "snapshot.";
+    private static final int RECORD_HEADER_SIZE = 13;
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+    private File directory;
+    private ElementCodec<E> codec;
+    private long compactionThreshold;
+    private long segment;
+    private FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer flushing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private CRC32 checksum = new CRC32();
+    private long segmentSize;
+    private long appendedSequence;
+    private volatile long durableSequence;
+    private volatile IOException failure;
+    private boolean closed;
+    private Lock flushLock = new ReentrantLock();
+    private Lock compactionLock = new ReentrantLock();
+    private AtomicLong syncCount = new AtomicLong();
+    private AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private volatile ForkJoinTask<?> compactionTask;
+    private volatile Exception compactionFailure;
+
+    /**
+     * Writes a snapshot of the collection of a log and rolls the log to a new
+     * segment.
+     */
+    interface Compaction {
+
+        void run() throws IOException;
+    }
+
+    WriteAheadLog(File directory, ElementCodec<E> codec, long compactionThreshold) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory cannot be null");
+        }
+        if (codec == null) {
+            throw new IllegalArgumentException("codec cannot be null");
+        }
+        if (compactionThreshold <= 0) {
+            throw new IllegalArgumentException("compactionThreshold must be positive");
+        }
+        this.directory = directory;
+        this.codec = codec;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Returns the directory holding the log segments and snapshots.
+     *
+     * @return the directory of this log.
+     */
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Returns this log if it is kept in the given directory, a collection
+     * recording its changes in a single log.
+     *
+     * @param directory the directory a log is requested in.
+     * @return this log.
+     * @throws IOException if the directories cannot be resolved.
+     * @throws IllegalStateException if this log is kept in another directory.
+     */
+    WriteAheadLog<E> checkDirectory(File directory) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory cannot be null");
+        }
+        if (!this.directory.getCanonicalFile().equals(directory.getCanonicalFile())) {
+            throw new IllegalStateException("write-ahead log is already enabled in " + this.directory);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the number of times the log was forced to disk. Each sync makes
+     * a whole batch of changes durable.
+     *
+     * @return the number of syncs.
+     */
+    public long getSyncCount() {
+        return this.syncCount.get();
+    }
+
+    /**
+     * Returns the number of changes appended to this log since it was opened.
+     *
+     * @return the number of appended changes.
+     */
+    public synchronized long getAppendedCount() {
+        return this.appendedSequence;
+    }
+
+    /**
+     * Returns the exception thrown by the last automatic compaction, or null
+     * if it succeeded. The changes made before a failed compaction remain
+     * durable in the log.
+     *
+     * @return the failure of the last automatic compaction, or null.
+     */
+    public Exception getCompactionFailure() {
+        return this.compactionFailure;
+    }
+
+    /**
+     * Makes the pending changes durable and closes the current log segment.
+     * Changes made to the collection afterwards fail with an {@link
+     * IllegalStateException}.
+     *
+     * @throws IOException if the pending changes cannot be written.
+     */
+    public void close() throws IOException {
+        this.compactionLock.lock();
+        this.flushLock.lock();
+        try {
+            if (this.channel == null) {
+                return;
+            }
+            synchronized (this) {
+                this.closed = true;
+            }
+            try {
+                flush();
+            } finally {
+                this.channel.close();
+                this.channel = null;
+            }
+        } finally {
+            this.flushLock.unlock();
+            this.compactionLock.unlock();
+        }
+    }
+
+    List<List<E>> recoverSnapshot() throws IOException {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + this.directory);
+        }
+        this.segment = latest(SNAPSHOT_PREFIX);
+        if (this.segment < 0) {
+            this.segment = 0;
+            return Collections.emptyList();
+        }
+        return SetSnapshotFile.<E>read(file(SNAPSHOT_PREFIX, this.segment), this.codec, ConcurrentSet.SharedPool.POOL);
+    }
+
+    List<Change<E>> recoverLog() throws IOException {
+        List<Change<E>> changes = new ArrayList<Change<E>>();
+        long last = Math.max(this.segment, latest(LOG_PREFIX));
+        for (long s = this.segment; s <= last; s++) {
+            File file = file(LOG_PREFIX, s);
+            if (file.exists()) {
+                replay(file, changes);
+            }
+        }
+        deleteBefore(this.segment);
+        this.segment = last;
+        this.channel = open(last);
+        this.segmentSize = this.channel.size();
+        return changes;
+    }
+
+    /**
+     * Appends a change to the pending buffer. Nothing is appended if the log
+     * is closed, if a previous sync failed or if the codec fails.
+     */
+    synchronized void append(Change.Type type, E e, int index) {
+        checkWritable();
+        appendRecord(type, e, index);
+    }
+
+    /**
+     * Appends the replacement of the element at the given index as a removal
+     * followed by an addition, both or none of them being appended.
+     */
+    synchronized void appendReplacement(E previous, E e, int index) {
+        checkWritable();
+        long sequence = this.appendedSequence;
+        long size = this.segmentSize;
+        int position = this.pending.position();
+        appendRecord(Change.Type.REMOVE, previous, index);
+        try {
+            appendRecord(Change.Type.ADD, e, index);
+        } catch (RuntimeException ex) {
+            this.pending.position(position);
+            this.segmentSize = size;
+            this.appendedSequence = sequence;
+            throw ex;
+        }
+    }
+
+    /**
+     * Waits until the changes appended so far are durable, joining the batch
+     * of the writer currently syncing if there is one.
+     *
+     * @return true if the current segment grew past the compaction threshold.
+     */
+    boolean sync() {
+        if (this.failure != null) {
+            throw new IllegalStateException("write-ahead log failure", this.failure);
+        }
+        long sequence;
+        synchronized (this) {
+            sequence = this.appendedSequence;
+        }
+        if (this.durableSequence < sequence) {
+            this.flushLock.lock();
+            try {
+                if (this.durableSequence < sequence) {
+                    flush();
+                }
+            } catch (IOException ex) {
+                this.failure = ex;
+            } finally {
+                this.flushLock.unlock();
+            }
+            if (this.durableSequence < sequence) {
+                throw new IllegalStateException("write-ahead log failure", this.failure);
+            }
+        }
+        synchronized (this) {
+            return this.segmentSize >= this.compactionThreshold;
+        }
+    }
+
+    /**
+     * Runs the given compaction in the shared fork/join pool, unless one is
+     * already scheduled, so that the writer crossing the compaction threshold
+     * does not pay for writing the snapshot. A failure is kept for {@link
+     * #getCompactionFailure()} rather than thrown.
+     */
+    void scheduleCompaction(final Compaction compaction) {
+        if (!this.compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        this.compactionTask = ConcurrentSet.SharedPool.POOL.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lockCompaction();
+                    try {
+                        if (needsCompaction()) {
+                            compaction.run();
+                        }
+                        compactionFailure = null;
+                    } catch (IOException | RuntimeException ex) {
+                        if (!isClosed()) {
+                            compactionFailure = ex;
+                        }
+                    } finally {
+                        unlockCompaction();
+                    }
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the last scheduled compaction to complete.
+     */
+    void awaitCompaction() {
+        ForkJoinTask<?> task = this.compactionTask;
+        if (task != null) {
+            task.join();
+        }
+    }
+
+    void lockCompaction() {
+        this.compactionLock.lock();
+    }
+
+    void unlockCompaction() {
+        this.compactionLock.unlock();
+    }
+
+    /**
+     * Makes the pending changes durable and starts a new log segment. The
+     * collection's lock must be held so that no change is appended meanwhile.
+     *
+     * @return the number of the new segment.
+     */
+    long roll() throws IOException {
+        this.flushLock.lock();
+        try {
+            if (this.channel == null) {
+                throw new IllegalStateException("write-ahead log is closed");
+            }
+            flush();
+            FileChannel next = open(this.segment + 1);
+            this.channel.close();
+            this.channel = next;
+            synchronized (this) {
+                this.segment++;
+                this.segmentSize = 0;
+            }
+            return this.segment;
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the given elements, copied when the given segment was started, to
+     * a snapshot file and deletes the segments and snapshots it replaces.
+     */
+    void writeSnapshot(Object[] elements, long segment) throws IOException {
+        SetSnapshotFile.write(file(SNAPSHOT_PREFIX, segment), elements, this.codec);
+        deleteBefore(segment);
+    }
+
+    private void checkWritable() {
+        if (this.closed) {
+            throw new IllegalStateException("write-ahead log is closed");
+        }
+        if (this.failure != null) {
+            throw new IllegalStateException("write-ahead log failure", this.failure);
+        }
+    }
+
+    /**
+     * Writes a record at the end of the pending buffer. The buffer position
+     * and the counters are only updated once the record is complete, so a
+     * codec failure appends nothing.
+     */
+    private void appendRecord(Change.Type type, E e, int index) {
+        int size = e == null ? -1 : this.codec.getEncodedSize(e);
+        int recordSize = RECORD_HEADER_SIZE + Math.max(size, 0);
+        if (this.pending.remaining() < recordSize) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(this.pending.capacity() * 2, this.pending.position() + recordSize));
+            this.pending.flip();
+            grown.put(this.pending);
+            this.pending = grown;
+        }
+        int position = this.pending.position();
+        this.pending.putInt(position, size);
+        this.pending.put(position + 8, (byte) type.ordinal());
+        this.pending.putInt(position + 9, index);
+        if (e != null) {
+            this.codec.write(e, this.pending, position + RECORD_HEADER_SIZE);
+        }
+        this.checksum.reset();
+        this.checksum.update(this.pending.array(), this.pending.arrayOffset() + position + 8, recordSize - 8);
+        this.pending.putInt(position + 4, (int) this.checksum.getValue());
+        this.pending.position(position + recordSize);
+        this.segmentSize += recordSize;
+        this.appendedSequence++;
+    }
+
+    private synchronized boolean isClosed() {
+        return this.closed;
+    }
+
+    private synchronized boolean needsCompaction() {
+        return !this.closed && this.segmentSize >= this.compactionThreshold;
+    }
+
+    private void flush() throws IOException {
+        long sequence;
+        synchronized (this) {
+            ByteBuffer buffer = this.pending;
+            this.pending = this.flushing;
+            this.flushing = buffer;
+            sequence = this.appendedSequence;
+        }
+        this.flushing.flip();
+        if (this.flushing.hasRemaining()) {
+            while (this.flushing.hasRemaining()) {
+                this.channel.write(this.flushing);
+            }
+            this.channel.force(false);
+            this.syncCount.incrementAndGet();
+        }
+        this.flushing.clear();
+        this.durableSequence = sequence;
+    }
+
+    private void replay(File file, List<Change<E>> changes) throws IOException {
+        try (FileChannel log = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = log.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()) {
+                if (log.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of log segment " + file);
+                }
+            }
+            CRC32 crc = new CRC32();
+            int position = 0;
+            while (position + RECORD_HEADER_SIZE <= length) {
+                int size = buffer.getInt(position);
+                int recordSize = RECORD_HEADER_SIZE + Math.max(size, 0);
+                if (size < -1 || position + recordSize > length) {
+                    break;
+                }
+                crc.reset();
+                crc.update(buffer.array(), position + 8, recordSize - 8);
+                if (buffer.getInt(position + 4) != (int) crc.getValue()) {
+                    break;
+                }
+                int ordinal = buffer.get(position + 8);
+                if (ordinal < 0 || ordinal >= Change.Type.values().length) {
+                    break;
+                }
+                Change.Type type = Change.Type.values()[ordinal];
+                int index = buffer.getInt(position + 9);
+                E e = size < 0 ? null : this.codec.read(buffer, position + RECORD_HEADER_SIZE, size);
+                changes.add(new Change<E>(changes.size(), type, e, index));
+                position += recordSize;
+            }
+            if (position < length) {
+                log.truncate(position);
+                log.force(true);
+            }
+        }
+    }
+
+    private FileChannel open(long segment) throws IOException {
+        FileChannel log = FileChannel.open(file(LOG_PREFIX, segment).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        log.position(log.size());
+        return log;
+    }
+
+    private long latest(String prefix) {
+        long latest = -1;
+        String[] names = this.directory.list();
+        if (names != null) {
+            for (String name : names) {
+                long number = number(name, prefix);
+                if (number > latest) {
+                    latest = number;
+                }
+            }
+        }
+        return latest;
+    }
+
+    private void deleteBefore(long segment) throws IOException {
+        String[] names = this.directory.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            long number = Math.max(number(name, LOG_PREFIX), number(name, SNAPSHOT_PREFIX));
+            if (number >= 0 && number < segment) {
+                File file = new File(this.directory, name);
+                if (!file.delete() && file.exists()) {
+                    throw new IOException("Cannot delete " + file);
+                }
+            }
+        }
+    }
+
+    private File file(String prefix, long segment) {
+        return new File(this.directory, prefix + segment);
+    }
+
+    private static long number(String name, String prefix) {
+        if (!name.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+}
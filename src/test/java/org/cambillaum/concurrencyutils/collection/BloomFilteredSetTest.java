@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class BloomFilteredSetTest {
+
+    private Set<String> set = new BloomFilteredSet<String>(new ConcurrentSet<String>(), 1000, 0.01);
+
+    @Test
+    public void testAdd() {
+        assertTrue(this.set.add("a"));
+        assertFalse(this.set.add("a"));
+        assertTrue(this.set.contains("a"));
+        assertFalse(this.set.contains("b"));
+        assertEquals(1, this.set.size());
+    }
+
+    @Test
+    public void testRemove() {
+        this.set.addAll(Arrays.asList("a", "b"));
+        assertTrue(this.set.remove("a"));
+        assertFalse(this.set.remove("a"));
+        assertFalse(this.set.contains("a"));
+        assertTrue(this.set.contains("b"));
+    }
+
+    @Test
+    public void testExistingElements() {
+        Set<String> backingSet = new ReadWriteSet<String>(new HashSet<String>(Arrays.asList("a", "b", null)));
+        Set<String> filteredSet = new BloomFilteredSet<String>(backingSet, 1000, 0.01);
+        assertTrue(filteredSet.contains("a"));
+        assertTrue(filteredSet.contains(null));
+        assertTrue(filteredSet.remove(null));
+        assertFalse(filteredSet.contains(null));
+        assertEquals(2, filteredSet.size());
+    }
+
+    @Test
+    public void testIteratorAndClear() {
+        this.set.addAll(Arrays.asList("a", "b", "c"));
+        Iterator<String> iterator = this.set.iterator();
+        String first = iterator.next();
+        iterator.remove();
+        assertFalse(this.set.contains(first));
+        this.set.clear();
+        assertTrue(this.set.isEmpty());
+        assertFalse(this.set.contains("b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullSet() {
+        new BloomFilteredSet<String>(null, 10, 0.01);
+    }
+
+    @Test
+    public void testConcurrentAddRemove() {
+        final Set<Integer> filteredSet = new BloomFilteredSet<Integer>(new ConcurrentSet<Integer>(), 100000, 0.01);
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        filteredSet.add(i);
+                        if (i % 2 == 0) {
+                            filteredSet.remove(i);
+                        }
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        for (int i = 0; i < 20000; i++) {
+            filteredSet.add(i);
+        }
+        for (int i = 0; i < 20000; i++) {
+            assertTrue(filteredSet.contains(i));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class BoundedConcurrentSetTest {
+
+    private Set<String> set = new BoundedConcurrentSet<String>(100);
+
+    @Test
+    public void testAdd() {
+        assertTrue(this.set.add("a"));
+        assertFalse(this.set.add("a"));
+        assertEquals(1, this.set.size());
+        assertTrue(this.set.contains("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNull() {
+        this.set.add(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaximumSize() {
+        new BoundedConcurrentSet<String>(0);
+    }
+
+    @Test
+    public void testRemove() {
+        this.set.addAll(Arrays.asList("a", "b"));
+        assertTrue(this.set.remove("a"));
+        assertFalse(this.set.remove("a"));
+        assertFalse(this.set.contains("a"));
+        assertEquals(1, this.set.size());
+    }
+
+    @Test
+    public void testClear() {
+        this.set.addAll(Arrays.asList("a", "b"));
+        this.set.clear();
+        assertTrue(this.set.isEmpty());
+    }
+
+    @Test
+    public void testIterator() {
+        this.set.addAll(Arrays.asList("a", "b"));
+        Iterator<String> iterator = this.set.iterator();
+        String first = iterator.next();
+        iterator.remove();
+        assertFalse(this.set.contains(first));
+        assertEquals(1, this.set.size());
+    }
+
+    @Test
+    public void testEviction() {
+        BoundedConcurrentSet<Integer> boundedSet = new BoundedConcurrentSet<Integer>(100);
+        for (int i = 0; i < 1000; i++) {
+            boundedSet.add(i);
+        }
+        boundedSet.cleanUp();
+        assertEquals(100, boundedSet.size());
+        assertEquals(100L, boundedSet.getMaximumSize());
+    }
+
+    @Test
+    public void testFrequentElementsSurviveScan() {
+        BoundedConcurrentSet<Integer> boundedSet = new BoundedConcurrentSet<Integer>(100);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                boundedSet.add(i);
+                boundedSet.contains(i);
+            }
+            boundedSet.cleanUp();
+        }
+        for (int i = 1000; i < 11000; i++) {
+            boundedSet.add(i);
+        }
+        boundedSet.cleanUp();
+        int retained = 0;
+        for (int i = 0; i < 50; i++) {
+            if (boundedSet.contains(i)) {
+                retained++;
+            }
+        }
+        assertTrue(retained >= 45);
+        assertEquals(100, boundedSet.size());
+    }
+
+    @Test
+    public void testConcurrentAdd() {
+        final BoundedConcurrentSet<Integer> boundedSet = new BoundedConcurrentSet<Integer>(1000);
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 100000;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        boundedSet.add(offset + i);
+                        boundedSet.contains(offset + i / 2);
+                        if (i % 3 == 0) {
+                            boundedSet.remove(offset + i);
+                        }
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        boundedSet.cleanUp();
+        assertTrue(boundedSet.size() <= 1000);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ChangeLogTest {
+
+    private ChangeLog<String> changeLog = new ChangeLog<String>(5);
+
+    @Test
+    public void testCapacity() {
+        assertEquals(8, this.changeLog.getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new ChangeLog<String>(0);
+    }
+
+    @Test
+    public void testRead() {
+        this.changeLog.record(Change.Type.ADD, "a", -1);
+        this.changeLog.record(Change.Type.REMOVE, "b", 3);
+        this.changeLog.record(Change.Type.ADD, "c", -1);
+        assertEquals(3L, this.changeLog.getNextSequence());
+        ChangeBatch<String> batch = this.changeLog.read(0, 2);
+        assertEquals(2, batch.getChanges().size());
+        assertEquals(2L, batch.getNextSequence());
+        Change<String> change = batch.getChanges().get(1);
+        assertEquals(1L, change.getSequence());
+        assertEquals(Change.Type.REMOVE, change.getType());
+        assertEquals("b", change.getElement());
+        assertEquals(3, change.getIndex());
+        batch = this.changeLog.read(batch.getNextSequence(), 2);
+        assertEquals(1, batch.getChanges().size());
+        assertEquals("c", batch.getChanges().get(0).getElement());
+        assertTrue(this.changeLog.read(3, 2).getChanges().isEmpty());
+    }
+
+    @Test
+    public void testOverrun() {
+        for (int i = 0; i < 10; i++) {
+            this.changeLog.record(Change.Type.ADD, "a" + i, -1);
+        }
+        assertTrue(this.changeLog.read(1, 100).isOverrun());
+        ChangeBatch<String> batch = this.changeLog.read(2, 100);
+        assertFalse(batch.isOverrun());
+        assertEquals(8, batch.getChanges().size());
+        assertEquals("a2", batch.getChanges().get(0).getElement());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadAfterNextSequence() {
+        this.changeLog.read(1, 10);
+    }
+}
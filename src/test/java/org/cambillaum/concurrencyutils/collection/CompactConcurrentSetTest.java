@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.*;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class CompactConcurrentSetTest {
+
+    private Set<String> set = new CompactConcurrentSet<String>();
+
+    @Test
+    public void testAdd() {
+        assertTrue(this.set.add("a"));
+        assertFalse(this.set.add("a"));
+        assertEquals(1, this.set.size());
+        assertEquals("a", this.set.iterator().next());
+    }
+
+    @Test
+    public void testContains() {
+        this.set.add("a");
+        assertTrue(this.set.contains("a"));
+        assertFalse(this.set.contains("b"));
+        assertFalse(this.set.contains(null));
+    }
+
+    @Test
+    public void testRemove() {
+        this.set.add("a");
+        assertTrue(this.set.remove("a"));
+        assertFalse(this.set.remove("a"));
+        assertTrue(this.set.isEmpty());
+        assertTrue(this.set.add("a"));
+        assertTrue(this.set.contains("a"));
+    }
+
+    @Test
+    public void testBulkOperations() {
+        assertTrue(this.set.addAll(Arrays.asList("a", "b", "c", "d")));
+        assertTrue(this.set.removeAll(Arrays.asList("a", "b")));
+        assertTrue(this.set.retainAll(Arrays.asList("c")));
+        assertEquals(new HashSet<String>(Arrays.asList("c")), this.set);
+        this.set.clear();
+        assertTrue(this.set.isEmpty());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        this.set.addAll(Arrays.asList("a", "b"));
+        Iterator<String> iterator = this.set.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().equals("a")) {
+                iterator.remove();
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("b")), this.set);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNull() {
+        this.set.add(null);
+    }
+
+    @Test
+    public void testResizeAgainstHashSet() {
+        Random random = new Random(42);
+        Set<Integer> compactSet = new CompactConcurrentSet<Integer>();
+        Set<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < 50000; i++) {
+            Integer value = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), compactSet.remove(value));
+            } else {
+                assertEquals(expected.add(value), compactSet.add(value));
+            }
+        }
+        assertEquals(expected.size(), compactSet.size());
+        assertEquals(expected, new HashSet<Integer>(compactSet));
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(expected.contains(i), compactSet.contains(i));
+        }
+    }
+
+    @Test
+    public void testConcurrentAddAndRemove() {
+        final Set<Integer> concurrentSet = new CompactConcurrentSet<Integer>();
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 100000;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        concurrentSet.add(offset + i);
+                    }
+                    for (int i = 0; i < 50000; i += 2) {
+                        concurrentSet.remove(offset + i);
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(100000, concurrentSet.size());
+        int count = 0;
+        for (Integer value : concurrentSet) {
+            assertEquals(1, value % 2);
+            count++;
+        }
+        assertEquals(100000, count);
+        for (int t = 0; t < 4; t++) {
+            assertTrue(concurrentSet.contains(t * 100000 + 1));
+            assertFalse(concurrentSet.contains(t * 100000));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentBloomFilterTest {
+
+    private ConcurrentBloomFilter<Integer> filter = new ConcurrentBloomFilter<Integer>(10000, 0.01);
+
+    @Test
+    public void testSizing() {
+        assertTrue(this.filter.getBitCount() >= 95851);
+        assertEquals(7, this.filter.getHashCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFalsePositiveProbability() {
+        new ConcurrentBloomFilter<Integer>(10, 1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidExpectedElements() {
+        new ConcurrentBloomFilter<Integer>(0, 0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNull() {
+        this.filter.add(null);
+    }
+
+    @Test
+    public void testAdd() {
+        assertFalse(this.filter.mightContain(1));
+        assertTrue(this.filter.add(1));
+        assertFalse(this.filter.add(1));
+        assertTrue(this.filter.mightContain(1));
+        assertFalse(this.filter.mightContain(null));
+    }
+
+    @Test
+    public void testFalsePositiveProbability() {
+        for (int i = 0; i < 10000; i++) {
+            this.filter.add(i);
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            if (this.filter.mightContain(i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2000);
+        assertEquals(0.01, this.filter.getFalsePositiveProbability(), 0.005);
+    }
+
+    @Test
+    public void testClear() {
+        this.filter.add(1);
+        this.filter.clear();
+        assertFalse(this.filter.mightContain(1));
+    }
+
+    @Test
+    public void testConcurrentAdd() {
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 2500;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = offset; i < offset + 2500; i++) {
+                        filter.add(i);
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(this.filter.mightContain(i));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentCountMinSketchTest {
+
+    private ConcurrentCountMinSketch sketch = new ConcurrentCountMinSketch(0.001, 0.99);
+
+    @Test
+    public void testDimensions() {
+        assertEquals(2719, this.sketch.getWidth());
+        assertEquals(5, this.sketch.getDepth());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidEpsilon() {
+        new ConcurrentCountMinSketch(0.0, 0.9);
+    }
+
+    @Test
+    public void testEstimateCount() {
+        for (int i = 0; i < 10000; i++) {
+            this.sketch.add(i, i % 10);
+        }
+        this.sketch.add("hot", 1000);
+        assertEquals(45000L + 1000L, this.sketch.totalCount());
+        assertTrue(this.sketch.estimateCount("hot") >= 1000L);
+        assertTrue(this.sketch.estimateCount("hot") <= 1000L + 46);
+        int withinBounds = 0;
+        for (int i = 0; i < 10000; i++) {
+            long estimate = this.sketch.estimateCount(i);
+            assertTrue(estimate >= i % 10);
+            if (estimate <= i % 10 + 46) {
+                withinBounds++;
+            }
+        }
+        assertTrue(withinBounds >= 9900);
+        assertTrue(this.sketch.estimateCount("absent") <= 46);
+        assertEquals(0L, this.sketch.estimateCount(null));
+    }
+
+    @Test
+    public void testMergeAndSnapshot() {
+        ConcurrentCountMinSketch other = new ConcurrentCountMinSketch(0.001, 0.99);
+        this.sketch.add("a", 3);
+        other.add("a", 2);
+        other.add("b");
+        ConcurrentCountMinSketch snapshot = this.sketch.snapshot();
+        this.sketch.merge(other);
+        assertEquals(5L, this.sketch.estimateCount("a"));
+        assertEquals(1L, this.sketch.estimateCount("b"));
+        assertEquals(6L, this.sketch.totalCount());
+        assertEquals(3L, snapshot.estimateCount("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentDimensions() {
+        this.sketch.merge(new ConcurrentCountMinSketch(10, 2));
+    }
+
+    @Test
+    public void testConcurrentAdd() {
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        sketch.add("hot");
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(40000L, this.sketch.estimateCount("hot"));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentCountingBloomFilterTest {
+
+    private ConcurrentCountingBloomFilter<Integer> filter = new ConcurrentCountingBloomFilter<Integer>(1000, 0.01);
+
+    @Test
+    public void testAddRemove() {
+        this.filter.add(1);
+        this.filter.add(1);
+        assertTrue(this.filter.mightContain(1));
+        this.filter.remove(1);
+        assertTrue(this.filter.mightContain(1));
+        this.filter.remove(1);
+        assertFalse(this.filter.mightContain(1));
+    }
+
+    @Test
+    public void testRemoveKeepsOtherElements() {
+        for (int i = 0; i < 1000; i++) {
+            this.filter.add(i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            this.filter.remove(i);
+        }
+        for (int i = 1; i < 1000; i += 2) {
+            assertTrue(this.filter.mightContain(i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i += 2) {
+            if (this.filter.mightContain(i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 50);
+    }
+
+    @Test
+    public void testSaturatedCounter() {
+        for (int i = 0; i < 20; i++) {
+            this.filter.add(1);
+        }
+        for (int i = 0; i < 20; i++) {
+            this.filter.remove(1);
+        }
+        assertTrue(this.filter.mightContain(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRemoveNull() {
+        this.filter.remove(null);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentHyperLogLogTest {
+
+    private ConcurrentHyperLogLog hyperLogLog = new ConcurrentHyperLogLog(14);
+
+    private void assertEstimate(long expected, long actual) {
+        assertEquals(expected, actual, expected * 0.03);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0L, this.hyperLogLog.cardinality());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrecision() {
+        new ConcurrentHyperLogLog(3);
+    }
+
+    @Test
+    public void testSmallCardinality() {
+        for (int i = 0; i < 100; i++) {
+            this.hyperLogLog.add(i);
+            this.hyperLogLog.add(i);
+        }
+        assertEquals(100L, this.hyperLogLog.cardinality(), 2);
+    }
+
+    @Test
+    public void testLargeCardinality() {
+        for (int i = 0; i < 1000000; i++) {
+            this.hyperLogLog.add(i);
+        }
+        assertEstimate(1000000L, this.hyperLogLog.cardinality());
+        assertEquals(0.0081, this.hyperLogLog.getStandardError(), 0.0001);
+    }
+
+    @Test
+    public void testMergeAndSnapshot() {
+        ConcurrentHyperLogLog other = new ConcurrentHyperLogLog(14);
+        for (int i = 0; i < 50000; i++) {
+            this.hyperLogLog.add(i);
+            other.add(i + 25000);
+        }
+        ConcurrentHyperLogLog snapshot = this.hyperLogLog.snapshot();
+        this.hyperLogLog.merge(other);
+        assertEstimate(75000L, this.hyperLogLog.cardinality());
+        assertEstimate(50000L, snapshot.cardinality());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentPrecision() {
+        this.hyperLogLog.merge(new ConcurrentHyperLogLog(10));
+    }
+
+    @Test
+    public void testConcurrentAdd() {
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 25000;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        hyperLogLog.add(offset + i);
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEstimate(125000L, this.hyperLogLog.cardinality());
+    }
+}
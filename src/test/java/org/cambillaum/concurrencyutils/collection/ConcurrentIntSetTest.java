@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentIntSetTest {
+
+    private ConcurrentIntSet set = new ConcurrentIntSet();
+
+    @Test
+    public void testAddContainsRemove() {
+        assertTrue(this.set.add(42));
+        assertFalse(this.set.add(42));
+        assertTrue(this.set.contains(42));
+        assertFalse(this.set.contains(43));
+        assertEquals(1, this.set.size());
+        assertTrue(this.set.remove(42));
+        assertFalse(this.set.remove(42));
+        assertTrue(this.set.isEmpty());
+    }
+
+    @Test
+    public void testReservedValues() {
+        assertFalse(this.set.remove(0));
+        assertTrue(this.set.add(0));
+        assertTrue(this.set.add(Integer.MIN_VALUE));
+        assertFalse(this.set.add(0));
+        assertTrue(this.set.contains(0));
+        assertTrue(this.set.contains(Integer.MIN_VALUE));
+        assertEquals(2, this.set.size());
+        int[] values = this.set.toIntArray();
+        Arrays.sort(values);
+        assertArrayEquals(new int[]{Integer.MIN_VALUE, 0}, values);
+        assertTrue(this.set.remove(0));
+        assertFalse(this.set.contains(0));
+        assertEquals(1, this.set.size());
+    }
+
+    @Test
+    public void testAddAll() {
+        assertTrue(this.set.addAll(new int[]{1, 2, 3, 0}));
+        assertFalse(this.set.addAll(new int[]{1, 2}));
+        assertEquals(4, this.set.size());
+    }
+
+    @Test
+    public void testIterator() {
+        this.set.addAll(new int[]{1, 2, 3});
+        IntIterator iterator = this.set.iterator();
+        Set<Integer> iterated = new HashSet<Integer>();
+        while (iterator.hasNext()) {
+            iterated.add(iterator.nextInt());
+        }
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), iterated);
+    }
+
+    @Test
+    public void testClear() {
+        this.set.addAll(new int[]{0, 1, 2});
+        this.set.clear();
+        assertTrue(this.set.isEmpty());
+        assertFalse(this.set.contains(1));
+    }
+
+    @Test
+    public void testAgainstHashSet() {
+        Random random = new Random(42);
+        Set<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < 50000; i++) {
+            int value = random.nextInt(5000) - 2500;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), this.set.remove(value));
+            } else {
+                assertEquals(expected.add(value), this.set.add(value));
+            }
+        }
+        assertEquals(expected.size(), this.set.size());
+        for (int value = -2500; value < 2500; value++) {
+            assertEquals(expected.contains(value), this.set.contains(value));
+        }
+    }
+
+    @Test
+    public void testConcurrentAdds() {
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 1000000;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        set.add(offset + i);
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(200000, this.set.size());
+        assertEquals(200000, this.set.toIntArray().length);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentInternerTest {
+
+    private ConcurrentInterner<String> interner = new ConcurrentInterner<String>();
+
+    @Test
+    public void testIntern() {
+        String first = new String("a");
+        String second = new String("a");
+        assertSame(first, this.interner.intern(first));
+        assertSame(first, this.interner.intern(second));
+        assertSame(first, this.interner.getCanonical(second));
+        assertNull(this.interner.getCanonical("b"));
+        assertEquals(1, this.interner.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInternNull() {
+        this.interner.intern(null);
+    }
+
+    @Test
+    public void testUnreachableInstancesAreCleared() throws InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            this.interner.intern(new String("a" + i));
+        }
+        String kept = this.interner.intern(new String("kept"));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.interner.size() > 1 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            this.interner.cleanUp();
+        }
+        assertEquals(1, this.interner.size());
+        assertSame(kept, this.interner.intern(new String("kept")));
+    }
+
+    @Test
+    public void testConcurrentIntern() {
+        final List<String> canonicals = new CopyOnWriteArrayList<String>();
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    List<String> interned = new ArrayList<String>();
+                    for (int i = 0; i < 1000; i++) {
+                        interned.add(interner.intern(new String("v" + i)));
+                    }
+                    canonicals.addAll(interned);
+                }
+            });
+        }
+        concurrentTester.execute();
+        for (int i = 0; i < 1000; i++) {
+            String canonical = canonicals.get(i);
+            for (int t = 1; t < 4; t++) {
+                assertSame(canonical, canonicals.get(t * 1000 + i));
+            }
+        }
+    }
+}
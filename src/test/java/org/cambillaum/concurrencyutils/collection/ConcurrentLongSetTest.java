@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentLongSetTest {
+
+    private ConcurrentLongSet set = new ConcurrentLongSet();
+
+    @Test
+    public void testAddContainsRemove() {
+        assertTrue(this.set.add(42L));
+        assertFalse(this.set.add(42L));
+        assertTrue(this.set.contains(42L));
+        assertFalse(this.set.contains(43L));
+        assertEquals(1, this.set.size());
+        assertTrue(this.set.remove(42L));
+        assertFalse(this.set.remove(42L));
+        assertTrue(this.set.isEmpty());
+    }
+
+    @Test
+    public void testReservedValues() {
+        assertFalse(this.set.remove(0L));
+        assertTrue(this.set.add(0L));
+        assertTrue(this.set.add(Long.MIN_VALUE));
+        assertFalse(this.set.add(0L));
+        assertTrue(this.set.contains(0L));
+        assertTrue(this.set.contains(Long.MIN_VALUE));
+        assertEquals(2, this.set.size());
+        long[] values = this.set.toLongArray();
+        Arrays.sort(values);
+        assertArrayEquals(new long[]{Long.MIN_VALUE, 0L}, values);
+        assertTrue(this.set.remove(0L));
+        assertFalse(this.set.contains(0L));
+        assertEquals(1, this.set.size());
+    }
+
+    @Test
+    public void testAddAll() {
+        assertTrue(this.set.addAll(new long[]{1L, 2L, 3L, 0L}));
+        assertFalse(this.set.addAll(new long[]{1L, 2L}));
+        assertEquals(4, this.set.size());
+    }
+
+    @Test
+    public void testIterator() {
+        this.set.addAll(new long[]{1L, 2L, 3L});
+        LongIterator iterator = this.set.iterator();
+        Set<Long> iterated = new HashSet<Long>();
+        while (iterator.hasNext()) {
+            iterated.add(iterator.nextLong());
+        }
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 3L)), iterated);
+    }
+
+    @Test
+    public void testClear() {
+        this.set.addAll(new long[]{0L, 1L, 2L});
+        this.set.clear();
+        assertTrue(this.set.isEmpty());
+        assertFalse(this.set.contains(1L));
+    }
+
+    @Test
+    public void testAgainstHashSet() {
+        Random random = new Random(42);
+        Set<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 50000; i++) {
+            long value = random.nextInt(5000) - 2500L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), this.set.remove(value));
+            } else {
+                assertEquals(expected.add(value), this.set.add(value));
+            }
+        }
+        assertEquals(expected.size(), this.set.size());
+        for (long value = -2500L; value < 2500L; value++) {
+            assertEquals(expected.contains(value), this.set.contains(value));
+        }
+    }
+
+    @Test
+    public void testConcurrentAdds() {
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final long offset = t * 1000000L;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (long i = 0; i < 50000; i++) {
+                        set.add(offset + i);
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(200000, this.set.size());
+        assertEquals(200000, this.set.toLongArray().length);
+    }
+}
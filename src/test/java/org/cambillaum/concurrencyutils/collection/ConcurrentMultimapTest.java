@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentMultimapTest {
+
+    private ConcurrentMultimap<String, Integer> multimap = new ConcurrentMultimap<String, Integer>();
+
+    @Test
+    public void testPut() {
+        assertTrue(this.multimap.put("a", 1));
+        assertTrue(this.multimap.put("a", 2));
+        assertFalse(this.multimap.put("a", 1));
+        assertTrue(this.multimap.put("b", 1));
+        assertEquals(Arrays.asList(1, 2), new ArrayList<Integer>(this.multimap.get("a")));
+        assertEquals(3, this.multimap.size());
+        assertEquals(2, this.multimap.keyCount());
+        assertTrue(this.multimap.containsEntry("a", 2));
+        assertFalse(this.multimap.containsEntry("b", 2));
+        assertTrue(this.multimap.containsValue(2));
+        assertTrue(this.multimap.get("c").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutNullKey() {
+        this.multimap.put(null, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutNullValue() {
+        this.multimap.put("a", null);
+    }
+
+    @Test
+    public void testPutAll() {
+        assertTrue(this.multimap.putAll("a", Arrays.asList(1, 2, 3)));
+        assertFalse(this.multimap.putAll("a", Arrays.asList(1, 2)));
+        assertFalse(this.multimap.putAll("b", Collections.<Integer>emptyList()));
+        assertFalse(this.multimap.containsKey("b"));
+        assertEquals(3, this.multimap.size());
+    }
+
+    @Test
+    public void testRemove() {
+        this.multimap.putAll("a", Arrays.asList(1, 2, 3));
+        assertTrue(this.multimap.remove("a", 2));
+        assertFalse(this.multimap.remove("a", 2));
+        assertTrue(this.multimap.removeAll("a", Arrays.asList(1, 3, 4)));
+        assertFalse(this.multimap.containsKey("a"));
+        assertTrue(this.multimap.isEmpty());
+        assertEquals(0, this.multimap.size());
+    }
+
+    @Test
+    public void testRemoveAllAndReplaceValues() {
+        this.multimap.putAll("a", Arrays.asList(1, 2));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), this.multimap.replaceValues("a", Arrays.asList(3)));
+        assertEquals(new HashSet<Integer>(Arrays.asList(3)), this.multimap.get("a"));
+        assertEquals(new HashSet<Integer>(Arrays.asList(3)), this.multimap.removeAll("a"));
+        assertTrue(this.multimap.removeAll("a").isEmpty());
+        assertTrue(this.multimap.replaceValues("b", Arrays.asList(1)).isEmpty());
+        assertEquals(1, this.multimap.size());
+        this.multimap.clear();
+        assertTrue(this.multimap.isEmpty());
+    }
+
+    @Test
+    public void testGetIsCopy() {
+        this.multimap.put("a", 1);
+        Set<Integer> values = this.multimap.get("a");
+        this.multimap.put("a", 2);
+        assertEquals(1, values.size());
+    }
+
+    @Test
+    public void testConcurrentPutAndRemove() {
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            concurrentTester.addRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        String key = "key-" + (i % 16);
+                        multimap.put(key, thread * 10000 + i);
+                        if (i % 2 == 1) {
+                            multimap.remove(key, thread * 10000 + i);
+                        }
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(40000, this.multimap.size());
+        int total = 0;
+        for (String key : this.multimap.keySet()) {
+            total += this.multimap.get(key).size();
+        }
+        assertEquals(40000, total);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentMultisetTest {
+
+    private ConcurrentMultiset<String> multiset = new ConcurrentMultiset<String>();
+
+    @Test
+    public void testAdd() {
+        this.multiset.add("a");
+        this.multiset.add("a", 3);
+        this.multiset.add("b", 0);
+        assertEquals(4L, this.multiset.count("a"));
+        assertEquals(0L, this.multiset.count("b"));
+        assertEquals(0L, this.multiset.count(null));
+        assertEquals(1, this.multiset.size());
+        assertEquals(4L, this.multiset.totalCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNull() {
+        this.multiset.add(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNegative() {
+        this.multiset.add("a", -1);
+    }
+
+    @Test
+    public void testRemove() {
+        this.multiset.add("a", 3);
+        assertEquals(3L, this.multiset.remove("a", 2));
+        assertEquals(1L, this.multiset.count("a"));
+        assertTrue(this.multiset.remove("a"));
+        assertFalse(this.multiset.remove("a"));
+        assertEquals(0L, this.multiset.count("a"));
+        assertTrue(this.multiset.isEmpty());
+        this.multiset.add("a", 2);
+        assertEquals(2L, this.multiset.count("a"));
+    }
+
+    @Test
+    public void testRemoveMoreThanCount() {
+        this.multiset.add("a", 3);
+        assertEquals(3L, this.multiset.remove("a", 5));
+        assertTrue(this.multiset.isEmpty());
+    }
+
+    @Test
+    public void testRemoveAllAndClear() {
+        this.multiset.add("a", 3);
+        this.multiset.add("b", 2);
+        assertEquals(3L, this.multiset.removeAll("a"));
+        assertEquals(new HashSet<String>(Arrays.asList("b")), this.multiset.elementSet());
+        this.multiset.clear();
+        assertTrue(this.multiset.isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testElementSetIsUnmodifiable() {
+        this.multiset.add("a");
+        this.multiset.elementSet().remove("a");
+    }
+
+    @Test
+    public void testTopK() {
+        this.multiset.add("a", 5);
+        this.multiset.add("b", 1);
+        this.multiset.add("c", 3);
+        this.multiset.add("d", 4);
+        List<ConcurrentMultiset.Entry<String>> top = this.multiset.topK(3);
+        assertEquals(3, top.size());
+        assertEquals("a", top.get(0).getElement());
+        assertEquals(5L, top.get(0).getCount());
+        assertEquals("d", top.get(1).getElement());
+        assertEquals("c", top.get(2).getElement());
+        assertEquals(4, this.multiset.topK(10).size());
+        assertTrue(this.multiset.topK(0).isEmpty());
+    }
+
+    @Test
+    public void testConcurrentUpdates() {
+        final ConcurrentMultiset<Integer> integerMultiset = new ConcurrentMultiset<Integer>();
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        integerMultiset.add(i % 4);
+                        integerMultiset.add(-1, 2);
+                        integerMultiset.remove(-1);
+                        if (i % 10 == 0) {
+                            integerMultiset.add(100);
+                            integerMultiset.remove(100);
+                        }
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(50000L, integerMultiset.count(i));
+        }
+        assertEquals(200000L, integerMultiset.count(-1));
+        assertEquals(0L, integerMultiset.count(100));
+        assertEquals(5, integerMultiset.size());
+    }
+}
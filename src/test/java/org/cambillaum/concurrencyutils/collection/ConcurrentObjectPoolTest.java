@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentObjectPoolTest {
+
+    private BufferFactory factory = new BufferFactory();
+    private ConcurrentObjectPool<Buffer> pool = new ConcurrentObjectPool<Buffer>(this.factory, 8, 4);
+
+    @Test
+    public void testBorrowAndRelease() {
+        Buffer first = this.pool.borrow();
+        Buffer second = this.pool.borrow();
+        assertNotSame(first, second);
+        assertEquals(2, this.pool.getCreatedCount());
+        first.length = 10;
+        this.pool.release(first);
+        assertEquals(0, first.length);
+        assertEquals(1, this.pool.getIdleCount());
+        assertSame(first, this.pool.borrow());
+        assertEquals(2, this.pool.getCreatedCount());
+        assertEquals(0, this.pool.getIdleCount());
+    }
+
+    @Test
+    public void testValidation() {
+        Buffer buffer = this.pool.borrow();
+        this.pool.release(buffer);
+        buffer.valid = false;
+        Buffer borrowed = this.pool.borrow();
+        assertNotSame(buffer, borrowed);
+        assertEquals(1, this.pool.getDiscardedCount());
+        assertEquals(2, this.pool.getCreatedCount());
+    }
+
+    @Test
+    public void testDepotSharedBetweenThreads() throws InterruptedException {
+        final List<Buffer> released = new ArrayList<Buffer>();
+        for (int i = 0; i < 20; i++) {
+            released.add(this.pool.borrow());
+        }
+        Thread releaser = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (Buffer buffer : released) {
+                    pool.release(buffer);
+                }
+            }
+        });
+        releaser.start();
+        releaser.join();
+        assertEquals(8, this.pool.getIdleCount());
+        for (int i = 0; i < 8; i++) {
+            assertTrue(released.contains(this.pool.borrow()));
+        }
+        assertEquals(20, this.pool.getCreatedCount());
+        assertFalse(released.contains(this.pool.borrow()));
+        assertEquals(21, this.pool.getCreatedCount());
+    }
+
+    @Test
+    public void testClear() {
+        for (int i = 0; i < 20; i++) {
+            this.pool.release(new Buffer());
+        }
+        assertTrue(this.pool.getIdleCount() > 0);
+        this.pool.clear();
+        assertEquals(0, this.pool.getIdleCount());
+        this.pool.borrow();
+        assertEquals(1, this.pool.getCreatedCount());
+    }
+
+    @Test
+    public void testAbstractFactory() {
+        ConcurrentObjectPool<Buffer> pool = new ConcurrentObjectPool<Buffer>(new ConcurrentObjectPool.AbstractFactory<Buffer>() {
+
+            @Override
+            public Buffer create() {
+                return new Buffer();
+            }
+        }, 16);
+        assertEquals(16, pool.getMagazineSize());
+        Buffer buffer = pool.borrow();
+        buffer.length = 10;
+        pool.release(buffer);
+        assertSame(buffer, pool.borrow());
+        assertEquals(10, buffer.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleaseNull() {
+        this.pool.release(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullFactory() {
+        new ConcurrentObjectPool<Buffer>(null, 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMagazineSize() {
+        new ConcurrentObjectPool<Buffer>(this.factory, 8, 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFactoryCreatingNull() {
+        new ConcurrentObjectPool<Buffer>(new ConcurrentObjectPool.AbstractFactory<Buffer>() {
+
+            @Override
+            public Buffer create() {
+                return null;
+            }
+        }, 8).borrow();
+    }
+
+    @Test
+    public void testConcurrentBorrowAndRelease() throws InterruptedException {
+        final ConcurrentObjectPool<Buffer> pool = new ConcurrentObjectPool<Buffer>(this.factory, 64, 8);
+        final AtomicInteger conflicts = new AtomicInteger();
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    List<Buffer> borrowed = new ArrayList<Buffer>();
+                    for (int i = 0; i < 100000; i++) {
+                        for (int j = 0; j < i % 20; j++) {
+                            Buffer buffer = pool.borrow();
+                            if (!buffer.lent.compareAndSet(false, true)) {
+                                conflicts.incrementAndGet();
+                            }
+                            borrowed.add(buffer);
+                        }
+                        for (Buffer buffer : borrowed) {
+                            buffer.lent.set(false);
+                            pool.release(buffer);
+                        }
+                        borrowed.clear();
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(0, conflicts.get());
+        assertTrue(pool.getCreatedCount() < 4 * 100);
+    }
+
+    private static class Buffer {
+
+        private int length;
+        private boolean valid = true;
+        private AtomicBoolean lent = new AtomicBoolean();
+    }
+
+    private static class BufferFactory implements ConcurrentObjectPool.Factory<Buffer> {
+
+        @Override
+        public Buffer create() {
+            return new Buffer();
+        }
+
+        @Override
+        public boolean validate(Buffer object) {
+            return object.valid;
+        }
+
+        @Override
+        public void reset(Buffer object) {
+            object.length = 0;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentRingBufferTest {
+
+    private ConcurrentRingBuffer<Integer> ringBuffer = new ConcurrentRingBuffer<Integer>(3);
+
+    @Test
+    public void testAddAndSnapshot() {
+        this.ringBuffer.add(1);
+        this.ringBuffer.add(2);
+        assertEquals(2, this.ringBuffer.size());
+        assertEquals(Arrays.asList(1, 2), this.ringBuffer.snapshot());
+        assertEquals(2, this.ringBuffer.size());
+    }
+
+    @Test
+    public void testOverwrite() {
+        for (int i = 1; i <= 5; i++) {
+            this.ringBuffer.add(i);
+        }
+        assertEquals(3, this.ringBuffer.size());
+        assertEquals(Arrays.asList(3, 4, 5), this.ringBuffer.snapshot());
+    }
+
+    @Test
+    public void testDrainTo() {
+        for (int i = 1; i <= 4; i++) {
+            this.ringBuffer.add(i);
+        }
+        List<Integer> drained = new ArrayList<Integer>();
+        assertEquals(2, this.ringBuffer.drainTo(drained, 2));
+        assertEquals(Arrays.asList(2, 3), drained);
+        this.ringBuffer.add(5);
+        assertEquals(2, this.ringBuffer.drainTo(drained));
+        assertEquals(Arrays.asList(2, 3, 4, 5), drained);
+        assertTrue(this.ringBuffer.isEmpty());
+        assertEquals(0, this.ringBuffer.drainTo(drained));
+        assertEquals(Arrays.asList(), this.ringBuffer.snapshot());
+    }
+
+    @Test
+    public void testClear() {
+        this.ringBuffer.add(1);
+        this.ringBuffer.clear();
+        assertTrue(this.ringBuffer.isEmpty());
+        this.ringBuffer.add(2);
+        assertEquals(Arrays.asList(2), this.ringBuffer.snapshot());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new ConcurrentRingBuffer<Integer>(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNull() {
+        this.ringBuffer.add(null);
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumer() {
+        final ConcurrentRingBuffer<Integer> buffer = new ConcurrentRingBuffer<Integer>(1 << 16);
+        final Set<Integer> drained = new HashSet<Integer>();
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 10000;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        buffer.add(offset + i);
+                    }
+                }
+            });
+        }
+        concurrentTester.addRunnable(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000; i++) {
+                    buffer.drainTo(drained, 100);
+                }
+            }
+        });
+        concurrentTester.execute();
+        buffer.drainTo(drained);
+        assertEquals(40000, drained.size());
+    }
+}
@@ -16,9 +16,14 @@
  */
 package org.cambillaum.concurrencyutils.collection;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -114,6 +119,38 @@ public class ConcurrentSetTest {
         assertEquals("c", shouldBeC);
     }
 
+    @Test
+    public void testRemoveAllIteratesSetWhenSmaller() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>();
+        integerSet.addAll(Arrays.asList(1, 2, 3));
+        Set<Integer> removed = new HashSet<Integer>(range(2, 100)) {
+
+            @Override
+            public Iterator<Integer> iterator() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        assertTrue(integerSet.removeAll(removed));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1)), new HashSet<Integer>(integerSet));
+        assertEquals(1L, integerSet.mappingCount());
+    }
+
+    @Test
+    public void testRemoveAllIteratesCollectionWhenSmaller() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>();
+        integerSet.addAll(range(0, 100));
+        List<Integer> removed = new ArrayList<Integer>(Arrays.asList(1, 2, 3)) {
+
+            @Override
+            public boolean contains(Object o) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        assertTrue(integerSet.removeAll(removed));
+        assertEquals(97, integerSet.size());
+        assertEquals(97L, integerSet.mappingCount());
+    }
+
     @Test
     public void testRetainAll() {
         this.set.add("a");
@@ -161,4 +198,153 @@ public class ConcurrentSetTest {
         assertEquals("a", returnedArray[0]);
         assertEquals("b", returnedArray[1]);
     }
+
+    private List<Integer> range(int from, int to) {
+        List<Integer> range = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    @Test
+    public void testParallelAddAll() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>();
+        boolean returnedBoolean = integerSet.parallelAddAll(range(0, 100000), new ForkJoinPool(4));
+        assertTrue(returnedBoolean);
+        assertEquals(100000, integerSet.size());
+        assertFalse(integerSet.parallelAddAll(range(0, 100000)));
+    }
+
+    @Test
+    public void testParallelAddAllBelowThreshold() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>();
+        assertTrue(integerSet.parallelAddAll(range(0, 10)));
+        assertEquals(10, integerSet.size());
+    }
+
+    @Test
+    public void testParallelRemoveAll() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>();
+        integerSet.addAll(range(0, 100000));
+        assertTrue(integerSet.parallelRemoveAll(range(0, 50000)));
+        assertEquals(50000, integerSet.size());
+        assertFalse(integerSet.contains(0));
+        assertTrue(integerSet.contains(50000));
+    }
+
+    @Test
+    public void testParallelRetainAll() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>();
+        integerSet.addAll(range(0, 100000));
+        assertTrue(integerSet.parallelRetainAll(new HashSet<Integer>(range(20000, 30000))));
+        assertEquals(10000, integerSet.size());
+        assertFalse(integerSet.parallelRetainAll(new HashSet<Integer>(range(20000, 30000))));
+    }
+
+    @Test
+    public void testParallelContainsAll() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>();
+        integerSet.addAll(range(0, 100000));
+        assertTrue(integerSet.parallelContainsAll(range(0, 100000)));
+        assertFalse(integerSet.parallelContainsAll(range(1, 100001)));
+    }
+
+    @Test
+    public void testMappingCount() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>();
+        integerSet.addAll(range(0, 1000));
+        integerSet.add(0);
+        assertEquals(1000L, integerSet.mappingCount());
+        integerSet.removeAll(range(0, 100));
+        integerSet.remove(0);
+        assertEquals(900L, integerSet.mappingCount());
+        integerSet.retainAll(new HashSet<Integer>(range(0, 500)));
+        assertEquals(400L, integerSet.mappingCount());
+        Iterator<Integer> iterator = integerSet.iterator();
+        iterator.next();
+        iterator.remove();
+        assertEquals(399L, integerSet.mappingCount());
+        integerSet.clear();
+        assertEquals(0L, integerSet.mappingCount());
+    }
+
+    @Test
+    public void testApproximateSize() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>(16, 0.75f, 16, true);
+        assertTrue(integerSet.isEmpty());
+        integerSet.addAll(range(0, 100));
+        assertEquals(100, integerSet.size());
+        assertFalse(integerSet.isEmpty());
+        integerSet.parallelRemoveAll(range(0, 100));
+        assertTrue(integerSet.isEmpty());
+    }
+
+    @Test
+    public void testGetStatistics() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>(64, 0.5f, 4);
+        integerSet.addAll(range(0, 1000));
+        ConcurrentSetStatistics statistics = integerSet.getStatistics();
+        assertEquals(1000L, statistics.getSize());
+        assertEquals(64, statistics.getInitialCapacity());
+        assertEquals(0.5f, statistics.getLoadFactor(), 0f);
+        assertEquals(4, statistics.getConcurrencyLevel());
+        assertEquals(2048, statistics.getTableCapacity());
+        assertEquals(1000d / 2048, statistics.getLoad(), 1e-9);
+        assertEquals(1000, statistics.getUsedBuckets());
+        assertEquals(1, statistics.getMaxChainLength());
+        assertArrayEquals(new int[]{1048, 1000}, statistics.getChainLengthCounts());
+    }
+
+    @Test
+    public void testGetStatisticsWithCollisions() {
+        ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>();
+        for (int i = 0; i < 8; i++) {
+            integerSet.add(i << 20);
+        }
+        ConcurrentSetStatistics statistics = integerSet.getStatistics();
+        assertEquals(32, statistics.getTableCapacity());
+        assertTrue(statistics.getMaxChainLength() > 1);
+        assertTrue(statistics.getAverageChainLength() > 1);
+    }
+
+    @Test
+    public void testChangeLog() {
+        final ConcurrentSet<Integer> integerSet = new ConcurrentSet<Integer>();
+        integerSet.addAll(range(0, 100));
+        ChangeLog<Integer> changeLog = integerSet.enableChangeLog(1 << 16);
+        ChangeSnapshot<Integer> snapshot = integerSet.changeSnapshot();
+        assertEquals(100, snapshot.getElements().size());
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        integerSet.add(i % 300);
+                        integerSet.remove((i * 7) % 300);
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        Set<Integer> replica = new HashSet<Integer>(snapshot.getElements());
+        long sequence = snapshot.getNextSequence();
+        ChangeBatch<Integer> batch;
+        do {
+            batch = changeLog.read(sequence, 100);
+            assertFalse(batch.isOverrun());
+            for (Change<Integer> change : batch.getChanges()) {
+                if (change.getType() == Change.Type.ADD) {
+                    replica.add(change.getElement());
+                } else {
+                    replica.remove(change.getElement());
+                }
+            }
+            sequence = batch.getNextSequence();
+        } while (!batch.getChanges().isEmpty());
+        assertEquals(new HashSet<Integer>(integerSet), replica);
+        assertEquals(changeLog.getNextSequence(), sequence);
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.*;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentSortedListTest {
+
+    private ConcurrentSortedList<Integer> list = new ConcurrentSortedList<Integer>();
+
+    @Test
+    public void testInsert() {
+        assertEquals(0, this.list.insert(5));
+        assertEquals(0, this.list.insert(1));
+        assertEquals(1, this.list.insert(3));
+        assertEquals(3, this.list.insert(5));
+        assertEquals(Arrays.asList(1, 3, 5, 5), this.list);
+    }
+
+    @Test
+    public void testAddAll() {
+        assertTrue(this.list.addAll(Arrays.asList(4, 2, 3, 1)));
+        assertEquals(Arrays.asList(1, 2, 3, 4), this.list);
+        assertFalse(this.list.addAll(new ArrayList<Integer>()));
+    }
+
+    @Test
+    public void testGet() {
+        for (int i = 999; i >= 0; i--) {
+            this.list.add(i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), this.list.get(i));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        this.list.add(1);
+        this.list.get(1);
+    }
+
+    @Test
+    public void testIndexOf() {
+        this.list.addAll(Arrays.asList(1, 2, 2, 2, 3));
+        assertEquals(1, this.list.indexOf(2));
+        assertEquals(3, this.list.lastIndexOf(2));
+        assertEquals(-1, this.list.indexOf(4));
+        assertEquals(-1, this.list.lastIndexOf(0));
+        assertTrue(this.list.contains(3));
+        assertFalse(this.list.contains(null));
+    }
+
+    @Test
+    public void testRange() {
+        this.list.addAll(Arrays.asList(1, 2, 3, 4, 5, 6));
+        assertEquals(Arrays.asList(2, 3, 4), this.list.range(2, 5));
+        assertEquals(Arrays.asList(), this.list.range(7, 9));
+        assertEquals(Arrays.asList(), this.list.range(5, 2));
+    }
+
+    @Test
+    public void testSubList() {
+        this.list.addAll(Arrays.asList(1, 2, 3, 4, 5));
+        List<Integer> subList = this.list.subList(1, 4);
+        this.list.add(0);
+        assertEquals(Arrays.asList(2, 3, 4), subList);
+        assertEquals(Arrays.asList(3), subList.subList(1, 2));
+    }
+
+    @Test
+    public void testRemove() {
+        this.list.addAll(Arrays.asList(1, 2, 3));
+        assertEquals(Integer.valueOf(2), this.list.remove(1));
+        assertTrue(this.list.remove(Integer.valueOf(3)));
+        assertFalse(this.list.remove(Integer.valueOf(3)));
+        assertEquals(Arrays.asList(1), this.list);
+    }
+
+    @Test
+    public void testRemoveAllAndRetainAll() {
+        this.list.addAll(Arrays.asList(1, 2, 3, 4, 5));
+        assertTrue(this.list.removeAll(Arrays.asList(2, 4)));
+        assertFalse(this.list.removeAll(Arrays.asList(2, 4)));
+        assertEquals(Arrays.asList(1, 3, 5), this.list);
+        assertTrue(this.list.retainAll(Arrays.asList(3)));
+        assertEquals(Arrays.asList(3), this.list);
+    }
+
+    @Test
+    public void testIteratorIsSnapshot() {
+        this.list.addAll(Arrays.asList(1, 2));
+        Iterator<Integer> iterator = this.list.iterator();
+        this.list.add(0);
+        this.list.clear();
+        assertEquals(Integer.valueOf(1), iterator.next());
+        assertEquals(Integer.valueOf(2), iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testComparator() {
+        ConcurrentSortedList<String> reversed = new ConcurrentSortedList<String>(Collections.reverseOrder());
+        reversed.addAll(Arrays.asList("a", "c", "b"));
+        assertEquals(Arrays.asList("c", "b", "a"), reversed);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddAtIndex() {
+        this.list.add(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNull() {
+        this.list.add(null);
+    }
+
+    @Test
+    public void testConcurrentInserts() {
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        list.insert(i * 4 + offset);
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(4000, this.list.size());
+        for (int i = 0; i < 4000; i++) {
+            assertEquals(Integer.valueOf(i), this.list.get(i));
+        }
+    }
+}
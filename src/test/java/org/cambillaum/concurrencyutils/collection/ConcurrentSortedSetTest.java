@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.*;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ConcurrentSortedSetTest {
+
+    private ConcurrentSortedSet<Integer> set = new ConcurrentSortedSet<Integer>();
+
+    @Test
+    public void testAddAndRemove() {
+        assertTrue(this.set.add(3));
+        assertTrue(this.set.add(1));
+        assertFalse(this.set.add(3));
+        assertTrue(this.set.add(2));
+        assertEquals(Arrays.asList(1, 2, 3), new ArrayList<Integer>(this.set));
+        assertTrue(this.set.remove(2));
+        assertFalse(this.set.remove(2));
+        assertFalse(this.set.remove(null));
+        assertEquals(Arrays.asList(1, 3), new ArrayList<Integer>(this.set));
+        assertEquals(Integer.valueOf(1), this.set.first());
+        assertEquals(Integer.valueOf(3), this.set.last());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNull() {
+        this.set.add(null);
+    }
+
+    @Test
+    public void testComparator() {
+        ConcurrentSortedSet<String> strings = new ConcurrentSortedSet<String>(String.CASE_INSENSITIVE_ORDER);
+        strings.add("b");
+        strings.add("A");
+        assertFalse(strings.add("B"));
+        assertEquals(Arrays.asList("A", "b"), new ArrayList<String>(strings));
+        assertSame(String.CASE_INSENSITIVE_ORDER, strings.comparator());
+    }
+
+    @Test
+    public void testRankAndCountInRange() {
+        for (int i = 0; i < 100; i += 2) {
+            this.set.add(i);
+        }
+        assertEquals(0, this.set.rank(0));
+        assertEquals(5, this.set.rank(10));
+        assertEquals(6, this.set.rank(11));
+        assertEquals(50, this.set.rank(1000));
+        assertEquals(5, this.set.countInRange(10, 20));
+        assertEquals(6, this.set.countInRange(9, 21));
+        assertEquals(0, this.set.countInRange(20, 10));
+        assertEquals(Integer.valueOf(10), this.set.select(5));
+    }
+
+    @Test
+    public void testAddAllSorted() {
+        this.set.add(5);
+        this.set.add(50);
+        assertTrue(this.set.addAllSorted(Arrays.asList(1, 5, 5, 7, 60)));
+        assertEquals(Arrays.asList(1, 5, 7, 50, 60), new ArrayList<Integer>(this.set));
+        assertFalse(this.set.addAllSorted(Arrays.asList(1, 7)));
+        assertFalse(this.set.addAllSorted(Collections.<Integer>emptyList()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddAllSortedUnsorted() {
+        this.set.addAllSorted(Arrays.asList(2, 1));
+    }
+
+    @Test
+    public void testAddAllLarge() {
+        List<Integer> expected = new ArrayList<Integer>();
+        List<Integer> shuffled = new ArrayList<Integer>();
+        for (int i = 0; i < 100000; i++) {
+            expected.add(i);
+            shuffled.add(i);
+        }
+        Collections.shuffle(shuffled, new Random(1));
+        assertTrue(this.set.addAll(shuffled.subList(0, 50000)));
+        assertTrue(this.set.addAll(shuffled));
+        assertEquals(expected, new ArrayList<Integer>(this.set));
+        for (int i = 0; i < 100000; i += 997) {
+            assertEquals(i, this.set.rank(i));
+        }
+    }
+
+    @Test
+    public void testSubSetViews() {
+        for (int i = 0; i < 10; i++) {
+            this.set.add(i);
+        }
+        SortedSet<Integer> subSet = this.set.subSet(3, 7);
+        assertEquals(Arrays.asList(3, 4, 5, 6), new ArrayList<Integer>(subSet));
+        assertEquals(4, subSet.size());
+        assertEquals(Integer.valueOf(3), subSet.first());
+        assertEquals(Integer.valueOf(6), subSet.last());
+        assertTrue(subSet.contains(5));
+        assertFalse(subSet.contains(7));
+        this.set.remove(5);
+        assertEquals(Arrays.asList(3, 4, 6), new ArrayList<Integer>(subSet));
+        assertTrue(subSet.remove(4));
+        assertFalse(this.set.contains(4));
+        assertEquals(Arrays.asList(3, 6), new ArrayList<Integer>(subSet.subSet(3, 7)));
+        assertEquals(Arrays.asList(0, 1, 2), new ArrayList<Integer>(this.set.headSet(3)));
+        assertEquals(Arrays.asList(8, 9), new ArrayList<Integer>(this.set.tailSet(8)));
+        assertEquals(Arrays.asList(6), new ArrayList<Integer>(subSet.tailSet(5)));
+        subSet.clear();
+        assertEquals(Arrays.asList(0, 1, 2, 7, 8, 9), new ArrayList<Integer>(this.set));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubSetAddOutOfRange() {
+        this.set.subSet(3, 7).add(7);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubSetOutOfRange() {
+        this.set.subSet(3, 7).subSet(2, 5);
+    }
+
+    @Test
+    public void testIteratorIsSnapshot() {
+        this.set.add(1);
+        this.set.add(2);
+        Iterator<Integer> iterator = this.set.iterator();
+        this.set.add(3);
+        assertEquals(Integer.valueOf(1), iterator.next());
+        iterator.remove();
+        assertEquals(Integer.valueOf(2), iterator.next());
+        assertFalse(iterator.hasNext());
+        assertEquals(Arrays.asList(2, 3), new ArrayList<Integer>(this.set));
+    }
+
+    @Test
+    public void testRetainAll() {
+        for (int i = 0; i < 10; i++) {
+            this.set.add(i);
+        }
+        assertTrue(this.set.retainAll(Arrays.asList(2, 4, 11)));
+        assertEquals(Arrays.asList(2, 4), new ArrayList<Integer>(this.set));
+        assertFalse(this.set.retainAll(Arrays.asList(2, 4)));
+    }
+
+    @Test
+    public void testConcurrentAdd() {
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            concurrentTester.addRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    List<Integer> run = new ArrayList<Integer>();
+                    for (int i = 0; i < 1000; i++) {
+                        set.add(thread * 10000 + i);
+                        run.add(thread * 10000 + 5000 + i);
+                    }
+                    set.addAllSorted(run);
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(16000, this.set.size());
+        assertEquals(2000, this.set.countInRange(30000, 40000));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ExpiringConcurrentSetTest {
+
+    private final AtomicLong time = new AtomicLong(123456789L);
+    private ExpiringConcurrentSet<String> set = new ExpiringConcurrentSet<String>(10, TimeUnit.SECONDS,
+            new ExpiringConcurrentSet.Ticker() {
+
+                @Override
+                public long read() {
+                    return time.get();
+                }
+            });
+
+    private void sleep(long duration, TimeUnit unit) {
+        this.time.addAndGet(unit.toNanos(duration));
+    }
+
+    @Test
+    public void testAdd() {
+        assertTrue(this.set.add("a"));
+        assertFalse(this.set.add("a"));
+        assertTrue(this.set.contains("a"));
+        assertEquals(1, this.set.size());
+        assertEquals(10L, this.set.getDefaultTimeToLive(TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNull() {
+        this.set.add(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddInvalidTimeToLive() {
+        this.set.add("a", 0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testExpiredElementIsAbsent() {
+        this.set.add("a");
+        this.set.add("b", 1, TimeUnit.MINUTES);
+        sleep(9, TimeUnit.SECONDS);
+        assertTrue(this.set.contains("a"));
+        assertEquals(1L, this.set.getTimeToLive("a", TimeUnit.SECONDS));
+        sleep(1, TimeUnit.SECONDS);
+        assertFalse(this.set.contains("a"));
+        assertEquals(-1L, this.set.getTimeToLive("a", TimeUnit.SECONDS));
+        assertTrue(this.set.contains("b"));
+        assertEquals(new HashSet<String>(Arrays.asList("b")), new HashSet<String>(this.set));
+    }
+
+    @Test
+    public void testAddReplacesExpiredElement() {
+        this.set.add("a", 1, TimeUnit.SECONDS);
+        sleep(2, TimeUnit.SECONDS);
+        assertTrue(this.set.add("a"));
+        assertTrue(this.set.contains("a"));
+        assertEquals(10L, this.set.getTimeToLive("a", TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCleanUp() {
+        for (int i = 0; i < 100; i++) {
+            this.set.add("short" + i, i + 1, TimeUnit.MILLISECONDS);
+            this.set.add("medium" + i, i + 1, TimeUnit.MINUTES);
+            this.set.add("long" + i, i + 1, TimeUnit.DAYS);
+        }
+        assertEquals(300, this.set.size());
+        sleep(200, TimeUnit.MILLISECONDS);
+        this.set.cleanUp();
+        assertEquals(200, this.set.size());
+        sleep(100, TimeUnit.MINUTES);
+        this.set.cleanUp();
+        assertEquals(100, this.set.size());
+        sleep(50, TimeUnit.DAYS);
+        this.set.cleanUp();
+        assertEquals(50, this.set.size());
+        assertTrue(this.set.contains("long50"));
+        assertFalse(this.set.contains("long48"));
+        sleep(100, TimeUnit.DAYS);
+        this.set.cleanUp();
+        assertTrue(this.set.isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        this.set.add("a");
+        this.set.add("b", 1, TimeUnit.SECONDS);
+        assertTrue(this.set.remove("a"));
+        assertFalse(this.set.remove("a"));
+        sleep(1, TimeUnit.SECONDS);
+        assertFalse(this.set.remove("b"));
+        this.set.cleanUp();
+        assertTrue(this.set.isEmpty());
+    }
+
+    @Test
+    public void testIterator() {
+        this.set.add("a");
+        this.set.add("b");
+        this.set.add("c", 1, TimeUnit.SECONDS);
+        sleep(1, TimeUnit.SECONDS);
+        Iterator<String> iterator = this.set.iterator();
+        String first = iterator.next();
+        iterator.remove();
+        assertTrue(iterator.hasNext());
+        iterator.next();
+        assertFalse(iterator.hasNext());
+        assertFalse(this.set.contains(first));
+    }
+
+    @Test
+    public void testClear() {
+        this.set.add("a");
+        this.set.add("b");
+        this.set.clear();
+        assertTrue(this.set.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentAdd() {
+        final ExpiringConcurrentSet<Integer> expiringSet = new ExpiringConcurrentSet<Integer>(1, TimeUnit.HOURS);
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 100000;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        expiringSet.add(offset + i);
+                        if (i % 2 == 0) {
+                            expiringSet.remove(offset + i);
+                        }
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        expiringSet.cleanUp();
+        assertEquals(40000, expiringSet.size());
+    }
+}
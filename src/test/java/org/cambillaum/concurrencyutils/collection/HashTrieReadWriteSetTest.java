@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class HashTrieReadWriteSetTest {
+
+    private HashTrieReadWriteSet<String> set = new HashTrieReadWriteSet<String>();
+
+    @Test
+    public void testAdd() {
+        assertTrue(this.set.add("a"));
+        assertFalse(this.set.add("a"));
+        assertEquals(1, this.set.size());
+        assertTrue(this.set.contains("a"));
+        assertFalse(this.set.contains("b"));
+    }
+
+    @Test
+    public void testWriteLock() {
+        Lock writeLock = mock(Lock.class);
+        HashTrieReadWriteSet<String> lockedSet = new HashTrieReadWriteSet<String>(writeLock);
+        lockedSet.add("a");
+        verify(writeLock).lock();
+        verify(writeLock).unlock();
+        lockedSet.contains("a");
+        lockedSet.size();
+        lockedSet.iterator();
+        verifyNoMoreInteractions(writeLock);
+    }
+
+    @Test
+    public void testNullElement() {
+        assertTrue(this.set.add(null));
+        assertTrue(this.set.contains(null));
+        assertTrue(this.set.remove(null));
+        assertFalse(this.set.contains(null));
+    }
+
+    @Test
+    public void testRemove() {
+        this.set.addAll(Arrays.asList("a", "b", "c"));
+        assertTrue(this.set.remove("b"));
+        assertFalse(this.set.remove("b"));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "c")), this.set);
+    }
+
+    @Test
+    public void testBulkOperations() {
+        assertTrue(this.set.addAll(Arrays.asList("a", "b", "c", "d")));
+        assertFalse(this.set.addAll(Arrays.asList("a", "b")));
+        assertTrue(this.set.removeAll(Arrays.asList("a", "e")));
+        assertTrue(this.set.retainAll(Arrays.asList("b", "c")));
+        assertEquals(new HashSet<String>(Arrays.asList("b", "c")), this.set);
+        assertTrue(this.set.containsAll(Arrays.asList("b", "c")));
+        this.set.clear();
+        assertTrue(this.set.isEmpty());
+    }
+
+    @Test
+    public void testSnapshot() {
+        this.set.addAll(Arrays.asList("a", "b"));
+        Set<String> snapshot = this.set.snapshot();
+        Iterator<String> iterator = this.set.iterator();
+        this.set.add("c");
+        this.set.remove("a");
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), snapshot);
+        Set<String> iterated = new HashSet<String>();
+        while (iterator.hasNext()) {
+            iterated.add(iterator.next());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), iterated);
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        this.set.addAll(Arrays.asList("a", "b"));
+        Iterator<String> iterator = this.set.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().equals("a")) {
+                iterator.remove();
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("b")), this.set);
+    }
+
+    @Test
+    public void testAgainstHashSet() {
+        Random random = new Random(42);
+        HashTrieReadWriteSet<Key> trieSet = new HashTrieReadWriteSet<Key>();
+        Set<Key> expected = new HashSet<Key>();
+        for (int i = 0; i < 20000; i++) {
+            Key key = new Key(random.nextInt(2000), random.nextInt(4));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), trieSet.remove(key));
+            } else {
+                assertEquals(expected.add(key), trieSet.add(key));
+            }
+            assertEquals(expected.size(), trieSet.size());
+        }
+        assertEquals(expected, trieSet);
+        assertEquals(expected, new HashSet<Key>(trieSet));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSerialization() throws Exception {
+        this.set.addAll(Arrays.asList("a", "b", "c"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(this.set);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        HashTrieReadWriteSet<String> copy = (HashTrieReadWriteSet<String>) in.readObject();
+        assertEquals(this.set, copy);
+        assertTrue(copy.add("d"));
+    }
+
+    private static class Key {
+
+        private int value;
+        private int hash;
+
+        Key(int value, int hashBucket) {
+            this.value = value;
+            this.hash = hashBucket == 0 ? 7 : value * 31 + hashBucket;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).value == this.value && ((Key) o).hash == this.hash;
+        }
+    }
+}
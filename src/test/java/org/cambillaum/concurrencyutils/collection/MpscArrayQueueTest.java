@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class MpscArrayQueueTest {
+
+    private MpscArrayQueue<Integer> queue = new MpscArrayQueue<Integer>(5);
+
+    @Test
+    public void testOfferAndPoll() {
+        assertEquals(8, this.queue.getCapacity());
+        assertTrue(this.queue.isEmpty());
+        assertNull(this.queue.poll());
+        assertNull(this.queue.peek());
+        for (int i = 0; i < 8; i++) {
+            assertTrue(this.queue.offer(i));
+        }
+        assertFalse(this.queue.offer(8));
+        assertEquals(8, this.queue.size());
+        assertEquals(0, this.queue.remainingCapacity());
+        assertEquals(Integer.valueOf(0), this.queue.peek());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(Integer.valueOf(i), this.queue.poll());
+        }
+        assertNull(this.queue.poll());
+        assertTrue(this.queue.isEmpty());
+        assertTrue(this.queue.offer(9));
+        assertEquals(Integer.valueOf(9), this.queue.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOfferNull() {
+        this.queue.offer(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new MpscArrayQueue<Integer>(0);
+    }
+
+    @Test
+    public void testIterator() {
+        this.queue.addAll(Arrays.asList(1, 2, 3));
+        this.queue.poll();
+        assertEquals(Arrays.asList(2, 3), new ArrayList<Integer>(this.queue));
+    }
+
+    @Test
+    public void testDrain() {
+        this.queue.addAll(Arrays.asList(1, 2, 3, 4, 5));
+        final List<Integer> drained = new ArrayList<Integer>();
+        BoundedArrayQueue.Consumer<Integer> consumer = new BoundedArrayQueue.Consumer<Integer>() {
+
+            @Override
+            public void accept(Integer e) {
+                drained.add(e);
+            }
+        };
+        assertEquals(2, this.queue.drain(consumer, 2));
+        assertEquals(Arrays.asList(1, 2), drained);
+        assertEquals(3, this.queue.drain(consumer));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), drained);
+        assertEquals(0, this.queue.drain(consumer));
+        assertTrue(this.queue.isEmpty());
+    }
+
+    @Test
+    public void testFill() {
+        this.queue.offer(0);
+        BoundedArrayQueue.Supplier<Integer> supplier = new BoundedArrayQueue.Supplier<Integer>() {
+
+            private int next = 1;
+
+            @Override
+            public Integer get() {
+                return this.next++;
+            }
+        };
+        assertEquals(3, this.queue.fill(supplier, 3));
+        assertEquals(4, this.queue.fill(supplier, 10));
+        assertEquals(0, this.queue.fill(supplier, 10));
+        for (int i = 0; i < 8; i++) {
+            assertEquals(Integer.valueOf(i), this.queue.poll());
+        }
+        assertNull(this.queue.poll());
+    }
+
+    @Test
+    public void testFillWithFailingSupplier() {
+        BoundedArrayQueue.Supplier<Integer> supplier = new BoundedArrayQueue.Supplier<Integer>() {
+
+            private int next = 1;
+
+            @Override
+            public Integer get() {
+                return this.next <= 2 ? Integer.valueOf(this.next++) : null;
+            }
+        };
+        try {
+            this.queue.fill(supplier, 5);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        this.queue.offer(3);
+        assertEquals(Integer.valueOf(1), this.queue.poll());
+        assertEquals(Integer.valueOf(2), this.queue.peek());
+        assertEquals(Integer.valueOf(2), this.queue.poll());
+        assertEquals(Integer.valueOf(3), this.queue.poll());
+        assertNull(this.queue.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDrainNegativeLimit() {
+        this.queue.drain(new BoundedArrayQueue.Consumer<Integer>() {
+
+            @Override
+            public void accept(Integer e) {
+            }
+        }, -1);
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void testTakeInterrupted() throws InterruptedException {
+        Thread.currentThread().interrupt();
+        this.queue.take();
+    }
+
+    @Test
+    public void testProducersAndConsumer() throws InterruptedException {
+        final MpscArrayQueue<Integer> queue = new MpscArrayQueue<Integer>(64);
+        final List<Integer> taken = new ArrayList<Integer>();
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 100000;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    BoundedArrayQueue.Supplier<Integer> supplier = new BoundedArrayQueue.Supplier<Integer>() {
+
+                        private int next = offset;
+
+                        @Override
+                        public Integer get() {
+                            return this.next++;
+                        }
+                    };
+                    int added = 0;
+                    while (added < 50000) {
+                        int filled = queue.fill(supplier, 50000 - added);
+                        if (filled == 0) {
+                            Thread.yield();
+                        }
+                        added += filled;
+                    }
+                    try {
+                        for (int i = offset + 50000; i < offset + 100000; i++) {
+                            queue.put(i);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        concurrentTester.addRunnable(new Runnable() {
+
+            @Override
+            public void run() {
+                BoundedArrayQueue.Consumer<Integer> consumer = new BoundedArrayQueue.Consumer<Integer>() {
+
+                    @Override
+                    public void accept(Integer e) {
+                        taken.add(e);
+                    }
+                };
+                while (taken.size() < 400000) {
+                    if (queue.drain(consumer, 16) == 0) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        concurrentTester.execute();
+        assertEquals(400000, taken.size());
+        int[] last = new int[]{-1, -1, -1, -1};
+        for (Integer e : taken) {
+            int producer = e / 100000;
+            assertTrue(e % 100000 > last[producer]);
+            last[producer] = e % 100000;
+        }
+        for (int producer = 0; producer < 4; producer++) {
+            assertEquals(99999, last[producer]);
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
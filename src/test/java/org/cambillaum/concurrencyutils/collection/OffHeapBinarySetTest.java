@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class OffHeapBinarySetTest {
+
+    private OffHeapBinarySet set = new OffHeapBinarySet();
+
+    @Test
+    public void testAddContainsRemove() {
+        assertTrue(this.set.add(new byte[]{1, 2, 3}));
+        assertFalse(this.set.add(new byte[]{1, 2, 3}));
+        assertTrue(this.set.add(new byte[0]));
+        assertEquals(2, this.set.size());
+        assertTrue(this.set.contains(new byte[]{1, 2, 3}));
+        assertTrue(this.set.contains(new byte[0]));
+        assertFalse(this.set.contains(new byte[]{1, 2}));
+        assertTrue(this.set.remove(new byte[]{1, 2, 3}));
+        assertFalse(this.set.remove(new byte[]{1, 2, 3}));
+        assertFalse(this.set.contains(new byte[]{1, 2, 3}));
+        assertEquals(1, this.set.size());
+    }
+
+    @Test
+    public void testSlicesAndBuffers() {
+        byte[] array = new byte[]{9, 1, 2, 3, 9};
+        assertTrue(this.set.add(array, 1, 3));
+        assertTrue(this.set.contains(new byte[]{1, 2, 3}));
+        ByteBuffer direct = ByteBuffer.allocateDirect(8);
+        direct.put(new byte[]{7, 1, 2, 3});
+        direct.flip();
+        direct.position(1);
+        assertTrue(this.set.contains(direct));
+        assertEquals(1, direct.position());
+        ByteBuffer heap = ByteBuffer.wrap(array, 1, 2);
+        assertFalse(this.set.contains(heap));
+        assertTrue(this.set.add(heap));
+        assertTrue(this.set.contains(new byte[]{1, 2}));
+        assertTrue(this.set.remove(direct));
+        assertFalse(this.set.contains(array, 1, 3));
+    }
+
+    @Test
+    public void testStrings() {
+        assertTrue(this.set.add("http://example.com/é"));
+        assertTrue(this.set.contains("http://example.com/é"));
+        assertTrue(this.set.contains("http://example.com/é".getBytes(java.nio.charset.Charset.forName("UTF-8"))));
+        assertTrue(this.set.remove("http://example.com/é"));
+        assertTrue(this.set.isEmpty());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInvalidSlice() {
+        this.set.contains(new byte[4], 2, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullKey() {
+        this.set.add((byte[]) null);
+    }
+
+    @Test
+    public void testLargeKey() {
+        byte[] key = new byte[3 << 20];
+        key[key.length - 1] = 1;
+        assertTrue(this.set.add(key));
+        assertTrue(this.set.add("small"));
+        assertTrue(this.set.contains(key));
+        assertTrue(this.set.contains("small"));
+        key[key.length - 1] = 2;
+        assertFalse(this.set.contains(key));
+    }
+
+    @Test
+    public void testGrowAndCompact() {
+        OffHeapBinarySet small = new OffHeapBinarySet(0, 1);
+        for (int i = 0; i < 200000; i++) {
+            assertTrue(small.add("key-" + i));
+        }
+        long grownBytes = small.getOffHeapBytes();
+        for (int i = 0; i < 200000; i++) {
+            if (i % 3 != 0) {
+                assertTrue(small.remove("key-" + i));
+            }
+        }
+        assertEquals(66667, small.size());
+        assertTrue(small.getOffHeapBytes() < grownBytes);
+        for (int i = 0; i < 200000; i++) {
+            assertEquals(i % 3 == 0, small.contains("key-" + i));
+        }
+    }
+
+    @Test
+    public void testAddToFullSegment() {
+        OffHeapBinarySet full = new OffHeapBinarySet(0, 1, 16);
+        for (int i = 0; i < 12; i++) {
+            assertTrue(full.add("key-" + i));
+        }
+        try {
+            full.add("key-12");
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("segment is full", e.getMessage());
+        }
+        assertFalse(full.add("key-0"));
+        assertEquals(12, full.size());
+        assertFalse(full.contains("key-12"));
+    }
+
+    @Test(timeout = 10000)
+    public void testRemoveAndAddInFullSegment() {
+        OffHeapBinarySet full = new OffHeapBinarySet(0, 1, 16);
+        for (int i = 0; i < 12; i++) {
+            assertTrue(full.add("key-" + i));
+        }
+        for (int i = 12; i < 10000; i++) {
+            assertTrue(full.remove("key-" + (i - 12)));
+            assertTrue(full.add("key-" + i));
+            assertFalse(full.contains("key-" + (i - 12)));
+        }
+        assertEquals(12, full.size());
+        for (int i = 10000 - 12; i < 10000; i++) {
+            assertTrue(full.contains("key-" + i));
+        }
+    }
+
+    @Test
+    public void testIterator() {
+        this.set.add("a");
+        this.set.add("b");
+        Set<String> keys = new HashSet<String>();
+        Iterator<byte[]> iterator = this.set.iterator();
+        while (iterator.hasNext()) {
+            keys.add(new String(iterator.next(), java.nio.charset.Charset.forName("UTF-8")));
+        }
+        assertEquals(2, keys.size());
+        assertTrue(keys.contains("a"));
+        assertTrue(keys.contains("b"));
+    }
+
+    @Test
+    public void testClear() {
+        this.set.add("a");
+        this.set.clear();
+        assertTrue(this.set.isEmpty());
+        assertFalse(this.set.contains("a"));
+        assertTrue(this.set.add("a"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClose() {
+        this.set.add("a");
+        this.set.close();
+        assertEquals(0L, this.set.getOffHeapBytes());
+        this.set.contains("a");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSizeAfterClose() {
+        this.set.add("a");
+        this.set.close();
+        this.set.size();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIsEmptyAfterClose() {
+        this.set.close();
+        this.set.isEmpty();
+    }
+
+    @Test
+    public void testConcurrentAdd() {
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 8; t++) {
+            concurrentTester.addRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        set.add("key-" + i);
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(20000, this.set.size());
+        for (int i = 0; i < 20000; i++) {
+            assertTrue(this.set.contains("key-" + i));
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class OffHeapReadWriteListTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private OffHeapReadWriteList<Long> list;
+    private ReadWriteLock readWriteLock;
+    private Lock readLock;
+    private Lock writeLock;
+
+    @Before
+    public void setUp() {
+        this.readWriteLock = mock(ReadWriteLock.class);
+        this.readLock = mock(Lock.class);
+        this.writeLock = mock(Lock.class);
+        when(this.readWriteLock.readLock()).thenReturn(this.readLock);
+        when(this.readWriteLock.writeLock()).thenReturn(this.writeLock);
+        this.list = new OffHeapReadWriteList<Long>(new LongCodec(), 16, this.readWriteLock);
+    }
+
+    private void verifyWriteLockAndUnlockCalled() {
+        verify(this.writeLock).lock();
+        verify(this.writeLock).unlock();
+    }
+
+    private void verifyReadLockAndUnlockCalled() {
+        verify(this.readLock).lock();
+        verify(this.readLock).unlock();
+    }
+
+    @Test
+    public void testAdd() {
+        this.list.add(1L);
+        verifyWriteLockAndUnlockCalled();
+        assertEquals(Long.valueOf(1L), this.list.get(0));
+    }
+
+    @Test
+    public void testAddAcrossChunks() {
+        for (long i = 0; i < 10; i++) {
+            this.list.add(i);
+        }
+        assertEquals(10, this.list.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Long.valueOf(i), this.list.get(i));
+        }
+    }
+
+    @Test
+    public void testAddAtIndex() {
+        this.list.addAll(Arrays.asList(1L, 2L, 4L, 5L));
+        this.list.add(2, 3L);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), this.list);
+    }
+
+    @Test
+    public void testAddAllAtIndex() {
+        this.list.addAll(Arrays.asList(1L, 5L));
+        reset(this.writeLock);
+        this.list.addAll(1, Arrays.asList(2L, 3L, 4L));
+        verifyWriteLockAndUnlockCalled();
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), this.list);
+    }
+
+    @Test
+    public void testGet() {
+        this.list.add(1L);
+        reset(this.readLock);
+        this.list.get(0);
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        this.list.get(0);
+    }
+
+    @Test
+    public void testSet() {
+        this.list.add(1L);
+        reset(this.writeLock);
+        Long oldValue = this.list.set(0, 2L);
+        verifyWriteLockAndUnlockCalled();
+        assertEquals(Long.valueOf(1L), oldValue);
+        assertEquals(Long.valueOf(2L), this.list.get(0));
+    }
+
+    @Test
+    public void testRemove() {
+        this.list.addAll(Arrays.asList(1L, 2L, 3L, 4L, 5L));
+        reset(this.writeLock);
+        Long removed = this.list.remove(1);
+        verifyWriteLockAndUnlockCalled();
+        assertEquals(Long.valueOf(2L), removed);
+        assertEquals(Arrays.asList(1L, 3L, 4L, 5L), this.list);
+    }
+
+    @Test
+    public void testRemoveObject() {
+        this.list.addAll(Arrays.asList(1L, 2L, 3L));
+        assertTrue(this.list.remove(Long.valueOf(3L)));
+        assertFalse(this.list.remove(Long.valueOf(4L)));
+        assertEquals(Arrays.asList(1L, 2L), this.list);
+    }
+
+    @Test
+    public void testRemoveAllAndRetainAll() {
+        this.list.addAll(Arrays.asList(1L, 2L, 3L, 4L, 5L));
+        assertTrue(this.list.removeAll(Arrays.asList(2L, 4L)));
+        assertEquals(Arrays.asList(1L, 3L, 5L), this.list);
+        assertTrue(this.list.retainAll(Arrays.asList(3L)));
+        assertEquals(Arrays.asList(3L), this.list);
+    }
+
+    @Test
+    public void testContainsAndIndexOf() {
+        this.list.addAll(Arrays.asList(1L, 2L, 1L));
+        reset(this.readLock);
+        assertTrue(this.list.contains(2L));
+        verifyReadLockAndUnlockCalled();
+        assertEquals(0, this.list.indexOf(1L));
+        assertEquals(2, this.list.lastIndexOf(1L));
+        assertEquals(-1, this.list.indexOf(3L));
+    }
+
+    @Test
+    public void testIterator() {
+        this.list.addAll(Arrays.asList(1L, 2L));
+        reset(this.readLock);
+        Iterator<Long> iterator = this.list.iterator();
+        verifyReadLockAndUnlockCalled();
+        this.list.add(3L);
+        assertEquals(Long.valueOf(1L), iterator.next());
+        assertEquals(Long.valueOf(2L), iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testClear() {
+        this.list.add(1L);
+        reset(this.writeLock);
+        this.list.clear();
+        verifyWriteLockAndUnlockCalled();
+        assertTrue(this.list.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws IOException {
+        this.list.close();
+        this.list.add(1L);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSizeAfterClose() throws IOException {
+        this.list.add(1L);
+        this.list.close();
+        this.list.size();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIsEmptyAfterClose() throws IOException {
+        this.list.close();
+        this.list.isEmpty();
+    }
+
+    @Test
+    public void testFailedEncodingLeavesListUnchanged() {
+        this.list.addAll(Arrays.asList(1L, 2L, 3L, 4L));
+        try {
+            this.list.addAll(1, Arrays.asList(9L, null));
+            fail();
+        } catch (NullPointerException e) {
+        }
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), this.list);
+        try {
+            this.list.add(0, null);
+            fail();
+        } catch (NullPointerException e) {
+        }
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), this.list);
+        try {
+            this.list.set(2, null);
+            fail();
+        } catch (NullPointerException e) {
+        }
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), this.list);
+    }
+
+    @Test
+    public void testFileBacked() throws IOException {
+        File file = new File(this.temporaryFolder.getRoot(), "list.dat");
+        OffHeapReadWriteList<Long> fileList = new OffHeapReadWriteList<Long>(new LongCodec(), file, 24);
+        for (long i = 0; i < 10; i++) {
+            fileList.add(i);
+        }
+        fileList.remove(0);
+        fileList.close();
+
+        OffHeapReadWriteList<Long> reopenedList = new OffHeapReadWriteList<Long>(new LongCodec(), file, 64);
+        assertEquals(9, reopenedList.size());
+        for (int i = 0; i < 9; i++) {
+            assertEquals(Long.valueOf(i + 1), reopenedList.get(i));
+        }
+        reopenedList.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testFileWithOtherRecordSize() throws IOException {
+        File file = new File(this.temporaryFolder.getRoot(), "list.dat");
+        new OffHeapReadWriteList<Long>(new LongCodec(), file).close();
+        new OffHeapReadWriteList<Integer>(new IntegerCodec(), file);
+    }
+
+    private static class LongCodec implements RecordCodec<Long> {
+
+        @Override
+        public int getRecordSize() {
+            return 8;
+        }
+
+        @Override
+        public void write(Long value, ByteBuffer buffer, int offset) {
+            buffer.putLong(offset, value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer, int offset) {
+            return buffer.getLong(offset);
+        }
+    }
+
+    private static class IntegerCodec implements RecordCodec<Integer> {
+
+        @Override
+        public int getRecordSize() {
+            return 4;
+        }
+
+        @Override
+        public void write(Integer value, ByteBuffer buffer, int offset) {
+            buffer.putInt(offset, value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer, int offset) {
+            return buffer.getInt(offset);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ReadWriteIntListTest {
+
+    private ReadWriteIntList readWriteIntList;
+    private ReadWriteLock readWriteLock;
+    private Lock readLock;
+    private Lock writeLock;
+
+    @Before
+    public void setUp() {
+        this.readWriteLock = mock(ReadWriteLock.class);
+        this.readLock = mock(Lock.class);
+        this.writeLock = mock(Lock.class);
+        when(this.readWriteLock.readLock()).thenReturn(this.readLock);
+        when(this.readWriteLock.writeLock()).thenReturn(this.writeLock);
+        this.readWriteIntList = new ReadWriteIntList(2, this.readWriteLock);
+    }
+
+    private void verifyWriteLockAndUnlockCalled() {
+        verify(this.writeLock).lock();
+        verify(this.writeLock).unlock();
+    }
+
+    private void verifyReadLockAndUnlockCalled() {
+        verify(this.readLock).lock();
+        verify(this.readLock).unlock();
+    }
+
+    @Test
+    public void testAddInt() {
+        boolean returnedBoolean = this.readWriteIntList.addInt(1);
+        verifyWriteLockAndUnlockCalled();
+        assertTrue(returnedBoolean);
+        assertEquals(1, this.readWriteIntList.getInt(0));
+    }
+
+    @Test
+    public void testAddIntAtIndex() {
+        this.readWriteIntList.addInt(1);
+        this.readWriteIntList.addInt(3);
+        this.readWriteIntList.addInt(1, 2);
+        assertArrayEquals(new int[]{1, 2, 3}, this.readWriteIntList.toIntArray());
+    }
+
+    @Test
+    public void testAddAll() {
+        boolean returnedBoolean = this.readWriteIntList.addAll(new int[]{1, 2, 3});
+        verifyWriteLockAndUnlockCalled();
+        assertTrue(returnedBoolean);
+        assertEquals(3, this.readWriteIntList.size());
+    }
+
+    @Test
+    public void testAddAllRange() {
+        this.readWriteIntList.addAll(new int[]{1, 2, 3, 4}, 1, 2);
+        assertArrayEquals(new int[]{2, 3}, this.readWriteIntList.toIntArray());
+    }
+
+    @Test
+    public void testGetInt() {
+        this.readWriteIntList.addInt(1);
+        reset(this.readLock);
+        this.readWriteIntList.getInt(0);
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetIntOutOfBounds() {
+        this.readWriteIntList.addInt(1);
+        this.readWriteIntList.getInt(1);
+    }
+
+    @Test
+    public void testSetInt() {
+        this.readWriteIntList.addInt(1);
+        reset(this.writeLock);
+        int oldValue = this.readWriteIntList.setInt(0, 2);
+        verifyWriteLockAndUnlockCalled();
+        assertEquals(1, oldValue);
+        assertEquals(2, this.readWriteIntList.getInt(0));
+    }
+
+    @Test
+    public void testRemoveAt() {
+        this.readWriteIntList.addAll(new int[]{1, 2, 3});
+        reset(this.writeLock);
+        int removed = this.readWriteIntList.removeAt(1);
+        verifyWriteLockAndUnlockCalled();
+        assertEquals(2, removed);
+        assertArrayEquals(new int[]{1, 3}, this.readWriteIntList.toIntArray());
+    }
+
+    @Test
+    public void testRemoveInt() {
+        this.readWriteIntList.addAll(new int[]{1, 2, 3});
+        assertTrue(this.readWriteIntList.removeInt(3));
+        assertFalse(this.readWriteIntList.removeInt(4));
+        assertArrayEquals(new int[]{1, 2}, this.readWriteIntList.toIntArray());
+    }
+
+    @Test
+    public void testContainsInt() {
+        this.readWriteIntList.addInt(1);
+        reset(this.readLock);
+        assertTrue(this.readWriteIntList.containsInt(1));
+        verifyReadLockAndUnlockCalled();
+        assertFalse(this.readWriteIntList.containsInt(2));
+    }
+
+    @Test
+    public void testIndexOf() {
+        this.readWriteIntList.addAll(new int[]{1, 2, 1});
+        assertEquals(0, this.readWriteIntList.indexOfInt(1));
+        assertEquals(2, this.readWriteIntList.lastIndexOfInt(1));
+        assertEquals(-1, this.readWriteIntList.indexOfInt(3));
+    }
+
+    @Test
+    public void testClear() {
+        this.readWriteIntList.addInt(1);
+        reset(this.writeLock);
+        this.readWriteIntList.clear();
+        verifyWriteLockAndUnlockCalled();
+        assertTrue(this.readWriteIntList.isEmpty());
+    }
+
+    @Test
+    public void testSize() {
+        this.readWriteIntList.size();
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testIterator() {
+        this.readWriteIntList.addAll(new int[]{1, 2});
+        reset(this.readLock);
+        IntIterator iterator = this.readWriteIntList.iterator();
+        verifyReadLockAndUnlockCalled();
+        this.readWriteIntList.addInt(3);
+        assertTrue(iterator.hasNext());
+        assertEquals(1, iterator.nextInt());
+        assertTrue(iterator.hasNext());
+        assertEquals(2, iterator.nextInt());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testIteratorExhausted() {
+        this.readWriteIntList.iterator().nextInt();
+    }
+
+    @Test
+    public void testTrimToSize() {
+        this.readWriteIntList.addAll(new int[]{1, 2, 3});
+        this.readWriteIntList.trimToSize();
+        assertArrayEquals(new int[]{1, 2, 3}, this.readWriteIntList.toIntArray());
+    }
+}
@@ -17,8 +17,11 @@
 package org.cambillaum.concurrencyutils.collection;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
 import static org.mockito.Mockito.*;
@@ -197,4 +200,81 @@ public class ReadWriteListTest {
         this.readWriteList.toArray(new String[1]);
         verifyReadLockAndUnlockCalled();
     }
+
+    @Test
+    public void testSplit() {
+        this.readWriteList.addAll(Arrays.asList("a", "b", "c", "d", "e", "f", "g"));
+        List<List<String>> parts = this.readWriteList.split(3);
+        verifyReadLockAndUnlockCalled();
+        assertEquals(3, parts.size());
+        assertEquals(Arrays.asList("a", "b"), parts.get(0));
+        assertEquals(Arrays.asList("c", "d"), parts.get(1));
+        assertEquals(Arrays.asList("e", "f", "g"), parts.get(2));
+    }
+
+    @Test
+    public void testSplitMorePartsThanElements() {
+        this.readWriteList.add("a");
+        List<List<String>> parts = this.readWriteList.split(4);
+        assertEquals(1, parts.size());
+        assertEquals(Arrays.asList("a"), parts.get(0));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSplitPartsAreUnmodifiable() {
+        this.readWriteList.add("a");
+        this.readWriteList.split(1).get(0).add("b");
+    }
+
+    private void replay(List<String> replica, ChangeBatch<String> batch) {
+        for (Change<String> change : batch.getChanges()) {
+            if (change.getType() == Change.Type.ADD) {
+                replica.add(change.getIndex(), change.getElement());
+            } else {
+                assertEquals(change.getElement(), replica.remove(change.getIndex()));
+            }
+        }
+    }
+
+    @Test
+    public void testChangeLog() {
+        this.readWriteList.addAll(Arrays.asList("a", "b"));
+        ChangeLog<String> changeLog = this.readWriteList.enableChangeLog(64);
+        ChangeSnapshot<String> snapshot = this.readWriteList.changeSnapshot();
+        List<String> replica = new ArrayList<String>(snapshot.getElements());
+        this.readWriteList.add("c");
+        this.readWriteList.add(0, "d");
+        this.readWriteList.addAll(1, Arrays.asList("e", "f"));
+        this.readWriteList.addAll(Arrays.asList("a", "g"));
+        this.readWriteList.set(2, "h");
+        this.readWriteList.remove(0);
+        this.readWriteList.remove("a");
+        this.readWriteList.removeAll(Arrays.asList("b"));
+        this.readWriteList.retainAll(Arrays.asList("h", "c", "a", "g"));
+        this.readWriteList.subList(1, 3).add("i");
+        this.readWriteList.subList(1, 4).remove(1);
+        ChangeBatch<String> batch = changeLog.read(snapshot.getNextSequence(), 100);
+        assertFalse(batch.isOverrun());
+        replay(replica, batch);
+        assertEquals(new ArrayList<String>(this.readWriteList), replica);
+        this.readWriteList.clear();
+        replay(replica, changeLog.read(batch.getNextSequence(), 100));
+        assertTrue(replica.isEmpty());
+    }
+
+    @Test
+    public void testChangeLogOverrun() {
+        ChangeLog<String> changeLog = this.readWriteList.enableChangeLog(4);
+        for (int i = 0; i < 10; i++) {
+            this.readWriteList.add("a" + i);
+        }
+        ChangeBatch<String> batch = changeLog.read(0, 100);
+        assertTrue(batch.isOverrun());
+        ChangeSnapshot<String> snapshot = this.readWriteList.changeSnapshot();
+        assertEquals(10, snapshot.getElements().size());
+        assertEquals(10L, snapshot.getNextSequence());
+        batch = changeLog.read(snapshot.getNextSequence(), 100);
+        assertFalse(batch.isOverrun());
+        assertTrue(batch.getChanges().isEmpty());
+    }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ReadWriteLongListTest {
+
+    private ReadWriteLongList readWriteLongList;
+    private ReadWriteLock readWriteLock;
+    private Lock readLock;
+    private Lock writeLock;
+
+    @Before
+    public void setUp() {
+        this.readWriteLock = mock(ReadWriteLock.class);
+        this.readLock = mock(Lock.class);
+        this.writeLock = mock(Lock.class);
+        when(this.readWriteLock.readLock()).thenReturn(this.readLock);
+        when(this.readWriteLock.writeLock()).thenReturn(this.writeLock);
+        this.readWriteLongList = new ReadWriteLongList(2, this.readWriteLock);
+    }
+
+    private void verifyWriteLockAndUnlockCalled() {
+        verify(this.writeLock).lock();
+        verify(this.writeLock).unlock();
+    }
+
+    private void verifyReadLockAndUnlockCalled() {
+        verify(this.readLock).lock();
+        verify(this.readLock).unlock();
+    }
+
+    @Test
+    public void testAddLong() {
+        boolean returnedBoolean = this.readWriteLongList.addLong(1L);
+        verifyWriteLockAndUnlockCalled();
+        assertTrue(returnedBoolean);
+        assertEquals(1L, this.readWriteLongList.getLong(0));
+    }
+
+    @Test
+    public void testAddLongAtIndex() {
+        this.readWriteLongList.addLong(1L);
+        this.readWriteLongList.addLong(3L);
+        this.readWriteLongList.addLong(1, 2L);
+        assertArrayEquals(new long[]{1L, 2L, 3L}, this.readWriteLongList.toLongArray());
+    }
+
+    @Test
+    public void testAddAll() {
+        boolean returnedBoolean = this.readWriteLongList.addAll(new long[]{1L, 2L, 3L});
+        verifyWriteLockAndUnlockCalled();
+        assertTrue(returnedBoolean);
+        assertEquals(3, this.readWriteLongList.size());
+    }
+
+    @Test
+    public void testAddAllRange() {
+        this.readWriteLongList.addAll(new long[]{1L, 2L, 3L, 4L}, 1, 2);
+        assertArrayEquals(new long[]{2L, 3L}, this.readWriteLongList.toLongArray());
+    }
+
+    @Test
+    public void testGetLong() {
+        this.readWriteLongList.addLong(1L);
+        reset(this.readLock);
+        this.readWriteLongList.getLong(0);
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetLongOutOfBounds() {
+        this.readWriteLongList.addLong(1L);
+        this.readWriteLongList.getLong(1);
+    }
+
+    @Test
+    public void testSetLong() {
+        this.readWriteLongList.addLong(1L);
+        reset(this.writeLock);
+        long oldValue = this.readWriteLongList.setLong(0, 2L);
+        verifyWriteLockAndUnlockCalled();
+        assertEquals(1L, oldValue);
+        assertEquals(2L, this.readWriteLongList.getLong(0));
+    }
+
+    @Test
+    public void testRemoveAt() {
+        this.readWriteLongList.addAll(new long[]{1L, 2L, 3L});
+        reset(this.writeLock);
+        long removed = this.readWriteLongList.removeAt(1);
+        verifyWriteLockAndUnlockCalled();
+        assertEquals(2L, removed);
+        assertArrayEquals(new long[]{1L, 3L}, this.readWriteLongList.toLongArray());
+    }
+
+    @Test
+    public void testRemoveLong() {
+        this.readWriteLongList.addAll(new long[]{1L, 2L, 3L});
+        assertTrue(this.readWriteLongList.removeLong(3L));
+        assertFalse(this.readWriteLongList.removeLong(4L));
+        assertArrayEquals(new long[]{1L, 2L}, this.readWriteLongList.toLongArray());
+    }
+
+    @Test
+    public void testContainsLong() {
+        this.readWriteLongList.addLong(1L);
+        reset(this.readLock);
+        assertTrue(this.readWriteLongList.containsLong(1L));
+        verifyReadLockAndUnlockCalled();
+        assertFalse(this.readWriteLongList.containsLong(2L));
+    }
+
+    @Test
+    public void testIndexOf() {
+        this.readWriteLongList.addAll(new long[]{1L, 2L, 1L});
+        assertEquals(0, this.readWriteLongList.indexOfLong(1L));
+        assertEquals(2, this.readWriteLongList.lastIndexOfLong(1L));
+        assertEquals(-1, this.readWriteLongList.indexOfLong(3L));
+    }
+
+    @Test
+    public void testClear() {
+        this.readWriteLongList.addLong(1L);
+        reset(this.writeLock);
+        this.readWriteLongList.clear();
+        verifyWriteLockAndUnlockCalled();
+        assertTrue(this.readWriteLongList.isEmpty());
+    }
+
+    @Test
+    public void testSize() {
+        this.readWriteLongList.size();
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testIterator() {
+        this.readWriteLongList.addAll(new long[]{1L, 2L});
+        reset(this.readLock);
+        LongIterator iterator = this.readWriteLongList.iterator();
+        verifyReadLockAndUnlockCalled();
+        this.readWriteLongList.addLong(3L);
+        assertTrue(iterator.hasNext());
+        assertEquals(1L, iterator.nextLong());
+        assertTrue(iterator.hasNext());
+        assertEquals(2L, iterator.nextLong());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testIteratorExhausted() {
+        this.readWriteLongList.iterator().nextLong();
+    }
+
+    @Test
+    public void testTrimToSize() {
+        this.readWriteLongList.addAll(new long[]{1L, 2L, 3L});
+        this.readWriteLongList.trimToSize();
+        assertArrayEquals(new long[]{1L, 2L, 3L}, this.readWriteLongList.toLongArray());
+    }
+}
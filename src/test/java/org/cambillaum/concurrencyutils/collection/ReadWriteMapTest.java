@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ReadWriteMapTest {
+
+    private ReadWriteMap<String, Integer> readWriteMap;
+    private ReadWriteLock readWriteLock;
+    private Lock readLock;
+    private Lock writeLock;
+
+    @Before
+    public void setUp() {
+        this.readWriteLock = mock(ReadWriteLock.class);
+        this.readLock = mock(Lock.class);
+        this.writeLock = mock(Lock.class);
+        when(this.readWriteLock.readLock()).thenReturn(this.readLock);
+        when(this.readWriteLock.writeLock()).thenReturn(this.writeLock);
+        this.readWriteMap = new ReadWriteMap<String, Integer>(new HashMap<String, Integer>(), this.readWriteLock);
+    }
+
+    public void verifyReadLockAndUnlockCalled() {
+        verify(this.readLock).lock();
+        verify(this.readLock).unlock();
+    }
+
+    public void verifyWriteLockAndUnlockCalled() {
+        verify(this.writeLock).lock();
+        verify(this.writeLock).unlock();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullMap() {
+        new ReadWriteMap<String, Integer>(null);
+    }
+
+    @Test
+    public void testPut() {
+        assertNull(this.readWriteMap.put("a", 1));
+        verifyWriteLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testPutAll() {
+        this.readWriteMap.putAll(Collections.singletonMap("a", 1));
+        verifyWriteLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testRemove() {
+        this.readWriteMap.remove("a");
+        verifyWriteLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testClear() {
+        this.readWriteMap.clear();
+        verifyWriteLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testGet() {
+        this.readWriteMap.get("a");
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testContainsKey() {
+        this.readWriteMap.containsKey("a");
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testContainsValue() {
+        this.readWriteMap.containsValue(1);
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testSize() {
+        this.readWriteMap.size();
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testIsEmpty() {
+        this.readWriteMap.isEmpty();
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testEntrySet() {
+        this.readWriteMap.entrySet();
+        verifyReadLockAndUnlockCalled();
+    }
+
+    @Test
+    public void testAtomicOperations() {
+        ReadWriteMap<String, Integer> map = new ReadWriteMap<String, Integer>(new HashMap<String, Integer>());
+        assertNull(map.putIfAbsent("a", 1));
+        assertEquals(Integer.valueOf(1), map.putIfAbsent("a", 2));
+        assertFalse(map.replace("a", 2, 3));
+        assertTrue(map.replace("a", 1, 3));
+        assertNull(map.replace("b", 1));
+        assertFalse(map.containsKey("b"));
+        assertEquals(Integer.valueOf(3), map.replace("a", 4));
+        assertFalse(map.remove("a", 3));
+        assertTrue(map.remove("a", 4));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testViewsAreSnapshots() {
+        ReadWriteMap<String, Integer> map = new ReadWriteMap<String, Integer>(new HashMap<String, Integer>());
+        map.put("a", 1);
+        Iterator<String> keys = map.keySet().iterator();
+        map.put("b", 2);
+        assertEquals("a", keys.next());
+        assertFalse(keys.hasNext());
+        assertEquals(2, map.values().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testViewsAreUnmodifiable() {
+        ReadWriteMap<String, Integer> map = new ReadWriteMap<String, Integer>(new HashMap<String, Integer>());
+        map.put("a", 1);
+        map.entrySet().iterator().next().setValue(2);
+    }
+
+    @Test
+    public void testOrderIsKept() {
+        ReadWriteMap<String, Integer> linked = new ReadWriteMap<String, Integer>(new LinkedHashMap<String, Integer>());
+        ReadWriteMap<String, Integer> sorted = new ReadWriteMap<String, Integer>(new TreeMap<String, Integer>(Collections.reverseOrder()));
+        for (String key : Arrays.asList("b", "c", "a")) {
+            linked.put(key, 0);
+            sorted.put(key, 0);
+        }
+        assertEquals(Arrays.asList("b", "c", "a"), new ArrayList<String>(linked.keySet()));
+        assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<String>(sorted.keySet()));
+        Map<String, Integer> snapshot = sorted.snapshot();
+        assertTrue(snapshot instanceof TreeMap);
+        snapshot.put("d", 1);
+        assertFalse(sorted.containsKey("d"));
+    }
+}
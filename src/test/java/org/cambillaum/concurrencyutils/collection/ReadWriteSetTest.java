@@ -16,9 +16,18 @@
  */
 package org.cambillaum.concurrencyutils.collection;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.Set;
+import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
 import static org.mockito.Mockito.*;
@@ -96,6 +105,23 @@ public class ReadWriteSetTest {
         verifyReadLockAndUnlockCalled();
     }
 
+    @Test
+    public void testIteratorKeepsInsertionOrder() {
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new LinkedHashSet<String>());
+        set.addAll(Arrays.asList("b", "c", "a"));
+        assertEquals(Arrays.asList("b", "c", "a"), new ArrayList<String>(set));
+    }
+
+    @Test
+    public void testIteratorKeepsComparator() {
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new TreeSet<String>(Collections.reverseOrder()));
+        set.addAll(Arrays.asList("a", "c", "b"));
+        assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<String>(set));
+        set = new ReadWriteSet<String>(new ConcurrentSkipListSet<String>(Collections.reverseOrder()));
+        set.addAll(Arrays.asList("a", "c", "b"));
+        assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<String>(set));
+    }
+
     @Test
     public void testRemove() {
         this.readWriteSet.remove("a");
@@ -131,4 +157,55 @@ public class ReadWriteSetTest {
         this.readWriteSet.toArray(new String[2]);
         verifyReadLockAndUnlockCalled();
     }
+
+    @Test
+    public void testSplit() {
+        this.readWriteSet.addAll(Arrays.asList("a", "b", "c", "d", "e"));
+        List<List<String>> parts = this.readWriteSet.split(2);
+        verifyReadLockAndUnlockCalled();
+        assertEquals(2, parts.size());
+        assertEquals(2, parts.get(0).size());
+        assertEquals(3, parts.get(1).size());
+        HashSet<String> union = new HashSet<String>(parts.get(0));
+        union.addAll(parts.get(1));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c", "d", "e")), union);
+    }
+
+    @Test
+    public void testChangeLog() {
+        this.readWriteSet.add("a");
+        ChangeLog<String> changeLog = this.readWriteSet.enableChangeLog(16);
+        assertSame(changeLog, this.readWriteSet.enableChangeLog(16));
+        ChangeSnapshot<String> snapshot = this.readWriteSet.changeSnapshot();
+        assertEquals(Arrays.asList("a"), snapshot.getElements());
+        this.readWriteSet.add("b");
+        this.readWriteSet.add("b");
+        this.readWriteSet.addAll(Arrays.asList("c", "d"));
+        this.readWriteSet.remove("a");
+        this.readWriteSet.removeAll(Arrays.asList("c", "e"));
+        this.readWriteSet.retainAll(Arrays.asList("b"));
+        ChangeBatch<String> batch = changeLog.read(snapshot.getNextSequence(), 100);
+        assertFalse(batch.isOverrun());
+        assertEquals(6, batch.getChanges().size());
+        assertEquals(6L, batch.getNextSequence());
+        Set<String> replica = new HashSet<String>(snapshot.getElements());
+        for (Change<String> change : batch.getChanges()) {
+            assertEquals(-1, change.getIndex());
+            if (change.getType() == Change.Type.ADD) {
+                replica.add(change.getElement());
+            } else {
+                replica.remove(change.getElement());
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("b")), replica);
+        this.readWriteSet.clear();
+        batch = changeLog.read(batch.getNextSequence(), 100);
+        assertEquals(Change.Type.REMOVE, batch.getChanges().get(0).getType());
+        assertEquals("b", batch.getChanges().get(0).getElement());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testChangeSnapshotWithoutChangeLog() {
+        this.readWriteSet.changeSnapshot();
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class SetSnapshotFileTest {
+
+    private static final int ELEMENT_COUNT = 200000;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentSetRoundTrip() throws IOException {
+        File file = new File(this.folder.getRoot(), "set.snapshot");
+        ConcurrentSet<String> set = createConcurrentSet();
+        set.writeSnapshot(file, new Utf8StringCodec());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        ConcurrentSet<String> restored = new ConcurrentSet<String>();
+        restored.loadSnapshot(file, new Utf8StringCodec());
+        assertEquals(new HashSet<String>(set), new HashSet<String>(restored));
+    }
+
+    @Test
+    public void testReadWriteSetRoundTrip() throws IOException {
+        File file = new File(this.folder.getRoot(), "set.snapshot");
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        set.addAll(createConcurrentSet());
+        set.writeSnapshot(file, new Utf8StringCodec());
+        ReadWriteSet<String> restored = new ReadWriteSet<String>(new HashSet<String>());
+        restored.enableChangeLog(16);
+        restored.loadSnapshot(file, new Utf8StringCodec());
+        assertEquals(ELEMENT_COUNT, restored.size());
+        assertEquals(new HashSet<String>(set), new HashSet<String>(restored));
+        assertEquals(ELEMENT_COUNT, restored.changeSnapshot().getNextSequence());
+    }
+
+    @Test
+    public void testSnapshotReplacesFile() throws IOException {
+        File file = new File(this.folder.getRoot(), "set.snapshot");
+        ConcurrentSet<String> set = new ConcurrentSet<String>();
+        set.add("a");
+        set.add("b");
+        set.writeSnapshot(file, new Utf8StringCodec());
+        set.remove("a");
+        set.add("été 😀");
+        set.writeSnapshot(file, new Utf8StringCodec());
+        ConcurrentSet<String> restored = new ConcurrentSet<String>();
+        restored.loadSnapshot(file, new Utf8StringCodec());
+        assertEquals(new HashSet<String>(set), new HashSet<String>(restored));
+    }
+
+    @Test
+    public void testEmptySnapshot() throws IOException {
+        File file = new File(this.folder.getRoot(), "set.snapshot");
+        new ConcurrentSet<String>().writeSnapshot(file, new Utf8StringCodec());
+        ConcurrentSet<String> restored = new ConcurrentSet<String>();
+        restored.loadSnapshot(file, new Utf8StringCodec());
+        assertTrue(restored.isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidFile() throws IOException {
+        File file = this.folder.newFile("invalid");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[64]);
+        } finally {
+            out.close();
+        }
+        new ConcurrentSet<String>().loadSnapshot(file, new Utf8StringCodec());
+    }
+
+    @Test
+    public void testUtf8StringCodecEncodedSize() {
+        Utf8StringCodec codec = new Utf8StringCodec();
+        assertEquals(1, codec.getEncodedSize("a"));
+        assertEquals(2, codec.getEncodedSize("é"));
+        assertEquals(3, codec.getEncodedSize("€"));
+        assertEquals(4, codec.getEncodedSize("😀"));
+        assertEquals(1, codec.getEncodedSize("\ud83d"));
+    }
+
+    private ConcurrentSet<String> createConcurrentSet() {
+        ConcurrentSet<String> set = new ConcurrentSet<String>();
+        for (int i = 0; i < ELEMENT_COUNT; i++) {
+            set.add("element-" + i);
+        }
+        return set;
+    }
+}
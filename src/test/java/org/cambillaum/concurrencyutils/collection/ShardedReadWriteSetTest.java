@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class ShardedReadWriteSetTest {
+
+    private ShardedReadWriteSet<String> set = new ShardedReadWriteSet<String>(new HashSet<String>(), 4);
+    private ReadWriteLock[] readWriteLocks;
+    private Lock[] writeLocks;
+    private Lock[] readLocks;
+    private ShardedReadWriteSet<Integer> mockedSet;
+
+    @Before
+    public void setUp() {
+        this.readWriteLocks = new ReadWriteLock[4];
+        this.readLocks = new Lock[4];
+        this.writeLocks = new Lock[4];
+        for (int i = 0; i < 4; i++) {
+            this.readWriteLocks[i] = mock(ReadWriteLock.class);
+            this.readLocks[i] = mock(Lock.class);
+            this.writeLocks[i] = mock(Lock.class);
+            when(this.readWriteLocks[i].readLock()).thenReturn(this.readLocks[i]);
+            when(this.readWriteLocks[i].writeLock()).thenReturn(this.writeLocks[i]);
+        }
+        this.mockedSet = new ShardedReadWriteSet<Integer>(new HashSet<Integer>(), this.readWriteLocks);
+    }
+
+    private List<Integer> range(int from, int to) {
+        List<Integer> range = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    @Test
+    public void testAdd() {
+        assertTrue(this.set.add("a"));
+        assertFalse(this.set.add("a"));
+        assertTrue(this.set.contains("a"));
+        assertEquals(1, this.set.size());
+        assertEquals(4, this.set.getShardCount());
+    }
+
+    @Test
+    public void testNull() {
+        assertTrue(this.set.add(null));
+        assertTrue(this.set.contains(null));
+        assertTrue(this.set.remove(null));
+        assertTrue(this.set.isEmpty());
+    }
+
+    @Test
+    public void testInitialElements() {
+        Set<Integer> shardedSet = new ShardedReadWriteSet<Integer>(new HashSet<Integer>(range(0, 1000)));
+        assertEquals(1000, shardedSet.size());
+        assertEquals(new HashSet<Integer>(range(0, 1000)), new HashSet<Integer>(shardedSet));
+    }
+
+    @Test
+    public void testBackingSetType() {
+        Set<String> shardedSet = new ShardedReadWriteSet<String>(
+                new TreeSet<String>(Collections.reverseOrder()), 1);
+        shardedSet.addAll(Arrays.asList("a", "c", "b"));
+        assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<String>(shardedSet));
+        shardedSet = new ShardedReadWriteSet<String>(new LinkedHashSet<String>(), 1);
+        shardedSet.addAll(Arrays.asList("b", "c", "a"));
+        assertEquals(Arrays.asList("b", "c", "a"), new ArrayList<String>(shardedSet));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidShardCount() {
+        new ShardedReadWriteSet<String>(new HashSet<String>(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullSet() {
+        new ShardedReadWriteSet<String>(null);
+    }
+
+    @Test
+    public void testBulkOperations() {
+        Set<Integer> shardedSet = new ShardedReadWriteSet<Integer>(new HashSet<Integer>(), 8);
+        assertTrue(shardedSet.addAll(range(0, 100)));
+        assertFalse(shardedSet.addAll(range(0, 100)));
+        assertTrue(shardedSet.containsAll(range(0, 100)));
+        assertFalse(shardedSet.containsAll(range(0, 101)));
+        assertTrue(shardedSet.removeAll(range(0, 50)));
+        assertEquals(50, shardedSet.size());
+        assertTrue(shardedSet.retainAll(range(0, 60)));
+        assertEquals(new HashSet<Integer>(range(50, 60)), new HashSet<Integer>(shardedSet));
+        shardedSet.clear();
+        assertTrue(shardedSet.isEmpty());
+    }
+
+    @Test
+    public void testBulkOperationsLockEachShardOnce() {
+        this.mockedSet.addAll(range(0, 1000));
+        for (int i = 0; i < 4; i++) {
+            verify(this.writeLocks[i]).lock();
+            verify(this.writeLocks[i]).unlock();
+        }
+        this.mockedSet.containsAll(range(0, 1000));
+        for (int i = 0; i < 4; i++) {
+            verify(this.readLocks[i]).lock();
+            verify(this.readLocks[i]).unlock();
+        }
+    }
+
+    @Test
+    public void testAddLocksOneShard() {
+        this.mockedSet.add(1);
+        int lockedShards = 0;
+        for (int i = 0; i < 4; i++) {
+            lockedShards += isLocked(this.writeLocks[i]) ? 1 : 0;
+        }
+        assertEquals(1, lockedShards);
+    }
+
+    private boolean isLocked(Lock lock) {
+        try {
+            verify(lock).lock();
+            return true;
+        } catch (AssertionError e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testIterator() {
+        this.set.addAll(Arrays.asList("a", "b", "c", "d", "e"));
+        Iterator<String> iterator = this.set.iterator();
+        Set<String> iterated = new HashSet<String>();
+        while (iterator.hasNext()) {
+            String element = iterator.next();
+            iterated.add(element);
+            if (element.equals("c")) {
+                iterator.remove();
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c", "d", "e")), iterated);
+        assertFalse(this.set.contains("c"));
+        assertEquals(4, this.set.size());
+    }
+
+    @Test
+    public void testSplit() {
+        this.set.addAll(Arrays.asList("a", "b", "c", "d", "e"));
+        List<List<String>> parts = this.set.split(2);
+        assertEquals(2, parts.size());
+        Set<String> elements = new HashSet<String>(parts.get(0));
+        elements.addAll(parts.get(1));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c", "d", "e")), elements);
+    }
+
+    @Test
+    public void testConcurrentAdd() {
+        final Set<Integer> shardedSet = new ShardedReadWriteSet<Integer>(new HashSet<Integer>());
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 100000;
+            concurrentTester.addRunnable(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        shardedSet.add(offset + i);
+                        if (i % 2 == 0) {
+                            shardedSet.remove(offset + i);
+                        }
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(20000, shardedSet.size());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.util.Arrays;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class SketchedSetTest {
+
+    @Test
+    public void testShadowing() {
+        ConcurrentSet<Integer> concurrentSet = new ConcurrentSet<Integer>();
+        concurrentSet.addAll(Arrays.asList(-1, -2));
+        SketchedSet<Integer> sketchedSet = new SketchedSet<Integer>(concurrentSet,
+                new ConcurrentHyperLogLog(12), new ConcurrentCountMinSketch(0.01, 0.99));
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(sketchedSet.add(i));
+            assertFalse(sketchedSet.add(i % 10));
+        }
+        assertEquals(10002, sketchedSet.size());
+        assertTrue(sketchedSet.contains(-1));
+        assertTrue(sketchedSet.getCardinalityError() < 0.05);
+        assertTrue(sketchedSet.getCountMinSketch().estimateCount(5) >= 1001L);
+        assertEquals(20002L, sketchedSet.getCountMinSketch().totalCount());
+        assertTrue(sketchedSet.remove(5));
+        assertFalse(concurrentSet.contains(5));
+    }
+
+    @Test
+    public void testEmpty() {
+        Set<String> backingSet = new ConcurrentSet<String>();
+        SketchedSet<String> sketchedSet = new SketchedSet<String>(backingSet,
+                new ConcurrentHyperLogLog(12), new ConcurrentCountMinSketch(0.01, 0.99));
+        assertEquals(0.0, sketchedSet.getCardinalityError(), 0.0);
+        assertTrue(sketchedSet.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullSketch() {
+        new SketchedSet<String>(new ConcurrentSet<String>(), null, new ConcurrentCountMinSketch(0.01, 0.99));
+    }
+}
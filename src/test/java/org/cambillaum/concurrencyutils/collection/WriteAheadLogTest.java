@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2012 Mathieu Cambillau <cambillaum@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cambillaum.concurrencyutils.collection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.cambillaum.concurrencyutils.testing.ConcurrentTester;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Mathieu Cambillau <cambillaum@gmail.com>
+ */
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplaySet() throws IOException {
+        File directory = new File(this.folder.getRoot(), "set");
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        set.add("a");
+        set.enableWriteAheadLog(directory, new Utf8StringCodec());
+        set.add("b");
+        set.add("c");
+        set.add(null);
+        set.remove("b");
+        set.addAll(Arrays.asList("d", "e", "f"));
+        set.removeAll(Arrays.asList("e"));
+        set.retainAll(Arrays.asList("a", "c", "d", null));
+        ReadWriteSet<String> restored = new ReadWriteSet<String>(new HashSet<String>());
+        restored.enableWriteAheadLog(directory, new Utf8StringCodec());
+        assertEquals(new HashSet<String>(Arrays.asList("a", "c", "d", null)), new HashSet<String>(restored));
+    }
+
+    @Test
+    public void testReplayList() throws IOException {
+        File directory = new File(this.folder.getRoot(), "list");
+        ReadWriteList<String> list = new ReadWriteList<String>(new ArrayList<String>());
+        list.enableWriteAheadLog(directory, new Utf8StringCodec());
+        list.addAll(Arrays.asList("a", "b", "c", "d"));
+        list.add(1, "e");
+        list.set(0, "f");
+        list.remove(2);
+        list.subList(1, 3).add("g");
+        list.subList(2, 4).clear();
+        ReadWriteList<String> restored = new ReadWriteList<String>(new ArrayList<String>());
+        restored.enableWriteAheadLog(directory, new Utf8StringCodec());
+        assertEquals(new ArrayList<String>(list), new ArrayList<String>(restored));
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File directory = new File(this.folder.getRoot(), "set");
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        WriteAheadLog<String> log = set.enableWriteAheadLog(directory, new Utf8StringCodec(), 1024);
+        for (int i = 0; i < 1000; i++) {
+            set.add("element-" + i);
+            if (i % 3 == 0) {
+                set.remove("element-" + (i / 2));
+            }
+        }
+        log.awaitCompaction();
+        set.add("last");
+        log.awaitCompaction();
+        assertNull(log.getCompactionFailure());
+        assertTrue(directory.list().length <= 3);
+        ReadWriteSet<String> restored = new ReadWriteSet<String>(new HashSet<String>());
+        restored.enableWriteAheadLog(directory, new Utf8StringCodec());
+        assertEquals(new HashSet<String>(set), new HashSet<String>(restored));
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        File directory = new File(this.folder.getRoot(), "set");
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        set.enableWriteAheadLog(directory, new Utf8StringCodec()).close();
+        set = new ReadWriteSet<String>(new HashSet<String>());
+        WriteAheadLog<String> log = set.enableWriteAheadLog(directory, new Utf8StringCodec());
+        set.add("a");
+        set.add("b");
+        log.close();
+        for (String name : directory.list()) {
+            if (name.startsWith("log.")) {
+                FileOutputStream out = new FileOutputStream(new File(directory, name), true);
+                try {
+                    out.write(new byte[]{0, 0, 0, 5, 1, 2});
+                } finally {
+                    out.close();
+                }
+            }
+        }
+        ReadWriteSet<String> restored = new ReadWriteSet<String>(new HashSet<String>());
+        restored.enableWriteAheadLog(directory, new Utf8StringCodec());
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), new HashSet<String>(restored));
+        restored.add("c");
+        ReadWriteSet<String> reopened = new ReadWriteSet<String>(new HashSet<String>());
+        reopened.enableWriteAheadLog(directory, new Utf8StringCodec());
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c")), new HashSet<String>(reopened));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws IOException {
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        set.enableWriteAheadLog(this.folder.getRoot(), new Utf8StringCodec()).close();
+        set.add("a");
+    }
+
+    @Test
+    public void testClosedLeavesCollectionsUnchanged() throws IOException {
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        set.enableWriteAheadLog(new File(this.folder.getRoot(), "set"), new Utf8StringCodec()).close();
+        try {
+            set.addAll(Arrays.asList("a", "b"));
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertTrue(set.isEmpty());
+        ReadWriteList<String> list = new ReadWriteList<String>(new ArrayList<String>());
+        WriteAheadLog<String> log = list.enableWriteAheadLog(new File(this.folder.getRoot(), "list"), new Utf8StringCodec());
+        list.add("a");
+        log.close();
+        try {
+            list.set(0, "b");
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        try {
+            list.remove(0);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(Arrays.asList("a"), new ArrayList<String>(list));
+    }
+
+    @Test
+    public void testCodecFailureUndoesSetChange() throws IOException {
+        File directory = new File(this.folder.getRoot(), "set");
+        FailingCodec codec = new FailingCodec();
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        set.enableWriteAheadLog(directory, codec);
+        try {
+            set.add("bad");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            set.addAll(Arrays.asList("a", "bad"));
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("a")), new HashSet<String>(set));
+        ReadWriteSet<String> restored = new ReadWriteSet<String>(new HashSet<String>());
+        restored.enableWriteAheadLog(directory, codec);
+        assertEquals(new HashSet<String>(set), new HashSet<String>(restored));
+    }
+
+    @Test
+    public void testCodecFailureUndoesListChange() throws IOException {
+        File directory = new File(this.folder.getRoot(), "list");
+        FailingCodec codec = new FailingCodec();
+        ReadWriteList<String> list = new ReadWriteList<String>(new ArrayList<String>());
+        list.enableWriteAheadLog(directory, codec);
+        list.addAll(Arrays.asList("a", "b"));
+        try {
+            list.set(0, "bad");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            list.add(1, "bad");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            list.addAll(1, Arrays.asList("c", "bad", "d"));
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(Arrays.asList("a", "c", "b"), new ArrayList<String>(list));
+        ReadWriteList<String> restored = new ReadWriteList<String>(new ArrayList<String>());
+        restored.enableWriteAheadLog(directory, codec);
+        assertEquals(new ArrayList<String>(list), new ArrayList<String>(restored));
+    }
+
+    @Test
+    public void testCompactionFailure() throws IOException {
+        File directory = new File(this.folder.getRoot(), "set");
+        FailingCodec codec = new FailingCodec();
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        WriteAheadLog<String> log = set.enableWriteAheadLog(directory, codec, 256);
+        set.add("snapshot");
+        codec.failing = "snapshot";
+        for (int i = 0; i < 50; i++) {
+            set.add("element-" + i);
+        }
+        log.awaitCompaction();
+        assertNotNull(log.getCompactionFailure());
+        assertEquals(51, set.size());
+        codec.failing = "bad";
+        for (int i = 50; i < 100; i++) {
+            set.add("element-" + i);
+        }
+        log.awaitCompaction();
+        assertNull(log.getCompactionFailure());
+        ReadWriteSet<String> restored = new ReadWriteSet<String>(new HashSet<String>());
+        restored.enableWriteAheadLog(directory, codec);
+        assertEquals(new HashSet<String>(set), new HashSet<String>(restored));
+    }
+
+    @Test
+    public void testEnableTwiceInSameDirectory() throws IOException {
+        File directory = this.folder.newFolder("log");
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        WriteAheadLog<String> log = set.enableWriteAheadLog(directory, new Utf8StringCodec());
+        assertSame(log, set.enableWriteAheadLog(new File(directory, "."), new Utf8StringCodec()));
+        ReadWriteList<String> list = new ReadWriteList<String>(new ArrayList<String>());
+        WriteAheadLog<String> listLog = list.enableWriteAheadLog(new File(this.folder.getRoot(), "list"),
+                new Utf8StringCodec());
+        ReadWriteList<String> subList = (ReadWriteList<String>) list.subList(0, 0);
+        assertSame(listLog, subList.enableWriteAheadLog(new File(this.folder.getRoot(), "list"), new Utf8StringCodec()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEnableSetInOtherDirectory() throws IOException {
+        ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        set.enableWriteAheadLog(this.folder.newFolder("first"), new Utf8StringCodec());
+        set.enableWriteAheadLog(this.folder.newFolder("second"), new Utf8StringCodec());
+    }
+
+    @Test
+    public void testEnableListInOtherDirectory() throws IOException {
+        File second = new File(this.folder.getRoot(), "second");
+        ReadWriteList<String> list = new ReadWriteList<String>(new ArrayList<String>());
+        list.enableWriteAheadLog(new File(this.folder.getRoot(), "first"), new Utf8StringCodec());
+        try {
+            list.enableWriteAheadLog(second, new Utf8StringCodec());
+            fail();
+        } catch (IllegalStateException e) {
+            assertFalse(second.exists());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCompactNotEnabled() throws IOException {
+        new ReadWriteSet<String>(new HashSet<String>()).compactWriteAheadLog();
+    }
+
+    @Test
+    public void testGroupCommit() throws IOException {
+        File directory = new File(this.folder.getRoot(), "set");
+        final ReadWriteSet<String> set = new ReadWriteSet<String>(new HashSet<String>());
+        WriteAheadLog<String> log = set.enableWriteAheadLog(directory, new Utf8StringCodec());
+        ConcurrentTester concurrentTester = new ConcurrentTester();
+        for (int t = 0; t < 16; t++) {
+            final int thread = t;
+            concurrentTester.addRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        set.add(thread + "-" + i);
+                    }
+                }
+            });
+        }
+        concurrentTester.execute();
+        assertEquals(8000, set.size());
+        assertEquals(8000L, log.getAppendedCount());
+        assertTrue(log.getSyncCount() < 8000L);
+        List<String> expected = new ArrayList<String>(set);
+        ReadWriteSet<String> restored = new ReadWriteSet<String>(new HashSet<String>());
+        restored.enableWriteAheadLog(directory, new Utf8StringCodec());
+        assertEquals(new HashSet<String>(expected), new HashSet<String>(restored));
+    }
+
+    private static class FailingCodec implements ElementCodec<String> {
+
+        private Utf8StringCodec codec = new Utf8StringCodec();
+        private volatile String failing = "bad";
+
+        @Override
+        public int getEncodedSize(String e) {
+            if (e.equals(this.failing)) {
+                throw new IllegalArgumentException("Cannot encode " + e);
+            }
+            return this.codec.getEncodedSize(e);
+        }
+
+        @Override
+        public void write(String e, ByteBuffer buffer, int offset) {
+            this.codec.write(e, buffer, offset);
+        }
+
+        @Override
+        public String read(ByteBuffer buffer, int offset, int length) {
+            return this.codec.read(buffer, offset, length);
+        }
+    }
+}